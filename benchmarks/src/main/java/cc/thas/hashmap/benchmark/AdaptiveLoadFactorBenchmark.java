@@ -0,0 +1,85 @@
+package cc.thas.hashmap.benchmark;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import cc.thas.hashmap.benchmark.Keys.KeyType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 自适应负载因子的内存/延迟折中: 固定负载因子0.75 对比 useAdaptiveLoadFactor(0.5, 1.0) (仅本仓库实现)
+ * <p>
+ * build 使用 -prof gc 的 gc.alloc.rate.norm 对比数组占用 (分布良好时自适应模式推迟扩容, 数组可能小一半), get 对比查找延迟
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class AdaptiveLoadFactorBenchmark {
+
+    static final int LOOKUPS = 1024;
+
+    @Param({"STRING", "INTEGER", "COLLIDING"})
+    KeyType keyType;
+
+    @Param({"65536", "1048576"})
+    int size;
+
+    @Param({"false", "true"})
+    boolean adaptive;
+
+    Object[] keys;
+    Object[] lookups;
+    HashMap<Object, Object> map;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        keys = Keys.generate(keyType, size, 0);
+        Keys.shuffle(keys, 1);
+        map = build();
+        lookups = new Object[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; ++i) {
+            lookups[i] = keys[(int)((long)i * size / LOOKUPS)];
+        }
+        Keys.shuffle(lookups, 2);
+    }
+
+    @Benchmark
+    public HashMap<Object, Object> build() {
+        HashMap<Object, Object> m = new HashMap<>();
+        if (adaptive) {
+            m.useAdaptiveLoadFactor(0.5f, 1.0f);
+        }
+        for (Object key : keys) {
+            m.put(key, key);
+        }
+        return m;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int get() {
+        HashMap<Object, Object> m = map;
+        int found = 0;
+        for (Object key : lookups) {
+            if (m.get(key) != null) {
+                ++found;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,75 @@
+package cc.thas.hashmap.benchmark;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import cc.thas.hashmap.benchmark.Keys.KeyType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link HashMap#useBloomFilter()} 在不同规模和命中率下的 get 延迟 (仅本仓库实现)
+ * <p>
+ * 过滤器每8个bin一个long: 16384个key时为32KB, 131072个key时为256KB, 2^21个key时为4MB.
+ * 只有过滤器留在缓存中、并且大多数查找未命中时 开启才更快; 命中的查找总是更慢
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class BloomFilterBenchmark {
+
+    static final int OPERATIONS = 1 << 16;
+
+    @Param({"false", "true"})
+    boolean bloomFilter;
+
+    @Param({"16384", "131072", "2097152"})
+    int size;
+
+    @Param({"0.0", "0.5", "1.0"})
+    double hitRatio;
+
+    HashMap<Object, Integer> map;
+    Object[] lookups;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Object[] present = Keys.generate(KeyType.STRING, size, 0);
+        Keys.shuffle(present, 1);
+        map = new HashMap<>();
+        if (bloomFilter) {
+            map.useBloomFilter();
+        }
+        for (int i = 0; i < present.length; ++i) {
+            map.put(present[i], i);
+        }
+        lookups = Keys.lookups(KeyType.STRING, present, hitRatio, OPERATIONS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public int get() {
+        HashMap<Object, Integer> m = map;
+        int hits = 0;
+        for (Object key : lookups) {
+            if (m.get(key) != null) {
+                ++hits;
+            }
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,115 @@
+package cc.thas.hashmap.benchmark;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 碰撞的非String Comparable key: 每次treeify/putTreeVal/find都会调用comparableClassFor
+ * <p>
+ * JDK自带实现每次都通过反射检查 getGenericInterfaces, 本仓库按类型缓存在ClassValue中; 对比两者即可看出缓存的收益
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class CollidingComparableBenchmark {
+
+    static final int KEYS = 1 << 14;
+
+    /**
+     * 每个bin中的key数量 越大树越深
+     */
+    @Param({"16", "256", "4096"})
+    int binSize;
+
+    Key[] keys;
+    Key[] lookups;
+    HashMap<Key, Key> map;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        keys = new Key[KEYS];
+        lookups = new Key[KEYS];
+        for (int i = 0; i < KEYS; ++i) {
+            keys[i] = new Key(i, binSize);
+            // 查找用新对象 保证走equals/compareTo而不是引用相等
+            lookups[i] = new Key(i, binSize);
+        }
+        Object[] shuffled = lookups.clone();
+        Keys.shuffle(shuffled, 7);
+        for (int i = 0; i < KEYS; ++i) {
+            lookups[i] = (Key)shuffled[i];
+        }
+        map = build();
+    }
+
+    HashMap<Key, Key> build() {
+        HashMap<Key, Key> m = new HashMap<>(KEYS * 2);
+        for (Key key : keys) {
+            m.put(key, key);
+        }
+        return m;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public HashMap<Key, Key> put() {
+        return build();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public int get() {
+        int found = 0;
+        for (Key key : lookups) {
+            if (map.get(key) != null) {
+                ++found;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 不是String的Comparable key 每个bin中有binSize个hashCode相同的key
+     */
+    public static final class Key implements Comparable<Key> {
+        final int value;
+        final int hash;
+
+        Key(int value, int binSize) {
+            this.value = value;
+            this.hash = value / binSize;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key)o).value == value;
+        }
+
+        @Override
+        public int compareTo(Key o) {
+            return Integer.compare(value, o.value);
+        }
+    }
+}
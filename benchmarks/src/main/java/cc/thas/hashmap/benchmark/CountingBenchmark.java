@@ -0,0 +1,86 @@
+package cc.thas.hashmap.benchmark;
+
+import java.util.CountingHashMap;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import cc.thas.hashmap.benchmark.Keys.KeyType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 计数: HashMap.merge(key, 1L, Long::sum) 对比 CountingHashMap.increment (仅本仓库实现)
+ * <p>
+ * 所有key在setup中已经插入, 测量的是已存在key的计数更新, 配合 -prof gc 查看 merge 装箱Long的分配
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class CountingBenchmark {
+
+    static final int UPDATES = 1024;
+
+    @Param({"STRING", "INTEGER"})
+    KeyType keyType;
+
+    @Param({"1024", "1048576"})
+    int size;
+
+    Object[] updates;
+    HashMap<Object, Long> map;
+    CountingHashMap<Object> counting;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Object[] keys = Keys.generate(keyType, size, 0);
+        map = new HashMap<>();
+        counting = new CountingHashMap<>();
+        for (Object key : keys) {
+            // 从较大的值开始 避免Long缓存掩盖装箱
+            map.put(key, 1000L);
+            counting.addTo(key, 1000L);
+        }
+        updates = new Object[UPDATES];
+        for (int i = 0; i < UPDATES; ++i) {
+            updates[i] = keys[(int)((long)i * size / UPDATES)];
+        }
+        Keys.shuffle(updates, 1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(UPDATES)
+    public void merge() {
+        HashMap<Object, Long> m = map;
+        for (Object key : updates) {
+            m.merge(key, 1L, Long::sum);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(UPDATES)
+    public void increment() {
+        CountingHashMap<Object> m = counting;
+        for (Object key : updates) {
+            m.increment(key);
+        }
+    }
+
+    @Benchmark
+    public int topKeys() {
+        return counting.topKeys(10).size();
+    }
+}
@@ -0,0 +1,79 @@
+package cc.thas.hashmap.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import cc.thas.hashmap.benchmark.Keys.KeyType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 两个HashMap的比较: 遍历一个Map并在另一个中get(AbstractMap.equals的做法) 对比 按bin同步遍历的equals和diff (仅本仓库实现)
+ * <p>
+ * 两个Map包含相同的key(不同的对象), newMap中每64个key修改一个value
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class DiffBenchmark {
+
+    @Param({"STRING", "INTEGER"})
+    KeyType keyType;
+
+    @Param({"1024", "1048576"})
+    int size;
+
+    HashMap<Object, Object> oldMap, copy, newMap;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Object[] keys = Keys.generate(keyType, size, 0);
+        Object[] sameKeys = Keys.generate(keyType, size, 0);
+        oldMap = new HashMap<>();
+        copy = new HashMap<>();
+        newMap = new HashMap<>();
+        for (int i = 0; i < size; ++i) {
+            oldMap.put(keys[i], i);
+            copy.put(sameKeys[i], i);
+            newMap.put(sameKeys[i], i);
+        }
+        for (int i = 0; i < size; i += 64) {
+            newMap.put(sameKeys[i], -i);
+        }
+    }
+
+    @Benchmark
+    public boolean getLoop() {
+        Map<Object, Object> m = copy;
+        for (Map.Entry<Object, Object> e : oldMap.entrySet()) {
+            if (!e.getValue().equals(m.get(e.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Benchmark
+    public boolean equalsLockstep() {
+        return oldMap.equals(copy);
+    }
+
+    @Benchmark
+    public int diff() {
+        return oldMap.diff(newMap).size();
+    }
+}
@@ -0,0 +1,78 @@
+package cc.thas.hashmap.benchmark;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * hash洪水攻击: 2^14 个hashCode完全相同的String ("Aa"/"BB"拼接) 对比 同样数量的普通String
+ * <p>
+ * 种子模式({@link HashMap#useSeededHashing()})下检测到洪水后切换为SipHash, 每个key的耗时应当与普通key基本持平;
+ * 默认模式下所有key落在同一个红黑树中, 每次插入和查找都要做多次compareTo
+ * <p>
+ * 使用了本仓库新增的API 只能在启动类路径前置本仓库实现时运行
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class FloodBenchmark {
+
+    static final int BITS = 14;
+
+    @Param({"false", "true"})
+    boolean seeded;
+
+    @Param({"false", "true"})
+    boolean attack;
+
+    String[] keys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if (attack) {
+            keys = Keys.floodStrings(BITS);
+        } else {
+            keys = new String[1 << BITS];
+            for (int i = 0; i < keys.length; ++i) {
+                keys[i] = "key-" + i;
+            }
+        }
+    }
+
+    /**
+     * 插入全部key后再查找一遍 结果为平均每个key的耗时
+     */
+    @Benchmark
+    @OperationsPerInvocation(1 << BITS)
+    public HashMap<String, String> putThenGet() {
+        HashMap<String, String> map = new HashMap<>();
+        if (seeded) {
+            map.useSeededHashing();
+        }
+        for (String key : keys) {
+            map.put(key, key);
+        }
+        for (String key : keys) {
+            if (map.get(key) != key) {
+                throw new AssertionError(key);
+            }
+        }
+        return map;
+    }
+}
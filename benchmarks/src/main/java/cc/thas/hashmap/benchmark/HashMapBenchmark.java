@@ -0,0 +1,147 @@
+package cc.thas.hashmap.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import cc.thas.hashmap.benchmark.Keys.KeyType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 单次操作的热点路径: get / containsKey / put / remove / computeIfAbsent / merge / 遍历
+ * <p>
+ * 只使用{@link Map}的公共API, 所以同一份基准既可以跑本仓库的实现(启动类路径前置), 也可以跑JDK自带的实现(基线)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class HashMapBenchmark {
+
+    /**
+     * 查找key数组的大小 (2的幂 便于取模)
+     */
+    static final int LOOKUPS = 1 << 16;
+
+    @Param({"STRING", "INTEGER", "COLLIDING", "NON_COMPARABLE"})
+    KeyType keyType;
+
+    /**
+     * 更大的规模(直到 100000000)通过 -p size=... 指定, 需要相应调大 -Xmx
+     */
+    @Param({"16", "1024", "65536", "1048576"})
+    int size;
+
+    @Param({"0.75"})
+    float loadFactor;
+
+    /**
+     * 查找命中率 只影响 get/containsKey/computeIfAbsent
+     */
+    @Param({"1.0", "0.5", "0.0"})
+    double hitRatio;
+
+    HashMap<Object, Integer> map;
+    Object[] present;
+    Object[] lookups;
+    Integer one = 1;
+    int index;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        present = Keys.generate(keyType, size, 0);
+        Keys.shuffle(present, 1);
+        map = new HashMap<>(16, loadFactor);
+        for (int i = 0; i < present.length; ++i) {
+            map.put(present[i], i);
+        }
+        lookups = Keys.lookups(keyType, present, hitRatio, LOOKUPS);
+    }
+
+    private Object nextLookup() {
+        return lookups[index++ & (LOOKUPS - 1)];
+    }
+
+    private Object nextPresent() {
+        Object[] p = present;
+        int i = index++;
+        return p[(i & 0x7fffffff) % p.length];
+    }
+
+    @Benchmark
+    public Integer get() {
+        return map.get(nextLookup());
+    }
+
+    @Benchmark
+    public boolean containsKey() {
+        return map.containsKey(nextLookup());
+    }
+
+    /**
+     * 覆盖已存在的key 不改变Map大小
+     */
+    @Benchmark
+    public Integer putExisting() {
+        return map.put(nextPresent(), one);
+    }
+
+    /**
+     * 删除后立即放回 保持Map大小不变, 结果包含一次removeNode和一次putVal(新建Node)
+     */
+    @Benchmark
+    public Integer removeAndReinsert() {
+        Object key = nextPresent();
+        Integer value = map.remove(key);
+        map.put(key, value);
+        return value;
+    }
+
+    /**
+     * 未命中时会插入新元素, 随即删除以保持Map大小不变
+     */
+    @Benchmark
+    public Integer computeIfAbsent() {
+        Object key = nextLookup();
+        boolean absent = !map.containsKey(key);
+        Integer value = map.computeIfAbsent(key, k -> one);
+        if (absent) {
+            map.remove(key);
+        }
+        return value;
+    }
+
+    @Benchmark
+    public Integer merge() {
+        return map.merge(nextPresent(), one, Integer::sum);
+    }
+
+    /**
+     * 遍历整个Map 时间与 size 和 数组容量 成正比
+     */
+    @Benchmark
+    public void iterateEntrySet(Blackhole bh) {
+        for (Map.Entry<Object, Integer> e : map.entrySet()) {
+            bh.consume(e.getValue());
+        }
+    }
+
+    @Benchmark
+    public void forEach(Blackhole bh) {
+        map.forEach((k, v) -> bh.consume(v));
+    }
+}
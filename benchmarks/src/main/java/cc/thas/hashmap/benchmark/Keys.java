@@ -0,0 +1,155 @@
+package cc.thas.hashmap.benchmark;
+
+import java.util.Random;
+
+/**
+ * 基准测试使用的key
+ */
+public final class Keys {
+
+    private Keys() { }
+
+    /**
+     * key类型
+     */
+    public enum KeyType {
+        /**
+         * 普通String key 走comparableClassFor的String快速路径
+         */
+        STRING,
+        /**
+         * Integer key hashCode即数值本身
+         */
+        INTEGER,
+        /**
+         * 每{@link #COLLISION_GROUP}个key的hashCode相同 且实现了Comparable, 碰撞的bin会树化并按compareTo查找
+         */
+        COLLIDING,
+        /**
+         * 与COLLIDING相同的碰撞分布 但没有实现Comparable, 树中查找只能同时搜索左右子树
+         */
+        NON_COMPARABLE
+    }
+
+    /**
+     * 碰撞key每组的数量 大于TREEIFY_THRESHOLD 保证会树化
+     */
+    public static final int COLLISION_GROUP = 16;
+
+    /**
+     * 生成 count 个互不相同的key, 第 i 个key由 i 唯一确定
+     */
+    public static Object[] generate(KeyType type, int count, int offset) {
+        Object[] keys = new Object[count];
+        for (int i = 0; i < count; ++i) {
+            keys[i] = key(type, offset + i);
+        }
+        return keys;
+    }
+
+    public static Object key(KeyType type, int i) {
+        switch (type) {
+            case STRING:
+                return "key-" + i;
+            case INTEGER:
+                return i;
+            case COLLIDING:
+                return new CollidingKey(i);
+            case NON_COMPARABLE:
+                return new NonComparableKey(i);
+            default:
+                throw new IllegalArgumentException(type.name());
+        }
+    }
+
+    /**
+     * 洗牌 避免按插入顺序访问带来的缓存友好性
+     */
+    public static void shuffle(Object[] keys, long seed) {
+        Random random = new Random(seed);
+        for (int i = keys.length - 1; i > 0; --i) {
+            int j = random.nextInt(i + 1);
+            Object t = keys[i];
+            keys[i] = keys[j];
+            keys[j] = t;
+        }
+    }
+
+    /**
+     * 按命中率混合查找key: 命中的来自已插入的key, 未命中的是从未插入的key
+     */
+    public static Object[] lookups(KeyType type, Object[] present, double hitRatio, int count) {
+        Random random = new Random(42);
+        Object[] lookups = new Object[count];
+        for (int i = 0; i < count; ++i) {
+            lookups[i] = random.nextDouble() < hitRatio ? present[random.nextInt(present.length)]
+                : key(type, present.length + random.nextInt(Integer.MAX_VALUE - present.length));
+        }
+        return lookups;
+    }
+
+    /**
+     * 可比较的碰撞key
+     */
+    public static final class CollidingKey implements Comparable<CollidingKey> {
+        final int value;
+
+        CollidingKey(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value / COLLISION_GROUP;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CollidingKey && ((CollidingKey)o).value == value;
+        }
+
+        @Override
+        public int compareTo(CollidingKey o) {
+            return Integer.compare(value, o.value);
+        }
+    }
+
+    /**
+     * 不可比较的碰撞key
+     */
+    public static final class NonComparableKey {
+        final int value;
+
+        NonComparableKey(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value / COLLISION_GROUP;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof NonComparableKey && ((NonComparableKey)o).value == value;
+        }
+    }
+
+    /**
+     * 由 "Aa" 和 "BB" 拼接出的String, hashCode全部相同 (hash洪水攻击的常用构造)
+     *
+     * @param bits 拼接段数 共生成 2^bits 个key
+     */
+    public static String[] floodStrings(int bits) {
+        String[] keys = new String[1 << bits];
+        StringBuilder sb = new StringBuilder(bits * 2);
+        for (int i = 0; i < keys.length; ++i) {
+            sb.setLength(0);
+            for (int b = 0; b < bits; ++b) {
+                sb.append(((i >>> b) & 1) == 0 ? "Aa" : "BB");
+            }
+            keys[i] = sb.toString();
+        }
+        return keys;
+    }
+}
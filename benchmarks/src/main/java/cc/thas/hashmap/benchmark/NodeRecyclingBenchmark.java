@@ -0,0 +1,84 @@
+package cc.thas.hashmap.benchmark;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import cc.thas.hashmap.benchmark.Keys.KeyType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 频繁增删场景下的GC压力: Map大小保持不变, 每次操作删除一个最老的key并插入一个不在Map中的key; key环形使用, 每个key在删除一个批次之后再次插入
+ * <p>
+ * key预先生成, 操作本身唯一的分配就是Node; 使用 -prof gc 对比 gc.alloc.rate.norm (仅本仓库实现). 回收的节点只能以同一个key对象复用,
+ * 回收池的位置数为批次的两倍, 直接映射的冲突使约一成的插入仍然分配节点. 每次都插入新key对象时回收不减少分配
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class NodeRecyclingBenchmark {
+
+    static final int BATCH = 1024;
+
+    @Param({"STRING", "INTEGER"})
+    KeyType keyType;
+
+    @Param({"1024", "65536"})
+    int size;
+
+    @Param({"false", "true"})
+    boolean recycling;
+
+    /**
+     * 环形使用的key 比Map大小多一个批次, 保证每次插入的key都不在Map中
+     */
+    Object[] keys;
+    HashMap<Object, Object> map;
+    int cursor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        keys = Keys.generate(keyType, size + BATCH, 0);
+        map = new HashMap<>();
+        if (recycling) {
+            map.useNodeRecycling(BATCH << 1);
+        }
+        for (int i = 0; i < size; ++i) {
+            map.put(keys[i], keys[i]);
+        }
+        cursor = 0;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int churn() {
+        Object[] ks = keys;
+        HashMap<Object, Object> m = map;
+        int n = ks.length;
+        int c = cursor;
+        for (int i = 0; i < BATCH; ++i) {
+            m.remove(ks[c]);
+            int insert = c + size;
+            m.put(ks[insert >= n ? insert - n : insert], ks[c]);
+            if (++c == n) {
+                c = 0;
+            }
+        }
+        cursor = c;
+        return m.size();
+    }
+}
@@ -0,0 +1,87 @@
+package cc.thas.hashmap.benchmark;
+
+import java.util.Map;
+import java.util.ReferenceHashMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import cc.thas.hashmap.benchmark.Keys.KeyType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 弱引用key: WeakHashMap 对比 ReferenceHashMap.weakKeys() (仅本仓库实现)
+ * <p>
+ * get查找setup中插入的(强引用持有的)key; churn插入随后即被丢弃的临时key, 两者都要清理被GC清除的元素, 配合 -prof gc 查看
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ReferenceBenchmark {
+
+    static final int OPERATIONS = 1024;
+
+    @Param({"WEAK_HASH_MAP", "REFERENCE_HASH_MAP"})
+    String impl;
+
+    @Param({"STRING", "COLLIDING"})
+    KeyType keyType;
+
+    @Param({"1024", "1048576"})
+    int size;
+
+    Object[] keys;
+    Object[] lookups;
+    Map<Object, Object> map;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        keys = Keys.generate(keyType, size, 0);
+        map = "WEAK_HASH_MAP".equals(impl) ? new WeakHashMap<>() : ReferenceHashMap.weakKeys();
+        for (Object key : keys) {
+            map.put(key, Boolean.TRUE);
+        }
+        lookups = new Object[OPERATIONS];
+        for (int i = 0; i < OPERATIONS; ++i) {
+            lookups[i] = keys[(int)((long)i * size / OPERATIONS)];
+        }
+        Keys.shuffle(lookups, 1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public int get() {
+        Map<Object, Object> m = map;
+        int hits = 0;
+        for (Object key : lookups) {
+            if (m.get(key) != null) {
+                ++hits;
+            }
+        }
+        return hits;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public void churn() {
+        Map<Object, Object> m = map;
+        for (int i = 0; i < OPERATIONS; ++i) {
+            // 临时key只被Map弱引用 之后的GC会清除它们
+            m.put(new Object(), Boolean.TRUE);
+        }
+    }
+}
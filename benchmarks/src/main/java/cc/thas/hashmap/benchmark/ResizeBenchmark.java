@@ -0,0 +1,67 @@
+package cc.thas.hashmap.benchmark;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import cc.thas.hashmap.benchmark.Keys.KeyType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * resize 的代价: 从默认容量逐步扩容 对比 预先分配足够容量
+ * <p>
+ * 两者的差值就是所有resize(包括链表low/high拆分和TreeNode.split)的总开销
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ResizeBenchmark {
+
+    @Param({"STRING", "INTEGER", "COLLIDING", "NON_COMPARABLE"})
+    KeyType keyType;
+
+    @Param({"1024", "65536", "1048576"})
+    int size;
+
+    @Param({"0.5", "0.75", "1.0"})
+    float loadFactor;
+
+    Object[] keys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        keys = Keys.generate(keyType, size, 0);
+        Keys.shuffle(keys, 1);
+    }
+
+    @Benchmark
+    public HashMap<Object, Object> growFromDefault() {
+        HashMap<Object, Object> map = new HashMap<>(16, loadFactor);
+        for (Object key : keys) {
+            map.put(key, key);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public HashMap<Object, Object> presized() {
+        HashMap<Object, Object> map = new HashMap<>((int)(size / loadFactor) + 1, loadFactor);
+        for (Object key : keys) {
+            map.put(key, key);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,81 @@
+package cc.thas.hashmap.benchmark;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import cc.thas.hashmap.benchmark.Keys.KeyType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * treeifyBin / putTreeVal 的代价: 每个bin放入{@link Keys#COLLISION_GROUP}个碰撞key, 数组预先分配(>= MIN_TREEIFY_CAPACITY), 保证第9个key触发树化而不是扩容
+ * <p>
+ * 与 INTEGER (没有碰撞) 对比可以看出树化本身的开销, COLLIDING 与 NON_COMPARABLE 对比可以看出 comparableClassFor/tieBreakOrder 的开销;
+ * compactBins=true 时碰撞的bin使用按hash排序的数组代替红黑树 ({@link HashMap#useCompactBins()})
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class TreeifyBenchmark {
+
+    @Param({"INTEGER", "COLLIDING", "NON_COMPARABLE"})
+    KeyType keyType;
+
+    @Param({"1024", "65536"})
+    int size;
+
+    @Param({"false", "true"})
+    boolean compactBins;
+
+    Object[] keys;
+    HashMap<Object, Object> built;
+    Object[] lookups;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        keys = Keys.generate(keyType, size, 0);
+        built = buildTreeBins();
+        lookups = keys.clone();
+        Keys.shuffle(lookups, 42);
+    }
+
+    @Benchmark
+    public HashMap<Object, Object> buildTreeBins() {
+        HashMap<Object, Object> map = new HashMap<>(Math.max(64, size * 2));
+        if (compactBins) {
+            map.useCompactBins();
+        }
+        for (Object key : keys) {
+            map.put(key, key);
+        }
+        return map;
+    }
+
+    /**
+     * 在已经树化的bin中查找
+     */
+    @Benchmark
+    public int getFromTreeBins() {
+        HashMap<Object, Object> map = built;
+        int found = 0;
+        for (Object key : lookups) {
+            if (map.get(key) != null) {
+                ++found;
+            }
+        }
+        return found;
+    }
+}
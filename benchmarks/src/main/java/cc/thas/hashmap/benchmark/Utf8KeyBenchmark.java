@@ -0,0 +1,96 @@
+package cc.thas.hashmap.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Utf8HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 从字节缓冲区查找字符串key: new String + HashMap.get 对比 Utf8HashMap.get(byte[], int, int) (仅本仓库实现)
+ * <p>
+ * 模拟解析请求时用缓冲区中的名称查表, 配合 -prof gc 查看 new String 的分配
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class Utf8KeyBenchmark {
+
+    static final int LOOKUPS = 1024;
+
+    @Param({"64", "65536"})
+    int size;
+
+    byte[] buffer;
+    int[] offsets;
+    int[] lengths;
+    HashMap<String, Integer> map;
+    Utf8HashMap<Integer> utf8;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String[] keys = new String[size];
+        map = new HashMap<>();
+        utf8 = new Utf8HashMap<>();
+        for (int i = 0; i < size; ++i) {
+            keys[i] = "X-Header-Name-" + i;
+            map.put(keys[i], i);
+            utf8.put(keys[i], i);
+        }
+        Object[] lookups = new Object[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; ++i) {
+            lookups[i] = keys[(int)((long)i * size / LOOKUPS)];
+        }
+        Keys.shuffle(lookups, 1);
+        // 查找的key依次放在同一个缓冲区中
+        buffer = new byte[LOOKUPS * 32];
+        offsets = new int[LOOKUPS];
+        lengths = new int[LOOKUPS];
+        int p = 0;
+        for (int i = 0; i < LOOKUPS; ++i) {
+            byte[] bytes = ((String)lookups[i]).getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(bytes, 0, buffer, p, bytes.length);
+            offsets[i] = p;
+            lengths[i] = bytes.length;
+            p += bytes.length + 2;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int newStringGet() {
+        HashMap<String, Integer> m = map;
+        int sum = 0;
+        for (int i = 0; i < LOOKUPS; ++i) {
+            sum += m.get(new String(buffer, offsets[i], lengths[i], StandardCharsets.UTF_8));
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int bytesGet() {
+        Utf8HashMap<Integer> m = utf8;
+        int sum = 0;
+        for (int i = 0; i < LOOKUPS; ++i) {
+            sum += m.get(buffer, offsets[i], lengths[i]);
+        }
+        return sum;
+    }
+}
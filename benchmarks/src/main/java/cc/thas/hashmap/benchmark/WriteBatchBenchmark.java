@@ -0,0 +1,68 @@
+package cc.thas.hashmap.benchmark;
+
+import java.util.HashMap;
+import java.util.HashMapWriteBatch;
+import java.util.concurrent.TimeUnit;
+
+import cc.thas.hashmap.benchmark.Keys.KeyType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 从空Map批量写入: 逐个put 对比 HashMap.apply(HashMapWriteBatch) (仅本仓库实现)
+ * <p>
+ * 逐个put在构建过程中多次扩容, apply按最坏情况一次扩容并按bin顺序写入
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class WriteBatchBenchmark {
+
+    @Param({"STRING", "INTEGER"})
+    KeyType keyType;
+
+    @Param({"1024", "1048576"})
+    int size;
+
+    Object[] keys;
+    HashMapWriteBatch<Object, Object> batch;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        keys = Keys.generate(keyType, size, 0);
+        Keys.shuffle(keys, 1);
+        batch = new HashMapWriteBatch<>(size);
+        for (Object key : keys) {
+            batch.put(key, key);
+        }
+    }
+
+    @Benchmark
+    public HashMap<Object, Object> putLoop() {
+        HashMap<Object, Object> m = new HashMap<>();
+        for (Object key : keys) {
+            m.put(key, key);
+        }
+        return m;
+    }
+
+    @Benchmark
+    public HashMap<Object, Object> apply() {
+        HashMap<Object, Object> m = new HashMap<>();
+        m.apply(batch);
+        return m;
+    }
+}
@@ -0,0 +1,151 @@
+package java.util;
+
+import java.util.HashMap.Node;
+import java.util.HashMap.RecyclableNode;
+import java.util.HashMap.TreeNode;
+
+/**
+ * 后台扩容任务 见{@link HashMap#useAsyncResize(java.util.concurrent.Executor)}
+ * <p>
+ * 后台线程只读取旧数组, 为每个节点创建副本并按 hash & oldCapacity 拆分到新数组的low/high两侧, 不修改旧数组中的任何节点,
+ * 前台线程在此期间照常读写旧数组. 前台的每次修改(包括通过迭代器返回的{@link HashMap.AttachedEntry}的setValue)都在{@link #dirty}中标记旧数组的bin;
+ * 后台完成后由前台调用{@link #publish}: 重新复制被标记的bin, 再将长链表树化, 最后由HashMap一次性替换table引用
+ * <p>
+ * 后台与前台之间没有加锁: 后台可能读到被并发修改的bin的不一致状态, 但这些bin一定被标记过, 它们在新数组中对应的两个位置会在publish时被清空并重新复制.
+ * 复制时链表长度不超过{@link #chainLimit}, 避免并发修改期间读到的环导致死循环. 提交任务之前的写入由线程池保证对后台可见, 后台的结果通过{@link #state}的volatile写读对前台可见
+ *
+ * @param <K> key类型
+ * @param <V> value类型
+ */
+final class AsyncResize<K, V> implements Runnable {
+
+    static final int RUNNING = 0, DONE = 1, FAILED = 2, CANCELLED = 3;
+    /**
+     * 每复制这么多个bin检查一次是否被取消
+     */
+    private static final int CANCEL_CHECK_INTERVAL = 1024;
+
+    final Node<K, V>[] oldTable;
+    final Node<K, V>[] newTable;
+    final int newThreshold;
+    /**
+     * 旧数组中被前台修改过的bin 的位图 只由前台读写
+     */
+    private final long[] dirty;
+    /**
+     * 复制时单个bin的最大长度 大于开始时的size即说明读到了并发修改造成的环
+     */
+    private final int chainLimit;
+    private final boolean recyclable;
+    /**
+     * 需要在publish时树化的新bin: 来自红黑树(或紧凑bin)且长度超过{@link HashMap#UNTREEIFY_THRESHOLD}, 与{@link TreeNode#split}相同;
+     * 或者来自链表且长度超过{@link HashMap#TREEIFY_THRESHOLD}
+     */
+    private int[] longBins = new int[16];
+    private int longBinCount;
+    volatile int state;
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    AsyncResize(HashMap<K, V> map, Node<K, V>[] oldTable) {
+        int newCapacity = oldTable.length << 1;
+        float ft = (float)newCapacity * map.loadFactor;
+        this.oldTable = oldTable;
+        this.newTable = (Node<K, V>[])new Node[newCapacity];
+        this.newThreshold = newCapacity < HashMap.MAXIMUM_CAPACITY && ft < (float)HashMap.MAXIMUM_CAPACITY ?
+            (int)ft : Integer.MAX_VALUE;
+        this.dirty = new long[(oldTable.length + 63) >>> 6];
+        this.chainLimit = map.size + 1;
+        this.recyclable = map.maxFreeNodes > 0;
+    }
+
+    @Override
+    public void run() {
+        try {
+            Node<K, V>[] tab = oldTable;
+            for (int j = 0; j < tab.length; ++j) {
+                if ((j & (CANCEL_CHECK_INTERVAL - 1)) == 0 && state == CANCELLED) {
+                    return;
+                }
+                copyBin(j, chainLimit);
+            }
+            state = DONE;
+        } catch (Throwable t) {
+            state = FAILED;
+        }
+    }
+
+    /**
+     * 前台修改了旧数组中hash所在的bin
+     */
+    void markDirty(int hash) {
+        int j = hash & (oldTable.length - 1);
+        dirty[j >>> 6] |= 1L << j;
+    }
+
+    void cancel() {
+        state = CANCELLED;
+    }
+
+    /**
+     * 将旧数组第j个bin的副本放入新数组的j和j + oldCapacity 保持原顺序
+     *
+     * @param limit 最多复制的节点数
+     */
+    private void copyBin(int j, int limit) {
+        int oldCapacity = oldTable.length;
+        Node<K, V> lowHead = null, lowTail = null, highHead = null, highTail = null;
+        int lowCount = 0, highCount = 0;
+        Node<K, V> first = oldTable[j];
+        int treeifyAbove = first instanceof TreeNode || CompactBin.of(first) != null ? HashMap.UNTREEIFY_THRESHOLD :
+            HashMap.TREEIFY_THRESHOLD;
+        for (Node<K, V> e = first; e != null && lowCount + highCount < limit; e = e.next) {
+            Node<K, V> p = recyclable ? new RecyclableNode<>(e.hash, e.key, e.value, null) :
+                new Node<>(e.hash, e.key, e.value, null);
+            if ((p.hash & oldCapacity) == 0) {
+                if (lowTail == null) { lowHead = p; } else { lowTail.next = p; }
+                lowTail = p;
+                ++lowCount;
+            } else {
+                if (highTail == null) { highHead = p; } else { highTail.next = p; }
+                highTail = p;
+                ++highCount;
+            }
+        }
+        newTable[j] = lowHead;
+        newTable[j + oldCapacity] = highHead;
+        if (lowCount > treeifyAbove) { addLongBin(j); }
+        if (highCount > treeifyAbove) { addLongBin(j + oldCapacity); }
+    }
+
+    private void addLongBin(int index) {
+        if (longBinCount == longBins.length) {
+            longBins = Arrays.copyOf(longBins, longBinCount << 1);
+        }
+        longBins[longBinCount++] = index;
+    }
+
+    /**
+     * 在前台线程中调用 (state为DONE之后): 重新复制被修改过的bin, 树化长链表
+     *
+     * @return 可以直接替换的新数组
+     */
+    Node<K, V>[] publish(HashMap<K, V> map) {
+        long[] d = dirty;
+        for (int w = 0; w < d.length; ++w) {
+            for (long bits = d[w]; bits != 0; bits &= bits - 1) {
+                copyBin((w << 6) + Long.numberOfTrailingZeros(bits), Integer.MAX_VALUE);
+            }
+        }
+        Node<K, V>[] tab = newTable;
+        for (int i = 0; i < longBinCount; ++i) {
+            Node<K, V> first = tab[longBins[i]];
+            // 重新复制过的bin可能已经变短 也可能被记录了两次
+            int length = 0;
+            for (Node<K, V> e = first; e != null; e = e.next) { ++length; }
+            if (length > HashMap.UNTREEIFY_THRESHOLD && !(first instanceof TreeNode) && CompactBin.of(first) == null) {
+                map.treeifyBin(tab, first.hash);
+            }
+        }
+        return tab;
+    }
+}
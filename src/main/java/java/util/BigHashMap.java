@@ -0,0 +1,485 @@
+package java.util;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.util.HashMap.Node;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 可以容纳超过2^31个元素的HashMap: 两级结构, 第一级是段目录, 第二级每个段是一个普通的{@link HashMap}
+ * <p>
+ * HashMap的数组最大只有{@link HashMap#MAXIMUM_CAPACITY}个桶, size也是int. 本类的元素数量是long({@link #sizeLong()}), 每个段的大小有上限
+ * ({@link #DEFAULT_MAX_SEGMENT_SIZE}), 超出后只拆分这一个段(可扩展哈希 extendible hashing): 扩容永远只涉及一个段, 不会分配一个巨大的数组,
+ * 也不会一次性迁移所有元素
+ * <p>
+ * 段的选择使用{@link HashMap#hash(Object)}经过fmix32混合后的高位, 段内使用同一个hash值的低位, 两者互不相关. 段目录的大小是2的幂,
+ * 深度为d的段占据目录中连续的 2^(globalDepth - d) 个位置. 删除元素不会合并段
+ * <p>
+ * 与HashMap一样不是线程安全的, 迭代器是fail-fast的
+ *
+ * @param <K> key类型
+ * @param <V> value类型
+ */
+public class BigHashMap<K, V> extends AbstractMap<K, V> implements Cloneable, Serializable {
+
+    private static final long serialVersionUID = -3340561127345217432L;
+    /**
+     * 单个段的默认最大元素数 2^23个元素对应2^24个桶(压缩指针下64MB的数组)
+     */
+    public static final int DEFAULT_MAX_SEGMENT_SIZE = 1 << 23;
+    /**
+     * 最大目录深度 达到后段不再拆分, 只能由段自己扩容
+     */
+    static final int MAXIMUM_DEPTH = 24;
+
+    /**
+     * 段 记录自己的局部深度
+     */
+    static final class Segment<K, V> extends HashMap<K, V> {
+        private static final long serialVersionUID = 2427353813102574458L;
+
+        int depth;
+
+        Segment(int depth, int initialCapacity) {
+            super(initialCapacity);
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * 段的最大元素数 超出后拆分
+     */
+    final int maxSegmentSize;
+    /**
+     * 段目录 长度为 2^globalDepth
+     */
+    transient Segment<K, V>[] directory;
+    transient int globalDepth;
+    transient long size;
+    transient int modCount;
+    transient Set<Entry<K, V>> entrySet;
+    /**
+     * 段的自适应负载因子范围 0表示未开启 见{@link #useAdaptiveLoadFactor(float, float)}
+     */
+    transient float minLoadFactor, maxLoadFactor;
+
+    public BigHashMap() {
+        this(0, DEFAULT_MAX_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param expectedSize 预期的元素数量 直接创建足够多的段, 避免之后拆分
+     */
+    public BigHashMap(long expectedSize) {
+        this(expectedSize, DEFAULT_MAX_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param expectedSize   预期的元素数量
+     * @param maxSegmentSize 段的最大元素数
+     */
+    public BigHashMap(long expectedSize, int maxSegmentSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Illegal expected size: " + expectedSize);
+        }
+        if (maxSegmentSize <= 0) {
+            throw new IllegalArgumentException("Illegal max segment size: " + maxSegmentSize);
+        }
+        this.maxSegmentSize = maxSegmentSize;
+        initialize(expectedSize);
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private void initialize(long expectedSize) {
+        int depth = 0;
+        while (depth < MAXIMUM_DEPTH && (expectedSize >>> depth) > maxSegmentSize) { ++depth; }
+        long perSegment = expectedSize >>> depth;
+        int initialCapacity = (int)Math.min((long)(perSegment / HashMap.DEFAULT_LOAD_FACTOR) + 1,
+            HashMap.MAXIMUM_CAPACITY);
+        Segment<K, V>[] d = (Segment<K, V>[])new Segment[1 << depth];
+        for (int i = 0; i < d.length; ++i) {
+            d[i] = newSegment(depth, initialCapacity);
+        }
+        directory = d;
+        globalDepth = depth;
+        size = 0;
+    }
+
+    private Segment<K, V> newSegment(int depth, int initialCapacity) {
+        Segment<K, V> segment = new Segment<>(depth, initialCapacity);
+        if (maxLoadFactor != 0) {
+            segment.useAdaptiveLoadFactor(minLoadFactor, maxLoadFactor);
+        }
+        return segment;
+    }
+
+    /**
+     * 所有段(包括之后拆分出的段)使用自适应负载因子 见{@link HashMap#useAdaptiveLoadFactor(float, float)}
+     * <p>
+     * 段拆分本身就是比翻倍更细的扩容: 整个Map只增长一个段的大小
+     *
+     * @param minLoadFactor 最早扩容的负载
+     * @param maxLoadFactor 最晚扩容的负载
+     * @return this
+     */
+    public BigHashMap<K, V> useAdaptiveLoadFactor(float minLoadFactor, float maxLoadFactor) {
+        Segment<K, V>[] d = directory;
+        for (int i = 0; i < d.length; i += 1 << (globalDepth - d[i].depth)) {
+            d[i].useAdaptiveLoadFactor(minLoadFactor, maxLoadFactor);
+        }
+        this.minLoadFactor = minLoadFactor;
+        this.maxLoadFactor = maxLoadFactor;
+        return this;
+    }
+
+    /**
+     * 段目录下标: 混合后hash值的高globalDepth位
+     */
+    static int directoryIndex(int hash, int depth) {
+        return (int)((HashMapHashing.fmix32(hash) & 0xffffffffL) >>> (32 - depth));
+    }
+
+    final Segment<K, V> segmentFor(int hash) {
+        return directory[directoryIndex(hash, globalDepth)];
+    }
+
+    /**
+     * @return 元素数量 可以超过Integer.MAX_VALUE
+     */
+    public long sizeLong() { return size; }
+
+    /**
+     * @return 元素数量 超过Integer.MAX_VALUE时返回Integer.MAX_VALUE (见{@link Map#size()})
+     */
+    @Override
+    public int size() { return size > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)size; }
+
+    @Override
+    public boolean isEmpty() { return size == 0; }
+
+    /**
+     * @return 不同段的数量
+     */
+    public int segmentCount() {
+        int count = 0;
+        Segment<K, V>[] d = directory;
+        for (int i = 0; i < d.length; i += 1 << (globalDepth - d[i].depth)) { ++count; }
+        return count;
+    }
+
+    @Override
+    public V get(Object key) {
+        int hash = HashMap.hash(key);
+        Node<K, V> e = segmentFor(hash).getNode(hash, key);
+        return e == null ? null : e.value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int hash = HashMap.hash(key);
+        return segmentFor(hash).getNode(hash, key) != null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        Segment<K, V>[] d = directory;
+        for (int i = 0; i < d.length; i += 1 << (globalDepth - d[i].depth)) {
+            if (d[i].containsValue(value)) { return true; }
+        }
+        return false;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return putVal(key, value, false);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return putVal(key, value, true);
+    }
+
+    private V putVal(K key, V value, boolean onlyIfAbsent) {
+        int hash = HashMap.hash(key);
+        Segment<K, V> segment = segmentFor(hash);
+        int before = segment.size;
+        V oldValue = segment.putVal(hash, key, value, onlyIfAbsent, true);
+        afterUpdate(segment, before);
+        return oldValue;
+    }
+
+    @Override
+    public V remove(Object key) {
+        int hash = HashMap.hash(key);
+        Segment<K, V> segment = segmentFor(hash);
+        Node<K, V> e = segment.removeNode(hash, key, null, false, true);
+        if (e == null) {
+            return null;
+        }
+        --size;
+        ++modCount;
+        return e.value;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        int hash = HashMap.hash(key);
+        if (segmentFor(hash).removeNode(hash, key, value, true, true) == null) {
+            return false;
+        }
+        --size;
+        ++modCount;
+        return true;
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        Segment<K, V> segment = segmentFor(HashMap.hash(key));
+        int before = segment.size;
+        V v = segment.computeIfAbsent(key, mappingFunction);
+        afterUpdate(segment, before);
+        return v;
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Segment<K, V> segment = segmentFor(HashMap.hash(key));
+        int before = segment.size;
+        V v = segment.computeIfPresent(key, remappingFunction);
+        afterUpdate(segment, before);
+        return v;
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Segment<K, V> segment = segmentFor(HashMap.hash(key));
+        int before = segment.size;
+        V v = segment.compute(key, remappingFunction);
+        afterUpdate(segment, before);
+        return v;
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Segment<K, V> segment = segmentFor(HashMap.hash(key));
+        int before = segment.size;
+        V v = segment.merge(key, value, remappingFunction);
+        afterUpdate(segment, before);
+        return v;
+    }
+
+    /**
+     * 段中的元素数量变化后 更新总数并在段过大时拆分
+     */
+    private void afterUpdate(Segment<K, V> segment, int before) {
+        int after = segment.size;
+        if (after != before) {
+            size += after - before;
+            ++modCount;
+            if (after > maxSegmentSize) {
+                split(segment);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        ++modCount;
+        initialize(0);
+    }
+
+    /**
+     * 将段拆分为两个深度+1的段: 按混合后hash值的下一位分配; 目录深度不够时先将目录加倍 (目录只保存引用 很小)
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    final void split(Segment<K, V> segment) {
+        int depth = segment.depth;
+        if (depth >= MAXIMUM_DEPTH) {
+            return;
+        }
+        if (depth == globalDepth) {
+            Segment<K, V>[] old = directory;
+            Segment<K, V>[] d = (Segment<K, V>[])new Segment[old.length << 1];
+            for (int i = 0; i < old.length; ++i) {
+                d[i << 1] = d[(i << 1) | 1] = old[i];
+            }
+            directory = d;
+            ++globalDepth;
+        }
+        int initialCapacity = (int)Math.min((long)(segment.size / 2 / HashMap.DEFAULT_LOAD_FACTOR) + 1,
+            HashMap.MAXIMUM_CAPACITY);
+        Segment<K, V> low = newSegment(depth + 1, initialCapacity);
+        Segment<K, V> high = newSegment(depth + 1, initialCapacity);
+        Node<K, V>[] tab = segment.table;
+        int shift = 31 - depth;
+        for (Node<K, V> first : tab) {
+            // 红黑树和紧凑bin的节点同样通过next串联
+            for (Node<K, V> e = first; e != null; e = e.next) {
+                Segment<K, V> target = ((HashMapHashing.fmix32(e.hash) >>> shift) & 1) == 0 ? low : high;
+                target.putVal(e.hash, e.key, e.value, false, false);
+            }
+        }
+        Segment<K, V>[] d = directory;
+        int span = globalDepth - depth - 1;
+        for (int i = 0; i < d.length; ++i) {
+            if (d[i] == segment) {
+                d[i] = ((i >>> span) & 1) == 0 ? low : high;
+            }
+        }
+        ++modCount;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (action == null) { throw new NullPointerException(); }
+        int mc = modCount;
+        Segment<K, V>[] d = directory;
+        for (int i = 0; i < d.length; i += 1 << (globalDepth - d[i].depth)) {
+            d[i].forEach(action);
+        }
+        if (modCount != mc) { throw new ConcurrentModificationException(); }
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K, V>> {
+        @Override
+        public int size() { return BigHashMap.this.size(); }
+
+        @Override
+        public void clear() { BigHashMap.this.clear(); }
+
+        @Override
+        public Iterator<Entry<K, V>> iterator() { return new EntryIterator(); }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) { return false; }
+            Entry<?, ?> e = (Entry<?, ?>)o;
+            Object key = e.getKey();
+            int hash = HashMap.hash(key);
+            Node<K, V> candidate = segmentFor(hash).getNode(hash, key);
+            return candidate != null && candidate.equals(e);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (o instanceof Map.Entry) {
+                Entry<?, ?> e = (Entry<?, ?>)o;
+                return BigHashMap.this.remove(e.getKey(), e.getValue());
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 依次遍历每个段的entrySet迭代器
+     */
+    final class EntryIterator implements Iterator<Entry<K, V>> {
+        final Segment<K, V>[] dir = directory;
+        final int depth = globalDepth;
+        int index;              // next directory slot
+        Iterator<Entry<K, V>> current;
+        Iterator<Entry<K, V>> lastReturned;
+        int expectedModCount = modCount;
+
+        EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            while ((current == null || !current.hasNext()) && index < dir.length) {
+                Segment<K, V> segment = dir[index];
+                index += 1 << (depth - segment.depth);
+                current = segment.isEmpty() ? null : segment.entrySet().iterator();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return current != null && current.hasNext();
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (modCount != expectedModCount) { throw new ConcurrentModificationException(); }
+            if (!hasNext()) { throw new NoSuchElementException(); }
+            Entry<K, V> e = current.next();
+            lastReturned = current;
+            advance();
+            return e;
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned == null) { throw new IllegalStateException(); }
+            if (modCount != expectedModCount) { throw new ConcurrentModificationException(); }
+            lastReturned.remove();
+            lastReturned = null;
+            --size;
+            expectedModCount = ++modCount;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Object clone() {
+        BigHashMap<K, V> result;
+        try {
+            result = (BigHashMap<K, V>)super.clone();
+        } catch (CloneNotSupportedException e) {
+            // this shouldn't happen, since we are Cloneable
+            throw new InternalError(e);
+        }
+        Segment<K, V>[] d = directory.clone();
+        Map<Segment<K, V>, Segment<K, V>> copies = new IdentityHashMap<>();
+        for (int i = 0; i < d.length; ++i) {
+            Segment<K, V> copy = copies.get(d[i]);
+            if (copy == null) {
+                copies.put(d[i], copy = (Segment<K, V>)d[i].clone());
+            }
+            d[i] = copy;
+        }
+        result.directory = d;
+        result.entrySet = null;
+        result.modCount = 0;
+        return result;
+    }
+
+    /**
+     * @serialData 元素数量(long), 随后是每个元素的key和value
+     */
+    private void writeObject(java.io.ObjectOutputStream s) throws IOException {
+        s.defaultWriteObject();
+        s.writeLong(size);
+        for (Entry<K, V> e : entrySet()) {
+            s.writeObject(e.getKey());
+            s.writeObject(e.getValue());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(java.io.ObjectInputStream s) throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        long mappings = s.readLong();
+        if (mappings < 0) {
+            throw new InvalidObjectException("Illegal mappings count: " + mappings);
+        }
+        if (maxSegmentSize <= 0) {
+            throw new InvalidObjectException("Illegal max segment size: " + maxSegmentSize);
+        }
+        initialize(mappings);
+        for (long i = 0; i < mappings; ++i) {
+            K key = (K)s.readObject();
+            V value = (V)s.readObject();
+            put(key, value);
+        }
+    }
+}
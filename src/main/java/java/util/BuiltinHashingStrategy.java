@@ -0,0 +1,112 @@
+package java.util;
+
+/**
+ * {@link HashingStrategy}的内置实现 使用枚举保证单例且可序列化
+ */
+enum BuiltinHashingStrategy implements HashingStrategy<Object> {
+
+    IDENTITY {
+        @Override
+        public int hashCode(Object key) {
+            return System.identityHashCode(key);
+        }
+
+        @Override
+        public boolean equals(Object a, Object b) {
+            return a == b;
+        }
+    },
+
+    BYTE_ARRAY {
+        @Override
+        public int hashCode(Object key) {
+            byte[] bytes = (byte[])key;
+            return xxHash32(bytes, 0, bytes.length, 0);
+        }
+
+        @Override
+        public boolean equals(Object a, Object b) {
+            return b instanceof byte[] && a instanceof byte[] && Arrays.equals((byte[])a, (byte[])b);
+        }
+    },
+
+    CHAR_ARRAY {
+        @Override
+        public int hashCode(Object key) {
+            return Arrays.hashCode((char[])key);
+        }
+
+        @Override
+        public boolean equals(Object a, Object b) {
+            return b instanceof char[] && a instanceof char[] && Arrays.equals((char[])a, (char[])b);
+        }
+    },
+
+    CASE_INSENSITIVE {
+        @Override
+        public int hashCode(Object key) {
+            String s = (String)key;
+            int h = 0;
+            for (int i = 0; i < s.length(); ++i) {
+                // 与equalsIgnoreCase相同的折叠方式: 先转大写再转小写
+                h = 31 * h + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+            }
+            return h;
+        }
+
+        @Override
+        public boolean equals(Object a, Object b) {
+            return b instanceof String && a instanceof String && ((String)a).equalsIgnoreCase((String)b);
+        }
+    };
+
+    private static final int PRIME32_1 = 0x9E3779B1;
+    private static final int PRIME32_2 = 0x85EBCA77;
+    private static final int PRIME32_3 = 0xC2B2AE3D;
+    private static final int PRIME32_4 = 0x27D4EB2F;
+    private static final int PRIME32_5 = 0x165667B1;
+
+    /**
+     * xxHash32 对长key每轮处理16个字节 比逐字节的 31 * h + b 快得多
+     */
+    static int xxHash32(byte[] b, int offset, int length, int seed) {
+        int end = offset + length;
+        int p = offset;
+        int h;
+        if (length >= 16) {
+            int v1 = seed + PRIME32_1 + PRIME32_2;
+            int v2 = seed + PRIME32_2;
+            int v3 = seed;
+            int v4 = seed - PRIME32_1;
+            int limit = end - 16;
+            do {
+                v1 = Integer.rotateLeft(v1 + getInt(b, p) * PRIME32_2, 13) * PRIME32_1;
+                v2 = Integer.rotateLeft(v2 + getInt(b, p + 4) * PRIME32_2, 13) * PRIME32_1;
+                v3 = Integer.rotateLeft(v3 + getInt(b, p + 8) * PRIME32_2, 13) * PRIME32_1;
+                v4 = Integer.rotateLeft(v4 + getInt(b, p + 12) * PRIME32_2, 13) * PRIME32_1;
+                p += 16;
+            } while (p <= limit);
+            h = Integer.rotateLeft(v1, 1) + Integer.rotateLeft(v2, 7) + Integer.rotateLeft(v3, 12)
+                + Integer.rotateLeft(v4, 18);
+        } else {
+            h = seed + PRIME32_5;
+        }
+        h += length;
+        for (; p + 4 <= end; p += 4) {
+            h = Integer.rotateLeft(h + getInt(b, p) * PRIME32_3, 17) * PRIME32_4;
+        }
+        for (; p < end; ++p) {
+            h = Integer.rotateLeft(h + (b[p] & 0xff) * PRIME32_5, 11) * PRIME32_1;
+        }
+        h ^= h >>> 15;
+        h *= PRIME32_2;
+        h ^= h >>> 13;
+        h *= PRIME32_3;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static int getInt(byte[] b, int i) {
+        return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,304 @@
+package java.util;
+
+import java.util.HashMap.CompactNode;
+import java.util.HashMap.Node;
+import java.util.HashMap.TreeNode;
+
+/**
+ * 紧凑的溢出bin: 按hash排序的平行数组 hashes/nodes + 二分查找, 用来替代红黑树 见{@link HashMap#useCompactBins()}
+ * <p>
+ * 红黑树的每个TreeNode除了Node的4个字段外还有 parent/left/right/prev/red 以及继承自{@link HashMapAddition.Entry}的 before/after,
+ * 大约是Node的2.5倍; 查找时沿着指针跳转, 每一层都可能是一次缓存未命中. 紧凑bin的节点{@link CompactNode}只比Node多一个指向本对象的引用
+ * (压缩指针下由于对象对齐 与Node同样是32字节), 查找先在连续的int[]上二分hash, 只有hash相等时才访问节点
+ * <p>
+ * 节点仍然按排序后的顺序用next串联, 所以迭代器、containsValue、序列化等按链表遍历的代码都不需要修改; 排序顺序也使得删除时可以O(1)找到前驱节点
+ * <p>
+ * hash相同的一段节点: 如果bin中所有key都是同一个实现了Comparable的类, 这一段再按compareTo排序并二分查找, 否则线性比较equals.
+ * 超过{@link #MAX_SIZE}个元素的bin(只有hash洪水攻击才会出现)转为红黑树, 作为更大扇出的一层, 插入时的数组移动不会退化为O(n)的大拷贝
+ *
+ * @param <K> key类型
+ * @param <V> value类型
+ */
+final class CompactBin<K, V> {
+
+    /**
+     * 紧凑bin的最大元素数 超出后转为红黑树 (使用{@link HashingStrategy}的Map不能树化 不受此限制)
+     */
+    static final int MAX_SIZE = 512;
+
+    int[] hashes;
+    CompactNode<K, V>[] nodes;
+    int size;
+    /**
+     * bin中所有key共同的Comparable类型 null表示hash相同的节点之间没有顺序
+     */
+    Class<?> keyClass;
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private CompactBin(int capacity) {
+        hashes = new int[capacity];
+        nodes = (CompactNode<K, V>[])new CompactNode[capacity];
+    }
+
+    /**
+     * @return first所在的紧凑bin 不是紧凑bin时返回null
+     */
+    static <K, V> CompactBin<K, V> of(Node<K, V> first) {
+        return first instanceof CompactNode ? ((CompactNode<K, V>)first).bin : null;
+    }
+
+    /**
+     * 将tab[index]处的链表转换为紧凑bin (已经是CompactNode的节点直接复用)
+     *
+     * @return bin中的元素数量
+     */
+    static <K, V> int build(HashMap<K, V> map, Node<K, V>[] tab, int index) {
+        int n = 0;
+        for (Node<K, V> e = tab[index]; e != null; e = e.next) { ++n; }
+        CompactBin<K, V> bin = new CompactBin<>(n + (n >>> 1));
+        Node<K, V> e = tab[index];
+        K firstKey = e.key;
+        Class<?> kc = map.strategy == null ? HashMap.comparableClassFor(firstKey) : null;
+        for (int i = 0; e != null; e = e.next, ++i) {
+            CompactNode<K, V> p = e instanceof CompactNode ? (CompactNode<K, V>)e : map.replacementCompactNode(e, null);
+            if (kc != null && (p.key == null || p.key.getClass() != kc)) {
+                kc = null;
+            }
+            bin.nodes[i] = p;
+        }
+        bin.keyClass = kc;
+        bin.size = n;
+        // 插入排序: 构建发生在链表达到树化阈值时 元素很少
+        CompactNode<K, V>[] ns = bin.nodes;
+        for (int i = 1; i < n; ++i) {
+            CompactNode<K, V> x = ns[i];
+            int j = i - 1;
+            for (; j >= 0 && bin.order(ns[j], x) > 0; --j) {
+                ns[j + 1] = ns[j];
+            }
+            ns[j + 1] = x;
+        }
+        for (int i = 0; i < n; ++i) { bin.hashes[i] = ns[i].hash; }
+        bin.link();
+        tab[index] = ns[0];
+        return n;
+    }
+
+    private int order(CompactNode<K, V> a, CompactNode<K, V> b) {
+        if (a.hash != b.hash) {
+            return a.hash < b.hash ? -1 : 1;
+        }
+        return keyClass == null ? 0 : HashMap.compareComparables(keyClass, a.key, b.key);
+    }
+
+    /**
+     * 按数组顺序重新串联next 并将所有节点指向本bin
+     */
+    private void link() {
+        CompactNode<K, V>[] ns = nodes;
+        int n = size;
+        for (int i = 0; i < n; ++i) {
+            CompactNode<K, V> p = ns[i];
+            p.bin = this;
+            p.next = i + 1 < n ? ns[i + 1] : null;
+        }
+    }
+
+    /**
+     * @return 找到时返回下标, 否则返回 -(插入位置 + 1)
+     */
+    int locate(HashMap<K, V> map, int h, Object k) {
+        int[] hs = hashes;
+        CompactNode<K, V>[] ns = nodes;
+        Class<?> kc = keyClass;
+        int lo = 0, hi = size - 1;
+        if (kc != null && k != null && k.getClass() == kc) {
+            // 按 (hash, compareTo) 一次二分
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int mh = hs[mid], c;
+                K pk;
+                if (mh != h) {
+                    c = h < mh ? -1 : 1;
+                } else if ((pk = ns[mid].key) == k || (c = HashMap.compareComparables(kc, k, pk)) == 0 &&
+                    k.equals(pk)) {
+                    return mid;
+                }
+                if (c < 0) {
+                    hi = mid - 1;
+                } else if (c > 0) {
+                    lo = mid + 1;
+                } else {
+                    // compareTo与equals不一致 在hash相同的这一段中线性查找
+                    int start = mid, end = mid + 1;
+                    while (start > 0 && hs[start - 1] == h) { --start; }
+                    while (end < size && hs[end] == h) { ++end; }
+                    return scan(map, k, start, end, mid);
+                }
+            }
+            return -(lo + 1);
+        }
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (hs[mid] < h) { lo = mid + 1; } else { hi = mid - 1; }
+        }
+        int end = lo;
+        while (end < size && hs[end] == h) { ++end; }
+        return scan(map, k, lo, end, end);
+    }
+
+    private int scan(HashMap<K, V> map, Object k, int start, int end, int insertion) {
+        CompactNode<K, V>[] ns = nodes;
+        for (int i = start; i < end; ++i) {
+            K pk = ns[i].key;
+            if (pk == k || (k != null && map.keyEquals(k, pk))) {
+                return i;
+            }
+        }
+        return -(insertion + 1);
+    }
+
+    CompactNode<K, V> find(HashMap<K, V> map, int h, Object k) {
+        int i = locate(map, h, k);
+        return i >= 0 ? nodes[i] : null;
+    }
+
+    /**
+     * putVal的紧凑bin版本
+     *
+     * @return 已存在的节点 不存在时插入新节点并返回null
+     */
+    CompactNode<K, V> putVal(HashMap<K, V> map, Node<K, V>[] tab, int index, int h, K k, V v) {
+        int i = locate(map, h, k);
+        if (i >= 0) {
+            return nodes[i];
+        }
+        i = -(i + 1);
+        if (keyClass != null && (k == null || k.getClass() != keyClass)) {
+            keyClass = null;
+        }
+        int n = size;
+        if (n == nodes.length) {
+            int capacity = n + (n >>> 1) + 1;
+            hashes = Arrays.copyOf(hashes, capacity);
+            nodes = Arrays.copyOf(nodes, capacity);
+        }
+        CompactNode<K, V>[] ns = nodes;
+        CompactNode<K, V> x = map.newCompactNode(h, k, v, i < n ? ns[i] : null);
+        x.bin = this;
+        System.arraycopy(hashes, i, hashes, i + 1, n - i);
+        System.arraycopy(ns, i, ns, i + 1, n - i);
+        hashes[i] = h;
+        ns[i] = x;
+        size = n + 1;
+        if (i == 0) {
+            tab[index] = x;
+        } else {
+            ns[i - 1].next = x;
+        }
+        if (size > MAX_SIZE && map.strategy == null) {
+            treeify(map, tab, index);
+        }
+        return null;
+    }
+
+    /**
+     * 删除bin中的节点p 元素数量降到{@link HashMap#UNTREEIFY_THRESHOLD}时退化为链表
+     */
+    void removeNode(HashMap<K, V> map, Node<K, V>[] tab, int index, CompactNode<K, V> p) {
+        int i = locate(map, p.hash, p.key);
+        CompactNode<K, V>[] ns = nodes;
+        if (i == 0) {
+            tab[index] = p.next;
+        } else {
+            ns[i - 1].next = p.next;
+        }
+        int n = size - 1;
+        System.arraycopy(hashes, i + 1, hashes, i, n - i);
+        System.arraycopy(ns, i + 1, ns, i, n - i);
+        ns[n] = null;
+        size = n;
+        p.bin = null;
+        if (n <= HashMap.UNTREEIFY_THRESHOLD) {
+            untreeify(map, tab.length, n > 0 ? ns[0].key : null);
+        }
+    }
+
+    /**
+     * 退化为普通链表: 节点对象不变 只是不再指向本bin, 已经交给调用方的Entry仍然有效
+     */
+    private void untreeify(HashMap<K, V> map, int capacity, Object key) {
+        ++map.untreeifyCount;
+        CompactNode<K, V>[] ns = nodes;
+        for (int i = 0; i < size; ++i) { ns[i].bin = null; }
+        HashMapEvents.treeify(map, capacity, size, key, true);
+    }
+
+    /**
+     * 超过{@link #MAX_SIZE}时转为红黑树
+     */
+    private void treeify(HashMap<K, V> map, Node<K, V>[] tab, int index) {
+        TreeNode<K, V> hd = null, tl = null;
+        CompactNode<K, V>[] ns = nodes;
+        for (int i = 0; i < size; ++i) {
+            TreeNode<K, V> p = map.replacementTreeNode(ns[i], null);
+            if (tl == null) { hd = p; } else {
+                p.prev = tl;
+                tl.next = p;
+            }
+            tl = p;
+        }
+        tab[index] = hd;
+        hd.treeify(tab);
+        HashMapEvents.treeify(map, tab.length, size, hd.key, false);
+    }
+
+    /**
+     * 扩容时拆分 与链表一样按 hash & oldCapacity 分为low和high两部分, 两部分各自仍然有序, 不需要重新排序
+     *
+     * @param map         所在的Map
+     * @param newTable    扩容后的数组
+     * @param index       原数组中的下标
+     * @param oldCapacity 原数组容量
+     */
+    void split(HashMap<K, V> map, Node<K, V>[] newTable, int index, int oldCapacity) {
+        ++map.splitCount;
+        CompactNode<K, V>[] ns = nodes;
+        int[] hs = hashes;
+        int n = size;
+        CompactBin<K, V> high = null;
+        int lc = 0, hc = 0;
+        for (int i = 0; i < n; ++i) {
+            CompactNode<K, V> p = ns[i];
+            if ((p.hash & oldCapacity) == 0) {
+                ns[lc] = p;
+                hs[lc++] = p.hash;
+            } else {
+                if (high == null) {
+                    high = new CompactBin<>(n - i);
+                    high.keyClass = keyClass;
+                }
+                high.nodes[hc] = p;
+                high.hashes[hc++] = p.hash;
+            }
+        }
+        for (int i = lc; i < n; ++i) { ns[i] = null; }
+        size = lc;
+        install(map, newTable, index);
+        if (high != null) {
+            high.size = hc;
+            high.install(map, newTable, index + oldCapacity);
+        }
+    }
+
+    private void install(HashMap<K, V> map, Node<K, V>[] tab, int index) {
+        if (size == 0) {
+            return;
+        }
+        link();
+        tab[index] = nodes[0];
+        if (size <= HashMap.UNTREEIFY_THRESHOLD) {
+            untreeify(map, tab.length, nodes[0].key);
+        }
+    }
+}
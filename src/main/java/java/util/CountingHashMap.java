@@ -0,0 +1,536 @@
+package java.util;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * 计数专用的Map: key到long计数, 计数保存在与槽位平行的long[]中
+ * <p>
+ * 用{@link HashMap#merge(Object, Object, java.util.function.BiFunction)}计数({@code map.merge(key, 1, Integer::sum)})时,
+ * 每次更新都要通过BiFunction调用remappingFunction, 并装箱一个新的Integer(超出缓存范围时). 本类的{@link #increment(Object)}、
+ * {@link #addTo(Object, long)}、{@link #getLong(Object)}直接读写long[], 已存在的key更新时不分配任何对象
+ * <p>
+ * 开放寻址(线性探测): 槽位由{@link HashMap#hash(Object)}再经fmix32混合后决定, 删除留下墓碑, 扩容时清除. {@link #forEachTop(int, ObjLongConsumer)}
+ * 按计数取前K个 只分配一个int[K]的堆, 不创建Map.Entry
+ * <p>
+ * 作为Map使用时value是Long (get/put/entrySet会装箱), 与HashMap一样不是线程安全的
+ *
+ * @param <K> key类型
+ */
+public class CountingHashMap<K> extends AbstractMap<K, Long> implements Cloneable, Serializable {
+
+    private static final long serialVersionUID = -6218349720151184706L;
+    /**
+     * 默认槽位数量 (必须为2的幂)
+     */
+    static final int DEFAULT_CAPACITY = 16;
+    /**
+     * 最大槽位数量
+     */
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+    /**
+     * 元素与墓碑占槽位的最大比例: 线性探测在负载0.5时 未命中的期望探测长度约为2.5
+     */
+    static final float LOAD_FACTOR = 0.5f;
+    /**
+     * null key使用NULL_KEY代替, 所以keys数组中的null只表示空槽
+     */
+    static final Object NULL_KEY = new Object();
+    /**
+     * 被删除的槽位 查找时跳过, 插入时可以复用
+     */
+    static final Object TOMBSTONE = new Object();
+
+    transient int[] hashes;
+    transient Object[] keys;
+    transient long[] counts;
+    transient int size;
+    /**
+     * 墓碑数量
+     */
+    transient int tombstones;
+    transient int modCount;
+    transient Set<Entry<K, Long>> entrySet;
+
+    public CountingHashMap() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize 期望存放的key数量
+     * @throws IllegalArgumentException 参数不合法异常
+     */
+    public CountingHashMap(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Illegal expected size: " + expectedSize);
+        }
+        allocate(capacityFor(expectedSize));
+    }
+
+    static int capacityFor(int expectedSize) {
+        long slots = (long)(expectedSize / LOAD_FACTOR) + 1;
+        return Math.max(DEFAULT_CAPACITY, HashMap.tableSizeFor((int)Math.min(slots, MAXIMUM_CAPACITY)));
+    }
+
+    private void allocate(int capacity) {
+        hashes = new int[capacity];
+        keys = new Object[capacity];
+        counts = new long[capacity];
+        tombstones = 0;
+    }
+
+    static Object maskNull(Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K> K unmaskNull(Object key) {
+        return key == NULL_KEY ? null : (K)key;
+    }
+
+    /**
+     * 线性探测的起始槽位
+     */
+    static int slot(int hash, int mask) {
+        return HashMapHashing.fmix32(hash) & mask;
+    }
+
+    /**
+     * @param key 已经过{@link #maskNull(Object)}处理的key
+     * @return 槽位索引 不存在返回-1
+     */
+    final int indexOf(int hash, Object key) {
+        int[] hs = hashes;
+        Object[] ks = keys;
+        int mask = ks.length - 1;
+        Object k;
+        for (int i = slot(hash, mask); (k = ks[i]) != null; i = (i + 1) & mask) {
+            if (hs[i] == hash && (k == key || (k != TOMBSTONE && key.equals(k)))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 查找key所在的槽位 不存在时插入计数为0的key
+     *
+     * @param key 已经过{@link #maskNull(Object)}处理的key
+     * @return 槽位索引
+     */
+    final int indexForUpdate(int hash, Object key) {
+        int[] hs = hashes;
+        Object[] ks = keys;
+        int mask = ks.length - 1;
+        int tombstone = -1;
+        Object k;
+        int i = slot(hash, mask);
+        for (; (k = ks[i]) != null; i = (i + 1) & mask) {
+            if (k == TOMBSTONE) {
+                if (tombstone < 0) { tombstone = i; }
+            } else if (hs[i] == hash && (k == key || key.equals(k))) {
+                return i;
+            }
+        }
+        if (tombstone >= 0) {
+            // 复用探测路径上的第一个墓碑
+            i = tombstone;
+            --tombstones;
+        } else if (size + tombstones + 1 > (int)(ks.length * LOAD_FACTOR)) {
+            resize();
+            return indexForUpdate(hash, key);
+        }
+        hs[i] = hash;
+        ks[i] = key;
+        counts[i] = 0;
+        ++size;
+        ++modCount;
+        return i;
+    }
+
+    /**
+     * 元素过多时容量翻倍, 主要是墓碑时按原容量重建
+     */
+    final void resize() {
+        int[] oldHashes = hashes;
+        Object[] oldKeys = keys;
+        long[] oldCounts = counts;
+        int capacity = oldKeys.length;
+        if (size + 1 > (int)(capacity * LOAD_FACTOR) / 2 || tombstones == 0) {
+            if (capacity >= MAXIMUM_CAPACITY) { throw new IllegalStateException("Counting map is full"); }
+            capacity <<= 1;
+        }
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; ++j) {
+            Object k = oldKeys[j];
+            if (k != null && k != TOMBSTONE) {
+                int i = slot(oldHashes[j], mask);
+                while (keys[i] != null) { i = (i + 1) & mask; }
+                hashes[i] = oldHashes[j];
+                keys[i] = k;
+                counts[i] = oldCounts[j];
+            }
+        }
+    }
+
+    /**
+     * 计数加1
+     *
+     * @return 新的计数
+     */
+    public long increment(K key) {
+        // 先取下标: 插入可能扩容替换counts数组
+        int i = indexForUpdate(HashMap.hash(key), maskNull(key));
+        return ++counts[i];
+    }
+
+    /**
+     * 计数加delta 不存在的key从0开始
+     *
+     * @return 新的计数
+     */
+    public long addTo(K key, long delta) {
+        int i = indexForUpdate(HashMap.hash(key), maskNull(key));
+        return counts[i] += delta;
+    }
+
+    /**
+     * @return key的计数 不存在时返回0
+     */
+    public long getLong(Object key) {
+        int i = indexOf(HashMap.hash(key), maskNull(key));
+        return i < 0 ? 0 : counts[i];
+    }
+
+    /**
+     * 删除key
+     *
+     * @return 删除前的计数 不存在时返回0
+     */
+    public long removeLong(Object key) {
+        int i = indexOf(HashMap.hash(key), maskNull(key));
+        if (i < 0) {
+            return 0;
+        }
+        long count = counts[i];
+        removeAt(i);
+        return count;
+    }
+
+    final void removeAt(int i) {
+        keys[i] = TOMBSTONE;
+        counts[i] = 0;
+        ++tombstones;
+        --size;
+        ++modCount;
+    }
+
+    /**
+     * 按槽位顺序遍历所有key和计数 不装箱
+     */
+    public void forEachCount(ObjLongConsumer<? super K> action) {
+        if (action == null) { throw new NullPointerException(); }
+        int mc = modCount;
+        Object[] ks = keys;
+        long[] cs = counts;
+        Object k;
+        for (int i = 0; i < ks.length; ++i) {
+            if ((k = ks[i]) != null && k != TOMBSTONE) {
+                action.accept(unmaskNull(k), cs[i]);
+            }
+        }
+        if (modCount != mc) { throw new ConcurrentModificationException(); }
+    }
+
+    /**
+     * 按计数从大到小遍历计数最大的k个key (计数相同的key之间顺序不确定)
+     * <p>
+     * 用槽位下标组成的大小为k的小顶堆扫描一遍 O(n log k), 只分配一个int[k], 不创建Map.Entry
+     *
+     * @param k      最多返回的key数量
+     * @param action 接收key和计数
+     * @return 实际遍历的key数量 min(k, size)
+     */
+    public int forEachTop(int k, ObjLongConsumer<? super K> action) {
+        if (k < 0) {
+            throw new IllegalArgumentException("Illegal k: " + k);
+        }
+        if (action == null) { throw new NullPointerException(); }
+        int mc = modCount;
+        Object[] ks = keys;
+        long[] cs = counts;
+        int[] heap = new int[Math.min(k, size)];
+        int n = 0;
+        Object key;
+        for (int i = 0; i < ks.length && heap.length > 0; ++i) {
+            if ((key = ks[i]) == null || key == TOMBSTONE) {
+                continue;
+            }
+            if (n < heap.length) {
+                heap[n] = i;
+                siftUp(heap, n++, cs);
+            } else if (cs[i] > cs[heap[0]]) {
+                heap[0] = i;
+                siftDown(heap, 0, n, cs);
+            }
+        }
+        // 堆排序: 依次把最小的放到末尾 结果按计数从大到小
+        for (int last = n - 1; last > 0; --last) {
+            int t = heap[0];
+            heap[0] = heap[last];
+            heap[last] = t;
+            siftDown(heap, 0, last, cs);
+        }
+        for (int i = 0; i < n; ++i) {
+            action.accept(unmaskNull(ks[heap[i]]), cs[heap[i]]);
+        }
+        if (modCount != mc) { throw new ConcurrentModificationException(); }
+        return n;
+    }
+
+    /**
+     * @return 计数最大的k个key 按计数从大到小
+     */
+    public List<K> topKeys(int k) {
+        List<K> result = new ArrayList<>(Math.min(Math.max(k, 0), size));
+        forEachTop(k, (key, count) -> result.add(key));
+        return result;
+    }
+
+    private static void siftUp(int[] heap, int i, long[] cs) {
+        int x = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (cs[heap[parent]] <= cs[x]) { break; }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = x;
+    }
+
+    private static void siftDown(int[] heap, int i, int n, long[] cs) {
+        int x = heap[i];
+        int half = n >>> 1;
+        while (i < half) {
+            int child = (i << 1) + 1, right = child + 1;
+            if (right < n && cs[heap[right]] < cs[heap[child]]) { child = right; }
+            if (cs[x] <= cs[heap[child]]) { break; }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = x;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Long get(Object key) {
+        int i = indexOf(HashMap.hash(key), maskNull(key));
+        return i < 0 ? null : counts[i];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(HashMap.hash(key), maskNull(key)) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        if (!(value instanceof Long)) {
+            return false;
+        }
+        long v = (Long)value;
+        Object[] ks = keys;
+        Object k;
+        for (int i = 0; i < ks.length; ++i) {
+            if ((k = ks[i]) != null && k != TOMBSTONE && counts[i] == v) { return true; }
+        }
+        return false;
+    }
+
+    /**
+     * @throws NullPointerException value为null
+     */
+    @Override
+    public Long put(K key, Long value) {
+        long v = value;
+        int before = size;
+        int i = indexForUpdate(HashMap.hash(key), maskNull(key));
+        long old = counts[i];
+        counts[i] = v;
+        return size != before ? null : old;
+    }
+
+    @Override
+    public Long remove(Object key) {
+        int i = indexOf(HashMap.hash(key), maskNull(key));
+        if (i < 0) {
+            return null;
+        }
+        long count = counts[i];
+        removeAt(i);
+        return count;
+    }
+
+    @Override
+    public void clear() {
+        ++modCount;
+        if (size > 0 || tombstones > 0) {
+            size = 0;
+            tombstones = 0;
+            Arrays.fill(keys, null);
+            Arrays.fill(counts, 0L);
+        }
+    }
+
+    @Override
+    public Set<Entry<K, Long>> entrySet() {
+        Set<Entry<K, Long>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Object clone() {
+        CountingHashMap<K> result;
+        try {
+            result = (CountingHashMap<K>)super.clone();
+        } catch (CloneNotSupportedException e) {
+            // this shouldn't happen, since we are Cloneable
+            throw new InternalError(e);
+        }
+        result.hashes = hashes.clone();
+        result.keys = keys.clone();
+        result.counts = counts.clone();
+        result.entrySet = null;
+        return result;
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K, Long>> {
+        @Override
+        public int size() { return size; }
+
+        @Override
+        public void clear() { CountingHashMap.this.clear(); }
+
+        @Override
+        public Iterator<Entry<K, Long>> iterator() { return new EntryIterator(); }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) { return false; }
+            Entry<?, ?> e = (Entry<?, ?>)o;
+            Object key = e.getKey();
+            int i = indexOf(HashMap.hash(key), maskNull(key));
+            return i >= 0 && Long.valueOf(counts[i]).equals(e.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (o instanceof Map.Entry) {
+                Entry<?, ?> e = (Entry<?, ?>)o;
+                return CountingHashMap.this.remove(e.getKey(), e.getValue());
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 计数不以对象形式存放, 迭代时才创建Entry; setValue会写回Map
+     */
+    final class CountingEntry extends SimpleEntry<K, Long> {
+        private static final long serialVersionUID = 5087164471736904713L;
+
+        CountingEntry(K key, Long value) {
+            super(key, value);
+        }
+
+        @Override
+        public Long setValue(Long value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+
+    final class EntryIterator implements Iterator<Entry<K, Long>> {
+        int index;              // next slot
+        int current = -1;       // last returned slot
+        int expectedModCount = modCount;
+
+        EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            Object[] ks = keys;
+            Object k;
+            while (index < ks.length && ((k = ks[index]) == null || k == TOMBSTONE)) { ++index; }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < keys.length;
+        }
+
+        @Override
+        public Entry<K, Long> next() {
+            if (modCount != expectedModCount) { throw new ConcurrentModificationException(); }
+            if (!hasNext()) { throw new NoSuchElementException(); }
+            int i = current = index++;
+            advance();
+            return new CountingEntry(unmaskNull(keys[i]), counts[i]);
+        }
+
+        @Override
+        public void remove() {
+            int i = current;
+            if (i < 0) { throw new IllegalStateException(); }
+            if (modCount != expectedModCount) { throw new ConcurrentModificationException(); }
+            current = -1;
+            // 删除只留下墓碑 不会移动其他元素
+            removeAt(i);
+            expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * @serialData 元素数量(int), 随后是每个元素的key和计数(long)
+     */
+    private void writeObject(java.io.ObjectOutputStream s) throws IOException {
+        s.defaultWriteObject();
+        s.writeInt(size);
+        Object[] ks = keys;
+        Object k;
+        for (int i = 0; i < ks.length; ++i) {
+            if ((k = ks[i]) != null && k != TOMBSTONE) {
+                s.writeObject(unmaskNull(k));
+                s.writeLong(counts[i]);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(java.io.ObjectInputStream s) throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        int mappings = s.readInt();
+        if (mappings < 0) {
+            throw new InvalidObjectException("Illegal mappings count: " + mappings);
+        }
+        allocate(capacityFor(mappings));
+        for (int i = 0; i < mappings; ++i) {
+            K key = (K)s.readObject();
+            addTo(key, s.readLong());
+        }
+    }
+}
@@ -0,0 +1,596 @@
+package java.util;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+
+/**
+ * 分桶布谷鸟哈希表 (bucketized cuckoo hashing)
+ * <p>
+ * 与{@link HashMap}的链表/红黑树不同, 每个key只可能出现在两个候选桶中 (两个hash函数都由{@link HashMap#hash(Object)}的扰动结果派生),
+ * 每个桶有{@link #SLOTS_PER_BUCKET}个槽位. 因此get先探测两个桶, 不需要红黑树的指针跳转和compareComparables
+ * <p>
+ * 插入时两个候选桶都满了, 用BFS寻找一条最短的"踢出路径"(把路径上的元素依次挪到它的另一个候选桶), 找不到时先放入很小的stash, stash也满了才扩容
+ * <p>
+ * stash只有在非空时才会被查找 它只在极端情况下被使用, 扩容时会清空. 两个桶中都没有找到的key(包括所有未命中的查找)还要线性扫描stash
+ * <p>
+ * <b>最坏情况O(1)只对hash值互不相同的key成立.</b> hash值完全相同的key总是落在同样的两个桶中, 扩容和更换种子都无法把它们分开:
+ * 超过两个桶和stash容量的这类key追加到stash之后, stash没有上限. 有k个这样的key时stash长度约为k, 此时不只是这些key,
+ * 所有未命中的查找和插入新key都要扫描整个stash, 变为O(k). HashMap中可比较的碰撞key在红黑树中是O(log k), 不可比较的同样是O(k).
+ * key来自不可信的输入时应使用开启了{@link HashMap#useSeededHashing()}的HashMap
+ *
+ * @param <K> key类型
+ * @param <V> value类型
+ */
+public class CuckooHashMap<K, V> extends AbstractMap<K, V> implements Cloneable, Serializable {
+
+    private static final long serialVersionUID = 4125373860318049287L;
+    /**
+     * 每个桶的槽位数 4路组相联 一个桶的hash值正好占一条缓存行的一部分
+     */
+    static final int SLOTS_PER_BUCKET = 4;
+    /**
+     * 默认桶数量 (必须为2的幂)
+     */
+    static final int DEFAULT_BUCKET_COUNT = 1 << 2;
+    /**
+     * 最大桶数量
+     */
+    static final int MAXIMUM_BUCKET_COUNT = 1 << 28;
+    /**
+     * stash大小
+     */
+    static final int STASH_SIZE = 4;
+    /**
+     * BFS搜索踢出路径时最多访问的槽位数量 超出则认为插入失败
+     */
+    static final int MAX_BFS_NODES = 512;
+    /**
+     * 空槽位标记 null key使用{@link #NULL_KEY}代替, 所以keys数组中的null只表示空槽
+     */
+    static final Object NULL_KEY = new Object();
+
+    /**
+     * 每个槽位中元素的hash值 长度为 桶数量 * {@link #SLOTS_PER_BUCKET}
+     */
+    transient int[] hashes;
+    transient Object[] keys;
+    transient Object[] values;
+    /**
+     * stash 放不进任何候选桶的元素 超过{@link #STASH_SIZE}的部分只存放两个候选桶已被同一hash值占满的key
+     */
+    transient int[] stashHashes;
+    transient Object[] stashKeys;
+    transient Object[] stashValues;
+    transient int stashCount;
+
+    transient int size;
+    transient int modCount;
+    transient Set<Entry<K, V>> entrySet;
+
+    public CuckooHashMap() {
+        this(DEFAULT_BUCKET_COUNT * SLOTS_PER_BUCKET);
+    }
+
+    /**
+     * @param expectedSize 期望存放的元素数量
+     * @throws IllegalArgumentException 参数不合法异常
+     */
+    public CuckooHashMap(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Illegal expected size: " + expectedSize);
+        }
+        // 布谷鸟哈希在4路分桶时负载因子可以接近95%, 这里按约90%计算
+        long slots = (long)expectedSize * 10 / 9 + 1;
+        int buckets = Math.min(MAXIMUM_BUCKET_COUNT, Math.max(DEFAULT_BUCKET_COUNT,
+            HashMap.tableSizeFor((int)Math.min(Integer.MAX_VALUE, (slots + SLOTS_PER_BUCKET - 1) / SLOTS_PER_BUCKET))));
+        allocate(buckets);
+    }
+
+    public CuckooHashMap(Map<? extends K, ? extends V> sourceMap) {
+        this(sourceMap.size());
+        putAll(sourceMap);
+    }
+
+    private void allocate(int buckets) {
+        hashes = new int[buckets * SLOTS_PER_BUCKET];
+        keys = new Object[buckets * SLOTS_PER_BUCKET];
+        values = new Object[buckets * SLOTS_PER_BUCKET];
+        stashHashes = new int[STASH_SIZE];
+        stashKeys = new Object[STASH_SIZE];
+        stashValues = new Object[STASH_SIZE];
+        stashCount = 0;
+    }
+
+    /**
+     * 第一个候选桶 直接使用扰动后的hash值
+     */
+    static int bucket1(int hash, int mask) {
+        return hash & mask;
+    }
+
+    /**
+     * 第二个候选桶 对扰动后的hash值再做一次murmur3 fmix32 使两个桶的位置近似独立
+     */
+    static int bucket2(int hash, int mask) {
+        return HashMapHashing.fmix32(hash) & mask;
+    }
+
+    /**
+     * 元素当前不在的那个候选桶
+     */
+    static int alternate(int hash, int bucket, int mask) {
+        int b1 = bucket1(hash, mask);
+        return b1 == bucket ? bucket2(hash, mask) : b1;
+    }
+
+    static Object maskNull(Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K> K unmaskNull(Object key) {
+        return key == NULL_KEY ? null : (K)key;
+    }
+
+    /**
+     * 查找key所在的位置
+     *
+     * @return 槽位索引; stash中的元素返回 ~stash索引; 不存在返回{@link Integer#MIN_VALUE}
+     */
+    final int indexOf(int hash, Object key) {
+        int[] hs = hashes;
+        Object[] ks = keys;
+        int mask = (hs.length / SLOTS_PER_BUCKET) - 1;
+        Object k;
+        int base = bucket1(hash, mask) * SLOTS_PER_BUCKET;
+        for (int i = base; i < base + SLOTS_PER_BUCKET; ++i) {
+            if (hs[i] == hash && ((k = ks[i]) == key || (k != null && key.equals(k)))) { return i; }
+        }
+        base = bucket2(hash, mask) * SLOTS_PER_BUCKET;
+        for (int i = base; i < base + SLOTS_PER_BUCKET; ++i) {
+            if (hs[i] == hash && ((k = ks[i]) == key || (k != null && key.equals(k)))) { return i; }
+        }
+        if (stashCount > 0) {
+            for (int i = 0; i < stashCount; ++i) {
+                if (stashHashes[i] == hash && ((k = stashKeys[i]) == key || key.equals(k))) { return ~i; }
+            }
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+        int i = indexOf(HashMap.hash(key), maskNull(key));
+        return i == Integer.MIN_VALUE ? null : (V)(i >= 0 ? values[i] : stashValues[~i]);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        int i = indexOf(HashMap.hash(key), maskNull(key));
+        return i == Integer.MIN_VALUE ? defaultValue : (V)(i >= 0 ? values[i] : stashValues[~i]);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(HashMap.hash(key), maskNull(key)) != Integer.MIN_VALUE;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        Object[] ks = keys, vs = values;
+        for (int i = 0; i < ks.length; ++i) {
+            if (ks[i] != null && Objects.equals(vs[i], value)) { return true; }
+        }
+        for (int i = 0; i < stashCount; ++i) {
+            if (Objects.equals(stashValues[i], value)) { return true; }
+        }
+        return false;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return putVal(HashMap.hash(key), maskNull(key), value, false);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return putVal(HashMap.hash(key), maskNull(key), value, true);
+    }
+
+    /**
+     * {@link #put(Object, Object)}的具体实现
+     *
+     * @param hash         扰动后的Hash值
+     * @param key          已经过{@link #maskNull(Object)}处理的key
+     * @param value        value
+     * @param onlyIfAbsent 如果已存在key则不操作
+     * @return 如果先前已存在该Key 则返回原来的value, 否则返回null
+     */
+    @SuppressWarnings("unchecked")
+    final V putVal(int hash, Object key, V value, boolean onlyIfAbsent) {
+        int i = indexOf(hash, key);
+        if (i != Integer.MIN_VALUE) {
+            Object[] vs = i >= 0 ? values : stashValues;
+            int slot = i >= 0 ? i : ~i;
+            V oldValue = (V)vs[slot];
+            if (!onlyIfAbsent || oldValue == null) { vs[slot] = value; }
+            return oldValue;
+        }
+        while (!insert(hash, key, value)) {
+            // 踢出路径和stash都无法容纳 只能扩容
+            resize();
+        }
+        ++modCount;
+        ++size;
+        return null;
+    }
+
+    /**
+     * 插入一个确定不存在的key
+     *
+     * @return 是否成功 失败时调用方应当扩容后重试
+     */
+    final boolean insert(int hash, Object key, Object value) {
+        int[] hs = hashes;
+        Object[] ks = keys;
+        int mask = (hs.length / SLOTS_PER_BUCKET) - 1;
+        int b1 = bucket1(hash, mask), b2 = bucket2(hash, mask);
+        int slot;
+        if ((slot = freeSlot(ks, b1)) >= 0 || (slot = freeSlot(ks, b2)) >= 0) {
+            store(slot, hash, key, value);
+            return true;
+        }
+        if ((slot = kickPath(b1, b2, mask)) >= 0) {
+            store(slot, hash, key, value);
+            return true;
+        }
+        if (stashCount >= STASH_SIZE) {
+            if (!filledWith(hs, ks, hash, b1) || !filledWith(hs, ks, hash, b2)) {
+                return false;
+            }
+            // 两个候选桶都被同一hash值占满 扩容之后仍然如此 直接增长stash
+            int n = stashCount << 1;
+            stashHashes = Arrays.copyOf(stashHashes, n);
+            stashKeys = Arrays.copyOf(stashKeys, n);
+            stashValues = Arrays.copyOf(stashValues, n);
+        }
+        stashHashes[stashCount] = hash;
+        stashKeys[stashCount] = key;
+        stashValues[stashCount] = value;
+        ++stashCount;
+        return true;
+    }
+
+    /**
+     * @return 桶的所有槽位是否都是hash值为hash的元素
+     */
+    static boolean filledWith(int[] hs, Object[] ks, int hash, int bucket) {
+        int base = bucket * SLOTS_PER_BUCKET;
+        for (int i = base; i < base + SLOTS_PER_BUCKET; ++i) {
+            if (ks[i] == null || hs[i] != hash) { return false; }
+        }
+        return true;
+    }
+
+    static int freeSlot(Object[] ks, int bucket) {
+        int base = bucket * SLOTS_PER_BUCKET;
+        for (int i = base; i < base + SLOTS_PER_BUCKET; ++i) {
+            if (ks[i] == null) { return i; }
+        }
+        return -1;
+    }
+
+    private void store(int slot, int hash, Object key, Object value) {
+        hashes[slot] = hash;
+        keys[slot] = key;
+        values[slot] = value;
+    }
+
+    /**
+     * BFS寻找最短踢出路径
+     * <p>
+     * 搜索树的每个节点是一个已满的槽位, 它的子节点是该槽位元素的另一个候选桶中的槽位. 找到一个有空位的桶后,
+     * 从路径末端开始依次把元素挪到下一个位置, 最终空出路径起点的槽位
+     *
+     * @return 空出的槽位(位于b1或b2中) 找不到路径返回-1
+     */
+    private int kickPath(int b1, int b2, int mask) {
+        int[] hs = hashes;
+        Object[] ks = keys;
+        // 队列中保存槽位索引和父节点在队列中的位置
+        int[] slotQueue = new int[MAX_BFS_NODES];
+        int[] parentQueue = new int[MAX_BFS_NODES];
+        int tail = 0;
+        for (int i = 0; i < SLOTS_PER_BUCKET && tail < MAX_BFS_NODES; ++i) {
+            slotQueue[tail] = b1 * SLOTS_PER_BUCKET + i;
+            parentQueue[tail++] = -1;
+        }
+        if (b2 != b1) {
+            for (int i = 0; i < SLOTS_PER_BUCKET && tail < MAX_BFS_NODES; ++i) {
+                slotQueue[tail] = b2 * SLOTS_PER_BUCKET + i;
+                parentQueue[tail++] = -1;
+            }
+        }
+        for (int head = 0; head < tail; ++head) {
+            int slot = slotQueue[head];
+            int from = slot / SLOTS_PER_BUCKET;
+            int to = alternate(hs[slot], from, mask);
+            if (to == from) { continue; }
+            int free = freeSlot(ks, to);
+            if (free >= 0 && distinctPath(slotQueue, parentQueue, head)) {
+                // 沿路径回溯 依次挪动元素
+                int target = free;
+                for (int node = head; node >= 0; node = parentQueue[node]) {
+                    int source = slotQueue[node];
+                    store(target, hs[source], ks[source], values[source]);
+                    target = source;
+                }
+                ks[target] = null;
+                values[target] = null;
+                return target;
+            }
+            for (int i = 0; i < SLOTS_PER_BUCKET && tail < MAX_BFS_NODES; ++i) {
+                slotQueue[tail] = to * SLOTS_PER_BUCKET + i;
+                parentQueue[tail++] = head;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 路径上的槽位必须互不相同, 否则回溯挪动时会覆盖已经挪过的元素
+     */
+    private static boolean distinctPath(int[] slotQueue, int[] parentQueue, int node) {
+        for (int a = node; a >= 0; a = parentQueue[a]) {
+            for (int b = parentQueue[a]; b >= 0; b = parentQueue[b]) {
+                if (slotQueue[a] == slotQueue[b]) { return false; }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 桶数量翻倍 并重新放入所有元素(包括stash中的)
+     * <p>
+     * 与{@link HashMap#resize()}不同, 第二个候选桶的位置与低位无关, 不能使用low/high拆分, 只能逐个重新插入
+     */
+    final void resize() {
+        int[] oldHashes = hashes, oldStashHashes = stashHashes;
+        Object[] oldKeys = keys, oldValues = values, oldStashKeys = stashKeys, oldStashValues = stashValues;
+        int oldStashCount = stashCount;
+        int buckets = oldHashes.length / SLOTS_PER_BUCKET;
+        for (; ; ) {
+            if (buckets >= MAXIMUM_BUCKET_COUNT) { throw new IllegalStateException("Cuckoo table is full"); }
+            buckets <<= 1;
+            allocate(buckets);
+            boolean ok = true;
+            for (int i = 0; ok && i < oldKeys.length; ++i) {
+                if (oldKeys[i] != null) { ok = insert(oldHashes[i], oldKeys[i], oldValues[i]); }
+            }
+            for (int i = 0; ok && i < oldStashCount; ++i) {
+                ok = insert(oldStashHashes[i], oldStashKeys[i], oldStashValues[i]);
+            }
+            if (ok) { return; }
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        return removeAt(indexOf(HashMap.hash(key), maskNull(key)));
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        int i = indexOf(HashMap.hash(key), maskNull(key));
+        if (i != Integer.MIN_VALUE && Objects.equals(i >= 0 ? values[i] : stashValues[~i], value)) {
+            removeAt(i);
+            return true;
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    final V removeAt(int i) {
+        if (i == Integer.MIN_VALUE) { return null; }
+        V oldValue;
+        if (i >= 0) {
+            oldValue = (V)values[i];
+            keys[i] = null;
+            values[i] = null;
+        } else {
+            // stash用最后一个元素填补空位
+            int s = ~i, last = --stashCount;
+            oldValue = (V)stashValues[s];
+            stashHashes[s] = stashHashes[last];
+            stashKeys[s] = stashKeys[last];
+            stashValues[s] = stashValues[last];
+            stashKeys[last] = null;
+            stashValues[last] = null;
+        }
+        ++modCount;
+        --size;
+        return oldValue;
+    }
+
+    @Override
+    public void clear() {
+        ++modCount;
+        if (size > 0) {
+            size = 0;
+            Arrays.fill(keys, null);
+            Arrays.fill(values, null);
+            Arrays.fill(stashKeys, null);
+            Arrays.fill(stashValues, null);
+            stashCount = 0;
+        }
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Object clone() {
+        CuckooHashMap<K, V> result;
+        try {
+            result = (CuckooHashMap<K, V>)super.clone();
+        } catch (CloneNotSupportedException e) {
+            // this shouldn't happen, since we are Cloneable
+            throw new InternalError(e);
+        }
+        result.hashes = hashes.clone();
+        result.keys = keys.clone();
+        result.values = values.clone();
+        result.stashHashes = stashHashes.clone();
+        result.stashKeys = stashKeys.clone();
+        result.stashValues = stashValues.clone();
+        result.entrySet = null;
+        return result;
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K, V>> {
+        @Override
+        public int size() { return size; }
+
+        @Override
+        public void clear() { CuckooHashMap.this.clear(); }
+
+        @Override
+        public Iterator<Entry<K, V>> iterator() { return new EntryIterator(); }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) { return false; }
+            Entry<?, ?> e = (Entry<?, ?>)o;
+            Object key = e.getKey();
+            int i = indexOf(HashMap.hash(key), maskNull(key));
+            return i != Integer.MIN_VALUE && Objects.equals(i >= 0 ? values[i] : stashValues[~i], e.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (o instanceof Map.Entry) {
+                Entry<?, ?> e = (Entry<?, ?>)o;
+                return CuckooHashMap.this.remove(e.getKey(), e.getValue());
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 元素不以对象形式存放, 迭代时才创建Entry; setValue会写回Map
+     */
+    final class CuckooEntry extends SimpleEntry<K, V> {
+        private static final long serialVersionUID = -2870137203582236446L;
+
+        CuckooEntry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+
+    /**
+     * 按槽位顺序遍历 最后遍历stash
+     */
+    final class EntryIterator implements Iterator<Entry<K, V>> {
+        int index;              // next slot; >= keys.length means stash
+        int current = -1;       // last returned position
+        int expectedModCount = modCount;
+
+        EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            Object[] ks = keys;
+            while (index < ks.length && ks[index] == null) { ++index; }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < keys.length + stashCount;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Entry<K, V> next() {
+            if (modCount != expectedModCount) { throw new ConcurrentModificationException(); }
+            if (!hasNext()) { throw new NoSuchElementException(); }
+            int i = current = index++;
+            advance();
+            int n = keys.length;
+            return i < n ? new CuckooEntry(unmaskNull(keys[i]), (V)values[i])
+                : new CuckooEntry(unmaskNull(stashKeys[i - n]), (V)stashValues[i - n]);
+        }
+
+        @Override
+        public void remove() {
+            int i = current;
+            if (i < 0) { throw new IllegalStateException(); }
+            if (modCount != expectedModCount) { throw new ConcurrentModificationException(); }
+            current = -1;
+            int n = keys.length;
+            if (i < n) {
+                removeAt(i);
+            } else {
+                // stash删除会把最后一个元素挪到空位, 下一次需要重新访问该位置
+                removeAt(~(i - n));
+                index = i;
+            }
+            expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * @serialData 桶数量(int), 元素数量(int), 随后是每个元素的key和value
+     */
+    private void writeObject(java.io.ObjectOutputStream s) throws IOException {
+        s.defaultWriteObject();
+        s.writeInt(hashes.length / SLOTS_PER_BUCKET);
+        s.writeInt(size);
+        for (Entry<K, V> e : entrySet()) {
+            s.writeObject(e.getKey());
+            s.writeObject(e.getValue());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(java.io.ObjectInputStream s) throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        int buckets = s.readInt();
+        int mappings = s.readInt();
+        if (buckets < DEFAULT_BUCKET_COUNT || buckets > MAXIMUM_BUCKET_COUNT || (buckets & (buckets - 1)) != 0) {
+            throw new InvalidObjectException("Illegal bucket count: " + buckets);
+        }
+        if (mappings < 0) {
+            throw new InvalidObjectException("Illegal mappings count: " + mappings);
+        }
+        allocate(buckets);
+        for (int i = 0; i < mappings; ++i) {
+            K key = (K)s.readObject();
+            V value = (V)s.readObject();
+            putVal(HashMap.hash(key), maskNull(key), value, false);
+        }
+    }
+}
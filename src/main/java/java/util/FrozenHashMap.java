@@ -0,0 +1,582 @@
+package java.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * 只读的HashMap 由{@link HashMap#freeze()}构建
+ * <p>
+ * 使用CHD(Compress, Hash and Displace)风格的最小完美哈希函数 对{@link HashMap.Node#hash}建立索引: n个不同的hash值恰好映射到n个槽位,
+ * 没有链表, 没有红黑树, 也没有空槽. 一次get只需要一次探测和一次equals
+ * <p>
+ * 内存布局是几个平行数组 hashes/keys/values 加上一个很小的位移数组(每{@link #BUCKET_LOAD}个元素一个int), 接近原始的key/value数组大小
+ * <p>
+ * 只有极少数 hash值完全相同但key不相等 的元素无法被完美哈希区分, 它们存放在一个很小的溢出区中, 只在槽位的key不相等时才会查找溢出区
+ *
+ * @param <K> key类型
+ * @param <V> value类型
+ */
+public final class FrozenHashMap<K, V> extends AbstractMap<K, V> implements Serializable {
+
+    private static final long serialVersionUID = -5024744406713652307L;
+    /**
+     * 每个位移桶期望容纳的元素数量 越大位移数组越小 但构建时寻找位移种子越慢
+     */
+    static final int BUCKET_LOAD = 3;
+    /**
+     * 单个位移桶寻找种子的最大尝试次数 超出后更换全局种子重新构建
+     */
+    static final int MAX_DISPLACE_ATTEMPTS = 1 << 20;
+    /**
+     * 溢出区中hash相同的一段元素达到该数量 且都是同一个可比较类型时 段内按compareTo排序 查找时二分
+     */
+    static final int MIN_ORDERED_RUN = 8;
+
+    /**
+     * 全局种子 决定元素落入哪个位移桶
+     */
+    private transient int seed;
+    /**
+     * 每个位移桶的位移值: >=0 表示该桶内元素使用的种子; <0 表示该桶只有一个元素 直接存放在 -(displace+1) 槽位
+     */
+    private transient int[] displacements;
+    /**
+     * 槽位中元素的hash值 与{@link HashMap.Node#hash}相同
+     */
+    private transient int[] hashes;
+    private transient Object[] keys;
+    private transient Object[] values;
+    /**
+     * 溢出区 存放与某个槽位hash值相同但key不相等的元素 按hash升序排列 通常为null
+     */
+    private transient int[] overflowHashes;
+    private transient Object[] overflowKeys;
+    private transient Object[] overflowValues;
+    /**
+     * 溢出区中按compareTo排序的段 在段的第一个位置标记为true; 没有这样的段时为null
+     */
+    private transient boolean[] overflowOrdered;
+
+    private transient Set<Entry<K, V>> entrySet;
+    /**
+     * 从原Map继承的hash和相等性策略 null表示使用key自身的hashCode和equals
+     */
+    private final HashingStrategy<? super K> strategy;
+
+    /**
+     * @param map 待冻结的Map 冻结后对原Map的修改不会影响本Map
+     */
+    FrozenHashMap(HashMap<K, V> map) {
+        this.strategy = map.strategy;
+        // 种子模式的hash值与冻结后使用的hash函数不同 需要重新计算
+        boolean rehash = map.hashSeed != 0;
+        int n = map.size;
+        int[] hs = new int[n];
+        Object[] ks = new Object[n];
+        Object[] vs = new Object[n];
+        HashMap.Node<K, V>[] tab;
+        int count = 0;
+        if (n > 0 && (tab = map.table) != null) {
+            for (HashMap.Node<K, V> e : tab) {
+                for (; e != null; e = e.next) {
+                    hs[count] = rehash ? keyHash(e.key) : e.hash;
+                    ks[count] = e.key;
+                    vs[count] = e.value;
+                    ++count;
+                }
+            }
+        }
+        build(hs, ks, vs, count);
+    }
+
+    /**
+     * 冻结一个Map
+     *
+     * @param map 待冻结的Map
+     * @return 只读的Map
+     */
+    public static <K, V> FrozenHashMap<K, V> of(Map<? extends K, ? extends V> map) {
+        return new FrozenHashMap<>(new HashMap<K, V>(map));
+    }
+
+    /**
+     * 将hash值与种子混合 保证不同种子得到的结果近似独立
+     */
+    static int mix(int hash, int seed) {
+        return HashMapHashing.fmix32(hash ^ seed);
+    }
+
+    /**
+     * 与未开启种子模式的{@link HashMap#keyHash(Object)}相同
+     */
+    final int keyHash(Object key) {
+        HashingStrategy<? super K> s = strategy;
+        int h;
+        return s == null ? HashMap.hash(key) : (key == null) ? 0 : (h = s.hashCode(key)) ^ (h >>> 16);
+    }
+
+    final boolean keyEquals(Object key, Object k) {
+        HashingStrategy<? super K> s;
+        return (s = strategy) == null ? key.equals(k) : k != null && s.equals(key, k);
+    }
+
+    /**
+     * 将32位值均匀映射到 [0, n) 区间 避免取模运算
+     */
+    static int reduce(int h, int n) {
+        return (int)(((h & 0xffffffffL) * n) >>> 32);
+    }
+
+    /**
+     * 构建最小完美哈希
+     * <p>
+     * 1. 先将hash值相同的元素去重 重复的进入溢出区
+     * 2. 按全局种子将元素分配到位移桶中, 按桶大小降序处理
+     * 3. 对包含多个元素的桶 逐个尝试种子直到桶内所有元素都落在空闲且互不冲突的槽位上
+     * 4. 只包含一个元素的桶 直接记录一个空闲槽位 (保证一定能完成构建)
+     */
+    private void build(int[] hs, Object[] ks, Object[] vs, int count) {
+        // 按hash排序 以便找出hash值相同的元素 (高32位hash 低32位原索引)
+        long[] order = new long[count];
+        for (int i = 0; i < count; ++i) { order[i] = ((long)hs[i] << 32) | i; }
+        Arrays.sort(order);
+        int distinct = 0, dup = 0;
+        int[] uniq = new int[count];
+        for (int i = 0; i < count; ++i) {
+            if (i > 0 && (order[i] >> 32) == (order[i - 1] >> 32)) { ++dup; } else { uniq[distinct++] = (int)order[i]; }
+        }
+        if (dup > 0) {
+            overflowHashes = new int[dup];
+            overflowKeys = new Object[dup];
+            overflowValues = new Object[dup];
+            for (int i = 1, j = 0; i < count; ++i) {
+                if ((order[i] >> 32) == (order[i - 1] >> 32)) {
+                    int from = (int)order[i];
+                    overflowHashes[j] = hs[from];
+                    overflowKeys[j] = ks[from];
+                    overflowValues[j] = vs[from];
+                    ++j;
+                }
+            }
+        }
+        orderOverflow();
+        hashes = new int[distinct];
+        keys = new Object[distinct];
+        values = new Object[distinct];
+        int bucketCount = Math.max(1, (distinct + BUCKET_LOAD - 1) / BUCKET_LOAD);
+        displacements = new int[bucketCount];
+        if (distinct == 0) { return; }
+        for (int attempt = 0; ; ++attempt) {
+            seed = mix(attempt, 0x9e3779b9);
+            if (tryBuild(hs, ks, vs, uniq, distinct, bucketCount)) { return; }
+        }
+    }
+
+    /**
+     * 溢出区中hash相同且足够长的段 如果都是同一个可比较类型(与红黑树相同 见{@link HashMap#comparableClassFor(Object)}) 按compareTo排序
+     */
+    private void orderOverflow() {
+        int[] ohs = overflowHashes;
+        boolean[] ordered = null;
+        if (ohs != null && strategy == null) {
+            for (int lo = 0, hi; lo < ohs.length; lo = hi) {
+                for (hi = lo + 1; hi < ohs.length && ohs[hi] == ohs[lo]; ) { ++hi; }
+                if (hi - lo >= MIN_ORDERED_RUN && sortRun(lo, hi)) {
+                    if (ordered == null) { ordered = new boolean[ohs.length]; }
+                    ordered[lo] = true;
+                }
+            }
+        }
+        overflowOrdered = ordered;
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private boolean sortRun(int lo, int hi) {
+        Object[] ok = overflowKeys, ov = overflowValues;
+        Class<?> kc = HashMap.comparableClassFor(ok[lo]);
+        if (kc == null) { return false; }
+        for (int i = lo + 1; i < hi; ++i) {
+            if (ok[i] == null || ok[i].getClass() != kc) { return false; }
+        }
+        Object[][] run = new Object[hi - lo][];
+        for (int i = lo; i < hi; ++i) { run[i - lo] = new Object[]{ok[i], ov[i]}; }
+        Arrays.sort(run, (a, b) -> ((Comparable)a[0]).compareTo(b[0]));
+        for (int i = lo; i < hi; ++i) {
+            ok[i] = run[i - lo][0];
+            ov[i] = run[i - lo][1];
+        }
+        return true;
+    }
+
+    private boolean tryBuild(int[] hs, Object[] ks, Object[] vs, int[] uniq, int n, int bucketCount) {
+        // 计算每个元素所属的位移桶 并按桶分组(计数排序)
+        int[] bucketOf = new int[n];
+        int[] bucketSize = new int[bucketCount];
+        for (int i = 0; i < n; ++i) {
+            ++bucketSize[bucketOf[i] = reduce(mix(hs[uniq[i]], seed), bucketCount)];
+        }
+        int[] bucketStart = new int[bucketCount + 1];
+        for (int b = 0; b < bucketCount; ++b) { bucketStart[b + 1] = bucketStart[b] + bucketSize[b]; }
+        int[] members = new int[n];
+        int[] fill = Arrays.copyOf(bucketStart, bucketCount);
+        for (int i = 0; i < n; ++i) { members[fill[bucketOf[i]]++] = uniq[i]; }
+        // 桶按大小降序处理: 大桶先放, 此时空闲槽位多 容易找到种子 (按桶大小计数排序)
+        int maxSize = 0;
+        for (int b = 0; b < bucketCount; ++b) { maxSize = Math.max(maxSize, bucketSize[b]); }
+        int[] sizeStart = new int[maxSize + 2];
+        for (int b = 0; b < bucketCount; ++b) { ++sizeStart[maxSize - bucketSize[b] + 1]; }
+        for (int i = 1; i < sizeStart.length; ++i) { sizeStart[i] += sizeStart[i - 1]; }
+        int[] bucketOrder = new int[bucketCount];
+        for (int b = 0; b < bucketCount; ++b) { bucketOrder[sizeStart[maxSize - bucketSize[b]]++] = b; }
+
+        boolean[] taken = new boolean[n];
+        int[] slots = new int[maxSize];
+        int freeCursor = 0;
+        for (int b : bucketOrder) {
+            int size = bucketSize[b], start = bucketStart[b];
+            if (size == 0) {
+                displacements[b] = 0;
+            } else if (size == 1) {
+                // 单元素桶直接指定空闲槽位
+                while (taken[freeCursor]) { ++freeCursor; }
+                taken[freeCursor] = true;
+                place(freeCursor, members[start], hs, ks, vs);
+                displacements[b] = -(freeCursor + 1);
+            } else {
+                int d = 0;
+                search:
+                for (; d < MAX_DISPLACE_ATTEMPTS; ++d) {
+                    for (int i = 0; i < size; ++i) {
+                        int slot = reduce(mix(hs[members[start + i]], d), n);
+                        if (taken[slot]) { continue search; }
+                        for (int j = 0; j < i; ++j) {
+                            if (slots[j] == slot) { continue search; }
+                        }
+                        slots[i] = slot;
+                    }
+                    break;
+                }
+                if (d == MAX_DISPLACE_ATTEMPTS) { return false; }
+                for (int i = 0; i < size; ++i) {
+                    taken[slots[i]] = true;
+                    place(slots[i], members[start + i], hs, ks, vs);
+                }
+                displacements[b] = d;
+            }
+        }
+        return true;
+    }
+
+    private void place(int slot, int from, int[] hs, Object[] ks, Object[] vs) {
+        hashes[slot] = hs[from];
+        keys[slot] = ks[from];
+        values[slot] = vs[from];
+    }
+
+    /**
+     * 最小完美哈希函数 hash值在构建集合内时返回唯一的槽位, 否则返回任意槽位
+     */
+    final int slotFor(int hash) {
+        int[] ds = displacements;
+        int n = hashes.length;
+        if (n == 0) { return -1; }
+        int d = ds[reduce(mix(hash, seed), ds.length)];
+        return d < 0 ? -(d + 1) : reduce(mix(hash, d), n);
+    }
+
+    /**
+     * @return key所在槽位 或溢出区索引的补码(负数) 不存在返回{@link Integer#MIN_VALUE}
+     */
+    final int indexOf(Object key) {
+        int hash = keyHash(key);
+        int slot = slotFor(hash);
+        Object k;
+        if (slot >= 0 && hashes[slot] == hash) {
+            if ((k = keys[slot]) == key || (key != null && keyEquals(key, k))) { return slot; }
+            int[] ohs = overflowHashes;
+            if (ohs != null) {
+                // 二分找到hash相同的一段 之后只比较这一段中的元素
+                int lo = 0, hi = ohs.length;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (ohs[mid] < hash) { lo = mid + 1; } else { hi = mid; }
+                }
+                if (lo < ohs.length && ohs[lo] == hash) {
+                    int end = lo + 1;
+                    for (hi = ohs.length; end < hi; ) {
+                        int mid = (end + hi) >>> 1;
+                        if (ohs[mid] > hash) { hi = mid; } else { end = mid + 1; }
+                    }
+                    return indexOfRun(key, lo, end);
+                }
+            }
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    /**
+     * 在溢出区hash相同的一段 [lo, end) 中查找
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private int indexOfRun(Object key, int lo, int end) {
+        Object[] ok = overflowKeys;
+        int hi;
+        Object k;
+        boolean[] ordered;
+        if ((ordered = overflowOrdered) != null && ordered[lo] && key != null &&
+            key.getClass() == ok[lo].getClass()) {
+            // 段内按compareTo有序 二分
+            for (hi = end; lo < hi; ) {
+                int mid = (lo + hi) >>> 1, c = ((Comparable)key).compareTo(ok[mid]);
+                if (c == 0) { return keyEquals(key, ok[mid]) ? ~mid : Integer.MIN_VALUE; }
+                if (c < 0) { hi = mid; } else { lo = mid + 1; }
+            }
+            return Integer.MIN_VALUE;
+        }
+        for (int i = lo; i < end; ++i) {
+            if ((k = ok[i]) == key || (key != null && keyEquals(key, k))) { return ~i; }
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    @Override
+    public int size() {
+        return hashes.length + (overflowHashes == null ? 0 : overflowHashes.length);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+        int i = indexOf(key);
+        return i == Integer.MIN_VALUE ? null : (V)(i >= 0 ? values[i] : overflowValues[~i]);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        int i = indexOf(key);
+        return i == Integer.MIN_VALUE ? defaultValue : (V)(i >= 0 ? values[i] : overflowValues[~i]);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) != Integer.MIN_VALUE;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (Object v : values) {
+            if (Objects.equals(v, value)) { return true; }
+        }
+        if (overflowValues != null) {
+            for (Object v : overflowValues) {
+                if (Objects.equals(v, value)) { return true; }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 与{@link HashMap#hashCode()}相同 使用{@link HashingStrategy}时按策略计算key的hashCode
+     */
+    @Override
+    public int hashCode() {
+        HashingStrategy<? super K> s;
+        if ((s = strategy) == null) {
+            return super.hashCode();
+        }
+        int h = 0;
+        for (Entry<K, V> e : entrySet()) {
+            K k = e.getKey();
+            h += (k == null ? 0 : s.hashCode(k)) ^ Objects.hashCode(e.getValue());
+        }
+        return h;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    /**
+     * @return 与本Map内容相同的可修改HashMap
+     */
+    public HashMap<K, V> thaw() {
+        HashMap<K, V> map = new HashMap<>((int)(size() / HashMap.DEFAULT_LOAD_FACTOR) + 1,
+            HashMap.DEFAULT_LOAD_FACTOR, strategy);
+        map.putAll(this);
+        return map;
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K, V>> {
+        @Override
+        public int size() { return FrozenHashMap.this.size(); }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) { return false; }
+            Entry<?, ?> e = (Entry<?, ?>)o;
+            Object key = e.getKey();
+            return containsKey(key) && Objects.equals(get(key), e.getValue());
+        }
+
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return new Iterator<Entry<K, V>>() {
+                int index;
+
+                @Override
+                public boolean hasNext() { return index < size(); }
+
+                @SuppressWarnings("unchecked")
+                @Override
+                public Entry<K, V> next() {
+                    int i = index, n = hashes.length;
+                    if (i >= size()) { throw new NoSuchElementException(); }
+                    ++index;
+                    return i < n ? new SimpleImmutableEntry<>((K)keys[i], (V)values[i])
+                        : new SimpleImmutableEntry<>((K)overflowKeys[i - n], (V)overflowValues[i - n]);
+                }
+            };
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // 紧凑序列化: 直接写出位移数组和平行数组, 反序列化时不需要重新构建完美哈希
+
+    /**
+     * @return 本Map的紧凑二进制形式 可以用{@link #fromBytes(byte[])}快速加载
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(this);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param blob {@link #toBytes()}的结果
+     * @return 只读Map
+     * @throws IOException 数据损坏或元素类型无法加载
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> FrozenHashMap<K, V> fromBytes(byte[] blob) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(blob))) {
+            return (FrozenHashMap<K, V>)in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new InvalidObjectException(e.toString());
+        }
+    }
+
+    /**
+     * @serialData 全局种子(int), 位移桶数量(int)及每个位移值(int), 槽位数量(int)及每个槽位的 hash(int) key value,
+     * 溢出区数量(int)及每个溢出元素的 hash(int) key value
+     */
+    private void writeObject(ObjectOutputStream s) throws IOException {
+        s.defaultWriteObject();
+        s.writeInt(seed);
+        s.writeInt(displacements.length);
+        for (int d : displacements) { s.writeInt(d); }
+        s.writeInt(hashes.length);
+        for (int i = 0; i < hashes.length; ++i) {
+            s.writeInt(hashes[i]);
+            s.writeObject(keys[i]);
+            s.writeObject(values[i]);
+        }
+        int overflow = overflowHashes == null ? 0 : overflowHashes.length;
+        s.writeInt(overflow);
+        for (int i = 0; i < overflow; ++i) {
+            s.writeInt(overflowHashes[i]);
+            s.writeObject(overflowKeys[i]);
+            s.writeObject(overflowValues[i]);
+        }
+    }
+
+    private void readObject(ObjectInputStream s) throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        seed = s.readInt();
+        int buckets = s.readInt();
+        if (buckets < 1) { throw new InvalidObjectException("Illegal bucket count: " + buckets); }
+        displacements = new int[buckets];
+        for (int i = 0; i < buckets; ++i) { displacements[i] = s.readInt(); }
+        int n = s.readInt();
+        if (n < 0) { throw new InvalidObjectException("Illegal mappings count: " + n); }
+        // 负的位移值直接指定槽位: 槽位超出范围时, 查找不在构建集合内的hash会越界
+        for (int i = 0; i < buckets; ++i) {
+            int d = displacements[i];
+            if (d < 0 && -(d + 1) >= n) { throw new InvalidObjectException("Illegal displacement at bucket " + i + ": " + d); }
+        }
+        hashes = new int[n];
+        keys = new Object[n];
+        values = new Object[n];
+        for (int i = 0; i < n; ++i) {
+            hashes[i] = s.readInt();
+            keys[i] = s.readObject();
+            values[i] = s.readObject();
+        }
+        int overflow = s.readInt();
+        if (overflow < 0) { throw new InvalidObjectException("Illegal overflow count: " + overflow); }
+        if (overflow > 0) {
+            overflowHashes = new int[overflow];
+            overflowKeys = new Object[overflow];
+            overflowValues = new Object[overflow];
+            for (int i = 0; i < overflow; ++i) {
+                overflowHashes[i] = s.readInt();
+                overflowKeys[i] = s.readObject();
+                overflowValues[i] = s.readObject();
+            }
+        }
+        // 使用identityHashCode的key(枚举, 未覆盖hashCode的类型, HashingStrategy.identity())在新的JVM中hash值不同, 重新计算后不一致时重新构建
+        if (!hashesMatch(hashes, keys) || (overflow > 0 && !hashesMatch(overflowHashes, overflowKeys))) {
+            rebuild();
+            return;
+        }
+        // 校验完美哈希: 每个槽位的hash都必须映射回自己
+        for (int i = 0; i < n; ++i) {
+            if (slotFor(hashes[i]) != i) { throw new InvalidObjectException("Corrupt perfect hash at slot " + i); }
+        }
+        for (int i = 1; i < overflow; ++i) {
+            if (overflowHashes[i - 1] > overflowHashes[i]) { throw new InvalidObjectException("Unsorted overflow at " + i); }
+        }
+        orderOverflow();
+    }
+
+    private boolean hashesMatch(int[] hs, Object[] ks) {
+        for (int i = 0; i < hs.length; ++i) {
+            if (hs[i] != keyHash(ks[i])) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * 用重新计算的hash值重新构建完美哈希和溢出区
+     */
+    private void rebuild() {
+        int n = hashes.length, overflow = overflowHashes == null ? 0 : overflowHashes.length;
+        int[] hs = new int[n + overflow];
+        Object[] ks = Arrays.copyOf(keys, n + overflow);
+        Object[] vs = Arrays.copyOf(values, n + overflow);
+        if (overflow > 0) {
+            System.arraycopy(overflowKeys, 0, ks, n, overflow);
+            System.arraycopy(overflowValues, 0, vs, n, overflow);
+        }
+        for (int i = 0; i < hs.length; ++i) { hs[i] = keyHash(ks[i]); }
+        overflowHashes = null;
+        overflowKeys = overflowValues = null;
+        build(hs, ks, vs, hs.length);
+    }
+}
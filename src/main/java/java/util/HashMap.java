@@ -7,6 +7,8 @@ import java.io.InvalidObjectException;
 import java.io.Serializable;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
@@ -35,6 +37,22 @@ public class HashMap<K, V> extends AbstractMap<K, V>
      * 反树化阈值 , 碰撞元素数量 <6 时转为链表 只有在resize过程split树才会用到, 并不是remove时使用
      */
     static final int UNTREEIFY_THRESHOLD = 6;
+    /**
+     * 自适应负载因子: 插入的平均探测长度达到均匀分布期望值的该倍数时 立即扩容
+     */
+    static final float ADAPTIVE_EARLY_RATIO = 2.0f;
+    /**
+     * 自适应负载因子: 负载超过loadFactor后 平均探测长度不超过期望值的该倍数时推迟扩容
+     */
+    static final float ADAPTIVE_DEFER_RATIO = 1.25f;
+    /**
+     * 自适应负载因子: 窗口内至少有这么多次插入才根据探测长度判断
+     */
+    static final int ADAPTIVE_MIN_SAMPLES = 16;
+    /**
+     * 后台扩容的最小数组容量: 更小的数组同步扩容只需要几十微秒, 不值得切换线程
+     */
+    static final int ASYNC_RESIZE_MIN_CAPACITY = 1 << 14;
     /**
      * 最小可树化的数组大小 , 只有数组大小 >=64 时才会启用树化
      */
@@ -44,6 +62,10 @@ public class HashMap<K, V> extends AbstractMap<K, V>
      * 负载因子 默认0.75
      */
     final float loadFactor;
+    /**
+     * 自定义的hash和相等性策略 null表示使用key自身的hashCode和equals 见{@link HashingStrategy}
+     */
+    final HashingStrategy<? super K> strategy;
 
     /* ---------------- 静态公共方法 -------------- */
     /**
@@ -68,6 +90,63 @@ public class HashMap<K, V> extends AbstractMap<K, V>
      * 阈值 也就是哈希实际可以容纳的元素数量 区别于{@link #table}的大小 threshold = {@link #table}.length * {@link #loadFactor}
      */
     int threshold;
+    /**
+     * 种子模式的随机种子 0 表示未开启种子模式(使用确定的{@link #hash(Object)}) 见{@link #useSeededHashing()}
+     */
+    transient int hashSeed;
+    /**
+     * 种子模式下检测到hash洪水攻击后 String key改用以(sipKey0, sipKey1)为密钥的SipHash
+     */
+    transient boolean keyedHashing;
+    transient long sipKey0, sipKey1;
+    /**
+     * 结构事件计数 见{@link #stats()}: 扩容次数, 树化次数, 反树化次数, 红黑树拆分次数. 只是普通的int自增, 热点路径上几乎没有开销
+     */
+    transient int resizeCount, treeifyCount, untreeifyCount, splitCount;
+    /**
+     * 碰撞的bin使用按hash排序的数组{@link CompactBin}代替红黑树 见{@link #useCompactBins()}
+     */
+    transient boolean compactBins;
+    /**
+     * 节点回收池: 按hash直接映射, 每个位置保存最近一个被删除的{@link RecyclableNode}, 再次插入同一个key时由{@link #newNode}复用
+     * 见{@link #useNodeRecycling(int)}. 第一次回收时分配
+     */
+    transient RecyclableNode<K, V>[] freeNodes;
+    /**
+     * 回收池的容量 0表示未开启
+     */
+    transient int maxFreeNodes;
+    /**
+     * 自适应负载因子的范围 maxLoadFactor为0表示未开启 见{@link #useAdaptiveLoadFactor(float, float)}
+     */
+    transient float minLoadFactor, maxLoadFactor;
+    /**
+     * 当前观察窗口(上一次扩容或检查点之后)中 putVal插入链表bin的次数、比较过的节点总数, 以及窗口开始时的size
+     */
+    transient int windowInserts, windowProbes, windowStartSize;
+    /**
+     * 执行后台扩容的线程池 null表示未开启 见{@link #useAsyncResize(Executor)}
+     */
+    transient Executor asyncResizeExecutor;
+    /**
+     * 正在后台构建的新数组 null表示没有进行中的后台扩容
+     */
+    transient AsyncResize<K, V> asyncResize;
+    /**
+     * 查找前置的布隆过滤器 null表示未开启 见{@link #useBloomFilter()}
+     */
+    transient HashMapBloomFilter bloomFilter;
+    /**
+     * 记录每次修改的变更日志 null表示未开启 见{@link #useChangeLog(HashMapChangeLog)}
+     */
+    transient HashMapChangeLog<K, V> changeLog;
+    /**
+     * 是否开启了自适应负载因子、后台扩容、布隆过滤器、变更日志或种子模式的洪水检测中的任何一个 见{@link #updateExtended()}
+     * <p>
+     * putVal/removeNode每次只读取这一个字段, 都没有开启时跳过它们的全部处理; 这些处理放在单独的方法中, 使putVal/removeNode的字节码
+     * 保持在JIT内联的上限(FreqInlineSize 325字节)以内
+     */
+    transient boolean extended;
 
     /**
      * @param initialCapacity 初始数组容量 不是threshold
@@ -75,6 +154,16 @@ public class HashMap<K, V> extends AbstractMap<K, V>
      * @throws IllegalArgumentException 参数不合法异常
      */
     public HashMap(int initialCapacity, float loadFactor) {
+        this(initialCapacity, loadFactor, null);
+    }
+
+    /**
+     * @param initialCapacity 初始数组容量 不是threshold
+     * @param loadFactor      负载因子
+     * @param strategy        hash和相等性策略 null表示使用key自身的hashCode和equals
+     * @throws IllegalArgumentException 参数不合法异常
+     */
+    public HashMap(int initialCapacity, float loadFactor, HashingStrategy<? super K> strategy) {
         if (initialCapacity < 0) {
             throw new IllegalArgumentException("Illegal initial capacity: " +
                 initialCapacity);
@@ -85,6 +174,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 loadFactor);
         }
         this.loadFactor = loadFactor;
+        this.strategy = strategy;
         // 数组未初始化时 使用threshold暂时来存储数组的大小 这里非常容易被误解
         this.threshold = tableSizeFor(initialCapacity);
     }
@@ -99,6 +189,18 @@ public class HashMap<K, V> extends AbstractMap<K, V>
 
     public HashMap() {
         this.loadFactor = DEFAULT_LOAD_FACTOR;
+        this.strategy = null;
+    }
+
+    /**
+     * 使用自定义的hash和相等性 例如 {@code new HashMap<byte[], V>(HashingStrategy.byteArray())}
+     *
+     * @param strategy hash和相等性策略
+     * @throws NullPointerException 空指针异常
+     */
+    public HashMap(HashingStrategy<? super K> strategy) {
+        this.loadFactor = DEFAULT_LOAD_FACTOR;
+        this.strategy = Objects.requireNonNull(strategy);
     }
 
     /**
@@ -109,6 +211,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
      */
     public HashMap(Map<? extends K, ? extends V> sourceMap) {
         this.loadFactor = DEFAULT_LOAD_FACTOR;
+        this.strategy = null;
         putMapEntries(sourceMap, false);
     }
 
@@ -123,10 +226,467 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         return (javaHashCode == null) ? 0 : (h = javaHashCode.hashCode()) ^ (h >>> 16);
     }
 
+    /**
+     * 本Map实际使用的hash函数 默认与{@link #hash(Object)}相同, 开启种子模式后使用带种子的强混合
+     *
+     * @param key key
+     * @return 存放在{@link Node#hash}中的hash值
+     */
+    final int keyHash(Object key) {
+        HashingStrategy<? super K> s = strategy;
+        int h;
+        if (hashSeed == 0) {
+            return s == null ? hash(key) : (key == null) ? 0 : (h = s.hashCode(key)) ^ (h >>> 16);
+        }
+        if (key == null) {
+            return 0;
+        }
+        if (s != null) {
+            return HashMapHashing.fmix32(s.hashCode(key) ^ hashSeed);
+        }
+        if (keyedHashing && key instanceof String) {
+            return HashMapHashing.sipHash24(sipKey0, sipKey1, (String)key);
+        }
+        return HashMapHashing.fmix32(key.hashCode() ^ hashSeed);
+    }
+
+    /**
+     * 本Map使用的相等性 调用方已经排除了 key == k 的情况. 链表、红黑树和紧凑bin的查找都经过这里;
+     * 在节点key字段中保存包装对象的子类覆盖本方法, 取出包装的key再比较
+     *
+     * @param key 查找的key 非null
+     * @param k   Map中已存在的key (节点key字段中的值)
+     * @return 是否相等
+     */
+    boolean keyEquals(Object key, Object k) {
+        HashingStrategy<? super K> s;
+        return (s = strategy) == null ? key.equals(k) : k != null && s.equals(key, k);
+    }
+
+    /**
+     * 开启种子模式(防御hash洪水攻击): 使用每个实例独有的随机种子混合hashCode, 攻击者无法预测key落在哪个bin
+     * <p>
+     * 对于hashCode完全相同的String key, 种子也无法区分; 当{@link #putVal}发现某个链表长度达到{@link #TREEIFY_THRESHOLD}
+     * 且插入的是String时, 整个Map切换为SipHash并重新hash, 而不是树化 (树化只对Comparable的key有效, 否则退化为tieBreakOrder)
+     * <p>
+     * 种子不会被序列化, 反序列化得到的Map使用默认的hash函数
+     *
+     * @return this
+     */
+    public HashMap<K, V> useSeededHashing() {
+        if (hashSeed == 0) {
+            hashSeed = HashMapHashing.randomSeed();
+            updateExtended();
+            rehash();
+        }
+        return this;
+    }
+
+    /**
+     * 碰撞的bin达到树化阈值时 转为按hash排序的紧凑数组{@link CompactBin}而不是红黑树: 节点与普通Node一样大, 查找在连续的int[]上二分
+     * <p>
+     * 只影响之后树化的bin, 已有的红黑树bin保持不变. 超过{@link CompactBin#MAX_SIZE}个元素的bin仍然转为红黑树.
+     * 与红黑树不同, 使用{@link HashingStrategy}的Map也可以使用紧凑bin (hash相同的key之间线性比较)
+     *
+     * @return this
+     */
+    public HashMap<K, V> useCompactBins() {
+        compactBins = true;
+        return this;
+    }
+
+    /**
+     * 开启节点回收: remove/clear释放的节点放入本Map的回收池(按hash直接映射, maxPooled向上取2的幂个位置), 之后再次插入同一个key时复用,
+     * 减少同一批key反复删除、插入的场景下的年轻代分配
+     * <p>
+     * {@link Node#hash}和{@link Node#key}是final字段, 节点只能以原来的key复用, 只替换value和next: 插入的key必须是被删除时的同一个对象(==),
+     * 相等但不是同一个对象的key不复用, 以免改变Map中保存的key对象. 每次都插入新key的场景(例如新会话的id)不会减少分配.
+     * 回收池中的节点在被覆盖或复用之前仍然引用原来的key, 最多maxPooled个
+     * <p>
+     * 通过{@link #entrySet()}的迭代器、forEach或Spliterator交给调用方的节点会被标记为pinned, 永远不会被回收, 所以调用方持有的已删除的Map.Entry
+     * 不会因为同一个key再次插入而重新属于Map. 迭代器与原来一样是fail-fast的: 迭代过程中绕过迭代器修改Map会抛出ConcurrentModificationException,
+     * 迭代器不会读到被复用的节点; forEach、Spliterator以及compute/merge的函数修改了Map时在下一步之前就抛出该异常.
+     * 只回收普通链表节点, 红黑树和紧凑bin的节点不回收
+     * <p>
+     * 回收池不会被克隆或序列化
+     *
+     * @param maxPooled 回收池容量 0表示关闭
+     * @return this
+     */
+    public HashMap<K, V> useNodeRecycling(int maxPooled) {
+        if (maxPooled < 0) {
+            throw new IllegalArgumentException("Illegal pool size: " + maxPooled);
+        }
+        maxFreeNodes = maxPooled;
+        freeNodes = null;
+        return this;
+    }
+
+    /**
+     * 开启自适应负载因子: 扩容时机不再固定为 容量 * loadFactor, 而是根据插入时实际比较的节点数决定
+     * <p>
+     * 扩容后先在 容量 * minLoadFactor 处设置检查点, 之后每插入 容量/16 个元素检查一次: 插入的平均探测长度与均匀分布下的期望值(平均负载)之比达到
+     * {@link #ADAPTIVE_EARLY_RATIO}时立即扩容(hash分布差 提前扩容以缩短链表); 负载达到loadFactor后, 比值超过{@link #ADAPTIVE_DEFER_RATIO}才扩容,
+     * 否则(分布良好)推迟到 容量 * maxLoadFactor. 即在 [minLoadFactor, maxLoadFactor] 之间按观察到的链表长度选择内存与延迟的折中点
+     * <p>
+     * 树化的bin不计入探测长度: 它们的hash完全相同, 扩容无济于事. 需要比翻倍更细的扩容粒度时使用{@link BigHashMap}, 它按段拆分
+     * <p>
+     * 与其他开关一样不会被序列化
+     *
+     * @param minLoadFactor 最早扩容的负载 不大于loadFactor
+     * @param maxLoadFactor 最晚扩容的负载 不小于loadFactor
+     * @return this
+     */
+    public HashMap<K, V> useAdaptiveLoadFactor(float minLoadFactor, float maxLoadFactor) {
+        if (asyncResizeExecutor != null) {
+            throw new IllegalStateException("Adaptive load factor cannot be combined with async resize");
+        }
+        if (!(minLoadFactor > 0 && minLoadFactor <= loadFactor && loadFactor <= maxLoadFactor)) {
+            throw new IllegalArgumentException("Illegal load factor range: [" + minLoadFactor + ", " + maxLoadFactor +
+                "] for load factor " + loadFactor);
+        }
+        this.minLoadFactor = minLoadFactor;
+        this.maxLoadFactor = maxLoadFactor;
+        updateExtended();
+        if (table != null) {
+            threshold = (int)Math.min((float)table.length * minLoadFactor, (float)Integer.MAX_VALUE);
+            startProbeWindow();
+        }
+        return this;
+    }
+
+    /**
+     * 开启自适应负载因子 范围为 [loadFactor * 2/3, loadFactor * 4/3] 默认负载因子下即 [0.5, 1.0]
+     *
+     * @return this
+     */
+    public HashMap<K, V> useAdaptiveLoadFactor() {
+        return useAdaptiveLoadFactor(loadFactor * 2 / 3, loadFactor * 4 / 3);
+    }
+
+    private void startProbeWindow() {
+        windowInserts = windowProbes = 0;
+        windowStartSize = size;
+    }
+
+    /**
+     * size超过threshold时调用: 未开启自适应负载因子时总是扩容; 否则根据当前窗口的探测长度决定现在扩容, 或者提高threshold推迟到下一个检查点
+     *
+     * @return 是否应当扩容
+     */
+    final boolean shouldResize() {
+        Node<K, V>[] tab;
+        int n;
+        if (asyncResizeExecutor != null) {
+            return asyncResizeStep();
+        }
+        if (maxLoadFactor == 0 || (tab = table) == null || (n = tab.length) >= MAXIMUM_CAPACITY) {
+            return true;
+        }
+        float load = (float)size / n;
+        if (load >= maxLoadFactor) {
+            return true;
+        }
+        float ratio = 1.0f;
+        if (windowInserts >= ADAPTIVE_MIN_SAMPLES) {
+            // 均匀分布下 新key所在bin的期望长度等于当时的负载 窗口内取平均
+            float expected = Math.max((float)(windowStartSize + size) / 2 / n, 1.0f / 16);
+            ratio = (float)windowProbes / windowInserts / expected;
+        }
+        if (ratio >= ADAPTIVE_EARLY_RATIO || (load >= loadFactor && ratio > ADAPTIVE_DEFER_RATIO)) {
+            return true;
+        }
+        threshold = (int)Math.min(Math.min((long)size + Math.max(n >>> 4, 1), (long)((float)n * maxLoadFactor)),
+            Integer.MAX_VALUE);
+        startProbeWindow();
+        return false;
+    }
+
+    /**
+     * 开启布隆过滤器: get/containsKey等查找先检查一个{@link HashMapBloomFilter}, 一定不存在的key直接返回, 不访问数组中的bin
+     * <p>
+     * 过滤器每个bin占8位, 是数组本身(每个bin一个引用)的1/4到1/8, 误判率约为0.5%. 实测的误判率见{@link HashMapStats#getBloomFilterFalsePositiveRate()}
+     * <p>
+     * <b>只有过滤器能留在缓存中、并且大多数查找未命中时才更快.</b> 每个查找都多一次依赖的内存访问: 过滤器放得进L2时(约10万个key以内)
+     * 未命中的查找快25%~40%, 但命中的查找耗时变为1.5~2倍; 更大的Map中未命中并不更快, 命中的查找耗时则变为2~3倍.
+     * 因此对大Map没有收益, 只适合中小规模、以未命中为主的查找(例如去重前的预检查). 插入多写一个long, 扩容时重建过滤器.
+     * 见benchmarks中的BloomFilterBenchmark
+     * <p>
+     * 不会被序列化
+     *
+     * @return this
+     */
+    public HashMap<K, V> useBloomFilter() {
+        if (bloomFilter == null) {
+            bloomFilter = new HashMapBloomFilter();
+            bloomFilter.rebuild(table);
+            updateExtended();
+        }
+        return this;
+    }
+
+    /**
+     * 开启变更日志(CDC): put/remove/compute/merge/replace/replaceAll/clear以及Map.Entry.setValue的每一次修改都作为一个事件写入log,
+     * 消费方通过{@link HashMapChangeLog#newCursor()}按自己的节奏批量读取, 不会阻塞写入. 与快照对比相比, 不需要复制和遍历整个Map
+     * <p>
+     * 每次修改多4次数组写入(x86上都是普通的store); 开启后迭代器返回的Map.Entry是包装对象, 以便记录setValue. 一个log只能由一个Map使用,
+     * 克隆得到的Map不使用log, 不会被序列化
+     *
+     * @param log 变更日志 null表示关闭
+     * @return this
+     */
+    public HashMap<K, V> useChangeLog(HashMapChangeLog<K, V> log) {
+        changeLog = log;
+        updateExtended();
+        return this;
+    }
+
+    /**
+     * 开启变更日志时记录一个事件
+     */
+    final void recordChange(int type, K key, V oldValue, V newValue) {
+        HashMapChangeLog<K, V> log;
+        if ((log = changeLog) != null) {
+            log.record(type, key, oldValue, newValue);
+        }
+    }
+
+    /**
+     * 开关改变后重新计算{@link #extended}
+     */
+    final void updateExtended() {
+        extended = maxLoadFactor != 0 || asyncResizeExecutor != null || bloomFilter != null || changeLog != null ||
+            detectsFlooding();
+    }
+
+    /**
+     * 开启后台扩容: size达到threshold的70%时, 由executor在后台构建两倍容量的新数组; 期间前台照常读写旧数组, 修改过的bin被记录下来,
+     * 后台完成后的第一次插入重新复制这些bin并替换table引用. 写线程不会在插入时执行完整的{@link #resize()}, 只承担与后台期间修改量成正比的补齐开销
+     * <p>
+     * 后台构建完成之前size可以暂时超过threshold(链表略长); 容量小于{@link #ASYNC_RESIZE_MIN_CAPACITY}的数组、线程池拒绝任务或任务失败时仍然同步扩容.
+     * 后台扩容复制所有节点, 开启后通过迭代器取得的Map.Entry在扩容后按key重新定位节点 (见{@link AttachedEntry}), 每次交出Entry多分配一个包装对象.
+     * rehash/clear/replaceAll以及同步扩容会取消进行中的后台扩容
+     * <p>
+     * Map本身仍然不是线程安全的: 只能由一个线程读写, 后台线程只读取旧数组. 不能与{@link #useAdaptiveLoadFactor(float, float)}同时使用, 不会被序列化
+     *
+     * @param executor 执行后台扩容的线程池 null表示关闭
+     * @return this
+     */
+    public HashMap<K, V> useAsyncResize(Executor executor) {
+        if (executor != null && maxLoadFactor != 0) {
+            throw new IllegalStateException("Async resize cannot be combined with adaptive load factor");
+        }
+        cancelAsyncResize();
+        asyncResizeExecutor = executor;
+        updateExtended();
+        return this;
+    }
+
+    /**
+     * 后台扩容: 达到threshold的70%时开始, 后台完成后切换到新数组
+     *
+     * @return 是否仍然需要同步扩容 (数组太小、线程池拒绝或任务失败, 且size已超过threshold)
+     */
+    final boolean asyncResizeStep() {
+        AsyncResize<K, V> r = asyncResize;
+        Node<K, V>[] tab = table;
+        if (r == null) {
+            if (tab == null || tab.length < ASYNC_RESIZE_MIN_CAPACITY || tab.length >= MAXIMUM_CAPACITY) {
+                return size > threshold;
+            }
+            if ((long)size * 10 < (long)threshold * 7) {
+                return false;
+            }
+            r = new AsyncResize<>(this, tab);
+            try {
+                asyncResizeExecutor.execute(r);
+            } catch (RejectedExecutionException e) {
+                return size > threshold;
+            }
+            asyncResize = r;
+            return false;
+        }
+        int state = r.state;
+        if (state == AsyncResize.RUNNING) {
+            return false;
+        }
+        asyncResize = null;
+        if (state != AsyncResize.DONE || r.oldTable != tab) {
+            return size > threshold;
+        }
+        table = r.publish(this);
+        threshold = r.newThreshold;
+        if (bloomFilter != null) {
+            bloomFilter.rebuild(table);
+        }
+        ++resizeCount;
+        // 进行中的迭代器仍然指向旧数组
+        ++modCount;
+        return size > threshold;
+    }
+
+    final void cancelAsyncResize() {
+        AsyncResize<K, V> r = asyncResize;
+        if (r != null) {
+            r.cancel();
+            asyncResize = null;
+        }
+    }
+
+    /**
+     * 后台扩容进行中时 标记hash所在的bin被修改
+     */
+    final void markDirty(int hash) {
+        AsyncResize<K, V> r = asyncResize;
+        if (r != null) {
+            r.markDirty(hash);
+        }
+    }
+
+    /**
+     * 节点作为Map.Entry交给调用方: 不能再被回收; 开启变更日志或后台扩容时包装为{@link AttachedEntry}
+     */
+    final Entry<K, V> handOut(Node<K, V> e) {
+        return changeLog == null && asyncResizeExecutor == null ? pin(e) : new AttachedEntry(pin(e));
+    }
+
+    /**
+     * 开启变更日志或后台扩容时迭代器返回的Map.Entry
+     * <p>
+     * setValue记录为{@link HashMapChangeLog.Type#UPDATE}, 并在后台扩容进行中时标记所在的bin, 使publish重新复制它;
+     * 后台扩容publish后节点被复制到了新数组, 此时按key重新定位当前的节点, 所以调用方持有的Entry不会因为后台扩容而脱离Map
+     */
+    final class AttachedEntry implements Entry<K, V> {
+        Node<K, V> node;
+        /**
+         * 定位{@link #node}时的table
+         */
+        Node<K, V>[] tab;
+
+        AttachedEntry(Node<K, V> node) {
+            this.node = node;
+            this.tab = table;
+        }
+
+        /**
+         * @return Map中当前的节点 key已被删除时返回原来的节点
+         */
+        Node<K, V> node() {
+            Node<K, V>[] t;
+            Node<K, V> p;
+            if ((t = table) != tab) {
+                tab = t;
+                if ((p = getNode(keyHash(node.key), node.key)) != null) {
+                    node = pin(p);
+                }
+            }
+            return node;
+        }
+
+        @Override
+        public K getKey() { return node.key; }
+
+        @Override
+        public V getValue() { return node().value; }
+
+        @Override
+        public V setValue(V value) {
+            Node<K, V> p = node();
+            markDirty(p.hash);
+            V oldValue = p.setValue(value);
+            recordChange(HashMapChangeLog.UPDATE, p.key, oldValue, value);
+            return oldValue;
+        }
+
+        @Override
+        public boolean equals(Object o) { return node().equals(o); }
+
+        @Override
+        public int hashCode() { return node().hashCode(); }
+
+        @Override
+        public String toString() { return node().toString(); }
+    }
+
+    /**
+     * 将不再属于Map的节点放回回收池 调用方之后不能再使用该节点
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    final void recycle(Node<K, V> p) {
+        RecyclableNode<K, V>[] pool;
+        // 后台扩容进行中时不回收: 后台线程可能正在读取该节点
+        if (maxFreeNodes != 0 && asyncResize == null && p instanceof RecyclableNode && !((RecyclableNode<K, V>)p).pinned) {
+            if ((pool = freeNodes) == null) {
+                freeNodes = pool = (RecyclableNode<K, V>[])new RecyclableNode[tableSizeFor(maxFreeNodes)];
+            }
+            ((RecyclableNode<K, V>)p).release();
+            pool[p.hash & (pool.length - 1)] = (RecyclableNode<K, V>)p;
+        }
+    }
+
+    /**
+     * 节点作为Map.Entry交给调用方 不能再被回收
+     */
+    static <K, V> Node<K, V> pin(Node<K, V> e) {
+        if (e instanceof RecyclableNode) {
+            ((RecyclableNode<K, V>)e).pinned = true;
+        }
+        return e;
+    }
+
+    /**
+     * 检测到洪水攻击: String key改为SipHash并重新hash
+     */
+    final void switchToKeyedHashing() {
+        keyedHashing = true;
+        sipKey0 = HashMapHashing.randomLong();
+        sipKey1 = HashMapHashing.randomLong();
+        rehash();
+    }
+
+    /**
+     * hash函数改变后 用新的hash值重新放入所有元素 (重新构建Node 已交给调用方的Entry保持不变) 数组容量不变
+     * <p>
+     * 映射关系没有变化, 重新放入期间暂时摘下变更日志, 不记录INSERT事件
+     */
+    final void rehash() {
+        Node<K, V>[] oldTable = table;
+        if (oldTable == null || size == 0) {
+            return;
+        }
+        cancelAsyncResize();
+        int mc = modCount;
+        HashMapChangeLog<K, V> log = changeLog;
+        changeLog = null;
+        try {
+            @SuppressWarnings({"rawtypes", "unchecked"})
+            Node<K, V>[] newTable = (Node<K, V>[])new Node[oldTable.length];
+            table = newTable;
+            size = 0;
+            for (Node<K, V> e : oldTable) {
+                // 红黑树的节点同样通过next串联 可以当作链表遍历
+                for (; e != null; e = e.next) {
+                    K key = e.key;
+                    putVal(keyHash(key), key, e.value, false, false);
+                }
+            }
+        } finally {
+            changeLog = log;
+            // 重新放入期间可能切换为SipHash
+            updateExtended();
+        }
+        if (bloomFilter != null) {
+            bloomFilter.rebuild(table);
+        }
+        modCount = mc + 1;
+    }
+
     /* ---------------- 公开的方法 -------------- */
 
     /**
      * 如果对象{@param keyObj}(Key)继承了Comparable<对象类型>(该对象是可比较大小的) 则返回该对象的类型 ; 否则返回null
+     * <p>
+     * 反射检查的结果按类型缓存在{@link ComparableClasses#CACHE}中, 碰撞严重时treeify/putTreeVal/find会对每个key调用本方法
      *
      * @param keyObj 待检查的对象 通常是Key
      * @return 该对象的类型
@@ -135,33 +695,48 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         if (keyObj instanceof Comparable) {
             // 对象类型
             Class<?> clazz;
-            // 该对象所有的接口类型
-            Type[] allInterfaceTypes;
-            // 遍历过程当前接口类型
-            Type currentType;
-            // 当前接口类型的泛型参数类型
-            ParameterizedType parameterizedType;
-            // 当前接口类型的泛型参数具体类型
-            Type[] actualTypes;
-
             if ((clazz = keyObj.getClass()) == String.class) {
                 // String类型不用检查
                 return clazz;
             }
-            if ((allInterfaceTypes = clazz.getGenericInterfaces()) != null) {
-                for (int i = 0; i < allInterfaceTypes.length; ++i) {
-                    if (((currentType = allInterfaceTypes[i]) instanceof ParameterizedType) &&
-                        ((parameterizedType = (ParameterizedType)currentType).getRawType() ==
-                            Comparable.class) &&
-                        (actualTypes = parameterizedType.getActualTypeArguments()) != null &&
-                        actualTypes.length == 1 && actualTypes[0] == clazz) {
-                        // 判断Comparable<T>的泛型参数T是不是本对象的类型 否则就算实现了Comparable接口也是不可比较的
-                        return clazz;
+            return ComparableClasses.CACHE.get(clazz);
+        }
+        return null;
+    }
+
+    /**
+     * 每个类型的{@link #comparableClassFor(Object)}结果: 如果该类型实现了Comparable<该类型> 则是该类型本身 否则为null
+     * <p>
+     * 放在单独的类中延迟初始化: 覆盖JDK自带的HashMap时, 本类在虚拟机启动早期就被加载, 此时ClassValue依赖的类还不能初始化
+     */
+    private static final class ComparableClasses {
+        static final ClassValue<Class<?>> CACHE = new ClassValue<Class<?>>() {
+            @Override
+            protected Class<?> computeValue(Class<?> clazz) {
+                // 该对象所有的接口类型
+                Type[] allInterfaceTypes;
+                // 遍历过程当前接口类型
+                Type currentType;
+                // 当前接口类型的泛型参数类型
+                ParameterizedType parameterizedType;
+                // 当前接口类型的泛型参数具体类型
+                Type[] actualTypes;
+
+                if ((allInterfaceTypes = clazz.getGenericInterfaces()) != null) {
+                    for (int i = 0; i < allInterfaceTypes.length; ++i) {
+                        if (((currentType = allInterfaceTypes[i]) instanceof ParameterizedType) &&
+                            ((parameterizedType = (ParameterizedType)currentType).getRawType() ==
+                                Comparable.class) &&
+                            (actualTypes = parameterizedType.getActualTypeArguments()) != null &&
+                            actualTypes.length == 1 && actualTypes[0] == clazz) {
+                            // 判断Comparable<T>的泛型参数T是不是本对象的类型 否则就算实现了Comparable接口也是不可比较的
+                            return clazz;
+                        }
                     }
                 }
+                return null;
             }
-        }
-        return null;
+        };
     }
 
     /**
@@ -220,7 +795,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             for (Entry<? extends K, ? extends V> e : sourceMap.entrySet()) {
                 K key = e.getKey();
                 V value = e.getValue();
-                putVal(hash(key), key, value, false, evict);
+                putVal(keyHash(key), key, value, false, evict);
             }
         }
     }
@@ -238,7 +813,23 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     @Override
     public V get(Object key) {
         Node<K, V> e;
-        return (e = getNode(hash(key), key)) == null ? null : e.value;
+        return (e = getNode(keyHash(key), key)) == null ? null : e.value;
+    }
+
+    /**
+     * 新节点插入链表bin末尾时比较过的节点数 即该链表的长度 - 1
+     *
+     * @return 红黑树或紧凑bin返回-1
+     */
+    private int chainProbes(int hash) {
+        Node<K, V>[] tab = table;
+        Node<K, V> e = tab[(tab.length - 1) & hash];
+        if (e instanceof TreeNode || CompactBin.of(e) != null) {
+            return -1;
+        }
+        int probes = 0;
+        while ((e = e.next) != null) { ++probes; }
+        return probes;
     }
 
     /**
@@ -249,6 +840,25 @@ public class HashMap<K, V> extends AbstractMap<K, V>
      * @return {@param key}所关联的完整Node Key或Value是否为null 不影响这里的结果
      */
     final Node<K, V> getNode(int hash, Object key) {
+        HashMapBloomFilter filter;
+        if ((filter = bloomFilter) == null) {
+            return findNode(hash, key);
+        }
+        if (!filter.mightContain(hash)) {
+            // 一定不存在 不访问数组
+            return null;
+        }
+        Node<K, V> e;
+        if ((e = findNode(hash, key)) == null) {
+            ++filter.falsePositives;
+        }
+        return e;
+    }
+
+    /**
+     * {@link #getNode(int, Object)}去掉布隆过滤器之后的查找
+     */
+    private Node<K, V> findNode(int hash, Object key) {
         Node<K, V>[] tab;
         int tableLength;
         K currentKey;
@@ -258,7 +868,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             Node<K, V> targetNode = tab[index];
             if (targetNode != null) {
                 if (targetNode.hash == hash &&
-                    ((currentKey = targetNode.key) == key || (key != null && key.equals(currentKey)))) {
+                    ((currentKey = targetNode.key) == key || (key != null && keyEquals(key, currentKey)))) {
                     // 如果该索引位置的节点的Key与待查找的key相等 则直接返回该元素
                     return targetNode;
                 }
@@ -267,15 +877,26 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                     // 如果该索引处不止一个节点
                     if (targetNode instanceof TreeNode) {
                         // 如果该处是红黑树结构
-                        return ((TreeNode<K, V>)targetNode).getTreeNode(hash, key);
+                        return ((TreeNode<K, V>)targetNode).getTreeNode(this, hash, key);
                     }
+                    CompactBin<K, V> bin;
+                    if ((bin = CompactBin.of(targetNode)) != null) {
+                        // 紧凑bin 二分查找
+                        return bin.find(this, hash, key);
+                    }
+                    int probes = 1;
                     do {
+                        ++probes;
                         // 如果该处只是链表 则遍历至找到相等的key或最后一个结点
                         if (current.hash == hash &&
-                            ((currentKey = current.key) == key || (key != null && key.equals(currentKey)))) {
-                            return current;
+                            ((currentKey = current.key) == key || (key != null && keyEquals(key, currentKey)))) {
+                            break;
                         }
                     } while ((current = current.next) != null);
+                    if (probes >= HashMapEvents.LONG_PROBE_THRESHOLD) {
+                        HashMapEvents.longProbe(this, "get", probes, key);
+                    }
+                    return current;
                 }
             }
         }
@@ -292,12 +913,12 @@ public class HashMap<K, V> extends AbstractMap<K, V>
      */
     @Override
     public boolean containsKey(Object key) {
-        return getNode(hash(key), key) != null;
+        return getNode(keyHash(key), key) != null;
     }
 
     @Override
     public V put(K key, V value) {
-        return putVal(hash(key), key, value, false, true);
+        return putVal(keyHash(key), key, value, false, true);
     }
 
     /**
@@ -325,55 +946,128 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             tab[index] = newNode(hash, key, value, null);
         } else {
             Node<K, V> oldNode;
+            CompactBin<K, V> bin;
             K k;
             if (currentNode.hash == hash &&
-                ((k = currentNode.key) == key || (key != null && key.equals(k)))) {
+                ((k = currentNode.key) == key || (key != null && keyEquals(key, k)))) {
                 // 如果找到了相同的Key的元素 统一在最后设置Value即可(不用新构建Node)
                 oldNode = currentNode;
             } else if (currentNode instanceof TreeNode) {
                 // 如果该节点是红黑树节点(根节点), 类似getNode, 直接调用红黑树putTreeVal进行操作
                 // 同样的 如果红黑树上已经存在了该Key, 则应当返回该Node, 统一设置新Value; 如果没有该元素, 应当返回null
                 oldNode = ((TreeNode<K, V>)currentNode).putTreeVal(this, tab, hash, key, value);
+            } else if ((bin = CompactBin.of(currentNode)) != null) {
+                // 紧凑bin 与红黑树相同 已存在时返回该Node
+                oldNode = bin.putVal(this, tab, index, hash, key, value);
             } else {
                 // 否则说明该节点是个普通的链表节点 向后遍历该链表
-                for (int binCount = 0; ; ++binCount) {
+                int binCount = 0;
+                for (; ; ++binCount) {
                     if ((oldNode = currentNode.next) == null) {
                         // 如果遍历至最后都没有找到相同Key的Node 则新构建Node追加到链表最后
                         currentNode.next = newNode(hash, key, value, null);
-                        if (binCount >= TREEIFY_THRESHOLD - 1) {
-                            // 如果链表节点超过8个 则树化
-                            treeifyBin(tab, hash);
-                        }
                         break;
                     }
                     if (oldNode.hash == hash &&
-                        ((k = oldNode.key) == key || (key != null && key.equals(k)))) {
+                        ((k = oldNode.key) == key || (key != null && keyEquals(key, k)))) {
                         break;
                     }
                     // 如果在遍历过程找到了该Key 记录下它 在下面统一设置新值
                     currentNode = oldNode;
                 }
+                // 比较过的节点数: 头结点 + 遍历的binCount + 1个后继
+                if (binCount >= HashMapEvents.LONG_PROBE_THRESHOLD - 2) {
+                    longChain(hash, key, binCount, oldNode);
+                }
             }
             if (oldNode != null) {
-                V oldValue = oldNode.value;
-                if (!onlyIfAbsent || oldValue == null) {
-                    // 为已存在的Node设置新的Value
-                    oldNode.value = value;
-                }
-                // 在Node被访问后做一些事情 (做缓存时有用 , 访问后代表该数据是热点数据)
-                afterNodeAccess(oldNode);
-                return oldValue;
+                return putExisting(oldNode, value, onlyIfAbsent);
             }
         }
         ++modCount;
-        if (++size > threshold) {
+        if (++size > threshold || extended) {
             // 容量超出了阈值(期望的容量) 扩容
-            resize();
+            afterInsert(hash, key, value);
         }
         afterNodeInsertion(evict);
         return null;
     }
 
+    /**
+     * putVal在链表bin中比较的节点数达到{@link HashMapEvents#LONG_PROBE_THRESHOLD}时调用: 记录事件;
+     * 插入后链表节点超过8个时树化. 种子模式下插入String key时不树化, 由{@link #afterInsert}判断是否遇到了洪水攻击
+     *
+     * @param binCount 遍历的节点数 (不含头结点和最后一个后继)
+     * @param oldNode  找到的相同key的节点 null表示在链表末尾插入了新节点
+     */
+    private void longChain(int hash, K key, int binCount, Node<K, V> oldNode) {
+        if (oldNode == null && binCount >= TREEIFY_THRESHOLD - 1 && !(detectsFlooding() && key instanceof String)) {
+            treeifyBin(table, hash);
+        }
+        HashMapEvents.longProbe(this, "put", binCount + 2, key);
+    }
+
+    /**
+     * 种子模式下还没有切换为SipHash 需要检测洪水攻击
+     */
+    private boolean detectsFlooding() {
+        return hashSeed != 0 && !keyedHashing && strategy == null;
+    }
+
+    /**
+     * putVal找到了相同key的节点
+     *
+     * @return 原来的value
+     */
+    private V putExisting(Node<K, V> oldNode, V value, boolean onlyIfAbsent) {
+        V oldValue = oldNode.value;
+        if (!onlyIfAbsent || oldValue == null) {
+            // 为已存在的Node设置新的Value
+            oldNode.value = value;
+            if (extended) {
+                markDirty(oldNode.hash);
+                recordChange(HashMapChangeLog.UPDATE, oldNode.key, oldValue, value);
+            }
+        }
+        // 在Node被访问后做一些事情 (做缓存时有用 , 访问后代表该数据是热点数据)
+        afterNodeAccess(oldNode);
+        return oldValue;
+    }
+
+    /**
+     * putVal插入新节点并增加size之后 size超过threshold或开启了{@link #extended}中的功能时调用
+     * <p>
+     * 后台扩容只在前台的{@link #resize()}中读取被修改的bin, 所以插入完成后再标记也不会遗漏
+     */
+    private void afterInsert(int hash, K key, V value) {
+        boolean ext = extended;
+        int probes = -1;
+        if (ext) {
+            markDirty(hash);
+            if (bloomFilter != null) {
+                bloomFilter.add(hash);
+            }
+            if (maxLoadFactor != 0 || detectsFlooding()) {
+                probes = chainProbes(hash);
+            }
+            if (probes >= 0) {
+                ++windowInserts;
+                windowProbes += probes;
+            }
+        }
+        if (size > threshold ? shouldResize() : ext && asyncResizeExecutor != null && asyncResizeStep()) {
+            // 后台扩容模式下在阈值之前就开始后台构建, 完成后在这里切换
+            resize();
+        }
+        if (probes >= TREEIFY_THRESHOLD && detectsFlooding() && key instanceof String) {
+            // 种子模式下String key仍然大量碰撞 说明hashCode本身相同(洪水攻击) longChain没有树化, 切换为SipHash
+            switchToKeyedHashing();
+        }
+        if (ext) {
+            recordChange(HashMapChangeLog.INSERT, key, null, value);
+        }
+    }
+
     /**
      * 原话翻译: 初始化或翻倍表大小, 如果为空，则根据字段阈值中保存的初始容量目标进行分配。 否则，因为我们使用的是2的幂，所以每个bin中的元素必须保持相同的索引，或者在新表中以2的幂偏移。
      * <p>
@@ -382,16 +1076,21 @@ public class HashMap<K, V> extends AbstractMap<K, V>
      * @return 扩容后的数组
      */
     final Node<K, V>[] resize() {
+        cancelAsyncResize();
         Node<K, V>[] oldTable = table;
         int oldCapacity = (oldTable == null) ? 0 : oldTable.length;
         int oldThreshold = threshold;
         int newCapacity, newThreshold = 0;
+        Object resizeEvent = null;
         if (oldCapacity > 0) {
             // 如果数组已经初始化过了
             if (oldCapacity >= MAXIMUM_CAPACITY) {
                 threshold = Integer.MAX_VALUE;
                 return oldTable;
-            } else if ((newCapacity = oldCapacity << 1) < MAXIMUM_CAPACITY &&
+            }
+            ++resizeCount;
+            resizeEvent = HashMapEvents.beginResize();
+            if ((newCapacity = oldCapacity << 1) < MAXIMUM_CAPACITY &&
                 oldCapacity >= DEFAULT_INITIAL_CAPACITY) {
                 // 数组容量范围 阈值翻倍
                 newThreshold = oldThreshold << 1;
@@ -411,7 +1110,12 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             newThreshold = (newCapacity < MAXIMUM_CAPACITY && ft < (float)MAXIMUM_CAPACITY ?
                 (int)ft : Integer.MAX_VALUE);
         }
+        if (maxLoadFactor != 0 && newCapacity < MAXIMUM_CAPACITY) {
+            // 自适应负载因子 第一个检查点
+            newThreshold = (int)((float)newCapacity * minLoadFactor);
+        }
         threshold = newThreshold;
+        startProbeWindow();
         @SuppressWarnings({"rawtypes", "unchecked"})
         Node<K, V>[] newTable = (Node<K, V>[])new Node[newCapacity];
         // 替换原数组
@@ -429,6 +1133,9 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                         // 红黑树的节点可能不再在新数组的bin上碰撞 它们可能索引不变 也可能是偏移原数组容量个位置 (扩容的那一侧)
                         // 所以红黑树这里用了一个split函数 拆分树
                         ((TreeNode<K, V>)currentNode).split(this, newTable, j, oldCapacity);
+                    } else if (currentNode instanceof CompactNode && ((CompactNode<K, V>)currentNode).bin != null) {
+                        // 紧凑bin的拆分与链表相同 两侧各自仍然有序
+                        ((CompactNode<K, V>)currentNode).bin.split(this, newTable, j, oldCapacity);
                     } else {
                         // 这里特别备注了 保留原顺序
                         // 虽然链表会拆分 一部分留在扩容前那一侧 一部分会偏移到扩容的那一侧 但是顺序不变
@@ -477,6 +1184,12 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 }
             }
         }
+        if (bloomFilter != null) {
+            bloomFilter.rebuild(newTable);
+        }
+        if (resizeEvent != null) {
+            HashMapEvents.commitResize(resizeEvent, this, oldCapacity, newCapacity);
+        }
         return newTable;
     }
 
@@ -489,10 +1202,21 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         if (tab == null || (tableLength = tab.length) < MIN_TREEIFY_CAPACITY) {
             // 当数组容量 < 64时, 只扩容 不树化 (以此来降低碰撞概率)
             resize();
+        } else if (strategy != null && !compactBins) {
+            // 自定义相等性的Map不树化: 红黑树按compareTo排序查找, 与策略的相等性可能不一致 (例如忽略大小写的String)
+            return;
         } else if (
             (oldNode = tab[index = (tableLength - 1) & hash]) != null) {
+            ++treeifyCount;
+            if (compactBins) {
+                int binSize = CompactBin.build(this, tab, index);
+                HashMapEvents.treeify(this, tableLength, binSize, tab[index].key, false);
+                return;
+            }
             TreeNode<K, V> headNode = null, lastNode = null;
+            int binSize = 0;
             do {
+                ++binSize;
                 // 将链表中的每个链表节点替换为树节点
                 TreeNode<K, V> currentNode = replacementTreeNode(oldNode, null);
                 if (lastNode == null) {
@@ -506,6 +1230,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             if ((tab[index] = headNode) != null) {
                 // 从根节点开始树化
                 headNode.treeify(tab);
+                HashMapEvents.treeify(this, tableLength, binSize, headNode.key, false);
             }
         }
     }
@@ -521,11 +1246,214 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         putMapEntries(sourceMap, true);
     }
 
+    /**
+     * 执行一批修改: 按最坏情况一次扩容, 按bin分组后依次执行, 整批只增加一次modCount 见{@link HashMapWriteBatch}
+     * <p>
+     * 同一个key的操作按加入批的顺序执行, 不同key之间的顺序不确定. 执行期间merge的函数抛出异常时, 已执行的操作不会撤销
+     *
+     * @param batch 要执行的批 执行后不变
+     */
+    public void apply(HashMapWriteBatch<K, V> batch) {
+        int n = batch.size;
+        if (n == 0) {
+            return;
+        }
+        int growth = batch.insertions;
+        if (growth > 0) {
+            long expected = (long)size + growth;
+            if (table == null) {
+                // 与putMapEntries相同 按期望的元素数量分配数组
+                float ft = (float)expected / loadFactor + 1.0F;
+                int capacity = ft < (float)MAXIMUM_CAPACITY ? (int)ft : MAXIMUM_CAPACITY;
+                if (capacity > threshold) {
+                    threshold = tableSizeFor(capacity);
+                }
+                resize();
+            }
+            while (expected > threshold && table.length < MAXIMUM_CAPACITY) {
+                resize();
+            }
+        }
+        Node<K, V>[] tab = table;
+        if (tab == null) {
+            // 空Map上只有删除
+            return;
+        }
+        int[] order = batch.groupByBin(this::keyHash, tab.length);
+        int[] hashes = batch.hashes;
+        int mc = modCount;
+        boolean keyed = keyedHashing;
+        for (int j = 0; j < n; ++j) {
+            int i = order[j];
+            K key = batch.key(i);
+            // 执行期间可能切换为SipHash 之后重新计算hash
+            int hash = keyedHashing == keyed ? hashes[i] : keyHash(key);
+            switch (batch.ops[i]) {
+                case HashMapWriteBatch.PUT:
+                    putVal(hash, key, batch.value(i), false, true);
+                    break;
+                case HashMapWriteBatch.REMOVE:
+                    recycle(removeNode(hash, key, null, false, true));
+                    break;
+                default:
+                    merge(key, batch.value(i), batch.function(i));
+                    break;
+            }
+        }
+        if (modCount != mc) {
+            modCount = mc + 1;
+        }
+    }
+
+    /**
+     * 与另一个HashMap比较, 报告从本Map变为other所需的修改 见{@link HashMapDiff}
+     * <p>
+     * 两个Map的hash函数相同(同一个{@link HashingStrategy}, 相同的种子)时不重新计算hashCode, 直接使用节点中保存的hash值:
+     * 按bin顺序同步遍历两个数组, 容量不同时较大数组中下标对较小容量取模相同的bin合为一组, 同一个key在两个Map中一定落在同一组.
+     * 先在other中查找本组的每个节点(先比较hash值再调用equals), 全部找到且other的这一组没有多余的节点时不需要反向查找.
+     * hash函数不同时退化为在对方中逐个查找
+     * <p>
+     * value使用equals比较. 报告按本Map的bin顺序, consumer中不能修改两个Map
+     *
+     * @param other    新版本
+     * @param consumer 接收每个差异 oldValue是本Map中的value, newValue是other中的value
+     * @throws ConcurrentModificationException 比较期间Map被修改
+     */
+    public void diff(HashMap<K, V> other, HashMapDiff.DiffConsumer<? super K, ? super V> consumer) {
+        if (other == null || consumer == null) { throw new NullPointerException(); }
+        if (other == this) {
+            return;
+        }
+        if (!other.plainNodes()) {
+            // 不能直接比较对方的节点 与它的元素的快照比较
+            other = new HashMap<>(other);
+        }
+        int mc = modCount, otherMc = other.modCount;
+        compare(other, consumer);
+        if (modCount != mc || other.modCount != otherMc) {
+            throw new ConcurrentModificationException();
+        }
+    }
+
+    /**
+     * 与{@link #diff(HashMap, HashMapDiff.DiffConsumer)}相同 把差异收集到结果中
+     *
+     * @param other 新版本
+     * @return 差异
+     */
+    public HashMapDiff<K, V> diff(HashMap<K, V> other) {
+        HashMapDiff<K, V> diff = new HashMapDiff<>(strategy);
+        diff(other, diff::record);
+        return diff;
+    }
+
+    /**
+     * 与hash函数相同的HashMap比较时按bin同步遍历 见{@link #diff(HashMap, HashMapDiff.DiffConsumer)}, 否则与{@link AbstractMap#equals}相同
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof HashMap) || !plainNodes() || !((HashMap<?, ?>)o).plainNodes() || !sameHashing((HashMap<?, ?>)o)) {
+            return super.equals(o);
+        }
+        HashMap<K, V> m = (HashMap<K, V>)o;
+        return m.size == size && compare(m, null);
+    }
+
+    /**
+     * 使用{@link HashingStrategy}时按策略计算key的hashCode (与{@link IdentityHashMap#hashCode()}相同), 按策略相等的两个Map的hashCode也相同
+     */
+    @Override
+    public int hashCode() {
+        HashingStrategy<? super K> s;
+        Node<K, V>[] tab;
+        if ((s = strategy) == null) {
+            return super.hashCode();
+        }
+        int h = 0;
+        if (size > 0 && (tab = table) != null) {
+            for (Node<K, V> e : tab) {
+                for (; e != null; e = e.next) {
+                    K k = e.key;
+                    h += (k == null ? 0 : s.hashCode(k)) ^ Objects.hashCode(e.value);
+                }
+            }
+        }
+        return h;
+    }
+
+    /**
+     * @return hashCode相同时 两个Map计算的hash值是否一定相同
+     */
+    final boolean sameHashing(HashMap<?, ?> other) {
+        return Objects.equals(strategy, other.strategy) && hashSeed == other.hashSeed && keyedHashing == other.keyedHashing &&
+            (!keyedHashing || sipKey0 == other.sipKey0 && sipKey1 == other.sipKey1);
+    }
+
+    /**
+     * @param consumer null表示只判断是否相等: 调用方已经比较过size, 只需要在other中查找本Map的节点, 遇到第一个差异时返回
+     * @return 没有找到差异
+     */
+    private boolean compare(HashMap<K, V> other, HashMapDiff.DiffConsumer<? super K, ? super V> consumer) {
+        Node<K, V>[] a = table, b = other.table;
+        int na = a == null ? 0 : a.length, nb = b == null ? 0 : b.length;
+        boolean same = sameHashing(other);
+        // 组数 hash函数不同(或者一边没有数组)时只有一组
+        int groups = same ? Math.max(Math.min(na, nb), 1) : 1;
+        for (int g = 0; g < groups; ++g) {
+            int matched = 0;
+            for (int i = g; i < na; i += groups) {
+                for (Node<K, V> e = a[i]; e != null; e = e.next) {
+                    K key = e.key;
+                    Node<K, V> o = other.findNode(same ? e.hash : other.keyHash(key), key);
+                    if (o == null) {
+                        if (consumer == null) { return false; }
+                        consumer.accept(HashMapDiff.Type.REMOVED, key, e.value, null);
+                        continue;
+                    }
+                    ++matched;
+                    V v = e.value, ov = o.value;
+                    if (v != ov && (v == null || !v.equals(ov))) {
+                        if (consumer == null) { return false; }
+                        consumer.accept(HashMapDiff.Type.CHANGED, key, v, ov);
+                    }
+                }
+            }
+            if (consumer == null) {
+                continue;
+            }
+            // other的这一组中比匹配数多出的节点是新增的
+            int count = 0;
+            for (int i = g; i < nb; i += groups) {
+                for (Node<K, V> e = b[i]; e != null; e = e.next) { ++count; }
+            }
+            if (count == matched) {
+                continue;
+            }
+            for (int i = g; i < nb; i += groups) {
+                for (Node<K, V> e = b[i]; e != null; e = e.next) {
+                    K key = e.key;
+                    if (findNode(same ? e.hash : keyHash(key), key) == null) {
+                        consumer.accept(HashMapDiff.Type.ADDED, key, null, e.value);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
     @Override
     public V remove(Object key) {
         Node<K, V> e;
-        return (e = removeNode(hash(key), key, null, false, true)) == null ?
-            null : e.value;
+        if ((e = removeNode(keyHash(key), key, null, false, true)) == null) {
+            return null;
+        }
+        V oldValue = e.value;
+        recycle(e);
+        return oldValue;
     }
 
     /**
@@ -550,19 +1478,19 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             K k;
             V v;
             if (currentNode.hash == hash &&
-                ((k = currentNode.key) == key || (key != null && key.equals(k)))) {
+                ((k = currentNode.key) == key || (key != null && keyEquals(key, k)))) {
                 // key相等 说明是期望删除的Node
                 targetNode = currentNode;
             } else if ((nextNode = currentNode.next) != null) {
-                if (currentNode instanceof TreeNode) {
-                    // 委托给红黑树去查找节点
-                    targetNode = ((TreeNode<K, V>)currentNode).getTreeNode(hash, key);
+                if (currentNode instanceof TreeNode || CompactBin.of(currentNode) != null) {
+                    // 委托给红黑树或紧凑bin去查找节点
+                    targetNode = findInBin(currentNode, hash, key);
                 } else {
                     // 如果是普通链表节点 则遍历查找
                     do {
                         if (nextNode.hash == hash &&
                             ((k = nextNode.key) == key ||
-                                (key != null && key.equals(k)))) {
+                                (key != null && keyEquals(key, k)))) {
                             targetNode = nextNode;
                             break;
                         }
@@ -573,9 +1501,9 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             if (targetNode != null && (!matchValue || (v = targetNode.value) == value ||
                 (value != null && value.equals(v)))) {
                 // 找到了目标节点
-                if (targetNode instanceof TreeNode) {
-                    // 红黑树节点委托给红黑树去删除
-                    ((TreeNode<K, V>)targetNode).removeTreeNode(this, tab, movable);
+                if (currentNode instanceof TreeNode || CompactBin.of(currentNode) != null) {
+                    // 红黑树或紧凑bin 此时currentNode仍是头结点
+                    removeFromBin(tab, index, targetNode, movable);
                 } else if (targetNode == currentNode) {
                     // 如果targetNode == currentNode 说明是链表第一个节点; 否则currentNode应当是targetNode的下一节点
                     tab[index] = targetNode.next;
@@ -584,6 +1512,9 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 }
                 ++modCount;
                 --size;
+                if (extended) {
+                    afterExtendedRemoval(tab, targetNode);
+                }
                 afterNodeRemoval(targetNode);
                 return targetNode;
             }
@@ -591,13 +1522,59 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         return null;
     }
 
+    /**
+     * removeNode在红黑树或紧凑bin中查找
+     *
+     * @param first bin的头结点
+     */
+    private Node<K, V> findInBin(Node<K, V> first, int hash, Object key) {
+        return first instanceof TreeNode ? ((TreeNode<K, V>)first).getTreeNode(this, hash, key) :
+            CompactBin.of(first).find(this, hash, key);
+    }
+
+    /**
+     * removeNode从红黑树或紧凑bin中删除节点
+     */
+    private void removeFromBin(Node<K, V>[] tab, int index, Node<K, V> node, boolean movable) {
+        if (node instanceof TreeNode) {
+            ((TreeNode<K, V>)node).removeTreeNode(this, tab, movable);
+        } else {
+            CompactBin.of(node).removeNode(this, tab, index, (CompactNode<K, V>)node);
+        }
+    }
+
+    /**
+     * 开启了{@link #extended}中的功能时 removeNode删除节点后调用
+     */
+    private void afterExtendedRemoval(Node<K, V>[] tab, Node<K, V> removed) {
+        markDirty(removed.hash);
+        if (bloomFilter != null && bloomFilter.removed(tab.length)) {
+            // 被删除的key仍然占据过滤器中的位 删除足够多之后重建
+            bloomFilter.rebuild(tab);
+        }
+        recordChange(HashMapChangeLog.REMOVE, removed.key, removed.value, null);
+    }
+
     @Override
     public void clear() {
         Node<K, V>[] tab;
         modCount++;
+        cancelAsyncResize();
         if ((tab = table) != null && size > 0) {
             size = 0;
+            if (maxFreeNodes != 0) {
+                for (int i = 0; i < tab.length; ++i) {
+                    for (Node<K, V> e = tab[i], next; e != null; e = next) {
+                        next = e.next;
+                        recycle(e);
+                    }
+                }
+            }
             for (int i = 0; i < tab.length; ++i) { tab[i] = null; }
+            if (bloomFilter != null) {
+                bloomFilter.rebuild(tab);
+            }
+            recordChange(HashMapChangeLog.CLEAR, null, null, null);
         }
     }
 
@@ -651,29 +1628,45 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
     }
 
+    /**
+     * 以响应式流的方式导出所有元素: 支持request(n)背压, 可以按bin范围拆分并行导出 见{@link HashMapFlow}
+     *
+     * @param executor 执行发送的线程池 null表示在调用request的线程中发送
+     */
+    public HashMapFlow.Publisher<Entry<K, V>> entryPublisher(Executor executor) {
+        return HashMapFlow.entries(this, executor);
+    }
+
     @Override
     public V getOrDefault(Object key, V defaultValue) {
         Node<K, V> e;
-        return (e = getNode(hash(key), key)) == null ? defaultValue : e.value;
+        return (e = getNode(keyHash(key), key)) == null ? defaultValue : e.value;
     }
 
     @Override
     public V putIfAbsent(K key, V value) {
-        return putVal(hash(key), key, value, true, true);
+        return putVal(keyHash(key), key, value, true, true);
     }
 
     @Override
     public boolean remove(Object key, Object value) {
-        return removeNode(hash(key), key, value, true, true) != null;
+        Node<K, V> e;
+        if ((e = removeNode(keyHash(key), key, value, true, true)) == null) {
+            return false;
+        }
+        recycle(e);
+        return true;
     }
 
     @Override
     public boolean replace(K key, V oldValue, V newValue) {
         Node<K, V> e;
         V v;
-        if ((e = getNode(hash(key), key)) != null &&
+        if ((e = getNode(keyHash(key), key)) != null &&
             ((v = e.value) == oldValue || (v != null && v.equals(oldValue)))) {
+            markDirty(e.hash);
             e.value = newValue;
+            recordChange(HashMapChangeLog.UPDATE, e.key, v, newValue);
             afterNodeAccess(e);
             return true;
         }
@@ -685,9 +1678,11 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     @Override
     public V replace(K key, V value) {
         Node<K, V> e;
-        if ((e = getNode(hash(key), key)) != null) {
+        if ((e = getNode(keyHash(key), key)) != null) {
             V oldValue = e.value;
+            markDirty(e.hash);
             e.value = value;
+            recordChange(HashMapChangeLog.UPDATE, e.key, oldValue, value);
             afterNodeAccess(e);
             return oldValue;
         }
@@ -698,22 +1693,25 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     public V computeIfAbsent(K key,
                              Function<? super K, ? extends V> mappingFunction) {
         if (mappingFunction == null) { throw new NullPointerException(); }
-        int hash = hash(key);
+        int hash = keyHash(key);
         Node<K, V>[] tab;
         Node<K, V> first;
         int n, i;
         int binCount = 0;
         TreeNode<K, V> t = null;
+        CompactBin<K, V> bin = null;
         Node<K, V> old = null;
-        if (size > threshold || (tab = table) == null ||
+        if (size > threshold && shouldResize() || (tab = table) == null ||
             (n = tab.length) == 0) { n = (tab = resize()).length; }
+        markDirty(hash);
         if ((first = tab[i = (n - 1) & hash]) != null) {
-            if (first instanceof TreeNode) { old = (t = (TreeNode<K, V>)first).getTreeNode(hash, key); } else {
+            if (first instanceof TreeNode) { old = (t = (TreeNode<K, V>)first).getTreeNode(this, hash, key); } else if (
+                (bin = CompactBin.of(first)) != null) { old = bin.find(this, hash, key); } else {
                 Node<K, V> e = first;
                 K k;
                 do {
                     if (e.hash == hash &&
-                        ((k = e.key) == key || (key != null && key.equals(k)))) {
+                        ((k = e.key) == key || (key != null && keyEquals(key, k)))) {
                         old = e;
                         break;
                     }
@@ -726,19 +1724,27 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 return oldValue;
             }
         }
+        int mc = modCount;
         V v = mappingFunction.apply(key);
+        // 函数中修改了Map时old可能已被删除并回收复用
+        if (mc != modCount) { throw new ConcurrentModificationException(); }
         if (v == null) {
             return null;
         } else if (old != null) {
             old.value = v;
+            recordChange(HashMapChangeLog.UPDATE, old.key, null, v);
             afterNodeAccess(old);
             return v;
-        } else if (t != null) { t.putTreeVal(this, tab, hash, key, v); } else {
+        } else if (t != null) { t.putTreeVal(this, tab, hash, key, v); } else if (bin != null) {
+            bin.putVal(this, tab, i, hash, key, v);
+        } else {
             tab[i] = newNode(hash, key, v, first);
             if (binCount >= TREEIFY_THRESHOLD - 1) { treeifyBin(tab, hash); }
         }
         ++modCount;
         ++size;
+        if (bloomFilter != null) { bloomFilter.add(hash); }
+        recordChange(HashMapChangeLog.INSERT, key, null, v);
         afterNodeInsertion(true);
         return v;
     }
@@ -749,15 +1755,19 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         if (remappingFunction == null) { throw new NullPointerException(); }
         Node<K, V> e;
         V oldValue;
-        int hash = hash(key);
+        int hash = keyHash(key);
+        markDirty(hash);
         if ((e = getNode(hash, key)) != null &&
             (oldValue = e.value) != null) {
+            int mc = modCount;
             V v = remappingFunction.apply(key, oldValue);
+            if (mc != modCount) { throw new ConcurrentModificationException(); }
             if (v != null) {
                 e.value = v;
+                recordChange(HashMapChangeLog.UPDATE, e.key, oldValue, v);
                 afterNodeAccess(e);
                 return v;
-            } else { removeNode(hash, key, null, false, true); }
+            } else { recycle(removeNode(hash, key, null, false, true)); }
         }
         return null;
     }
@@ -766,22 +1776,25 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     public V compute(K key,
                      BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
         if (remappingFunction == null) { throw new NullPointerException(); }
-        int hash = hash(key);
+        int hash = keyHash(key);
         Node<K, V>[] tab;
         Node<K, V> first;
         int n, i;
         int binCount = 0;
         TreeNode<K, V> t = null;
+        CompactBin<K, V> bin = null;
         Node<K, V> old = null;
-        if (size > threshold || (tab = table) == null ||
+        if (size > threshold && shouldResize() || (tab = table) == null ||
             (n = tab.length) == 0) { n = (tab = resize()).length; }
+        markDirty(hash);
         if ((first = tab[i = (n - 1) & hash]) != null) {
-            if (first instanceof TreeNode) { old = (t = (TreeNode<K, V>)first).getTreeNode(hash, key); } else {
+            if (first instanceof TreeNode) { old = (t = (TreeNode<K, V>)first).getTreeNode(this, hash, key); } else if (
+                (bin = CompactBin.of(first)) != null) { old = bin.find(this, hash, key); } else {
                 Node<K, V> e = first;
                 K k;
                 do {
                     if (e.hash == hash &&
-                        ((k = e.key) == key || (key != null && key.equals(k)))) {
+                        ((k = e.key) == key || (key != null && keyEquals(key, k)))) {
                         old = e;
                         break;
                     }
@@ -790,19 +1803,26 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             }
         }
         V oldValue = (old == null) ? null : old.value;
+        int mc = modCount;
         V v = remappingFunction.apply(key, oldValue);
+        if (mc != modCount) { throw new ConcurrentModificationException(); }
         if (old != null) {
             if (v != null) {
                 old.value = v;
+                recordChange(HashMapChangeLog.UPDATE, old.key, oldValue, v);
                 afterNodeAccess(old);
-            } else { removeNode(hash, key, null, false, true); }
+            } else { recycle(removeNode(hash, key, null, false, true)); }
         } else if (v != null) {
-            if (t != null) { t.putTreeVal(this, tab, hash, key, v); } else {
+            if (t != null) { t.putTreeVal(this, tab, hash, key, v); } else if (bin != null) {
+                bin.putVal(this, tab, i, hash, key, v);
+            } else {
                 tab[i] = newNode(hash, key, v, first);
                 if (binCount >= TREEIFY_THRESHOLD - 1) { treeifyBin(tab, hash); }
             }
             ++modCount;
             ++size;
+            if (bloomFilter != null) { bloomFilter.add(hash); }
+            recordChange(HashMapChangeLog.INSERT, key, null, v);
             afterNodeInsertion(true);
         }
         return v;
@@ -813,22 +1833,25 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                    BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
         if (value == null) { throw new NullPointerException(); }
         if (remappingFunction == null) { throw new NullPointerException(); }
-        int hash = hash(key);
+        int hash = keyHash(key);
         Node<K, V>[] tab;
         Node<K, V> first;
         int n, i;
         int binCount = 0;
         TreeNode<K, V> t = null;
+        CompactBin<K, V> bin = null;
         Node<K, V> old = null;
-        if (size > threshold || (tab = table) == null ||
+        if (size > threshold && shouldResize() || (tab = table) == null ||
             (n = tab.length) == 0) { n = (tab = resize()).length; }
+        markDirty(hash);
         if ((first = tab[i = (n - 1) & hash]) != null) {
-            if (first instanceof TreeNode) { old = (t = (TreeNode<K, V>)first).getTreeNode(hash, key); } else {
+            if (first instanceof TreeNode) { old = (t = (TreeNode<K, V>)first).getTreeNode(this, hash, key); } else if (
+                (bin = CompactBin.of(first)) != null) { old = bin.find(this, hash, key); } else {
                 Node<K, V> e = first;
                 K k;
                 do {
                     if (e.hash == hash &&
-                        ((k = e.key) == key || (key != null && key.equals(k)))) {
+                        ((k = e.key) == key || (key != null && keyEquals(key, k)))) {
                         old = e;
                         break;
                     }
@@ -837,21 +1860,30 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             }
         }
         if (old != null) {
-            V v;
-            if (old.value != null) { v = remappingFunction.apply(old.value, value); } else { v = value; }
+            V v, oldValue = old.value;
+            if (oldValue != null) {
+                int mc = modCount;
+                v = remappingFunction.apply(oldValue, value);
+                if (mc != modCount) { throw new ConcurrentModificationException(); }
+            } else { v = value; }
             if (v != null) {
                 old.value = v;
+                recordChange(HashMapChangeLog.UPDATE, old.key, oldValue, v);
                 afterNodeAccess(old);
-            } else { removeNode(hash, key, null, false, true); }
+            } else { recycle(removeNode(hash, key, null, false, true)); }
             return v;
         }
         if (value != null) {
-            if (t != null) { t.putTreeVal(this, tab, hash, key, value); } else {
+            if (t != null) { t.putTreeVal(this, tab, hash, key, value); } else if (bin != null) {
+                bin.putVal(this, tab, i, hash, key, value);
+            } else {
                 tab[i] = newNode(hash, key, value, first);
                 if (binCount >= TREEIFY_THRESHOLD - 1) { treeifyBin(tab, hash); }
             }
             ++modCount;
             ++size;
+            if (bloomFilter != null) { bloomFilter.add(hash); }
+            recordChange(HashMapChangeLog.INSERT, key, null, value);
             afterNodeInsertion(true);
         }
         return value;
@@ -864,9 +1896,12 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         if (size > 0 && (tab = table) != null) {
             int mc = modCount;
             for (int i = 0; i < tab.length; ++i) {
-                for (Node<K, V> e = tab[i]; e != null; e = e.next) { action.accept(e.key, e.value); }
+                for (Node<K, V> e = tab[i]; e != null; e = e.next) {
+                    action.accept(e.key, e.value);
+                    // 每一步都检查: action删除的节点可能已被回收复用, 不能再沿next走下去
+                    if (modCount != mc) { throw new ConcurrentModificationException(); }
+                }
             }
-            if (modCount != mc) { throw new ConcurrentModificationException(); }
         }
     }
 
@@ -876,12 +1911,16 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         if (function == null) { throw new NullPointerException(); }
         if (size > 0 && (tab = table) != null) {
             int mc = modCount;
+            // 修改所有value 后台扩容的结果全部作废
+            cancelAsyncResize();
             for (int i = 0; i < tab.length; ++i) {
                 for (Node<K, V> e = tab[i]; e != null; e = e.next) {
-                    e.value = function.apply(e.key, e.value);
+                    V oldValue = e.value, v = function.apply(e.key, oldValue);
+                    if (modCount != mc) { throw new ConcurrentModificationException(); }
+                    e.value = v;
+                    recordChange(HashMapChangeLog.UPDATE, e.key, oldValue, v);
                 }
             }
-            if (modCount != mc) { throw new ConcurrentModificationException(); }
         }
     }
 
@@ -905,6 +1944,61 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         return result;
     }
 
+    /**
+     * 冻结: 将当前内容构建为只读的{@link FrozenHashMap} 适用于启动时构建一次 之后只读的场景
+     * <p>
+     * 冻结后的Map使用最小完美哈希 没有链表和红黑树, get只需一次探测和一次equals; 之后对本Map的修改不影响冻结的结果
+     *
+     * @return 只读的Map
+     */
+    public FrozenHashMap<K, V> freeze() {
+        return new FrozenHashMap<>(this);
+    }
+
+    /**
+     * 桶形状统计快照: 链表长度分布, 红黑树bin的数量和深度, 空桶比例, 容量与threshold, 以及扩容/树化/反树化/拆分的累计次数
+     * <p>
+     * 需要遍历整个数组 O(capacity), 只在调用时计算; 累计次数在热点路径上只是普通的int自增. 可以通过{@link HashMapMonitor}注册到JMX
+     *
+     * @return 统计快照
+     * @throws ConcurrentModificationException 统计过程中Map被修改
+     */
+    public HashMapStats stats() {
+        int mc = modCount;
+        Node<K, V>[] tab = table;
+        int[] chainHistogram = new int[HashMapStats.HISTOGRAM_BUCKETS];
+        int emptyBuckets = 0, treeBins = 0, treeBinEntries = 0, maxTreeDepth = 0, maxChainLength = 0;
+        CompactBin<K, V> bin;
+        if (tab != null) {
+            for (Node<K, V> first : tab) {
+                if (first == null) {
+                    ++emptyBuckets;
+                } else if (first instanceof TreeNode) {
+                    ++treeBins;
+                    for (Node<K, V> e = first; e != null; e = e.next) { ++treeBinEntries; }
+                    // 红黑树的根节点总是在bin的第一个位置 (moveRootToFront)
+                    maxTreeDepth = Math.max(maxTreeDepth, HashMapStats.treeDepth((TreeNode<K, V>)first));
+                } else if ((bin = CompactBin.of(first)) != null) {
+                    // 紧凑bin按二分查找的深度计入
+                    ++treeBins;
+                    treeBinEntries += bin.size;
+                    maxTreeDepth = Math.max(maxTreeDepth, 32 - Integer.numberOfLeadingZeros(bin.size));
+                } else {
+                    int length = 0;
+                    for (Node<K, V> e = first; e != null; e = e.next) { ++length; }
+                    maxChainLength = Math.max(maxChainLength, length);
+                    ++chainHistogram[Math.min(length, HashMapStats.HISTOGRAM_BUCKETS - 1)];
+                }
+            }
+        }
+        if (modCount != mc) { throw new ConcurrentModificationException(); }
+        HashMapBloomFilter filter = bloomFilter;
+        return new HashMapStats(size, capacity(), threshold, loadFactor, emptyBuckets, chainHistogram,
+            maxChainLength, treeBins, treeBinEntries, maxTreeDepth, resizeCount, treeifyCount, untreeifyCount,
+            splitCount, filter == null ? 0 : filter.blocks.length * 64, filter == null ? 0 : filter.negatives,
+            filter == null ? 0 : filter.falsePositives);
+    }
+
     // These methods are also used when serializing HashSets
     final float loadFactor() { return loadFactor; }
 
@@ -984,19 +2078,34 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 K key = (K)s.readObject();
                 @SuppressWarnings("unchecked")
                 V value = (V)s.readObject();
-                putVal(hash(key), key, value, false, false);
+                putVal(keyHash(key), key, value, false, false);
             }
         }
     }
 
     // Create a regular (non-tree) node
     Node<K, V> newNode(int hash, K key, V value, Node<K, V> next) {
-        return new Node<>(hash, key, value, next);
+        return maxFreeNodes == 0 ? new Node<>(hash, key, value, next) : pooledNode(hash, key, value, next);
+    }
+
+    /**
+     * 开启节点回收后创建节点: 回收池中有同一个key的节点时取出复用
+     */
+    private Node<K, V> pooledNode(int hash, K key, V value, Node<K, V> next) {
+        RecyclableNode<K, V>[] pool;
+        RecyclableNode<K, V> p;
+        int i;
+        if ((pool = freeNodes) != null && (p = pool[i = hash & (pool.length - 1)]) != null && p.hash == hash && p.key == key) {
+            pool[i] = null;
+            p.reuse(value, next);
+            return p;
+        }
+        return new RecyclableNode<>(hash, key, value, next);
     }
 
     // For conversion from TreeNodes to plain nodes
     Node<K, V> replacementNode(Node<K, V> p, Node<K, V> next) {
-        return new Node<>(p.hash, p.key, p.value, next);
+        return newNode(p.hash, p.key, p.value, next);
     }
 
     // Create a tree bin node
@@ -1009,6 +2118,16 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         return new TreeNode<>(p.hash, p.key, p.value, next);
     }
 
+    // Create a compact bin node
+    CompactNode<K, V> newCompactNode(int hash, K key, V value, Node<K, V> next) {
+        return new CompactNode<>(hash, key, value, next);
+    }
+
+    // For CompactBin.build
+    CompactNode<K, V> replacementCompactNode(Node<K, V> p, Node<K, V> next) {
+        return new CompactNode<>(p.hash, p.key, p.value, next);
+    }
+
     /* ------------------------------------------------------------ */
     // iterators
 
@@ -1023,6 +2142,24 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         modCount = 0;
         threshold = 0;
         size = 0;
+        resizeCount = treeifyCount = untreeifyCount = splitCount = 0;
+        windowInserts = windowProbes = windowStartSize = 0;
+        // 克隆得到的Map不能与原Map共享回收池
+        freeNodes = null;
+        // 克隆得到的Map不能取消原Map的后台扩容
+        asyncResize = null;
+        // 一个变更日志只能有一个写入方
+        changeLog = null;
+        if (bloomFilter != null) {
+            // 克隆得到的Map使用自己的过滤器 分配数组时重建
+            bloomFilter = new HashMapBloomFilter();
+        }
+        if (hashSeed != 0) {
+            // 克隆得到的Map使用新的种子
+            hashSeed = HashMapHashing.randomSeed();
+            keyedHashing = false;
+        }
+        updateExtended();
     }
 
     // Callbacks to allow LinkedHashMap post-actions
@@ -1032,6 +2169,11 @@ public class HashMap<K, V> extends AbstractMap<K, V>
 
     void afterNodeRemoval(Node<K, V> p) { }
 
+    /**
+     * 节点的key和value字段是否就是元素本身 是时{@link #equals}和{@link #diff}直接比较节点; 在节点中保存包装对象的子类返回false
+     */
+    boolean plainNodes() { return true; }
+
     /* ------------------------------------------------------------ */
     // spliterators
 
@@ -1100,6 +2242,54 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         }
     }
 
+    /**
+     * 开启节点回收后{@link #newNode}创建的节点 pinned字段正好占用Node对象对齐的填充空间, 不增加内存
+     *
+     * @param <K> key类型
+     * @param <V> value类型
+     */
+    static final class RecyclableNode<K, V> extends Node<K, V> {
+        /**
+         * 已作为Map.Entry交给调用方 不能再回收
+         */
+        boolean pinned;
+
+        RecyclableNode(int hash, K key, V value, Node<K, V> next) {
+            super(hash, key, value, next);
+        }
+
+        /**
+         * 放回回收池 释放对value的引用, key保留用于匹配之后的插入
+         */
+        void release() {
+            this.value = null;
+            this.next = null;
+        }
+
+        /**
+         * 从回收池取出 以原来的hash和key复用为新的映射
+         */
+        void reuse(V value, Node<K, V> next) {
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    /**
+     * 紧凑bin的节点 只比{@link Node}多一个指向所在{@link CompactBin}的引用; bin为null时就是普通的链表节点
+     * (紧凑bin退化为链表时节点对象保持不变)
+     *
+     * @param <K> key类型
+     * @param <V> value类型
+     */
+    static final class CompactNode<K, V> extends Node<K, V> {
+        CompactBin<K, V> bin;
+
+        CompactNode(int hash, K key, V value, Node<K, V> next) {
+            super(hash, key, value, next);
+        }
+    }
+
     static class HashMapSpliterator<K, V> {
         final HashMap<K, V> map;
         Node<K, V> current;          // current node
@@ -1169,10 +2359,10 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 do {
                     if (p == null) { p = tab[i++]; } else {
                         action.accept(p.key);
+                        if (m.modCount != mc) { throw new ConcurrentModificationException(); }
                         p = p.next;
                     }
                 } while (p != null || i < hi);
-                if (m.modCount != mc) { throw new ConcurrentModificationException(); }
             }
         }
 
@@ -1247,10 +2437,10 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 do {
                     if (p == null) { p = tab[i++]; } else {
                         action.accept(p.value);
+                        if (m.modCount != mc) { throw new ConcurrentModificationException(); }
                         p = p.next;
                     }
                 } while (p != null || i < hi);
-                if (m.modCount != mc) { throw new ConcurrentModificationException(); }
             }
         }
 
@@ -1311,11 +2501,11 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 current = null;
                 do {
                     if (p == null) { p = tab[i++]; } else {
-                        action.accept(p);
+                        action.accept(m.handOut(p));
+                        if (m.modCount != mc) { throw new ConcurrentModificationException(); }
                         p = p.next;
                     }
                 } while (p != null || i < hi);
-                if (m.modCount != mc) { throw new ConcurrentModificationException(); }
             }
         }
 
@@ -1329,7 +2519,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                     if (current == null) { current = tab[index++]; } else {
                         Node<K, V> e = current;
                         current = current.next;
-                        action.accept(e);
+                        action.accept(map.handOut(e));
                         if (map.modCount != expectedModCount) { throw new ConcurrentModificationException(); }
                         return true;
                     }
@@ -1386,18 +2576,30 @@ public class HashMap<K, V> extends AbstractMap<K, V>
 
         /**
          * Tie-breaking utility for ordering insertions when equal hashCodes and non-comparable. We don't require a
-         * total order, just a consistent insertion rule to maintain equivalence across rebalancings. Tie-breaking
-         * further than necessary simplifies testing a bit.
+         * total order, just a consistent insertion rule to maintain equivalence across rebalancings.
+         * <p>
+         * 走到这里的两个key扰动后的hash值相同, 而扰动函数是可逆的, 所以它们的hashCode也相同, 任何由hashCode派生的二级hash都无法区分它们.
+         * 原实现使用{@link System#identityHashCode(Object)}, 每次调用都可能让对象头膨胀(写入identity hash), 代价不小.
+         * 由于find在无法比较时会同时搜索左右子树, 插入方向只需要一致即可: null排在最前, 不同类型按类名排序(同名时按类型对象的identityHashCode), 同类型一律插入左侧, 红黑树的平衡不受影响.
+         * null以及不同类型之间的方向必须与参数顺序无关, 否则同一个树中可比较的key之间不再有序, find按compareTo只搜索一侧时会漏掉key
          */
         static int tieBreakOrder(Object a, Object b) {
-            int d;
-            if (a == null || b == null ||
-                (d = a.getClass().getName().
-                    compareTo(b.getClass().getName())) == 0) {
-                d = (System.identityHashCode(a) <= System.identityHashCode(b) ?
-                    -1 : 1);
+            Class<?> ca, cb;
+            if (a == null) {
+                return -1;
+            }
+            if (b == null) {
+                return 1;
+            }
+            if ((ca = a.getClass()) == (cb = b.getClass())) {
+                return -1;
+            }
+            int d = ca.getName().compareTo(cb.getName());
+            if (d == 0) {
+                // 不同类加载器加载的同名类型 同样需要与参数顺序无关的方向
+                d = Integer.compare(System.identityHashCode(ca), System.identityHashCode(cb));
             }
-            return d;
+            return d == 0 ? -1 : d;
         }
 
         static <K, V> TreeNode<K, V> rotateLeft(TreeNode<K, V> root,
@@ -1584,22 +2786,22 @@ public class HashMap<K, V> extends AbstractMap<K, V>
 
         /**
          * Finds the node starting at root p with the given hash and key. The kc argument caches comparableClassFor(key)
-         * upon first use comparing keys.
+         * upon first use comparing keys. Keys are compared with {@link HashMap#keyEquals} of the given map.
          */
-        final TreeNode<K, V> find(int h, Object k, Class<?> kc) {
+        final TreeNode<K, V> find(HashMap<K, V> map, int h, Object k, Class<?> kc) {
             TreeNode<K, V> p = this;
             do {
                 int ph, dir;
                 K pk;
                 TreeNode<K, V> pl = p.left, pr = p.right, q;
                 if ((ph = p.hash) > h) { p = pl; } else if (ph < h) { p = pr; } else if ((pk = p.key) == k || (k != null
-                    && k.equals(pk))) {
+                    && map.keyEquals(k, pk))) {
                     return p;
                 } else if (pl == null) {
                     p = pr;
                 } else if (pr == null) { p = pl; } else if ((kc != null ||
                     (kc = comparableClassFor(k)) != null) &&
-                    (dir = compareComparables(kc, k, pk)) != 0) { p = (dir < 0) ? pl : pr; } else if ((q = pr.find(h, k,
+                    (dir = compareComparables(kc, k, pk)) != 0) { p = (dir < 0) ? pl : pr; } else if ((q = pr.find(map, h, k,
                     kc)) != null) { return q; } else { p = pl; }
             } while (p != null);
             return null;
@@ -1608,8 +2810,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         /**
          * Calls find for root node.
          */
-        final TreeNode<K, V> getTreeNode(int h, Object k) {
-            return ((parent != null) ? root() : this).find(h, k, null);
+        final TreeNode<K, V> getTreeNode(HashMap<K, V> map, int h, Object k) {
+            return ((parent != null) ? root() : this).find(map, h, k, null);
         }
 
         /* ------------------------------------------------------------ */
@@ -1655,12 +2857,17 @@ public class HashMap<K, V> extends AbstractMap<K, V>
          * Returns a list of non-TreeNodes replacing those linked from this node.
          */
         final Node<K, V> untreeify(HashMap<K, V> map) {
+            ++map.untreeifyCount;
             Node<K, V> hd = null, tl = null;
+            int binSize = 0;
             for (Node<K, V> q = this; q != null; q = q.next) {
                 Node<K, V> p = map.replacementNode(q, null);
                 if (tl == null) { hd = p; } else { tl.next = p; }
                 tl = p;
+                ++binSize;
             }
+            Node<K, V>[] tab = map.table;
+            HashMapEvents.treeify(map, tab == null ? 0 : tab.length, binSize, key, true);
             return hd;
         }
 
@@ -1676,7 +2883,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 int dir, ph;
                 K pk;
                 if ((ph = p.hash) > h) { dir = -1; } else if (ph < h) { dir = 1; } else if ((pk = p.key) == k || (
-                    k != null && k.equals(pk))) {
+                    k != null && map.keyEquals(k, pk))) {
                     return p;
                 } else if ((kc == null &&
                     (kc = comparableClassFor(k)) == null) ||
@@ -1685,9 +2892,9 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                         TreeNode<K, V> q, ch;
                         searched = true;
                         if (((ch = p.left) != null &&
-                            (q = ch.find(h, k, kc)) != null) ||
+                            (q = ch.find(map, h, k, kc)) != null) ||
                             ((ch = p.right) != null &&
-                                (q = ch.find(h, k, kc)) != null)) { return q; }
+                                (q = ch.find(map, h, k, kc)) != null)) { return q; }
                     }
                     dir = tieBreakOrder(k, pk);
                 }
@@ -1792,6 +2999,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
          * @param oldTableCapacity   原数组大小
          */
         final void split(HashMap<K, V> map, Node<K, V>[] newTable, int index, int oldTableCapacity) {
+            ++map.splitCount;
             TreeNode<K, V> thisNode = this;
             // 先当成链表拆分 并且也会保留顺序
             TreeNode<K, V> lowHead = null, lowTail = null;
@@ -1858,7 +3066,12 @@ public class HashMap<K, V> extends AbstractMap<K, V>
 
         @Override
         public final boolean remove(Object key) {
-            return removeNode(hash(key), key, null, false, true) != null;
+            Node<K, V> e;
+            if ((e = removeNode(keyHash(key), key, null, false, true)) == null) {
+                return false;
+            }
+            recycle(e);
+            return true;
         }
 
         @Override
@@ -1873,9 +3086,11 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             if (size > 0 && (tab = table) != null) {
                 int mc = modCount;
                 for (int i = 0; i < tab.length; ++i) {
-                    for (Node<K, V> e = tab[i]; e != null; e = e.next) { action.accept(e.key); }
+                    for (Node<K, V> e = tab[i]; e != null; e = e.next) {
+                        action.accept(e.key);
+                        if (modCount != mc) { throw new ConcurrentModificationException(); }
+                    }
                 }
-                if (modCount != mc) { throw new ConcurrentModificationException(); }
             }
         }
     }
@@ -1905,9 +3120,11 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             if (size > 0 && (tab = table) != null) {
                 int mc = modCount;
                 for (int i = 0; i < tab.length; ++i) {
-                    for (Node<K, V> e = tab[i]; e != null; e = e.next) { action.accept(e.value); }
+                    for (Node<K, V> e = tab[i]; e != null; e = e.next) {
+                        action.accept(e.value);
+                        if (modCount != mc) { throw new ConcurrentModificationException(); }
+                    }
                 }
-                if (modCount != mc) { throw new ConcurrentModificationException(); }
             }
         }
     }
@@ -1929,8 +3146,10 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             if (!(o instanceof Map.Entry)) { return false; }
             Entry<?, ?> e = (Entry<?, ?>)o;
             Object key = e.getKey();
-            Node<K, V> candidate = getNode(hash(key), key);
-            return candidate != null && candidate.equals(e);
+            Node<K, V> candidate = getNode(keyHash(key), key);
+            // 自定义相等性时key已经由getNode按策略比较过 只需比较value
+            return candidate != null && (strategy == null ? candidate.equals(e) :
+                Objects.equals(candidate.value, e.getValue()));
         }
 
         @Override
@@ -1939,7 +3158,12 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 Entry<?, ?> e = (Entry<?, ?>)o;
                 Object key = e.getKey();
                 Object value = e.getValue();
-                return removeNode(hash(key), key, value, true, true) != null;
+                Node<K, V> p;
+                if ((p = removeNode(keyHash(key), key, value, true, true)) == null) {
+                    return false;
+                }
+                recycle(p);
+                return true;
             }
             return false;
         }
@@ -1956,9 +3180,11 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             if (size > 0 && (tab = table) != null) {
                 int mc = modCount;
                 for (int i = 0; i < tab.length; ++i) {
-                    for (Node<K, V> e = tab[i]; e != null; e = e.next) { action.accept(e); }
+                    for (Node<K, V> e = tab[i]; e != null; e = e.next) {
+                        action.accept(handOut(e));
+                        if (modCount != mc) { throw new ConcurrentModificationException(); }
+                    }
                 }
-                if (modCount != mc) { throw new ConcurrentModificationException(); }
             }
         }
     }
@@ -2000,7 +3226,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             if (modCount != expectedModCount) { throw new ConcurrentModificationException(); }
             current = null;
             K key = p.key;
-            removeNode(hash(key), key, null, false, false);
+            recycle(removeNode(keyHash(key), key, null, false, false));
             expectedModCount = modCount;
         }
     }
@@ -2023,7 +3249,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     final class EntryIterator extends HashIterator
         implements Iterator<Entry<K, V>> {
         @Override
-        public final Entry<K, V> next() { return nextNode(); }
+        public final Entry<K, V> next() { return handOut(nextNode()); }
     }
 
 }
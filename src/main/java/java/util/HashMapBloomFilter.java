@@ -0,0 +1,93 @@
+package java.util;
+
+import java.util.HashMap.Node;
+
+/**
+ * HashMap前置的分块布隆过滤器(blocked Bloom filter) 见{@link HashMap#useBloomFilter()}
+ * <p>
+ * 每个key只对应一个64位的块: 块的下标是扰动后hash值的低位(与bin下标同源, 每8个bin平均一个块, 即每个bin 8位), 块内的{@link #BITS_PER_KEY}位由
+ * fmix32(hash)的四个6位片段决定. 一次查询只读取一个long, 未命中的key约99.5%在这里就被拒绝.
+ * 这个long与bin不在同一个缓存行, 所以只有过滤器本身留在缓存中时才能省下访问数组的时间 见{@link HashMap#useBloomFilter()}
+ * <p>
+ * 不支持删除: 删除只计数, 被删除的key的位留在过滤器中(只增加误判, 不会漏判); 扩容、clear或删除次数达到容量的一半时按当前内容重建
+ */
+final class HashMapBloomFilter {
+
+    /**
+     * 每个key在块中设置的位数
+     */
+    static final int BITS_PER_KEY = 4;
+    /**
+     * 每个块(long)覆盖的bin数
+     */
+    static final int BINS_PER_BLOCK = 8;
+
+    long[] blocks = new long[1];
+    /**
+     * 上次重建之后的删除次数
+     */
+    int removals;
+    /**
+     * 被过滤器拒绝的查询数 (key一定不存在)
+     */
+    long negatives;
+    /**
+     * 通过了过滤器 但key不存在的查询数
+     */
+    long falsePositives;
+
+    static long mask(int hash) {
+        int m = HashMapHashing.fmix32(hash);
+        return (1L << m) | (1L << (m >>> 6)) | (1L << (m >>> 12)) | (1L << (m >>> 18));
+    }
+
+    void add(int hash) {
+        long[] bs = blocks;
+        bs[hash & (bs.length - 1)] |= mask(hash);
+    }
+
+    /**
+     * @return false表示hash一定不在Map中
+     */
+    boolean mightContain(int hash) {
+        long[] bs = blocks;
+        long mask = mask(hash);
+        if ((bs[hash & (bs.length - 1)] & mask) != mask) {
+            ++negatives;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 删除一个元素后调用
+     *
+     * @return 是否应当重建
+     */
+    boolean removed(int capacity) {
+        return ++removals >= capacity >>> 1;
+    }
+
+    /**
+     * 按数组的当前内容重建 块数随数组容量变化
+     */
+    void rebuild(Node<?, ?>[] tab) {
+        int capacity = tab == null ? 0 : tab.length;
+        int n = Math.max(1, capacity / BINS_PER_BLOCK);
+        long[] bs = blocks;
+        if (bs.length == n) {
+            Arrays.fill(bs, 0L);
+        } else {
+            blocks = bs = new long[n];
+        }
+        removals = 0;
+        if (tab != null) {
+            for (Node<?, ?> first : tab) {
+                // 红黑树和紧凑bin的节点同样通过next串联
+                for (Node<?, ?> e = first; e != null; e = e.next) {
+                    bs[e.hash & (n - 1)] |= mask(e.hash);
+                }
+            }
+        }
+    }
+}
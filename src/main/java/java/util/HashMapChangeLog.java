@@ -0,0 +1,205 @@
+package java.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * HashMap的变更日志(CDC): 记录每一次修改的环形缓冲区 见{@link HashMap#useChangeLog(HashMapChangeLog)}
+ * <p>
+ * 写入方是Map所在的线程(Map不是线程安全的, 所以只有一个写线程), 消费方是任意数量的{@link Cursor}, 每个Cursor在自己的线程中按自己的节奏读取.
+ * 写入从不等待消费方: 缓冲区满时直接覆盖最旧的事件, 落后超过一圈的Cursor跳过被覆盖的部分并计入{@link Cursor#lost()}, 这时需要重新全量同步
+ * <p>
+ * 没有锁也没有CAS: 每个槽位有一个版本号(序号和事件类型), 写入方先把它置为-1, 再写入key/旧value/新value, 最后写入新的版本号, 全部是lazySet(release);
+ * 消费方读取版本号、数据、再读一次版本号(全部是acquire), 两次版本号一致且等于期望的序号才说明读到的数据属于该事件. x86上这些读写都是普通的内存访问
+ * <p>
+ * 事件持有key和value的强引用, 直到槽位被覆盖
+ *
+ * @param <K> key类型
+ * @param <V> value类型
+ */
+public final class HashMapChangeLog<K, V> {
+
+    /**
+     * 事件类型
+     */
+    public enum Type {
+        /**
+         * 插入新的key oldValue为null
+         */
+        INSERT,
+        /**
+         * 已存在的key被设置了value (值可能没有变化) 包括put/replace/compute/merge/replaceAll/Map.Entry.setValue
+         */
+        UPDATE,
+        /**
+         * 删除key newValue为null
+         */
+        REMOVE,
+        /**
+         * clear 清空了所有key, key和value都为null
+         */
+        CLEAR
+    }
+
+    static final int INSERT = 0, UPDATE = 1, REMOVE = 2, CLEAR = 3;
+    private static final Type[] TYPES = Type.values();
+    /**
+     * 版本号的低2位是事件类型
+     */
+    private static final int TYPE_BITS = 2;
+    /**
+     * 写入中的槽位的版本号
+     */
+    private static final long WRITING = -1L;
+
+    /**
+     * 接收事件
+     */
+    @FunctionalInterface
+    public interface ChangeConsumer<K, V> {
+        void accept(Type type, K key, V oldValue, V newValue);
+    }
+
+    private final int mask;
+    private final AtomicLongArray stamps;
+    private final AtomicReferenceArray<Object> keys, oldValues, newValues;
+    /**
+     * 已写入的事件数 即下一个事件的序号
+     */
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * tail的写入方本地副本 避免读取原子变量
+     */
+    private long next;
+
+    /**
+     * @param capacity 保留的事件数 向上取整为2的幂
+     * @throws IllegalArgumentException 参数不合法异常
+     */
+    public HashMapChangeLog(int capacity) {
+        if (capacity <= 0 || capacity > HashMap.MAXIMUM_CAPACITY) {
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        }
+        int n = HashMap.tableSizeFor(capacity);
+        mask = n - 1;
+        stamps = new AtomicLongArray(n);
+        for (int i = 0; i < n; ++i) {
+            // 序号0的槽位在写入之前不能被当作已写入
+            stamps.lazySet(i, WRITING);
+        }
+        keys = new AtomicReferenceArray<>(n);
+        oldValues = new AtomicReferenceArray<>(n);
+        newValues = new AtomicReferenceArray<>(n);
+    }
+
+    /**
+     * @return 保留的事件数
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return 已记录的事件总数
+     */
+    public long position() {
+        return tail.get();
+    }
+
+    /**
+     * 由Map的写线程调用
+     */
+    void record(int type, Object key, Object oldValue, Object newValue) {
+        long seq = next;
+        int i = (int)seq & mask;
+        stamps.lazySet(i, WRITING);
+        keys.lazySet(i, key);
+        oldValues.lazySet(i, oldValue);
+        newValues.lazySet(i, newValue);
+        stamps.lazySet(i, seq << TYPE_BITS | type);
+        next = seq + 1;
+        tail.lazySet(seq + 1);
+    }
+
+    /**
+     * @return 从当前位置开始读取的Cursor (只能看到之后的事件)
+     */
+    public Cursor newCursor() {
+        return new Cursor(tail.get());
+    }
+
+    /**
+     * 一个消费方的读取位置 只能由一个线程使用
+     */
+    public final class Cursor {
+        private long position;
+        private long lost;
+
+        Cursor(long position) {
+            this.position = position;
+        }
+
+        /**
+         * @return 下一个要读取的事件序号
+         */
+        public long position() {
+            return position;
+        }
+
+        /**
+         * @return 因为落后超过{@link #capacity()}而被覆盖、没有读到的事件总数
+         */
+        public long lost() {
+            return lost;
+        }
+
+        /**
+         * @return 尚未读取的事件数 (可能包括已被覆盖的)
+         */
+        public long available() {
+            return tail.get() - position;
+        }
+
+        /**
+         * 读取所有已写入的事件
+         *
+         * @return 读取的事件数
+         */
+        public int poll(ChangeConsumer<? super K, ? super V> consumer) {
+            return poll(consumer, Integer.MAX_VALUE);
+        }
+
+        /**
+         * 最多读取maxEvents个事件 从不阻塞, 没有新事件时返回0
+         *
+         * @return 读取的事件数
+         */
+        @SuppressWarnings("unchecked")
+        public int poll(ChangeConsumer<? super K, ? super V> consumer, int maxEvents) {
+            if (consumer == null) { throw new NullPointerException(); }
+            long pos = position;
+            long end = tail.get();
+            int read = 0;
+            while (pos < end && read < maxEvents) {
+                int i = (int)pos & mask;
+                long stamp = stamps.get(i);
+                Object key = keys.get(i), oldValue = oldValues.get(i), newValue = newValues.get(i);
+                if (stamp >>> TYPE_BITS != pos || stamps.get(i) != stamp) {
+                    // 槽位正在被写入或已被覆盖: 跳到仍然保留的最旧事件
+                    end = tail.get();
+                    long oldest = Math.max(end - mask, pos + 1);
+                    lost += oldest - pos;
+                    pos = oldest;
+                    continue;
+                }
+                ++pos;
+                ++read;
+                position = pos;
+                consumer.accept(TYPES[(int)stamp & ((1 << TYPE_BITS) - 1)], (K)key, (V)oldValue, (V)newValue);
+            }
+            position = pos;
+            return read;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package java.util;
+
+import java.util.Map.Entry;
+
+/**
+ * 两个HashMap之间的差异 见{@link HashMap#diff(HashMap)}
+ * <p>
+ * 从旧Map变为新Map所需的修改: 新Map中新增的key、新Map中已删除的key、两边value不同(按equals)的key
+ *
+ * @param <K> key类型
+ * @param <V> value类型
+ */
+public final class HashMapDiff<K, V> {
+
+    /**
+     * 差异类型
+     */
+    public enum Type {
+        /**
+         * 只在新Map中存在 oldValue为null
+         */
+        ADDED,
+        /**
+         * 只在旧Map中存在 newValue为null
+         */
+        REMOVED,
+        /**
+         * 两边都存在 value不同
+         */
+        CHANGED
+    }
+
+    /**
+     * 接收差异 见{@link HashMap#diff(HashMap, DiffConsumer)}
+     */
+    @FunctionalInterface
+    public interface DiffConsumer<K, V> {
+        void accept(Type type, K key, V oldValue, V newValue);
+    }
+
+    private final HashMap<K, V> added, removed;
+    private final HashMap<K, Entry<V, V>> changed;
+
+    /**
+     * @param strategy 旧Map的hash和相等性策略 结果Map使用相同的策略
+     */
+    HashMapDiff(HashingStrategy<? super K> strategy) {
+        added = new HashMap<>(0, HashMap.DEFAULT_LOAD_FACTOR, strategy);
+        removed = new HashMap<>(0, HashMap.DEFAULT_LOAD_FACTOR, strategy);
+        changed = new HashMap<>(0, HashMap.DEFAULT_LOAD_FACTOR, strategy);
+    }
+
+    void record(Type type, K key, V oldValue, V newValue) {
+        switch (type) {
+            case ADDED:
+                added.put(key, newValue);
+                break;
+            case REMOVED:
+                removed.put(key, oldValue);
+                break;
+            default:
+                changed.put(key, new AbstractMap.SimpleImmutableEntry<>(oldValue, newValue));
+                break;
+        }
+    }
+
+    /**
+     * @return 新增的key和新Map中的value
+     */
+    public Map<K, V> added() {
+        return Collections.unmodifiableMap(added);
+    }
+
+    /**
+     * @return 删除的key和旧Map中的value
+     */
+    public Map<K, V> removed() {
+        return Collections.unmodifiableMap(removed);
+    }
+
+    /**
+     * @return value不同的key, 以及(旧value, 新value)
+     */
+    public Map<K, Entry<V, V>> changed() {
+        return Collections.unmodifiableMap(changed);
+    }
+
+    /**
+     * @return 差异数
+     */
+    public int size() {
+        return added.size() + removed.size() + changed.size();
+    }
+
+    /**
+     * @return 两个Map是否相等
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "added=" + added + ", removed=" + removed + ", changed=" + changed;
+    }
+}
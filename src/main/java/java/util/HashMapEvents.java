@@ -0,0 +1,193 @@
+package java.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * HashMap的JFR事件 通过{@link HashMapMonitor#enableFlightRecorderEvents()}开启后随标准的JFR录制一起输出, 不需要额外的agent
+ * <p>
+ * 覆盖JDK自带的HashMap时, 本类在虚拟机启动早期就会被调用, 那时加载任何JFR类都会导致虚拟机启动失败. 所以本类的方法只检查静态字段{@link #enabled},
+ * 事件类型和事件对象都在{@link Jfr}中, 开启之前不会被加载; 开启之后也只在录制配置启用了对应事件时才创建事件对象.
+ * 热路径上只有一次探测长度的比较, 扩容/树化/长探测链时多读一个静态字段. 所有事件都记录调用栈, 用于定位发生扩容或碰撞的代码位置
+ */
+final class HashMapEvents {
+
+    private HashMapEvents() { }
+
+    /**
+     * 链表查找的探测长度(比较过的节点数) 达到该值时记录{@link Jfr.LongProbeEvent}
+     * <p>
+     * 正常的Map在负载因子0.75时, 链表长度达到8的概率小于千万分之一, 出现即说明hashCode很差或者Map不能树化(数组容量小于64或使用了{@link HashingStrategy})
+     */
+    static final int LONG_PROBE_THRESHOLD = HashMap.TREEIFY_THRESHOLD;
+
+    /**
+     * 是否已开启 只会从false变为true; 普通字段即可, 其他线程晚一些看到开启没有影响
+     */
+    static boolean enabled;
+
+    /**
+     * 注册事件类型并开启
+     */
+    static void enable() {
+        Jfr.register();
+        enabled = true;
+    }
+
+    /**
+     * 在扩容开始时调用
+     *
+     * @return 事件对象 未开启或录制未启用该事件时返回null
+     */
+    static Object beginResize() {
+        return enabled ? Jfr.beginResize() : null;
+    }
+
+    /**
+     * @param event {@link #beginResize()}返回的非null事件对象
+     */
+    static void commitResize(Object event, HashMap<?, ?> map, int oldCapacity, int newCapacity) {
+        Jfr.commitResize(event, map, oldCapacity, newCapacity);
+    }
+
+    static void treeify(HashMap<?, ?> map, int capacity, int binSize, Object key, boolean untreeify) {
+        if (enabled) {
+            Jfr.treeify(map, capacity, binSize, key, untreeify);
+        }
+    }
+
+    static void longProbe(HashMap<?, ?> map, String operation, int probeLength, Object key) {
+        if (enabled) {
+            Jfr.longProbe(map, operation, probeLength, key);
+        }
+    }
+
+    /**
+     * 事件类型 只在开启后加载. 方法参数都声明为Object, 校验{@link HashMapEvents}时不需要加载事件类
+     */
+    static final class Jfr {
+
+        private Jfr() { }
+
+        static final EventType RESIZE = EventType.getEventType(ResizeEvent.class);
+        static final EventType TREEIFY = EventType.getEventType(TreeifyEvent.class);
+        static final EventType LONG_PROBE = EventType.getEventType(LongProbeEvent.class);
+
+        @Name("java.util.HashMap.Resize")
+        @Label("HashMap Resize")
+        @Category({"Java Application", "Collections"})
+        @Description("HashMap数组扩容 迁移所有元素")
+        @StackTrace
+        static final class ResizeEvent extends Event {
+            @Label("Map Identity")
+            int mapIdentity;
+            @Label("Old Capacity")
+            int oldCapacity;
+            @Label("New Capacity")
+            int newCapacity;
+            @Label("Entries Moved")
+            int entriesMoved;
+        }
+
+        @Name("java.util.HashMap.Treeify")
+        @Label("HashMap Treeify")
+        @Category({"Java Application", "Collections"})
+        @Description("链表bin转换为红黑树 或红黑树bin退化为链表")
+        @StackTrace
+        static final class TreeifyEvent extends Event {
+            @Label("Map Identity")
+            int mapIdentity;
+            @Label("Capacity")
+            int capacity;
+            @Label("Bin Size")
+            int binSize;
+            @Label("Untreeify")
+            boolean untreeify;
+            @Label("Key Class")
+            Class<?> keyClass;
+        }
+
+        @Name("java.util.HashMap.LongProbe")
+        @Label("HashMap Long Probe")
+        @Category({"Java Application", "Collections"})
+        @Description("一次查找或插入在链表bin中比较的节点数超过阈值")
+        @StackTrace
+        static final class LongProbeEvent extends Event {
+            @Label("Map Identity")
+            int mapIdentity;
+            @Label("Operation")
+            String operation;
+            @Label("Probe Length")
+            int probeLength;
+            @Label("Capacity")
+            int capacity;
+            @Label("Size")
+            int size;
+            @Label("Key Class")
+            Class<?> keyClass;
+        }
+
+        /**
+         * 触发类初始化 即注册三个事件类型
+         */
+        static void register() { }
+
+        static Object beginResize() {
+            if (!RESIZE.isEnabled()) {
+                return null;
+            }
+            ResizeEvent event = new ResizeEvent();
+            event.begin();
+            return event;
+        }
+
+        static void commitResize(Object e, HashMap<?, ?> map, int oldCapacity, int newCapacity) {
+            ResizeEvent event = (ResizeEvent)e;
+            event.end();
+            if (event.shouldCommit()) {
+                event.mapIdentity = System.identityHashCode(map);
+                event.oldCapacity = oldCapacity;
+                event.newCapacity = newCapacity;
+                event.entriesMoved = map.size;
+                event.commit();
+            }
+        }
+
+        static void treeify(HashMap<?, ?> map, int capacity, int binSize, Object key, boolean untreeify) {
+            if (!TREEIFY.isEnabled()) {
+                return;
+            }
+            TreeifyEvent event = new TreeifyEvent();
+            if (event.shouldCommit()) {
+                event.mapIdentity = System.identityHashCode(map);
+                event.capacity = capacity;
+                event.binSize = binSize;
+                event.untreeify = untreeify;
+                event.keyClass = key == null ? null : key.getClass();
+                event.commit();
+            }
+        }
+
+        static void longProbe(HashMap<?, ?> map, String operation, int probeLength, Object key) {
+            if (!LONG_PROBE.isEnabled()) {
+                return;
+            }
+            LongProbeEvent event = new LongProbeEvent();
+            if (event.shouldCommit()) {
+                HashMap.Node<?, ?>[] tab = map.table;
+                event.mapIdentity = System.identityHashCode(map);
+                event.operation = operation;
+                event.probeLength = probeLength;
+                event.capacity = tab == null ? 0 : tab.length;
+                event.size = map.size;
+                event.keyClass = key == null ? null : key.getClass();
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package java.util;
+
+import java.util.HashMap.Node;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 以响应式流(Reactive Streams)的方式导出HashMap的元素, 支持背压 见{@link HashMap#entryPublisher(Executor)}
+ * <p>
+ * 本仓库以Java 8为目标, 没有{@code java.util.concurrent.Flow}: {@link Publisher}/{@link Subscriber}/{@link Subscription}
+ * 与Flow(以及org.reactivestreams)中的同名接口方法签名完全相同, 在Java 9+或响应式库中用一个lambda即可互相适配
+ * <p>
+ * 订阅方每次request(n)只会收到n个元素(或n批元素), 发布方在两次request之间保存bin下标和链表中的位置, 下一次request从这里继续.
+ * 提供Executor时每个任务最多发送{@link #ITEMS_PER_TASK}个元素后重新提交自己, 不会长时间占用线程; 否则在调用request的线程中发送.
+ * {@link #split(Publisher, int)}把数组按bin范围分为多个发布方, 可以分别订阅、并行导出
+ * <p>
+ * 与迭代器一样是fail-fast的: 导出期间Map被修改(modCount变化)时以{@link ConcurrentModificationException}结束, 每读取一个元素检查一次,
+ * 检查失败时丢弃已读取的元素(批). 导出线程只读取Map: 发送的是不可修改的{@link AbstractMap.SimpleImmutableEntry}快照, 不是Map中的节点,
+ * 所以不会标记后台扩容的bin, 也不会阻止节点回收. 调用方需要保证导出期间没有其他线程修改Map
+ */
+public final class HashMapFlow {
+
+    /**
+     * 使用Executor时 每个任务最多发送的元素(或批)数
+     */
+    static final int ITEMS_PER_TASK = 1024;
+
+    private HashMapFlow() {
+    }
+
+    /**
+     * 与{@code java.util.concurrent.Flow.Publisher}相同
+     */
+    @FunctionalInterface
+    public interface Publisher<T> {
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * 与{@code java.util.concurrent.Flow.Subscriber}相同
+     */
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    /**
+     * 与{@code java.util.concurrent.Flow.Subscription}相同
+     */
+    public interface Subscription {
+        void request(long n);
+
+        void cancel();
+    }
+
+    /**
+     * 逐个发布Map中的元素
+     *
+     * @param executor 执行发送的线程池 null表示在调用request的线程中发送
+     */
+    public static <K, V> Publisher<Entry<K, V>> entries(HashMap<K, V> map, Executor executor) {
+        if (map == null) { throw new NullPointerException(); }
+        return new EntryPublisher<>(map, 0, executor, null, 0, 0, 0);
+    }
+
+    /**
+     * 按批发布Map中的元素 每批最多batchSize个 (一批占用一个request)
+     *
+     * @param executor 执行发送的线程池 null表示在调用request的线程中发送
+     * @throws IllegalArgumentException batchSize不是正数
+     */
+    public static <K, V> Publisher<List<Entry<K, V>>> batches(HashMap<K, V> map, int batchSize, Executor executor) {
+        if (map == null) { throw new NullPointerException(); }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Illegal batch size: " + batchSize);
+        }
+        return new EntryPublisher<>(map, batchSize, executor, null, 0, 0, 0);
+    }
+
+    /**
+     * 将{@link #entries}或{@link #batches}返回的发布方按bin范围拆分为parts个子发布方, 合起来恰好覆盖Map中的所有元素
+     * <p>
+     * 拆分时记录当前的数组和modCount: 之后Map被修改, 子发布方的订阅以{@link ConcurrentModificationException}结束
+     *
+     * @throws IllegalArgumentException parts不是正数, 或publisher不是本类创建的整个Map的发布方
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> List<Publisher<T>> split(Publisher<T> publisher, int parts) {
+        if (parts <= 0) {
+            throw new IllegalArgumentException("Illegal parts: " + parts);
+        }
+        if (!(publisher instanceof EntryPublisher) || ((EntryPublisher<?, ?, ?>)publisher).table != null) {
+            throw new IllegalArgumentException("Not a whole-map publisher of HashMapFlow");
+        }
+        return ((EntryPublisher<?, ?, T>)publisher).split(parts);
+    }
+
+    /**
+     * @param <T> Entry或者List&lt;Entry&gt;
+     */
+    static final class EntryPublisher<K, V, T> implements Publisher<T> {
+        final HashMap<K, V> map;
+        /**
+         * 0表示逐个发布
+         */
+        final int batchSize;
+        final Executor executor;
+        /**
+         * 拆分时记录的数组 null表示订阅时取整个数组
+         */
+        final Node<K, V>[] table;
+        final int from, to;
+        final int expectedModCount;
+
+        EntryPublisher(HashMap<K, V> map, int batchSize, Executor executor, Node<K, V>[] table, int from, int to,
+                       int expectedModCount) {
+            this.map = map;
+            this.batchSize = batchSize;
+            this.executor = executor;
+            this.table = table;
+            this.from = from;
+            this.to = to;
+            this.expectedModCount = expectedModCount;
+        }
+
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        List<Publisher<T>> split(int parts) {
+            Node<K, V>[] tab = map.table;
+            if (tab == null) {
+                // 子发布方的table不能为null 否则会在订阅时取整个数组
+                tab = (Node<K, V>[])new Node[0];
+            }
+            int n = tab.length;
+            int mc = map.modCount;
+            List<Publisher<T>> result = new ArrayList<>(parts);
+            for (int i = 0; i < parts; ++i) {
+                result.add(new EntryPublisher<>(map, batchSize, executor, tab, (int)((long)n * i / parts),
+                    (int)((long)n * (i + 1) / parts), mc));
+            }
+            return result;
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super T> subscriber) {
+            if (subscriber == null) { throw new NullPointerException(); }
+            EntrySubscription s;
+            if (table != null) {
+                s = new EntrySubscription(subscriber, table, from, to, expectedModCount);
+            } else {
+                Node<K, V>[] tab = map.table;
+                s = new EntrySubscription(subscriber, tab, 0, tab == null ? 0 : tab.length, map.modCount);
+            }
+            subscriber.onSubscribe(s);
+        }
+
+        /**
+         * 发送在drain中串行执行: wip计数保证同一时刻只有一个线程调用订阅方
+         */
+        final class EntrySubscription implements Subscription, Runnable {
+            final Subscriber<? super T> subscriber;
+            final Node<K, V>[] tab;
+            final int end;
+            final int modCount;
+            /**
+             * 下一个要扫描的bin 和下一个要发送的节点(null表示需要从index继续扫描), 只在drain中读写
+             */
+            int index;
+            Node<K, V> next;
+            final AtomicLong requested = new AtomicLong();
+            final AtomicInteger wip = new AtomicInteger();
+            volatile boolean cancelled;
+            /**
+             * request的参数不合法时设置 在drain中发送
+             */
+            volatile Throwable error;
+            boolean done;
+
+            EntrySubscription(Subscriber<? super T> subscriber, Node<K, V>[] tab, int from, int to, int modCount) {
+                this.subscriber = subscriber;
+                this.tab = tab;
+                this.index = from;
+                this.end = to;
+                this.modCount = modCount;
+            }
+
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    error = new IllegalArgumentException("non-positive subscription request: " + n);
+                } else {
+                    for (long r, u; ; ) {
+                        r = requested.get();
+                        u = r + n < 0 ? Long.MAX_VALUE : r + n;
+                        if (requested.compareAndSet(r, u)) { break; }
+                    }
+                }
+                schedule();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+            }
+
+            private void schedule() {
+                if (wip.getAndIncrement() != 0) {
+                    return;
+                }
+                if (executor == null) {
+                    run();
+                    return;
+                }
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    cancelled = true;
+                    done = true;
+                    subscriber.onError(e);
+                }
+            }
+
+            /**
+             * 定位下一个要发送的节点
+             *
+             * @return 没有更多元素时返回false
+             */
+            private boolean advance() {
+                Node<K, V> e = next;
+                while (e == null && index < end) {
+                    e = tab[index++];
+                }
+                next = e;
+                return e != null;
+            }
+
+            private Entry<K, V> nextEntry() {
+                Node<K, V> e = next;
+                next = e.next;
+                return new AbstractMap.SimpleImmutableEntry<>(e.key, e.value);
+            }
+
+            /**
+             * @return Map在读取期间被修改时返回null
+             */
+            @SuppressWarnings("unchecked")
+            private T nextItem() {
+                if (batchSize == 0) {
+                    Entry<K, V> e = nextEntry();
+                    return map.modCount == modCount ? (T)e : null;
+                }
+                List<Entry<K, V>> batch = new ArrayList<>(batchSize);
+                do {
+                    batch.add(nextEntry());
+                    if (map.modCount != modCount) {
+                        return null;
+                    }
+                } while (batch.size() < batchSize && advance());
+                return (T)batch;
+            }
+
+            /**
+             * 取消、出错、Map被修改或者元素发送完毕时结束订阅
+             *
+             * @return 是否已经结束
+             */
+            private boolean terminated() {
+                if (done) {
+                    return true;
+                }
+                if (cancelled) {
+                    done = true;
+                    return true;
+                }
+                Throwable t = error;
+                if (t == null && map.modCount != modCount) {
+                    t = new ConcurrentModificationException();
+                }
+                if (t != null) {
+                    done = cancelled = true;
+                    subscriber.onError(t);
+                    return true;
+                }
+                if (!advance()) {
+                    done = cancelled = true;
+                    subscriber.onComplete();
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            public void run() {
+                int missed = 1;
+                int budget = executor == null ? Integer.MAX_VALUE : ITEMS_PER_TASK;
+                for (; ; ) {
+                    long r = requested.get();
+                    long emitted = 0;
+                    while (emitted != r) {
+                        if (terminated()) {
+                            return;
+                        }
+                        if (budget-- == 0) {
+                            // 让出线程: 保留wip 重新提交 下一个任务从保存的位置继续
+                            produced(r, emitted);
+                            try {
+                                executor.execute(this);
+                            } catch (RejectedExecutionException e) {
+                                done = cancelled = true;
+                                subscriber.onError(e);
+                            }
+                            return;
+                        }
+                        T item = nextItem();
+                        if (item == null) {
+                            // 回到循环开头 由terminated()发送ConcurrentModificationException
+                            continue;
+                        }
+                        try {
+                            subscriber.onNext(item);
+                        } catch (Throwable t) {
+                            // 订阅方违反规范抛出异常: 视为取消
+                            done = cancelled = true;
+                            throw t;
+                        }
+                        ++emitted;
+                    }
+                    // 没有需求时也可以发送结束信号
+                    if (terminated()) {
+                        return;
+                    }
+                    produced(r, emitted);
+                    missed = wip.addAndGet(-missed);
+                    if (missed == 0) {
+                        return;
+                    }
+                }
+            }
+
+            private void produced(long r, long emitted) {
+                if (r != Long.MAX_VALUE && emitted != 0) {
+                    requested.addAndGet(-emitted);
+                }
+            }
+        }
+    }
+}
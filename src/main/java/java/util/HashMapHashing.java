@@ -0,0 +1,100 @@
+package java.util;
+
+import java.security.SecureRandom;
+
+/**
+ * HashMap 种子模式下使用的hash函数
+ * <p>
+ * 默认的扰动函数 h ^ (h >>> 16) 是确定的, 攻击者可以构造大量落在同一个bin中的key. 种子模式下:
+ * <ul>
+ * <li>每个Map实例有自己的随机种子, 用murmur3 fmix32做强混合, 攻击者无法预测key会落在哪个bin</li>
+ * <li>hashCode完全相同的String key(例如 "Aa" 和 "BB") 任何基于hashCode的混合都无法区分,
+ * 检测到后改用以随机密钥计算的SipHash-2-4 直接对字符内容求hash</li>
+ * </ul>
+ */
+final class HashMapHashing {
+
+    private HashMapHashing() { }
+
+    /**
+     * 种子和SipHash密钥的来源 只在开启种子模式或切换SipHash时使用, 不影响默认模式的性能
+     */
+    private static final class Holder {
+        static final SecureRandom RANDOM = new SecureRandom();
+    }
+
+    /**
+     * @return 非0的随机种子 (0 表示未开启种子模式)
+     */
+    static int randomSeed() {
+        int seed;
+        do {
+            seed = Holder.RANDOM.nextInt();
+        } while (seed == 0);
+        return seed;
+    }
+
+    static long randomLong() {
+        return Holder.RANDOM.nextLong();
+    }
+
+    /**
+     * murmur3 的 fmix32 每一位输入都会影响每一位输出
+     */
+    static int fmix32(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * 以 (k0, k1) 为密钥的 SipHash-2-4, 输入是字符串的UTF-16编码(小端) 结果折叠为32位
+     */
+    static int sipHash24(long k0, long k1, String s) {
+        long v0 = 0x736f6d6570736575L ^ k0;
+        long v1 = 0x646f72616e646f6dL ^ k1;
+        long v2 = 0x6c7967656e657261L ^ k0;
+        long v3 = 0x7465646279746573L ^ k1;
+        int length = s.length();
+        int end = length & ~3;
+        long m;
+        for (int i = 0; i < end; i += 4) {
+            // 每次消费4个字符 即8个字节
+            m = (long)s.charAt(i) | (long)s.charAt(i + 1) << 16 | (long)s.charAt(i + 2) << 32
+                | (long)s.charAt(i + 3) << 48;
+            v3 ^= m;
+            for (int r = 0; r < 2; ++r) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= m;
+        }
+        // 最后一个分组: 剩余字符 + 字节长度放在最高字节
+        m = ((long)(length << 1) & 0xff) << 56;
+        for (int i = end, shift = 0; i < length; ++i, shift += 16) {
+            m |= (long)s.charAt(i) << shift;
+        }
+        v3 ^= m;
+        for (int r = 0; r < 2; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= m;
+        v2 ^= 0xff;
+        for (int r = 0; r < 4; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        long h = v0 ^ v1 ^ v2 ^ v3;
+        return (int)(h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,86 @@
+package java.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * 将HashMap的{@link HashMap#stats()}暴露到JMX, 用于在线上服务中找出hashCode实现很差的Map
+ * <p>
+ * 只持有Map的弱引用 不会阻止Map被回收. 统计在JMX线程中进行, 与Map的写线程并发时会重试几次 (HashMap本身不是线程安全的, 结果是尽力而为的快照)
+ */
+public final class HashMapMonitor implements HashMapStatsMXBean {
+
+    /**
+     * 统计时遇到并发修改的重试次数
+     */
+    static final int MAX_ATTEMPTS = 3;
+
+    private final WeakReference<HashMap<?, ?>> map;
+
+    HashMapMonitor(HashMap<?, ?> map) {
+        this.map = new WeakReference<>(map);
+    }
+
+    /**
+     * 注册到平台MBeanServer 名称为 java.util:type=HashMap,name=<name>
+     *
+     * @param map  被监控的Map
+     * @param name 在JMX中显示的名称
+     * @return 注册的ObjectName 可用于{@link #unregister(ObjectName)}
+     * @throws IllegalStateException 注册失败 (例如名称重复)
+     */
+    public static ObjectName register(HashMap<?, ?> map, String name) {
+        try {
+            ObjectName objectName = new ObjectName("java.util:type=HashMap,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new HashMapMonitor(map), objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register HashMap monitor " + name, e);
+        }
+    }
+
+    /**
+     * @param objectName {@link #register(HashMap, String)}返回的名称
+     */
+    public static void unregister(ObjectName objectName) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot unregister HashMap monitor " + objectName, e);
+        }
+    }
+
+    /**
+     * 开启HashMap的JFR事件: java.util.HashMap.Resize, java.util.HashMap.Treeify 和 java.util.HashMap.LongProbe, 之后的录制按录制配置输出它们
+     * <p>
+     * 默认关闭: 覆盖JDK自带的HashMap时, HashMap在虚拟机启动早期就被使用, 那时不能加载任何JFR类. 需要运行时带有jdk.jfr
+     */
+    public static void enableFlightRecorderEvents() {
+        HashMapEvents.enable();
+    }
+
+    @Override
+    public HashMapStats getStats() {
+        HashMap<?, ?> m = map.get();
+        if (m == null) {
+            return null;
+        }
+        for (int attempt = 1; ; ++attempt) {
+            try {
+                return m.stats();
+            } catch (ConcurrentModificationException | ClassCastException | NullPointerException e) {
+                // 与写线程并发 读到了不一致的结构
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw new ConcurrentModificationException("HashMap modified during every stats attempt");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package java.util;
+
+/**
+ * {@link HashMap#stats()}的结果 某一时刻HashMap内部结构的快照
+ * <p>
+ * 链表长度分布可以直接反映hashCode的质量: 好的hashCode在负载因子0.75时, 绝大多数bin的长度是0或1 (泊松分布);
+ * 长链表和红黑树bin越多 说明hashCode越差
+ */
+public final class HashMapStats {
+
+    /**
+     * 链表长度直方图的桶数 最后一个桶统计长度 >= HISTOGRAM_BUCKETS - 1 的链表
+     */
+    static final int HISTOGRAM_BUCKETS = HashMap.TREEIFY_THRESHOLD + 2;
+    /**
+     * 计算红黑树深度时的上限 防止统计时Map被并发修改导致的死循环 (正常的红黑树深度不超过 2 * log2(n))
+     */
+    static final int MAX_TREE_DEPTH = 128;
+
+    private final int size;
+    private final int capacity;
+    private final int threshold;
+    private final float loadFactor;
+    private final int emptyBuckets;
+    private final int[] chainLengthHistogram;
+    private final int maxChainLength;
+    private final int treeBins;
+    private final int treeBinEntries;
+    private final int maxTreeDepth;
+    private final int resizeCount;
+    private final int treeifyCount;
+    private final int untreeifyCount;
+    private final int splitCount;
+    private final long bloomFilterBits;
+    private final long bloomFilterNegatives;
+    private final long bloomFilterFalsePositives;
+
+    HashMapStats(int size, int capacity, int threshold, float loadFactor, int emptyBuckets,
+                 int[] chainLengthHistogram, int maxChainLength, int treeBins, int treeBinEntries,
+                 int maxTreeDepth, int resizeCount, int treeifyCount, int untreeifyCount, int splitCount,
+                 long bloomFilterBits, long bloomFilterNegatives, long bloomFilterFalsePositives) {
+        this.size = size;
+        this.capacity = capacity;
+        this.threshold = threshold;
+        this.loadFactor = loadFactor;
+        this.emptyBuckets = emptyBuckets;
+        this.chainLengthHistogram = chainLengthHistogram;
+        this.maxChainLength = maxChainLength;
+        this.treeBins = treeBins;
+        this.treeBinEntries = treeBinEntries;
+        this.maxTreeDepth = maxTreeDepth;
+        this.resizeCount = resizeCount;
+        this.treeifyCount = treeifyCount;
+        this.untreeifyCount = untreeifyCount;
+        this.splitCount = splitCount;
+        this.bloomFilterBits = bloomFilterBits;
+        this.bloomFilterNegatives = bloomFilterNegatives;
+        this.bloomFilterFalsePositives = bloomFilterFalsePositives;
+    }
+
+    /**
+     * 红黑树的深度(根节点深度为1)
+     */
+    static int treeDepth(HashMap.TreeNode<?, ?> node) {
+        return treeDepth(node, 1);
+    }
+
+    private static int treeDepth(HashMap.TreeNode<?, ?> node, int depth) {
+        if (node == null || depth > MAX_TREE_DEPTH) {
+            return depth - 1;
+        }
+        return Math.max(treeDepth(node.left, depth + 1), treeDepth(node.right, depth + 1));
+    }
+
+    public int getSize() { return size; }
+
+    /**
+     * @return 数组容量 数组尚未初始化时是将要分配的容量
+     */
+    public int getCapacity() { return capacity; }
+
+    public int getThreshold() { return threshold; }
+
+    public float getLoadFactor() { return loadFactor; }
+
+    public int getEmptyBuckets() { return emptyBuckets; }
+
+    /**
+     * @return 空桶占数组容量的比例
+     */
+    public double getEmptyBucketRatio() {
+        return capacity == 0 ? 0 : (double)emptyBuckets / capacity;
+    }
+
+    /**
+     * @return 链表长度直方图(不含空桶和红黑树bin): 下标i为长度为i的链表数量, 最后一个元素为长度不小于该下标的链表数量
+     */
+    public int[] getChainLengthHistogram() { return chainLengthHistogram.clone(); }
+
+    public int getMaxChainLength() { return maxChainLength; }
+
+    /**
+     * @return 红黑树bin的数量 包括紧凑bin({@link HashMap#useCompactBins()}), 紧凑bin的深度按二分查找的比较次数计算
+     */
+    public int getTreeBins() { return treeBins; }
+
+    /**
+     * @return 红黑树bin中的元素总数
+     */
+    public int getTreeBinEntries() { return treeBinEntries; }
+
+    public int getMaxTreeDepth() { return maxTreeDepth; }
+
+    /**
+     * @return 自创建(或clone/反序列化)以来的扩容次数 不含第一次分配数组
+     */
+    public int getResizeCount() { return resizeCount; }
+
+    public int getTreeifyCount() { return treeifyCount; }
+
+    public int getUntreeifyCount() { return untreeifyCount; }
+
+    /**
+     * @return 扩容时拆分红黑树bin(TreeNode.split)的次数
+     */
+    public int getSplitCount() { return splitCount; }
+
+    /**
+     * @return 布隆过滤器的位数 0表示未开启({@link HashMap#useBloomFilter()})
+     */
+    public long getBloomFilterBits() { return bloomFilterBits; }
+
+    /**
+     * @return 被布隆过滤器直接拒绝的查找次数
+     */
+    public long getBloomFilterNegatives() { return bloomFilterNegatives; }
+
+    /**
+     * @return 通过了布隆过滤器 但key不存在的查找次数
+     */
+    public long getBloomFilterFalsePositives() { return bloomFilterFalsePositives; }
+
+    /**
+     * @return 布隆过滤器的实测误判率: 未命中的查找中没有被过滤器拒绝的比例
+     */
+    public double getBloomFilterFalsePositiveRate() {
+        long absent = bloomFilterNegatives + bloomFilterFalsePositives;
+        return absent == 0 ? 0 : (double)bloomFilterFalsePositives / absent;
+    }
+
+    @Override
+    public String toString() {
+        return "HashMapStats{size=" + size + ", capacity=" + capacity + ", threshold=" + threshold +
+            ", loadFactor=" + loadFactor + ", emptyBuckets=" + emptyBuckets +
+            ", chainLengthHistogram=" + Arrays.toString(chainLengthHistogram) +
+            ", maxChainLength=" + maxChainLength + ", treeBins=" + treeBins +
+            ", treeBinEntries=" + treeBinEntries + ", maxTreeDepth=" + maxTreeDepth +
+            ", resizeCount=" + resizeCount + ", treeifyCount=" + treeifyCount +
+            ", untreeifyCount=" + untreeifyCount + ", splitCount=" + splitCount +
+            ", bloomFilterBits=" + bloomFilterBits + ", bloomFilterFalsePositiveRate=" +
+            getBloomFilterFalsePositiveRate() + '}';
+    }
+}
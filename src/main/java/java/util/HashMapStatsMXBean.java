@@ -0,0 +1,12 @@
+package java.util;
+
+/**
+ * HashMap桶形状统计的JMX接口 见{@link HashMapMonitor}
+ */
+public interface HashMapStatsMXBean {
+
+    /**
+     * @return 最新的统计快照 被监控的Map已被回收时返回null
+     */
+    HashMapStats getStats();
+}
@@ -0,0 +1,178 @@
+package java.util;
+
+import java.util.function.BiFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * 一批put/remove/merge操作 由{@link HashMap#apply(HashMapWriteBatch)}或{@link VersionedHashMap#apply(HashMapWriteBatch)}一次执行
+ * <p>
+ * 逐个put时, 每次插入都检查一次是否需要扩容(一批1万个插入可能在中途扩容好几次), 每次结构修改都增加modCount.
+ * 批量执行时先按最坏情况(所有put/merge都是新key)一次扩容到足够的容量, 再把操作按bin下标分组(计数排序, 同一个key的操作保持原顺序),
+ * 按数组顺序访问bin, 整批只增加一次modCount
+ * <p>
+ * 操作按key的hash分组后执行: 同一个key的多个操作按加入的顺序执行, 不同key之间的执行顺序不确定.
+ * 批本身可以在执行后{@link #clear()}并复用, 不是线程安全的
+ *
+ * @param <K> key类型
+ * @param <V> value类型
+ */
+public final class HashMapWriteBatch<K, V> {
+
+    static final byte PUT = 0, REMOVE = 1, MERGE = 2;
+    /**
+     * 默认容量
+     */
+    static final int DEFAULT_CAPACITY = 16;
+
+    byte[] ops;
+    Object[] keys;
+    /**
+     * put/merge的value
+     */
+    Object[] values;
+    /**
+     * merge的函数 第一个merge加入时分配
+     */
+    Object[] functions;
+    /**
+     * 执行时计算的hash值
+     */
+    int[] hashes;
+    int size;
+    /**
+     * put和merge的数量 即最多新增的key数
+     */
+    int insertions;
+
+    public HashMapWriteBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedOperations 期望的操作数
+     * @throws IllegalArgumentException 参数不合法异常
+     */
+    public HashMapWriteBatch(int expectedOperations) {
+        if (expectedOperations < 0) {
+            throw new IllegalArgumentException("Illegal expected operations: " + expectedOperations);
+        }
+        int n = Math.max(expectedOperations, 1);
+        ops = new byte[n];
+        keys = new Object[n];
+        values = new Object[n];
+    }
+
+    private int add(byte op, Object key, Object value) {
+        int i = size;
+        if (i == ops.length) {
+            int n = i + (i >>> 1) + 1;
+            ops = Arrays.copyOf(ops, n);
+            keys = Arrays.copyOf(keys, n);
+            values = Arrays.copyOf(values, n);
+            if (functions != null) { functions = Arrays.copyOf(functions, n); }
+        }
+        ops[i] = op;
+        keys[i] = key;
+        values[i] = value;
+        size = i + 1;
+        return i;
+    }
+
+    /**
+     * @return this
+     */
+    public HashMapWriteBatch<K, V> put(K key, V value) {
+        add(PUT, key, value);
+        ++insertions;
+        return this;
+    }
+
+    /**
+     * @return this
+     */
+    public HashMapWriteBatch<K, V> remove(Object key) {
+        add(REMOVE, key, null);
+        return this;
+    }
+
+    /**
+     * 与{@link Map#merge(Object, Object, BiFunction)}相同
+     *
+     * @return this
+     * @throws NullPointerException value或remappingFunction为null
+     */
+    public HashMapWriteBatch<K, V> merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if (value == null || remappingFunction == null) { throw new NullPointerException(); }
+        int i = add(MERGE, key, value);
+        if (functions == null) {
+            functions = new Object[ops.length];
+        }
+        functions[i] = remappingFunction;
+        ++insertions;
+        return this;
+    }
+
+    /**
+     * @return 操作数
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 清空以便复用 保留已分配的数组
+     */
+    public void clear() {
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        if (functions != null) { Arrays.fill(functions, 0, size, null); }
+        size = 0;
+        insertions = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    K key(int i) {
+        return (K)keys[i];
+    }
+
+    @SuppressWarnings("unchecked")
+    V value(int i) {
+        return (V)values[i];
+    }
+
+    @SuppressWarnings("unchecked")
+    BiFunction<? super V, ? super V, ? extends V> function(int i) {
+        return (BiFunction<? super V, ? super V, ? extends V>)functions[i];
+    }
+
+    /**
+     * 计算每个操作的hash值(存入{@link #hashes}), 并按bin下标的高位分组: 稳定的计数排序, 组数不超过操作数(向上取2的幂),
+     * 所以计数数组不会比批本身大; 组内的操作在数组中相距不超过 capacity / 组数 个bin
+     *
+     * @param hasher   计算hash值 (Map的hash函数可能带种子或策略)
+     * @param capacity 数组容量 2的幂
+     * @return 按组排列的操作下标
+     */
+    int[] groupByBin(ToIntFunction<Object> hasher, int capacity) {
+        int n = size;
+        int[] hs = hashes;
+        if (hs == null || hs.length < n) {
+            hashes = hs = new int[ops.length];
+        }
+        for (int i = 0; i < n; ++i) { hs[i] = hasher.applyAsInt(keys[i]); }
+        int capacityBits = Integer.numberOfTrailingZeros(capacity);
+        int groupBits = Math.min(capacityBits, 32 - Integer.numberOfLeadingZeros(Math.max(n - 1, 1)));
+        int shift = capacityBits - groupBits;
+        int mask = capacity - 1;
+        int[] start = new int[(1 << groupBits) + 1];
+        for (int i = 0; i < n; ++i) { ++start[((hs[i] & mask) >>> shift) + 1]; }
+        for (int g = 1; g < start.length; ++g) { start[g] += start[g - 1]; }
+        int[] order = new int[n];
+        for (int i = 0; i < n; ++i) { order[start[(hs[i] & mask) >>> shift]++] = i; }
+        return order;
+    }
+}
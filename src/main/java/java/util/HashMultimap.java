@@ -0,0 +1,556 @@
+package java.util;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.util.HashMap.Node;
+import java.util.function.BiConsumer;
+
+/**
+ * 一个key对应多个value的Map (同一个key下的value按插入顺序排列, 允许重复和null)
+ * <p>
+ * {@code HashMap<K, List<V>>}配合{@code computeIfAbsent(k, x -> new ArrayList<>()).add(v)}时, 每个key都有一个ArrayList对象和它的数组
+ * (第一次add时即分配10个元素), 而大多数key只有1-2个value. 这里value直接存放在HashMap的节点中: 只有一个value时节点的value字段就是它本身,
+ * 第二个value加入时才换成{@link Values}(一个紧凑的Object[]和长度). 只有一个value的key除了节点外不再分配任何对象
+ * <p>
+ * {@link #get(Object)}返回的是视图, 对它的修改直接作用于本Map; key的value被删空后key也被删除. value减少时不会从数组退回内联
+ * <p>
+ * 与HashMap一样不是线程安全的
+ *
+ * @param <K> key类型
+ * @param <V> value类型
+ */
+public class HashMultimap<K, V> implements Serializable {
+
+    private static final long serialVersionUID = 3260925193713085571L;
+    /**
+     * 内联的null value使用NULL_VALUE代替, 这样节点的value不为null, putVal的返回值可以区分key是否已存在
+     */
+    static final Object NULL_VALUE = new Object();
+    /**
+     * key的第二个value加入时数组的初始长度: 大多数key只有1-2个value, 之后按1.5倍增长
+     */
+    static final int INITIAL_VALUES_CAPACITY = 2;
+
+    /**
+     * 节点的value: 内联的单个value(经过{@link #maskNull(Object)}处理), 或者{@link Values}
+     */
+    transient HashMap<K, Object> map;
+    /**
+     * 所有key的value总数
+     */
+    transient int size;
+    transient int modCount;
+
+    /**
+     * 同一个key的多个value
+     */
+    static final class Values {
+        Object[] elements;
+        int size;
+
+        Values(Object first, Object second, int capacity) {
+            elements = new Object[Math.max(capacity, 2)];
+            elements[0] = first;
+            elements[1] = second;
+            size = 2;
+        }
+
+        void ensureCapacity(int minCapacity) {
+            if (minCapacity > elements.length) {
+                int n = elements.length;
+                elements = Arrays.copyOf(elements, Math.max(minCapacity, n + (n >>> 1)));
+            }
+        }
+
+        void add(Object value) {
+            ensureCapacity(size + 1);
+            elements[size++] = value;
+        }
+
+        void removeAt(int index) {
+            int n = --size;
+            System.arraycopy(elements, index + 1, elements, index, n - index);
+            elements[n] = null;
+        }
+    }
+
+    public HashMultimap() {
+        map = new HashMap<>();
+    }
+
+    /**
+     * @param expectedKeys 期望的key数量
+     */
+    public HashMultimap(int expectedKeys) {
+        map = new HashMap<>(capacityFor(expectedKeys));
+    }
+
+    /**
+     * @return 放入expectedKeys个key不需要扩容的初始容量 (默认负载因子)
+     */
+    static int capacityFor(int expectedKeys) {
+        return expectedKeys < 0 ? expectedKeys : (int)Math.min((long)expectedKeys * 4 / 3 + 1, HashMap.MAXIMUM_CAPACITY);
+    }
+
+    static Object maskNull(Object value) {
+        return value == null ? NULL_VALUE : value;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> V unmaskNull(Object value) {
+        return value == NULL_VALUE ? null : (V)value;
+    }
+
+    /**
+     * @return 所有key的value总数
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return 不同key的数量
+     */
+    public int keyCount() {
+        return map.size();
+    }
+
+    /**
+     * 添加一个value 已存在的value不会被替换
+     *
+     * @return 总是true
+     */
+    public boolean put(K key, V value) {
+        Object slot = map.putVal(map.keyHash(key), key, maskNull(value), true, true);
+        if (slot instanceof Values) {
+            ((Values)slot).add(value);
+        } else if (slot != null) {
+            // 第二个value: 内联转为数组
+            map.getNode(map.keyHash(key), key).value = new Values(unmaskNull(slot), value, INITIAL_VALUES_CAPACITY);
+        }
+        ++size;
+        ++modCount;
+        return true;
+    }
+
+    /**
+     * 为key添加多个value
+     *
+     * @return 是否添加了value
+     */
+    @SuppressWarnings("unchecked")
+    public boolean putAll(K key, Iterable<? extends V> values) {
+        if (values instanceof Collection) {
+            // 先复制: values可能是本Map的视图, 例如get(key).addAll(get(key)), 边遍历边添加永远不会结束
+            values = Arrays.asList((V[])((Collection<?>)values).toArray());
+        }
+        Iterator<? extends V> it = values.iterator();
+        if (!it.hasNext()) {
+            return false;
+        }
+        int expected = values instanceof Collection ? ((Collection<?>)values).size() : 0;
+        if (expected == 1) {
+            return put(key, it.next());
+        }
+        int hash = map.keyHash(key);
+        Node<K, Object> e = map.getNode(hash, key);
+        Values vs;
+        int before;
+        if (e == null) {
+            V first = it.next();
+            if (!it.hasNext()) {
+                return put(key, first);
+            }
+            vs = new Values(first, it.next(), expected);
+            map.putVal(hash, key, vs, false, true);
+            before = 0;
+        } else if (e.value instanceof Values) {
+            vs = (Values)e.value;
+            vs.ensureCapacity(vs.size + expected);
+            before = vs.size;
+        } else {
+            e.value = vs = new Values(unmaskNull(e.value), it.next(), expected + 1);
+            before = 1;
+        }
+        while (it.hasNext()) {
+            vs.add(it.next());
+        }
+        size += vs.size - before;
+        ++modCount;
+        return true;
+    }
+
+    /**
+     * @return key的所有value的视图, key不存在时为空列表(向其中添加value会加入本Map)
+     */
+    public List<V> get(K key) {
+        return new KeyValues(key);
+    }
+
+    public boolean containsKey(Object key) {
+        return map.containsKey(key);
+    }
+
+    public boolean containsEntry(Object key, Object value) {
+        Object slot = map.get(key);
+        if (slot instanceof Values) {
+            Values vs = (Values)slot;
+            return indexOf(vs.elements, vs.size, value) >= 0;
+        }
+        return slot != null && Objects.equals(unmaskNull(slot), value);
+    }
+
+    /**
+     * 删除key的一个value (第一个与之equals的)
+     *
+     * @return 是否删除了value
+     */
+    public boolean remove(Object key, Object value) {
+        int hash = map.keyHash(key);
+        Node<K, Object> e = map.getNode(hash, key);
+        if (e == null) {
+            return false;
+        }
+        int index;
+        if (e.value instanceof Values) {
+            Values vs = (Values)e.value;
+            if ((index = indexOf(vs.elements, vs.size, value)) < 0) {
+                return false;
+            }
+        } else if (Objects.equals(unmaskNull(e.value), value)) {
+            index = 0;
+        } else {
+            return false;
+        }
+        removeAt(e, index);
+        return true;
+    }
+
+    /**
+     * 删除key的所有value
+     *
+     * @return 被删除的value, key不存在时为空列表
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> removeAll(Object key) {
+        Node<K, Object> e = map.removeNode(map.keyHash(key), key, null, false, true);
+        if (e == null) {
+            return Collections.emptyList();
+        }
+        ++modCount;
+        Object slot = e.value;
+        if (slot instanceof Values) {
+            Values vs = (Values)slot;
+            size -= vs.size;
+            return (List<V>)Arrays.asList(Arrays.copyOf(vs.elements, vs.size));
+        }
+        --size;
+        return Collections.singletonList(unmaskNull(slot));
+    }
+
+    public void clear() {
+        map.clear();
+        size = 0;
+        ++modCount;
+    }
+
+    /**
+     * @return 所有key 不可修改
+     */
+    public Set<K> keySet() {
+        return Collections.unmodifiableSet(map.keySet());
+    }
+
+    /**
+     * 按key遍历所有 (key, value)
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (action == null) { throw new NullPointerException(); }
+        int mc = modCount;
+        map.forEach((key, slot) -> {
+            if (slot instanceof Values) {
+                Values vs = (Values)slot;
+                for (int i = 0; i < vs.size; ++i) {
+                    action.accept(key, HashMultimap.<V>unmaskNull(vs.elements[i]));
+                }
+            } else {
+                action.accept(key, unmaskNull(slot));
+            }
+        });
+        if (modCount != mc) { throw new ConcurrentModificationException(); }
+    }
+
+    static int indexOf(Object[] elements, int size, Object value) {
+        for (int i = 0; i < size; ++i) {
+            if (Objects.equals(elements[i], value)) { return i; }
+        }
+        return -1;
+    }
+
+    /**
+     * 删除节点e的第index个value 删空后删除节点
+     */
+    final void removeAt(Node<K, Object> e, int index) {
+        Object slot = e.value;
+        if (!(slot instanceof Values) || ((Values)slot).size == 1) {
+            map.removeNode(e.hash, e.key, null, false, true);
+        } else {
+            ((Values)slot).removeAt(index);
+        }
+        --size;
+        ++modCount;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof HashMultimap)) {
+            return false;
+        }
+        HashMultimap<?, ?> m = (HashMultimap<?, ?>)o;
+        if (m.size != size || m.map.size() != map.size()) {
+            return false;
+        }
+        for (Map.Entry<K, Object> e : map.entrySet()) {
+            Node<?, Object> other = m.map.getNode(m.map.keyHash(e.getKey()), e.getKey());
+            if (other == null || !valuesEqual(e.getValue(), other.value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean valuesEqual(Object a, Object b) {
+        if (a instanceof Values && b instanceof Values) {
+            Values x = (Values)a, y = (Values)b;
+            if (x.size != y.size) {
+                return false;
+            }
+            for (int i = 0; i < x.size; ++i) {
+                if (!Objects.equals(x.elements[i], y.elements[i])) { return false; }
+            }
+            return true;
+        }
+        // 内联的value与只剩一个value的数组相等
+        if (a instanceof Values) {
+            return ((Values)a).size == 1 && Objects.equals(((Values)a).elements[0], unmaskNull(b));
+        }
+        if (b instanceof Values) {
+            return ((Values)b).size == 1 && Objects.equals(((Values)b).elements[0], unmaskNull(a));
+        }
+        return Objects.equals(a, b);
+    }
+
+    /**
+     * 与{@code Map<K, List<V>>}的hashCode相同
+     */
+    @Override
+    public int hashCode() {
+        int h = 0;
+        for (Map.Entry<K, Object> e : map.entrySet()) {
+            int listHash = 1;
+            Object slot = e.getValue();
+            if (slot instanceof Values) {
+                Values vs = (Values)slot;
+                for (int i = 0; i < vs.size; ++i) { listHash = 31 * listHash + Objects.hashCode(vs.elements[i]); }
+            } else {
+                listHash = 31 + Objects.hashCode(unmaskNull(slot));
+            }
+            h += Objects.hashCode(e.getKey()) ^ listHash;
+        }
+        return h;
+    }
+
+    /**
+     * 格式与{@code Map<K, List<V>>}相同 例如 {a=[1, 2], b=[3]}
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<K, Object> e : map.entrySet()) {
+            if (sb.length() > 1) { sb.append(", "); }
+            sb.append(e.getKey() == this ? "(this Multimap)" : e.getKey()).append('=');
+            Object slot = e.getValue();
+            if (slot instanceof Values) {
+                Values vs = (Values)slot;
+                sb.append(Arrays.asList(vs.elements).subList(0, vs.size));
+            } else {
+                sb.append('[').append(HashMultimap.<Object>unmaskNull(slot)).append(']');
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * {@link #get(Object)}返回的视图: 每次操作都重新查找key, 所以key被删除后重新加入也能看到
+     */
+    final class KeyValues extends AbstractList<V> {
+        final K key;
+
+        KeyValues(K key) {
+            this.key = key;
+        }
+
+        Node<K, Object> node() {
+            return map.getNode(map.keyHash(key), key);
+        }
+
+        @Override
+        public int size() {
+            Node<K, Object> e = node();
+            return e == null ? 0 : e.value instanceof Values ? ((Values)e.value).size : 1;
+        }
+
+        @Override
+        public V get(int index) {
+            Node<K, Object> e = node();
+            Object slot = e == null ? null : e.value;
+            if (slot instanceof Values) {
+                Values vs = (Values)slot;
+                if (index >= 0 && index < vs.size) { return unmaskNull(vs.elements[index]); }
+            } else if (slot != null && index == 0) {
+                return unmaskNull(slot);
+            }
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+
+        @Override
+        public V set(int index, V value) {
+            Node<K, Object> e = node();
+            Object slot = e == null ? null : e.value;
+            if (slot instanceof Values) {
+                Values vs = (Values)slot;
+                if (index >= 0 && index < vs.size) {
+                    V old = unmaskNull(vs.elements[index]);
+                    vs.elements[index] = value;
+                    return old;
+                }
+            } else if (slot != null && index == 0) {
+                e.value = maskNull(value);
+                return unmaskNull(slot);
+            }
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+
+        @Override
+        public boolean add(V value) {
+            return put(key, value);
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends V> values) {
+            return putAll(key, values);
+        }
+
+        @Override
+        public V remove(int index) {
+            V old = get(index);
+            removeAt(node(), index);
+            return old;
+        }
+
+        @Override
+        public void clear() {
+            HashMultimap.this.removeAll(key);
+        }
+
+        @Override
+        public Iterator<V> iterator() {
+            return new ValueIterator(key);
+        }
+    }
+
+    /**
+     * 只在创建时查找一次key: value减少时不会从数组退回内联, 所以遍历期间节点的value保持为同一个对象
+     */
+    final class ValueIterator implements Iterator<V> {
+        final Node<K, Object> node;
+        int index;
+        int lastReturned = -1;
+        int expectedModCount = modCount;
+        /**
+         * 删除了最后一个value 节点已经不在Map中
+         */
+        boolean detached;
+
+        ValueIterator(K key) {
+            node = map.getNode(map.keyHash(key), key);
+        }
+
+        private int length() {
+            return node == null || detached ? 0 : node.value instanceof Values ? ((Values)node.value).size : 1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < length();
+        }
+
+        @Override
+        public V next() {
+            if (modCount != expectedModCount) { throw new ConcurrentModificationException(); }
+            int i = index;
+            if (i >= length()) { throw new NoSuchElementException(); }
+            index = i + 1;
+            lastReturned = i;
+            Object slot = node.value;
+            return unmaskNull(slot instanceof Values ? ((Values)slot).elements[i] : slot);
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned < 0) { throw new IllegalStateException(); }
+            if (modCount != expectedModCount) { throw new ConcurrentModificationException(); }
+            detached = length() == 1;
+            removeAt(node, lastReturned);
+            index = lastReturned;
+            lastReturned = -1;
+            expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * @serialData key的数量(int), 随后是每个key、它的value数量(int)和各个value
+     */
+    private void writeObject(java.io.ObjectOutputStream s) throws IOException {
+        s.defaultWriteObject();
+        s.writeInt(map.size());
+        for (Map.Entry<K, Object> e : map.entrySet()) {
+            s.writeObject(e.getKey());
+            Object slot = e.getValue();
+            if (slot instanceof Values) {
+                Values vs = (Values)slot;
+                s.writeInt(vs.size);
+                for (int i = 0; i < vs.size; ++i) { s.writeObject(vs.elements[i]); }
+            } else {
+                s.writeInt(1);
+                s.writeObject(unmaskNull(slot));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(java.io.ObjectInputStream s) throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        int keys = s.readInt();
+        if (keys < 0) {
+            throw new InvalidObjectException("Illegal key count: " + keys);
+        }
+        map = new HashMap<>(capacityFor(keys));
+        for (int i = 0; i < keys; ++i) {
+            K key = (K)s.readObject();
+            int n = s.readInt();
+            if (n <= 0) {
+                throw new InvalidObjectException("Illegal value count: " + n);
+            }
+            for (int j = 0; j < n; ++j) { put(key, (V)s.readObject()); }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package java.util;
+
+/**
+ * 自定义hash和相等性的策略 替代{@link HashMap}中写死的 key.hashCode() 和 key.equals(k)
+ * <p>
+ * 典型用途: byte[]/char[] 按内容比较(不必再包装一层对象), 按引用比较, 忽略大小写的String, 以及对长key使用更快的非加密hash
+ * <p>
+ * 参数类型是Object, 因为{@link Map#get(Object)}等方法的参数是Object; 传入的key永远不为null (null key由HashMap自己处理)
+ * <p>
+ * 实现类应当是可序列化的, 策略会随HashMap一起序列化
+ *
+ * @param <K> key类型
+ */
+public interface HashingStrategy<K> {
+
+    /**
+     * @param key 非null的key
+     * @return hash值 与{@link #equals(Object, Object)}一致: 相等的key必须有相同的hash值
+     */
+    int hashCode(Object key);
+
+    /**
+     * @param a 非null的key (通常是查找时传入的key)
+     * @param b 非null的key (通常是Map中已存在的key)
+     * @return 两个key是否相等
+     */
+    boolean equals(Object a, Object b);
+
+    /**
+     * @return 按引用比较的策略 与IdentityHashMap语义相同
+     */
+    @SuppressWarnings("unchecked")
+    static <K> HashingStrategy<K> identity() {
+        return (HashingStrategy<K>)BuiltinHashingStrategy.IDENTITY;
+    }
+
+    /**
+     * @return byte[]按内容比较的策略 hash使用xxHash32
+     */
+    @SuppressWarnings("unchecked")
+    static HashingStrategy<byte[]> byteArray() {
+        return (HashingStrategy<byte[]>)(HashingStrategy<?>)BuiltinHashingStrategy.BYTE_ARRAY;
+    }
+
+    /**
+     * @return char[]按内容比较的策略
+     */
+    @SuppressWarnings("unchecked")
+    static HashingStrategy<char[]> charArray() {
+        return (HashingStrategy<char[]>)(HashingStrategy<?>)BuiltinHashingStrategy.CHAR_ARRAY;
+    }
+
+    /**
+     * @return 忽略大小写的String策略 与{@link String#equalsIgnoreCase(String)}一致
+     */
+    @SuppressWarnings("unchecked")
+    static HashingStrategy<String> caseInsensitive() {
+        return (HashingStrategy<String>)(HashingStrategy<?>)BuiltinHashingStrategy.CASE_INSENSITIVE;
+    }
+}
@@ -0,0 +1,375 @@
+package java.util;
+
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 记录每种操作延迟分布的HashMap, 用于解释线上的p99.99毛刺
+ * <p>
+ * 延迟直方图按对数分桶({@link Histogram}), 每个采样还会被归因到一个{@link Cause}: 本次操作触发了扩容、在红黑树bin中查找, 还是遍历了长链表.
+ * 对比各个原因的直方图尾部, 即可判断毛刺来自resize还是来自糟糕的hashCode
+ * <p>
+ * 默认每{@link #DEFAULT_SAMPLE_INTERVAL}次操作采样一次, 未采样的操作只多一次计数和一次分支; 会触发扩容的插入总是被采样, 因为扩容是最主要的怀疑对象而它又很少发生
+ * <p>
+ * 覆盖的操作: get/put/remove/compute/computeIfAbsent/computeIfPresent/merge. 与HashMap一样不是线程安全的
+ *
+ * @param <K> key类型
+ * @param <V> value类型
+ */
+public class InstrumentedHashMap<K, V> extends HashMap<K, V> {
+
+    private static final long serialVersionUID = 4117318417216573329L;
+
+    /**
+     * 默认采样间隔 两次nanoTime约40ns, 分摊到128次操作上不到操作本身耗时的2%
+     */
+    public static final int DEFAULT_SAMPLE_INTERVAL = 128;
+    /**
+     * 链表长度达到该值即视为长链表: 负载因子0.75时一个bin中有4个以上元素的概率约为0.2%
+     */
+    static final int LONG_CHAIN_THRESHOLD = 4;
+
+    /**
+     * 被统计的操作
+     */
+    public enum Operation {
+        GET, PUT, REMOVE,
+        /**
+         * compute/computeIfAbsent/computeIfPresent
+         */
+        COMPUTE,
+        MERGE
+    }
+
+    /**
+     * 延迟的归因
+     */
+    public enum Cause {
+        /**
+         * 普通的单次探测或短链表
+         */
+        NONE,
+        /**
+         * 本次操作触发了扩容
+         */
+        RESIZE,
+        /**
+         * key所在的bin是红黑树 或紧凑bin({@link HashMap#useCompactBins()})
+         */
+        TREE_BIN,
+        /**
+         * key所在的bin是长度不小于{@link #LONG_CHAIN_THRESHOLD}的链表
+         */
+        LONG_CHAIN
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final Cause[] CAUSES = Cause.values();
+
+    /**
+     * 采样间隔-1 采样间隔是2的幂
+     */
+    private final int sampleMask;
+    private transient int operationCount;
+    /**
+     * 下标为 operation * CAUSES.length + cause 第一次采样时分配
+     */
+    private transient Histogram[] histograms;
+
+    public InstrumentedHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    public InstrumentedHashMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * @param initialCapacity 初始容量
+     * @param sampleInterval  采样间隔 向上取整为2的幂, 1表示记录每一次操作
+     */
+    public InstrumentedHashMap(int initialCapacity, int sampleInterval) {
+        super(initialCapacity);
+        if (sampleInterval <= 0) {
+            throw new IllegalArgumentException("Illegal sample interval: " + sampleInterval);
+        }
+        this.sampleMask = tableSizeFor(sampleInterval) - 1;
+    }
+
+    public int getSampleInterval() { return sampleMask + 1; }
+
+    /**
+     * @return 该操作所有采样的延迟分布 (副本)
+     */
+    public Histogram latency(Operation operation) {
+        Histogram merged = new Histogram();
+        for (Cause cause : CAUSES) {
+            merged.add(latency(operation, cause));
+        }
+        return merged;
+    }
+
+    /**
+     * @return 该操作中归因于cause的采样的延迟分布 (副本)
+     */
+    public Histogram latency(Operation operation, Cause cause) {
+        Histogram[] hs = histograms;
+        Histogram h;
+        Histogram copy = new Histogram();
+        if (hs != null && (h = hs[operation.ordinal() * CAUSES.length + cause.ordinal()]) != null) {
+            copy.add(h);
+        }
+        return copy;
+    }
+
+    /**
+     * 清空所有直方图
+     */
+    public void resetLatencies() {
+        histograms = null;
+    }
+
+    @Override
+    public V get(Object key) {
+        if ((++operationCount & sampleMask) != 0) {
+            return super.get(key);
+        }
+        Cause cause = binCause(key);
+        long start = System.nanoTime();
+        V v = super.get(key);
+        record(Operation.GET, cause, System.nanoTime() - start);
+        return v;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if ((++operationCount & sampleMask) != 0 && !mayResize()) {
+            return super.put(key, value);
+        }
+        Cause cause = binCause(key);
+        int resizes = resizeCount;
+        long start = System.nanoTime();
+        V v = super.put(key, value);
+        long elapsed = System.nanoTime() - start;
+        record(Operation.PUT, resizeCount != resizes ? Cause.RESIZE : cause, elapsed);
+        return v;
+    }
+
+    @Override
+    public V remove(Object key) {
+        if ((++operationCount & sampleMask) != 0) {
+            return super.remove(key);
+        }
+        Cause cause = binCause(key);
+        long start = System.nanoTime();
+        V v = super.remove(key);
+        record(Operation.REMOVE, cause, System.nanoTime() - start);
+        return v;
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        if ((++operationCount & sampleMask) != 0 && !mayResize()) {
+            return super.computeIfAbsent(key, mappingFunction);
+        }
+        Cause cause = binCause(key);
+        int resizes = resizeCount;
+        long start = System.nanoTime();
+        V v = super.computeIfAbsent(key, mappingFunction);
+        long elapsed = System.nanoTime() - start;
+        record(Operation.COMPUTE, resizeCount != resizes ? Cause.RESIZE : cause, elapsed);
+        return v;
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if ((++operationCount & sampleMask) != 0) {
+            return super.computeIfPresent(key, remappingFunction);
+        }
+        Cause cause = binCause(key);
+        long start = System.nanoTime();
+        V v = super.computeIfPresent(key, remappingFunction);
+        record(Operation.COMPUTE, cause, System.nanoTime() - start);
+        return v;
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if ((++operationCount & sampleMask) != 0 && !mayResize()) {
+            return super.compute(key, remappingFunction);
+        }
+        Cause cause = binCause(key);
+        int resizes = resizeCount;
+        long start = System.nanoTime();
+        V v = super.compute(key, remappingFunction);
+        long elapsed = System.nanoTime() - start;
+        record(Operation.COMPUTE, resizeCount != resizes ? Cause.RESIZE : cause, elapsed);
+        return v;
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if ((++operationCount & sampleMask) != 0 && !mayResize()) {
+            return super.merge(key, value, remappingFunction);
+        }
+        Cause cause = binCause(key);
+        int resizes = resizeCount;
+        long start = System.nanoTime();
+        V v = super.merge(key, value, remappingFunction);
+        long elapsed = System.nanoTime() - start;
+        record(Operation.MERGE, resizeCount != resizes ? Cause.RESIZE : cause, elapsed);
+        return v;
+    }
+
+    /**
+     * 再插入一个元素就会扩容 (不含第一次分配数组)
+     */
+    private boolean mayResize() {
+        return size >= threshold && table != null;
+    }
+
+    /**
+     * 在操作之前检查key所在bin的形状 即本次操作要遍历的结构
+     */
+    private Cause binCause(Object key) {
+        Node<K, V>[] tab;
+        Node<K, V> e;
+        int n;
+        if ((tab = table) == null || (n = tab.length) == 0 || (e = tab[(n - 1) & keyHash(key)]) == null) {
+            return Cause.NONE;
+        }
+        if (e instanceof TreeNode || CompactBin.of(e) != null) {
+            return Cause.TREE_BIN;
+        }
+        int length = 1;
+        while ((e = e.next) != null) {
+            if (++length >= LONG_CHAIN_THRESHOLD) {
+                return Cause.LONG_CHAIN;
+            }
+        }
+        return Cause.NONE;
+    }
+
+    private void record(Operation operation, Cause cause, long nanos) {
+        Histogram[] hs = histograms;
+        if (hs == null) {
+            histograms = hs = new Histogram[OPERATIONS.length * CAUSES.length];
+        }
+        int i = operation.ordinal() * CAUSES.length + cause.ordinal();
+        Histogram h = hs[i];
+        if (h == null) {
+            hs[i] = h = new Histogram();
+        }
+        h.record(nanos);
+    }
+
+    @Override
+    void reinitialize() {
+        super.reinitialize();
+        operationCount = 0;
+        histograms = null;
+    }
+
+    /**
+     * HDR风格的对数分桶直方图 单位纳秒
+     * <p>
+     * 每个2的幂区间再均分为{@link #SUB_BUCKETS}个子桶, 相对误差不超过1/8; 固定496个计数器即可覆盖整个long范围, 记录一个值只需要一次numberOfLeadingZeros
+     */
+    public static final class Histogram {
+
+        static final int SUB_BUCKET_BITS = 3;
+        static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+        private final long[] counts = new long[BUCKETS];
+        private long count;
+        private long sum;
+        private long max;
+
+        Histogram() { }
+
+        static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int)value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        /**
+         * @return 桶中的最大值
+         */
+        static long highestValueOf(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long lowest = (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+
+        void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            ++counts[bucketOf(nanos)];
+            ++count;
+            sum += nanos;
+            if (nanos > max) {
+                max = nanos;
+            }
+        }
+
+        void add(Histogram other) {
+            for (int i = 0; i < BUCKETS; ++i) {
+                counts[i] += other.counts[i];
+            }
+            count += other.count;
+            sum += other.sum;
+            max = Math.max(max, other.max);
+        }
+
+        public long getCount() { return count; }
+
+        public long getMax() { return max; }
+
+        public double getMean() { return count == 0 ? 0 : (double)sum / count; }
+
+        /**
+         * @param percentile 0~100 例如99.99
+         * @return 不小于该比例样本的最小桶上界 没有样本时返回0
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long)Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; ++i) {
+                if ((seen += counts[i]) >= rank) {
+                    return Math.min(highestValueOf(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * @return 延迟不小于nanos的样本数
+         */
+        public long getCountAtOrAbove(long nanos) {
+            long n = 0;
+            for (int i = bucketOf(Math.max(nanos, 0)); i < BUCKETS; ++i) {
+                n += counts[i];
+            }
+            return n;
+        }
+
+        @Override
+        public String toString() {
+            return "Histogram{count=" + count + ", mean=" + getMean() + ", p50=" + getValueAtPercentile(50) +
+                ", p99=" + getValueAtPercentile(99) + ", p99.9=" + getValueAtPercentile(99.9) +
+                ", p99.99=" + getValueAtPercentile(99.99) + ", max=" + max + '}';
+        }
+    }
+}
@@ -0,0 +1,822 @@
+package java.util;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * key和(或)value以弱引用/软引用保存的HashMap: 代替WeakHashMap, 或WeakHashMap与HashMap的组合
+ * <p>
+ * 引用对象直接放在节点的key/value字段中({@link #newNode}等创建节点时包装), 所以链表、红黑树和紧凑bin都照常工作, 扩容也不需要重新计算hash.
+ * 查找时覆盖的{@link #keyEquals}取出弱引用key引用的对象再比较, HashMap本身不知道引用对象的存在.
+ * 每个引用对象记录所在节点的hash值并注册到本Map的ReferenceQueue; 被GC清除后, 之后的get/put/remove等操作在查找或插入(getNode/putVal)之前最多处理
+ * {@link #EXPUNGE_BATCH}个, 用记录的hash值直接定位bin, 按引用对象本身(同一性)调用removeNode删除, 不调用key的hashCode和equals.
+ * WeakHashMap每次操作都扫描整个队列, 这里每次操作的清理开销有上界, 每个被清除的引用只处理一次, 均摊O(1).
+ * {@link #size()}和迭代之前处理整个队列
+ * <p>
+ * 弱引用key的红黑树bin中, hash相同的key之间不按compareTo排序(引用的对象随时可能被回收, 不能作为顺序), 线性比较equals;
+ * hash不同的key仍然按hash二分. 清理不增加modCount, 与WeakHashMap一样, 迭代期间的查找不会导致迭代器抛出ConcurrentModificationException;
+ * 迭代器跳过已被回收的元素, 并在返回之前持有下一个元素的强引用
+ * <p>
+ * 不支持种子模式和变更日志(它们需要重新计算hash或记录key本身). 序列化、克隆、{@link #freeze()}、{@link #diff}和{@link #entryPublisher}
+ * 使用存活元素的强引用快照. 与HashMap一样不是线程安全的
+ *
+ * @param <K> key类型
+ * @param <V> value类型
+ */
+public class ReferenceHashMap<K, V> extends HashMap<K, V> {
+
+    private static final long serialVersionUID = -6158253310290781725L;
+    /**
+     * 每次查找或插入最多处理的被清除的引用数: 每次插入最多创建两个引用对象(key和value), 清理速度总是快于创建速度
+     */
+    static final int EXPUNGE_BATCH = 4;
+
+    /**
+     * key和value的引用强度
+     */
+    public enum Strength {
+        STRONG,
+        /**
+         * 没有其他强引用时在下一次GC被回收
+         */
+        WEAK,
+        /**
+         * 内存不足时才被回收 只用于value
+         */
+        SOFT
+    }
+
+    final Strength keyStrength;
+    final Strength valueStrength;
+    /**
+     * 本Map所有引用对象注册的队列
+     */
+    transient ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+    /**
+     * @param keyStrength   key的引用强度 STRONG或WEAK
+     * @param valueStrength value的引用强度
+     * @throws IllegalArgumentException 参数不合法异常
+     */
+    public ReferenceHashMap(Strength keyStrength, Strength valueStrength) {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, keyStrength, valueStrength);
+    }
+
+    /**
+     * @param initialCapacity 初始数组容量 不是threshold
+     * @param loadFactor      负载因子
+     * @param keyStrength     key的引用强度 STRONG或WEAK
+     * @param valueStrength   value的引用强度
+     * @throws IllegalArgumentException 参数不合法异常
+     */
+    public ReferenceHashMap(int initialCapacity, float loadFactor, Strength keyStrength, Strength valueStrength) {
+        super(initialCapacity, loadFactor);
+        if (keyStrength == null || valueStrength == null) {
+            throw new NullPointerException();
+        }
+        if (keyStrength == Strength.SOFT) {
+            throw new IllegalArgumentException("Soft keys are not supported");
+        }
+        this.keyStrength = keyStrength;
+        this.valueStrength = valueStrength;
+    }
+
+    /**
+     * @return 与WeakHashMap相同: key为弱引用
+     */
+    public static <K, V> ReferenceHashMap<K, V> weakKeys() {
+        return new ReferenceHashMap<>(Strength.WEAK, Strength.STRONG);
+    }
+
+    /**
+     * @return value为弱引用
+     */
+    public static <K, V> ReferenceHashMap<K, V> weakValues() {
+        return new ReferenceHashMap<>(Strength.STRONG, Strength.WEAK);
+    }
+
+    /**
+     * @return value为软引用 适合做内存敏感的缓存
+     */
+    public static <K, V> ReferenceHashMap<K, V> softValues() {
+        return new ReferenceHashMap<>(Strength.STRONG, Strength.SOFT);
+    }
+
+    /* ---------------- 引用对象 -------------- */
+
+    /**
+     * 节点key字段中的弱引用 {@link #keyEquals}比较时取出引用的对象
+     */
+    static final class WeakKey<T> extends WeakReference<T> {
+        final int hash;
+
+        WeakKey(T referent, int hash, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * 节点value字段中的引用 记录节点的hash和key字段(弱引用key时是{@link WeakKey}, 不会延长key的生命周期)
+     */
+    interface ValueReference {
+        int hash();
+
+        Object key();
+    }
+
+    static final class WeakValue<T> extends WeakReference<T> implements ValueReference {
+        final int hash;
+        final Object key;
+
+        WeakValue(T referent, int hash, Object key, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.hash = hash;
+            this.key = key;
+        }
+
+        @Override
+        public int hash() { return hash; }
+
+        @Override
+        public Object key() { return key; }
+    }
+
+    static final class SoftValue<T> extends SoftReference<T> implements ValueReference {
+        final int hash;
+        final Object key;
+
+        SoftValue(T referent, int hash, Object key, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.hash = hash;
+            this.key = key;
+        }
+
+        @Override
+        public int hash() { return hash; }
+
+        @Override
+        public Object key() { return key; }
+    }
+
+    /**
+     * 引用对象已被清除时的返回值 (与null value区分)
+     */
+    static final Object CLEARED = new Object();
+
+    /**
+     * @return 节点key字段中的key 已被回收返回{@link #CLEARED}
+     */
+    static Object keyOf(Object k) {
+        if (k instanceof WeakKey) {
+            Object referent = ((WeakKey<?>)k).get();
+            return referent == null ? CLEARED : referent;
+        }
+        return k;
+    }
+
+    /**
+     * @return 节点value字段中的value 已被回收返回{@link #CLEARED}
+     */
+    static Object valueOf(Object v) {
+        // 按具体类型检查: 对接口的instanceof在不匹配时每次都要线性扫描value类型的所有接口
+        if (v instanceof WeakValue || v instanceof SoftValue) {
+            Object referent = ((Reference<?>)v).get();
+            return referent == null ? CLEARED : referent;
+        }
+        return v;
+    }
+
+    @SuppressWarnings("unchecked")
+    private K referenceKey(int hash, K key) {
+        if (keyStrength == Strength.STRONG || key == null || key instanceof WeakKey) {
+            return key;
+        }
+        return (K)new WeakKey<>(key, hash, queue);
+    }
+
+    /**
+     * @param p 节点 key字段已经包装
+     */
+    @SuppressWarnings("unchecked")
+    private V referenceValue(Node<K, V> p, V value) {
+        Strength s = valueStrength;
+        if (s == Strength.STRONG || value == null || value instanceof WeakValue || value instanceof SoftValue) {
+            return value;
+        }
+        return (V)(s == Strength.WEAK ? new WeakValue<>(value, p.hash, p.key, queue) :
+            new SoftValue<>(value, p.hash, p.key, queue));
+    }
+
+    /* ---------------- 节点 -------------- */
+
+    @Override
+    Node<K, V> newNode(int hash, K key, V value, Node<K, V> next) {
+        // replacementNode也经过这里 已经包装过的key和value保持不变
+        Node<K, V> p = super.newNode(hash, referenceKey(hash, key), null, next);
+        p.value = referenceValue(p, value);
+        return p;
+    }
+
+    @Override
+    TreeNode<K, V> newTreeNode(int hash, K key, V value, Node<K, V> next) {
+        TreeNode<K, V> p = super.newTreeNode(hash, referenceKey(hash, key), null, next);
+        p.value = referenceValue(p, value);
+        return p;
+    }
+
+    @Override
+    CompactNode<K, V> newCompactNode(int hash, K key, V value, Node<K, V> next) {
+        CompactNode<K, V> p = super.newCompactNode(hash, referenceKey(hash, key), null, next);
+        p.value = referenceValue(p, value);
+        return p;
+    }
+
+    /**
+     * putVal等修改已存在节点的value之后调用 包装新的value
+     */
+    @Override
+    void afterNodeAccess(Node<K, V> p) {
+        if (valueStrength != Strength.STRONG) {
+            p.value = referenceValue(p, p.value);
+        }
+    }
+
+    @Override
+    void reinitialize() {
+        super.reinitialize();
+        // 克隆得到的Map使用自己的队列
+        queue = new ReferenceQueue<>();
+    }
+
+    @Override
+    boolean keyEquals(Object key, Object k) {
+        if (k instanceof WeakKey && (k = ((WeakKey<?>)k).get()) == null) {
+            // 弱引用key已被回收 不等于任何key
+            return false;
+        }
+        return super.keyEquals(key, k);
+    }
+
+    @Override
+    boolean plainNodes() {
+        return keyStrength == Strength.STRONG && valueStrength == Strength.STRONG;
+    }
+
+    /* ---------------- 清理 -------------- */
+
+    /**
+     * 删除引用已被清除的节点 不增加modCount
+     *
+     * @param max 最多处理的引用数
+     */
+    final void expunge(int max) {
+        ReferenceQueue<Object> q = queue;
+        Reference<?> r;
+        if (q == null || (r = q.poll()) == null) {
+            // 队列为空时只有一次volatile读 (q为null: 父类构造方法中)
+            return;
+        }
+        int mc = modCount;
+        do {
+            // movable为false: 与迭代器删除相同, 不移动红黑树的根节点, 进行中的迭代器不受影响
+            // 节点可能仍被迭代器引用, 不回收
+            if (r instanceof WeakKey) {
+                removeNode(((WeakKey<?>)r).hash, r, null, false, false);
+            } else {
+                ValueReference v = (ValueReference)r;
+                // value字段仍然是这个引用对象时才删除: 之后写入了新value的节点保留
+                removeNode(v.hash(), v.key(), r, true, false);
+            }
+        } while (--max > 0 && (r = q.poll()) != null);
+        modCount = mc;
+    }
+
+    /* ---------------- Map -------------- */
+
+    @Override
+    public int size() {
+        expunge(Integer.MAX_VALUE);
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+        expunge(EXPUNGE_BATCH);
+        Node<K, V> e;
+        Object v;
+        return (e = getNode(keyHash(key), key)) == null || (v = valueOf(e.value)) == CLEARED ? null : (V)v;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        expunge(EXPUNGE_BATCH);
+        Node<K, V> e;
+        Object v;
+        return (e = getNode(keyHash(key), key)) == null || (v = valueOf(e.value)) == CLEARED ? defaultValue : (V)v;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        expunge(EXPUNGE_BATCH);
+        Node<K, V> e;
+        return (e = getNode(keyHash(key), key)) != null && valueOf(e.value) != CLEARED;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        Node<K, V>[] tab;
+        if ((tab = table) != null && size > 0) {
+            for (Node<K, V> first : tab) {
+                for (Node<K, V> e = first; e != null; e = e.next) {
+                    Object v = valueOf(e.value);
+                    if (v != CLEARED && Objects.equals(v, value) && keyOf(e.key) != CLEARED) { return true; }
+                }
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V put(K key, V value) {
+        expunge(EXPUNGE_BATCH);
+        Object old = valueOf(putVal(keyHash(key), key, value, false, true));
+        return old == CLEARED ? null : (V)old;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        expunge(EXPUNGE_BATCH);
+        super.putAll(m);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        V v;
+        if ((v = get(key)) == null) {
+            v = put(key, value);
+        }
+        return v;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V remove(Object key) {
+        expunge(EXPUNGE_BATCH);
+        Node<K, V> e;
+        if ((e = removeNode(keyHash(key), key, null, false, true)) == null) {
+            return null;
+        }
+        Object v = valueOf(e.value);
+        recycle(e);
+        return v == CLEARED ? null : (V)v;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        expunge(EXPUNGE_BATCH);
+        Node<K, V> e;
+        Object v, stored;
+        if ((e = getNode(keyHash(key), key)) == null || (v = valueOf(stored = e.value)) == CLEARED ||
+            !Objects.equals(v, value)) {
+            return false;
+        }
+        // 按节点中的key和引用对象删除
+        recycle(removeNode(e.hash, e.key, stored, true, true));
+        return true;
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        expunge(EXPUNGE_BATCH);
+        Node<K, V> e;
+        Object v;
+        if ((e = getNode(keyHash(key), key)) == null || (v = valueOf(e.value)) == CLEARED ||
+            !Objects.equals(v, oldValue)) {
+            return false;
+        }
+        e.value = newValue;
+        afterNodeAccess(e);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V replace(K key, V value) {
+        expunge(EXPUNGE_BATCH);
+        Node<K, V> e;
+        Object v;
+        if ((e = getNode(keyHash(key), key)) == null || (v = valueOf(e.value)) == CLEARED) {
+            return null;
+        }
+        e.value = value;
+        afterNodeAccess(e);
+        return (V)v;
+    }
+
+    /*
+     * compute/merge按get/put/remove实现 (与Map的默认实现相同): HashMap的实现在调用函数前后持有bin的头节点,
+     * 函数中的查找可能清理掉这个节点
+     */
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        if (mappingFunction == null) { throw new NullPointerException(); }
+        V v;
+        if ((v = get(key)) == null && (v = mappingFunction.apply(key)) != null) {
+            put(key, v);
+        }
+        return v;
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (remappingFunction == null) { throw new NullPointerException(); }
+        V oldValue, v;
+        if ((oldValue = get(key)) == null) {
+            return null;
+        }
+        if ((v = remappingFunction.apply(key, oldValue)) != null) {
+            put(key, v);
+        } else {
+            remove(key);
+        }
+        return v;
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (remappingFunction == null) { throw new NullPointerException(); }
+        V oldValue = get(key);
+        V v = remappingFunction.apply(key, oldValue);
+        if (v != null) {
+            put(key, v);
+        } else if (oldValue != null || containsKey(key)) {
+            remove(key);
+        }
+        return v;
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if (value == null || remappingFunction == null) { throw new NullPointerException(); }
+        V oldValue = get(key);
+        V v = oldValue == null ? value : remappingFunction.apply(oldValue, value);
+        if (v != null) {
+            put(key, v);
+        } else {
+            remove(key);
+        }
+        return v;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        Node<K, V>[] tab;
+        if (action == null) { throw new NullPointerException(); }
+        if ((tab = table) != null && size > 0) {
+            int mc = modCount;
+            for (Node<K, V> first : tab) {
+                for (Node<K, V> e = first; e != null; e = e.next) {
+                    Object k = keyOf(e.key), v = valueOf(e.value);
+                    if (k != CLEARED && v != CLEARED) { action.accept((K)k, (V)v); }
+                }
+            }
+            if (modCount != mc) { throw new ConcurrentModificationException(); }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        Node<K, V>[] tab;
+        if (function == null) { throw new NullPointerException(); }
+        if ((tab = table) != null && size > 0) {
+            int mc = modCount;
+            cancelAsyncResize();
+            for (Node<K, V> first : tab) {
+                for (Node<K, V> e = first; e != null; e = e.next) {
+                    Object k = keyOf(e.key), v = valueOf(e.value);
+                    if (k != CLEARED && v != CLEARED) {
+                        e.value = function.apply((K)k, (V)v);
+                        afterNodeAccess(e);
+                    }
+                }
+            }
+            if (modCount != mc) { throw new ConcurrentModificationException(); }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof Map)) {
+            return false;
+        }
+        Map<?, ?> m = (Map<?, ?>)o;
+        int n = 0;
+        // 迭代器返回的Entry持有强引用 比较期间不会被回收
+        for (Entry<K, V> e : entrySet()) {
+            K key = e.getKey();
+            V value = e.getValue();
+            if (value == null ? m.get(key) != null || !m.containsKey(key) : !value.equals(m.get(key))) {
+                return false;
+            }
+            ++n;
+        }
+        return n == m.size();
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 0;
+        for (Entry<K, V> e : entrySet()) { h += e.hashCode(); }
+        return h;
+    }
+
+    /**
+     * 不支持: 重新计算hash需要key本身
+     *
+     * @throws UnsupportedOperationException 总是抛出
+     */
+    @Override
+    public HashMap<K, V> useSeededHashing() {
+        throw new UnsupportedOperationException("Seeded hashing is not supported by reference maps");
+    }
+
+    /**
+     * 不支持: 日志会持有key和value的强引用
+     *
+     * @throws UnsupportedOperationException log不为null
+     */
+    @Override
+    public HashMap<K, V> useChangeLog(HashMapChangeLog<K, V> log) {
+        if (log != null) {
+            throw new UnsupportedOperationException("Change log is not supported by reference maps");
+        }
+        return this;
+    }
+
+    /**
+     * 与存活元素的强引用快照比较
+     */
+    @Override
+    public void diff(HashMap<K, V> other, HashMapDiff.DiffConsumer<? super K, ? super V> consumer) {
+        new HashMap<>(this).diff(other, consumer);
+    }
+
+    /**
+     * 冻结存活元素的强引用快照
+     */
+    @Override
+    public FrozenHashMap<K, V> freeze() {
+        return new HashMap<>(this).freeze();
+    }
+
+    /**
+     * 导出存活元素的强引用快照
+     */
+    @Override
+    public HashMapFlow.Publisher<Entry<K, V>> entryPublisher(Executor executor) {
+        return new HashMap<>(this).entryPublisher(executor);
+    }
+
+    /* ---------------- 视图 -------------- */
+
+    @Override
+    public Set<K> keySet() {
+        Set<K> ks;
+        return (ks = keySet) == null ? (keySet = new KeySet()) : ks;
+    }
+
+    @Override
+    public Collection<V> values() {
+        Collection<V> vs;
+        return (vs = values) == null ? (values = new Values()) : vs;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class KeySet extends AbstractSet<K> {
+        @Override
+        public int size() { return ReferenceHashMap.this.size(); }
+
+        @Override
+        public void clear() { ReferenceHashMap.this.clear(); }
+
+        @Override
+        public Iterator<K> iterator() {
+            return new ReferenceIterator<K>() {
+                @Override
+                public K next() { return nextEntry().getKey(); }
+            };
+        }
+
+        @Override
+        public boolean contains(Object o) { return containsKey(o); }
+
+        @Override
+        public boolean remove(Object key) {
+            if (!containsKey(key)) { return false; }
+            ReferenceHashMap.this.remove(key);
+            return true;
+        }
+    }
+
+    final class Values extends AbstractCollection<V> {
+        @Override
+        public int size() { return ReferenceHashMap.this.size(); }
+
+        @Override
+        public void clear() { ReferenceHashMap.this.clear(); }
+
+        @Override
+        public Iterator<V> iterator() {
+            return new ReferenceIterator<V>() {
+                @Override
+                public V next() { return nextEntry().getValue(); }
+            };
+        }
+
+        @Override
+        public boolean contains(Object o) { return containsValue(o); }
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K, V>> {
+        @Override
+        public int size() { return ReferenceHashMap.this.size(); }
+
+        @Override
+        public void clear() { ReferenceHashMap.this.clear(); }
+
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return new ReferenceIterator<Entry<K, V>>() {
+                @Override
+                public Entry<K, V> next() { return nextEntry(); }
+            };
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) { return false; }
+            Entry<?, ?> e = (Entry<?, ?>)o;
+            Object key = e.getKey();
+            Node<K, V> candidate = getNode(keyHash(key), key);
+            Object v;
+            return candidate != null && (v = valueOf(candidate.value)) != CLEARED && Objects.equals(v, e.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (o instanceof Map.Entry) {
+                Entry<?, ?> e = (Entry<?, ?>)o;
+                return ReferenceHashMap.this.remove(e.getKey(), e.getValue());
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 迭代器返回的Entry 持有key和value的强引用; setValue会写回Map
+     */
+    final class ReferenceEntry extends SimpleEntry<K, V> {
+        private static final long serialVersionUID = 3329145278403765817L;
+
+        ReferenceEntry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+
+    abstract class ReferenceIterator<T> implements Iterator<T> {
+        Node<K, V> nextNode;     // next live node
+        ReferenceEntry next;     // strong references to nextNode's key and value
+        Node<K, V> current;      // last returned node
+        int index;               // next slot
+        int expectedModCount;
+
+        ReferenceIterator() {
+            expunge(Integer.MAX_VALUE);
+            expectedModCount = modCount;
+            advance(null);
+        }
+
+        /**
+         * 移动到e之后的下一个存活节点 并取得它的key和value的强引用
+         */
+        @SuppressWarnings("unchecked")
+        private void advance(Node<K, V> e) {
+            Node<K, V>[] t = table;
+            for (; ; ) {
+                if (e != null) {
+                    e = e.next;
+                }
+                while (e == null && t != null && index < t.length) {
+                    e = t[index++];
+                }
+                if (e == null) {
+                    nextNode = null;
+                    next = null;
+                    return;
+                }
+                Object k = keyOf(e.key), v = valueOf(e.value);
+                if (k != CLEARED && v != CLEARED) {
+                    nextNode = e;
+                    next = new ReferenceEntry((K)k, (V)v);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public final boolean hasNext() {
+            return next != null;
+        }
+
+        final ReferenceEntry nextEntry() {
+            if (modCount != expectedModCount) { throw new ConcurrentModificationException(); }
+            ReferenceEntry e = next;
+            if (e == null) { throw new NoSuchElementException(); }
+            current = nextNode;
+            advance(nextNode);
+            return e;
+        }
+
+        @Override
+        public final void remove() {
+            Node<K, V> p = current;
+            if (p == null) { throw new IllegalStateException(); }
+            if (modCount != expectedModCount) { throw new ConcurrentModificationException(); }
+            current = null;
+            // 按节点中的hash和key(弱引用key时按同一性)删除
+            removeNode(p.hash, p.key, null, false, false);
+            expectedModCount = modCount;
+        }
+    }
+
+    /* ---------------- 序列化 -------------- */
+
+    /**
+     * 序列化为存活元素的强引用快照
+     */
+    private Object writeReplace() {
+        return new SerializationProxy<>(this);
+    }
+
+    private void readObject(ObjectInputStream s) throws InvalidObjectException {
+        throw new InvalidObjectException("Proxy required");
+    }
+
+    private static final class SerializationProxy<K, V> implements Serializable {
+        private static final long serialVersionUID = 1794437541089522137L;
+
+        final Strength keyStrength;
+        final Strength valueStrength;
+        final float loadFactor;
+        final HashMap<K, V> entries;
+
+        SerializationProxy(ReferenceHashMap<K, V> map) {
+            keyStrength = map.keyStrength;
+            valueStrength = map.valueStrength;
+            loadFactor = map.loadFactor;
+            entries = new HashMap<>(map);
+        }
+
+        private Object readResolve() {
+            ReferenceHashMap<K, V> map = new ReferenceHashMap<>(DEFAULT_INITIAL_CAPACITY, loadFactor, keyStrength,
+                valueStrength);
+            map.putAll(entries);
+            return map;
+        }
+    }
+}
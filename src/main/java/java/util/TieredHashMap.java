@@ -0,0 +1,1096 @@
+package java.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap.Node;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 两层的Map: 热数据在堆上的{@link HashMap}中, 冷数据写入本地磁盘上只追加的日志段, 堆上只保留冷数据的索引
+ * <p>
+ * 热层的元素数超过maxHotEntries时, 由热层的{@link HashMap#afterNodeInsertion(boolean)}驱动淘汰: CLOCK(二次机会)算法按bin扫描热层的数组,
+ * 每个bin一个访问位, 命中和插入时置位, 时钟指针经过时清除, 指针遇到访问位为0的bin就把其中的元素编码后追加到日志段并从热层删除.
+ * bin中平均不到一个元素, 按bin记录访问位与按元素记录几乎相同, 而且不需要改变节点结构, 对树化和紧凑bin同样适用
+ * <p>
+ * 冷数据的索引是开放寻址的数组, 每个元素只有hash值、位置和记录长度共16字节, key和value都不在堆上. get在热层未命中时按hash值查找索引,
+ * 读取记录并解码key比较equals, 命中后解码value并放回热层(可能因此淘汰其他元素)
+ * <p>
+ * 日志段只追加, 覆盖和删除只会让旧记录成为垃圾. 垃圾超过存活数据的(maxAmplification-1)倍且至少有一个段大小时, 压缩存活比例最低的段:
+ * 把其中仍然存活的记录复制到新段, 在索引中替换位置后删除旧段, 所以磁盘占用大约不超过 存活数据 * maxAmplification + 三个段.
+ * 提供Executor时复制在后台进行, 前台在之后的操作中安装结果; 后台跟不上、垃圾又超出两个段时前台等待 见{@link #useBackgroundCompaction(Executor)}
+ * <p>
+ * 段文件只是溢出用的缓存, 以DELETE_ON_CLOSE创建, {@link #clear()}、{@link #close()}或进程退出后删除, 不能用于恢复.
+ * 与HashMap一样不是线程安全的; 与access-order的LinkedHashMap一样, get可能把元素从冷层移到热层, 迭代期间的get也是结构修改
+ *
+ * @param <K> key类型
+ * @param <V> value类型
+ */
+public class TieredHashMap<K, V> extends AbstractMap<K, V> implements Closeable {
+
+    /**
+     * 默认段大小
+     */
+    static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+    /**
+     * 默认的最大磁盘放大倍数 (磁盘占用 / 存活数据)
+     */
+    static final float DEFAULT_MAX_AMPLIFICATION = 2.0f;
+    /**
+     * 当前段的写缓冲
+     */
+    static final int WRITE_BUFFER_SIZE = 64 << 10;
+    /**
+     * 记录头: key长度和value长度
+     */
+    static final int HEADER = 8;
+    static final int INDEX_INITIAL_CAPACITY = 64;
+    /**
+     * 位置的低40位是段内偏移, 高位是段号(从1开始), 0表示空槽位, -1表示已删除
+     */
+    static final int OFFSET_BITS = 40;
+    static final long EMPTY = 0L, DELETED = -1L;
+
+    /**
+     * 把key或value编码到段中
+     */
+    public interface Codec<T> {
+        void write(DataOutput out, T value) throws IOException;
+
+        T read(DataInput in) throws IOException;
+
+        /**
+         * @return 使用Java序列化的编码 支持null
+         */
+        static <T> Codec<T> serializable() {
+            return new Codec<T>() {
+                @Override
+                public void write(DataOutput out, T value) throws IOException {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                        oos.writeObject(value);
+                    }
+                    out.writeInt(bytes.size());
+                    out.write(bytes.toByteArray());
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public T read(DataInput in) throws IOException {
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                        return (T)ois.readObject();
+                    } catch (ClassNotFoundException e) {
+                        throw new IOException(e);
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * 热层: 插入后淘汰, 命中时置访问位
+     */
+    final class HotTier extends HashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        HotTier(int initialCapacity) {
+            super(initialCapacity);
+        }
+
+        @Override
+        void afterNodeAccess(Node<K, V> p) {
+            markBin(p.hash);
+        }
+
+        @Override
+        void afterNodeInsertion(boolean evict) {
+            if (evict) {
+                markBin(insertHash);
+                evict();
+            }
+        }
+    }
+
+    /**
+     * 一个段文件
+     */
+    static final class Segment {
+        final int id;
+        final FileChannel channel;
+        /**
+         * 逻辑长度 包括写缓冲中的部分
+         */
+        long size;
+        /**
+         * 已写入文件的长度
+         */
+        long flushed;
+        long liveBytes;
+        boolean sealed;
+        /**
+         * 正在被压缩 存活数据降为0时也不能删除
+         */
+        boolean compacting;
+
+        Segment(int id, FileChannel channel) {
+            this.id = id;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * 记录编码缓冲 可以直接访问内部数组
+     */
+    static final class RecordBuffer extends ByteArrayOutputStream {
+        final DataOutputStream out = new DataOutputStream(this);
+
+        RecordBuffer() {
+            super(256);
+        }
+
+        byte[] bytes() { return buf; }
+    }
+
+    final HotTier hot;
+    final int maxHotEntries;
+    final Codec<K> keyCodec;
+    final Codec<V> valueCodec;
+    final Path directory;
+    final int segmentSize;
+    final float maxAmplification;
+    private transient Executor compactionExecutor;
+
+    /**
+     * 热层数组每个bin的访问位 与数组一起扩大, 以及时钟指针
+     */
+    private long[] referenced;
+    private int hand;
+    /**
+     * 正在插入热层的key的hash值 插入后置位, 避免新元素立即被淘汰
+     */
+    private int insertHash;
+
+    /**
+     * 冷层的索引 location为{@link #EMPTY}/{@link #DELETED}时槽位无效
+     */
+    private int[] indexHashes;
+    private long[] indexLocations;
+    private int[] indexLengths;
+    /**
+     * 冷层的元素数 和已占用(包括已删除)的槽位数
+     */
+    private int coldSize, indexUsed;
+    /**
+     * 冷层的结构修改次数 热层有自己的modCount
+     */
+    private int modCount;
+
+    /**
+     * 下标为段号-1 删除的段留下null, 段号之后复用
+     */
+    private Segment[] segments = new Segment[4];
+    private Segment active;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+    private long diskBytes, liveBytes;
+    private Compaction compaction;
+    private final RecordBuffer recordBuffer = new RecordBuffer();
+    /**
+     * {@link #indexFind}找到的记录和解码的key
+     */
+    private byte[] foundRecord;
+    private K foundKey;
+
+    /**
+     * 使用Java序列化编码key和value
+     *
+     * @param maxHotEntries 热层最多的元素数
+     * @param directory     段文件所在的目录
+     */
+    public TieredHashMap(int maxHotEntries, Path directory) {
+        this(maxHotEntries, directory, Codec.serializable(), Codec.serializable(), DEFAULT_SEGMENT_SIZE,
+            DEFAULT_MAX_AMPLIFICATION);
+    }
+
+    /**
+     * @param maxHotEntries    热层最多的元素数
+     * @param directory        段文件所在的目录
+     * @param keyCodec         key的编码 需要支持null key(如果会使用)
+     * @param valueCodec       value的编码 需要支持null value(如果会使用)
+     * @param segmentSize      段大小 超过后开始新段
+     * @param maxAmplification 最大磁盘放大倍数 不小于1.1
+     * @throws IllegalArgumentException 参数不合法异常
+     */
+    public TieredHashMap(int maxHotEntries, Path directory, Codec<K> keyCodec, Codec<V> valueCodec, int segmentSize,
+                         float maxAmplification) {
+        if (maxHotEntries <= 0) {
+            throw new IllegalArgumentException("Illegal max hot entries: " + maxHotEntries);
+        }
+        if (segmentSize < HEADER) {
+            throw new IllegalArgumentException("Illegal segment size: " + segmentSize);
+        }
+        if (!(maxAmplification >= 1.1f)) {
+            throw new IllegalArgumentException("Illegal max amplification: " + maxAmplification);
+        }
+        this.maxHotEntries = maxHotEntries;
+        this.directory = Objects.requireNonNull(directory);
+        this.keyCodec = Objects.requireNonNull(keyCodec);
+        this.valueCodec = Objects.requireNonNull(valueCodec);
+        this.segmentSize = segmentSize;
+        this.maxAmplification = maxAmplification;
+        // 热层按最大元素数一次分配 之后不再扩容
+        this.hot = new HotTier((int)Math.min((long)(maxHotEntries / HashMap.DEFAULT_LOAD_FACTOR) + 1,
+            HashMap.MAXIMUM_CAPACITY));
+    }
+
+    /**
+     * 在executor中复制压缩的段, 前台只在之后的操作中替换索引中的位置. 默认(null)在触发压缩的操作中同步执行
+     *
+     * @return this
+     */
+    public TieredHashMap<K, V> useBackgroundCompaction(Executor executor) {
+        compactionExecutor = executor;
+        return this;
+    }
+
+    /**
+     * @return 热层的元素数
+     */
+    public int hotSize() { return hot.size; }
+
+    /**
+     * @return 冷层的元素数
+     */
+    public int coldSize() { return coldSize; }
+
+    /**
+     * @return 所有段的总长度
+     */
+    public long diskBytes() { return diskBytes; }
+
+    /**
+     * @return 段中存活记录的总长度
+     */
+    public long liveDiskBytes() { return liveBytes; }
+
+    @Override
+    public int size() {
+        return hot.size + coldSize;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public V get(Object key) {
+        compactionStep();
+        int hash = hot.keyHash(key);
+        Node<K, V> e;
+        if ((e = hot.getNode(hash, key)) != null) {
+            markBin(hash);
+            return e.value;
+        }
+        int slot;
+        if (coldSize == 0 || (slot = indexFind(hash, key)) < 0) {
+            return null;
+        }
+        // 放回热层
+        K k = foundKey;
+        V value = decodeValue(foundRecord);
+        indexRemoveAt(slot);
+        insertHot(hash, k, value);
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        compactionStep();
+        int hash = hot.keyHash(key);
+        return hot.getNode(hash, key) != null || (coldSize != 0 && indexFind(hash, key) >= 0);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        compactionStep();
+        int hash = hot.keyHash(key);
+        Node<K, V> e;
+        if ((e = hot.getNode(hash, key)) != null) {
+            V oldValue = e.value;
+            e.value = value;
+            markBin(hash);
+            return oldValue;
+        }
+        V oldValue = null;
+        int slot;
+        if (coldSize != 0 && (slot = indexFind(hash, key)) >= 0) {
+            oldValue = decodeValue(foundRecord);
+            indexRemoveAt(slot);
+        }
+        insertHot(hash, key, value);
+        return oldValue;
+    }
+
+    @Override
+    public V remove(Object key) {
+        compactionStep();
+        int hash = hot.keyHash(key);
+        Node<K, V> e;
+        if ((e = hot.removeNode(hash, key, null, false, true)) != null) {
+            return e.value;
+        }
+        int slot;
+        if (coldSize == 0 || (slot = indexFind(hash, key)) < 0) {
+            return null;
+        }
+        V oldValue = decodeValue(foundRecord);
+        indexRemoveAt(slot);
+        return oldValue;
+    }
+
+    /**
+     * 清空两层, 删除所有段文件, 取消进行中的压缩
+     */
+    @Override
+    public void clear() {
+        hot.clear();
+        Compaction c = compaction;
+        if (c != null) {
+            c.state = Compaction.CANCELLED;
+            compaction = null;
+        }
+        indexHashes = null;
+        indexLocations = null;
+        indexLengths = null;
+        coldSize = indexUsed = 0;
+        ++modCount;
+        IOException failure = null;
+        for (int i = 0; i < segments.length; ++i) {
+            Segment s = segments[i];
+            if (s != null) {
+                segments[i] = null;
+                try {
+                    s.channel.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+        if (c != null) {
+            try {
+                c.target.channel.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        active = null;
+        writeBuffer.clear();
+        diskBytes = liveBytes = 0;
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+    }
+
+    /**
+     * 与{@link #clear()}相同 之后仍然可以使用
+     */
+    @Override
+    public void close() {
+        clear();
+    }
+
+    /* ---------------- 热层 -------------- */
+
+    private void insertHot(int hash, K key, V value) {
+        insertHash = hash;
+        hot.putVal(hash, key, value, false, true);
+    }
+
+    /**
+     * 置位hash所在bin的访问位
+     */
+    final void markBin(int hash) {
+        Node<K, V>[] tab = hot.table;
+        if (tab == null) {
+            return;
+        }
+        int n = tab.length;
+        long[] bits = referenced;
+        if (bits == null || bits.length != (n + 63) >>> 6) {
+            // 热层扩容后 之前的访问位失效
+            referenced = bits = new long[(n + 63) >>> 6];
+            hand = 0;
+        }
+        int i = hash & (n - 1);
+        bits[i >>> 6] |= 1L << i;
+    }
+
+    /**
+     * 热层超过容量时 按CLOCK淘汰到冷层
+     */
+    final void evict() {
+        HashMap<K, V> h = hot;
+        while (h.size > maxHotEntries) {
+            Node<K, V>[] tab = h.table;
+            long[] bits = referenced;
+            int mask = tab.length - 1;
+            int i = hand & mask;
+            // 清除经过的bin的访问位 一圈之内一定能找到访问位为0的非空bin
+            for (Node<K, V> e; ; i = (i + 1) & mask) {
+                if ((e = tab[i]) != null) {
+                    long bit = 1L << i;
+                    if ((bits[i >>> 6] & bit) == 0) {
+                        spill(e);
+                        break;
+                    }
+                    bits[i >>> 6] &= ~bit;
+                }
+            }
+            // bin中还有元素时下一次仍从这里开始
+            hand = i;
+        }
+    }
+
+    /**
+     * 把热层的节点写入段并从热层删除
+     */
+    private void spill(Node<K, V> e) {
+        K key = e.key;
+        int hash = e.hash;
+        int length = encode(key, e.value);
+        long location = append(recordBuffer.bytes(), length);
+        indexInsert(hash, location, length);
+        hot.removeNode(hash, key, null, false, true);
+    }
+
+    /* ---------------- 冷层索引 -------------- */
+
+    /**
+     * 查找key所在的槽位 找到时在{@link #foundRecord}/{@link #foundKey}中保存读到的记录和key
+     *
+     * @return 槽位 -1表示不存在
+     */
+    private int indexFind(int hash, Object key) {
+        int[] hs = indexHashes;
+        if (hs == null) {
+            return -1;
+        }
+        long[] locations = indexLocations;
+        int mask = hs.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            long location = locations[i];
+            if (location == EMPTY) {
+                return -1;
+            }
+            if (location != DELETED && hs[i] == hash) {
+                byte[] record = read(location, indexLengths[i]);
+                K k = decodeKey(record);
+                if (k == key || (key != null && key.equals(k))) {
+                    foundRecord = record;
+                    foundKey = k;
+                    return i;
+                }
+            }
+        }
+    }
+
+    /**
+     * 插入一个不存在的key的记录
+     */
+    private void indexInsert(int hash, long location, int length) {
+        if (indexHashes == null || indexUsed + 1 > indexHashes.length >>> 1) {
+            rebuildIndex();
+        }
+        int[] hs = indexHashes;
+        long[] locations = indexLocations;
+        int mask = hs.length - 1;
+        int i = hash & mask;
+        long l;
+        while ((l = locations[i]) != EMPTY && l != DELETED) {
+            i = (i + 1) & mask;
+        }
+        if (l == EMPTY) {
+            ++indexUsed;
+        }
+        hs[i] = hash;
+        locations[i] = location;
+        indexLengths[i] = length;
+        ++coldSize;
+        ++modCount;
+    }
+
+    /**
+     * 按当前元素数重建索引 丢弃已删除的槽位
+     */
+    private void rebuildIndex() {
+        int capacity = Math.max(INDEX_INITIAL_CAPACITY, HashMap.tableSizeFor((coldSize + 1) << 2));
+        int[] oldHashes = indexHashes;
+        long[] oldLocations = indexLocations;
+        int[] oldLengths = indexLengths;
+        int[] hs = new int[capacity];
+        long[] locations = new long[capacity];
+        int[] lengths = new int[capacity];
+        int mask = capacity - 1;
+        if (oldHashes != null) {
+            for (int j = 0; j < oldHashes.length; ++j) {
+                long location = oldLocations[j];
+                if (location != EMPTY && location != DELETED) {
+                    int i = oldHashes[j] & mask;
+                    while (locations[i] != EMPTY) {
+                        i = (i + 1) & mask;
+                    }
+                    hs[i] = oldHashes[j];
+                    locations[i] = location;
+                    lengths[i] = oldLengths[j];
+                }
+            }
+        }
+        indexHashes = hs;
+        indexLocations = locations;
+        indexLengths = lengths;
+        indexUsed = coldSize;
+    }
+
+    private void indexRemoveAt(int slot) {
+        release(indexLocations[slot], indexLengths[slot]);
+        indexLocations[slot] = DELETED;
+        --coldSize;
+        ++modCount;
+        maybeCompact();
+    }
+
+    /**
+     * 位置上的记录成为垃圾
+     */
+    private void release(long location, int length) {
+        Segment s = segments[(int)(location >>> OFFSET_BITS) - 1];
+        s.liveBytes -= length;
+        liveBytes -= length;
+        if (s.sealed && s.liveBytes == 0 && !s.compacting) {
+            dropSegment(s);
+        }
+    }
+
+    /* ---------------- 记录 -------------- */
+
+    /**
+     * 把记录编码到{@link #recordBuffer}
+     *
+     * @return 记录长度
+     */
+    private int encode(K key, V value) {
+        RecordBuffer b = recordBuffer;
+        b.reset();
+        try {
+            b.out.writeLong(0L);
+            keyCodec.write(b.out, key);
+            int keyLength = b.size() - HEADER;
+            valueCodec.write(b.out, value);
+            int valueLength = b.size() - HEADER - keyLength;
+            byte[] bytes = b.bytes();
+            writeInt(bytes, 0, keyLength);
+            writeInt(bytes, 4, valueLength);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return b.size();
+    }
+
+    private static void writeInt(byte[] b, int off, int v) {
+        b[off] = (byte)(v >>> 24);
+        b[off + 1] = (byte)(v >>> 16);
+        b[off + 2] = (byte)(v >>> 8);
+        b[off + 3] = (byte)v;
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] & 0xff) << 24 | (b[off + 1] & 0xff) << 16 | (b[off + 2] & 0xff) << 8 | (b[off + 3] & 0xff);
+    }
+
+    private K decodeKey(byte[] record) {
+        try {
+            return keyCodec.read(new DataInputStream(new ByteArrayInputStream(record, HEADER, readInt(record, 0))));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private V decodeValue(byte[] record) {
+        try {
+            return valueCodec.read(new DataInputStream(new ByteArrayInputStream(record, HEADER + readInt(record, 0),
+                readInt(record, 4))));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /* ---------------- 段 -------------- */
+
+    /**
+     * 追加到当前段 当前段满时开始新段
+     *
+     * @return 记录的位置
+     */
+    private long append(byte[] record, int length) {
+        Segment s = active;
+        try {
+            if (s == null || (s.size > 0 && s.size + length > segmentSize)) {
+                if (s != null) {
+                    seal(s);
+                }
+                active = s = newSegment();
+            }
+            long location = (long)s.id << OFFSET_BITS | s.size;
+            ByteBuffer buffer = writeBuffer;
+            if (length > buffer.remaining()) {
+                flush(s);
+            }
+            if (length > buffer.remaining()) {
+                writeFully(s.channel, ByteBuffer.wrap(record, 0, length), s.size);
+                s.flushed += length;
+            } else {
+                buffer.put(record, 0, length);
+            }
+            s.size += length;
+            s.liveBytes += length;
+            diskBytes += length;
+            liveBytes += length;
+            return location;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Segment newSegment() throws IOException {
+        int id = 0;
+        while (id < segments.length && segments[id] != null) {
+            ++id;
+        }
+        if (id == segments.length) {
+            segments = Arrays.copyOf(segments, id << 1);
+        }
+        if (id + 1 >= 1 << (63 - OFFSET_BITS)) {
+            throw new IOException("Too many segments");
+        }
+        Path path = Files.createTempFile(directory, "tier-", ".seg");
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+            StandardOpenOption.DELETE_ON_CLOSE);
+        Segment s = new Segment(id + 1, channel);
+        segments[id] = s;
+        return s;
+    }
+
+    private void flush(Segment s) throws IOException {
+        ByteBuffer buffer = writeBuffer;
+        buffer.flip();
+        writeFully(s.channel, buffer, s.flushed);
+        s.flushed = s.size;
+        buffer.clear();
+    }
+
+    private void seal(Segment s) throws IOException {
+        flush(s);
+        s.sealed = true;
+        if (s.liveBytes == 0) {
+            dropSegment(s);
+        }
+    }
+
+    private void dropSegment(Segment s) {
+        segments[s.id - 1] = null;
+        diskBytes -= s.size;
+        if (s == active) {
+            active = null;
+            writeBuffer.clear();
+        }
+        try {
+            s.channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            position += n;
+        }
+    }
+
+    private byte[] read(long location, int length) {
+        Segment s = segments[(int)(location >>> OFFSET_BITS) - 1];
+        long offset = location & ((1L << OFFSET_BITS) - 1);
+        byte[] record = new byte[length];
+        if (s == active && offset >= s.flushed) {
+            // 还在写缓冲中
+            System.arraycopy(writeBuffer.array(), (int)(offset - s.flushed), record, 0, length);
+            return record;
+        }
+        try {
+            readFully(s.channel, ByteBuffer.wrap(record), offset);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return record;
+    }
+
+    /* ---------------- 压缩 -------------- */
+
+    /**
+     * 垃圾超过阈值时压缩存活比例最低的段
+     */
+    private void maybeCompact() {
+        long garbage = diskBytes - liveBytes;
+        long allowed = (long)(liveBytes * (maxAmplification - 1));
+        if (garbage < segmentSize || garbage <= allowed) {
+            return;
+        }
+        Compaction running = compaction;
+        if (running != null) {
+            if (garbage > allowed + 2L * segmentSize) {
+                // 后台压缩跟不上: 等待它完成, 安装后继续压缩
+                running.await();
+                compactionStep();
+            }
+            return;
+        }
+        Segment victim = null;
+        for (Segment s : segments) {
+            if (s != null && s.size > 0 && (victim == null ||
+                (double)s.liveBytes / s.size < (double)victim.liveBytes / victim.size)) {
+                victim = s;
+            }
+        }
+        if (victim == null) {
+            return;
+        }
+        Compaction c;
+        try {
+            if (victim == active) {
+                seal(victim);
+                active = null;
+                if (victim.liveBytes == 0) {
+                    return;
+                }
+            }
+            c = new Compaction(victim, newSegment());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // 记录开始时的存活记录 按偏移排序后顺序读取
+        int[] hs = indexHashes;
+        long[] locations = indexLocations;
+        int[] lengths = indexLengths;
+        int count = 0;
+        long[] order = new long[16];
+        for (int i = 0; i < hs.length; ++i) {
+            long location = locations[i];
+            if (location != EMPTY && location != DELETED && (int)(location >>> OFFSET_BITS) == victim.id) {
+                if (count == order.length) {
+                    order = Arrays.copyOf(order, count << 1);
+                }
+                // 偏移不超过段大小(int), 与槽位一起排序
+                order[count++] = (location & ((1L << OFFSET_BITS) - 1)) << 32 | i;
+            }
+        }
+        Arrays.sort(order, 0, count);
+        c.init(order, count, hs, locations, lengths);
+        victim.compacting = true;
+        compaction = c;
+        Executor executor = compactionExecutor;
+        if (executor != null) {
+            try {
+                executor.execute(c);
+                return;
+            } catch (RejectedExecutionException e) {
+                // 同步执行
+            }
+        }
+        c.run();
+        compactionStep();
+    }
+
+    /**
+     * 压缩完成时安装结果 每次操作开始时调用
+     */
+    final void compactionStep() {
+        Compaction c = compaction;
+        if (c == null || c.state == Compaction.RUNNING) {
+            return;
+        }
+        compaction = null;
+        Segment victim = c.source, target = c.target;
+        victim.compacting = false;
+        if (c.state != Compaction.DONE) {
+            try {
+                target.channel.close();
+            } catch (IOException ignored) {
+            }
+            segments[target.id - 1] = null;
+            throw new UncheckedIOException(c.failure instanceof IOException ? (IOException)c.failure :
+                new IOException(c.failure));
+        }
+        target.size = target.flushed = c.written;
+        target.sealed = true;
+        diskBytes += target.size;
+        int[] hs = indexHashes;
+        long[] locations = indexLocations;
+        int[] lengths = indexLengths;
+        int mask = hs.length - 1;
+        for (int j = 0; j < c.count; ++j) {
+            long oldLocation = c.oldLocations[j];
+            int hash = c.hashes[j];
+            // 仍然指向旧位置的槽位改为新位置 被覆盖或删除的记录在新段中也是垃圾
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                long location = locations[i];
+                if (location == EMPTY) {
+                    break;
+                }
+                if (location == oldLocation) {
+                    locations[i] = (long)target.id << OFFSET_BITS | c.newOffsets[j];
+                    victim.liveBytes -= lengths[i];
+                    target.liveBytes += lengths[i];
+                    break;
+                }
+            }
+        }
+        dropSegment(victim);
+        if (target.liveBytes == 0) {
+            dropSegment(target);
+        }
+        // 后台压缩期间产生的垃圾可能仍然超过阈值
+        maybeCompact();
+    }
+
+    /**
+     * 把一个已封闭段中的存活记录复制到新段. 只读取源段(封闭后不再写入)、只写入目标段(安装前前台不访问), 可以在后台执行
+     */
+    static final class Compaction implements Runnable {
+        static final int RUNNING = 0, DONE = 1, FAILED = 2, CANCELLED = 3;
+
+        final Segment source, target;
+        int count;
+        int[] hashes;
+        long[] oldLocations;
+        int[] lengths;
+        long[] newOffsets;
+        long written;
+        Throwable failure;
+        volatile int state;
+
+        Compaction(Segment source, Segment target) {
+            this.source = source;
+            this.target = target;
+        }
+
+        /**
+         * @param order 按偏移排序的 偏移 << 32 | 槽位
+         */
+        void init(long[] order, int count, int[] indexHashes, long[] indexLocations, int[] indexLengths) {
+            this.count = count;
+            hashes = new int[count];
+            oldLocations = new long[count];
+            lengths = new int[count];
+            newOffsets = new long[count];
+            for (int j = 0; j < count; ++j) {
+                int i = (int)order[j];
+                hashes[j] = indexHashes[i];
+                oldLocations[j] = indexLocations[i];
+                lengths[j] = indexLengths[i];
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                FileChannel from = source.channel, to = target.channel;
+                long position = 0;
+                for (int j = 0; j < count; ++j) {
+                    if (state == CANCELLED) {
+                        return;
+                    }
+                    long offset = oldLocations[j] & ((1L << OFFSET_BITS) - 1);
+                    newOffsets[j] = position;
+                    to.position(position);
+                    for (long done = 0; done < lengths[j]; ) {
+                        long n = from.transferTo(offset + done, lengths[j] - done, to);
+                        if (n <= 0) {
+                            throw new EOFException();
+                        }
+                        done += n;
+                    }
+                    position += lengths[j];
+                }
+                written = position;
+                state = DONE;
+            } catch (Throwable t) {
+                failure = t;
+                state = FAILED;
+            } finally {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * 等待后台复制结束 被中断时保留中断状态并返回
+         */
+        synchronized void await() {
+            while (state == RUNNING) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /* ---------------- 视图 -------------- */
+
+    private transient Set<Entry<K, V>> entrySet;
+
+    /**
+     * 先迭代热层再迭代冷层; 冷层的元素在迭代时从段中读取, setValue追加新记录
+     */
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K, V>> {
+        @Override
+        public int size() { return TieredHashMap.this.size(); }
+
+        @Override
+        public void clear() { TieredHashMap.this.clear(); }
+
+        @Override
+        public Iterator<Entry<K, V>> iterator() { return new EntryIterator(); }
+    }
+
+    final class ColdEntry extends SimpleEntry<K, V> {
+        private static final long serialVersionUID = 1L;
+        final int slot;
+        final int expectedModCount;
+
+        ColdEntry(K key, V value, int slot) {
+            super(key, value);
+            this.slot = slot;
+            this.expectedModCount = modCount;
+        }
+
+        @Override
+        public V setValue(V value) {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            int length = encode(getKey(), value);
+            long location = append(recordBuffer.bytes(), length);
+            release(indexLocations[slot], indexLengths[slot]);
+            indexLocations[slot] = location;
+            indexLengths[slot] = length;
+            maybeCompact();
+            return super.setValue(value);
+        }
+    }
+
+    final class EntryIterator implements Iterator<Entry<K, V>> {
+        final Iterator<Entry<K, V>> hotIterator = hot.entrySet().iterator();
+        /**
+         * 下一个冷层槽位 -1表示还在迭代热层
+         */
+        int next = -1;
+        /**
+         * 上一个返回的冷层槽位 -1表示没有; 上一个返回的是热层元素时hotCurrent为true
+         */
+        int current = -1;
+        boolean hotCurrent;
+        int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            if (next < 0) {
+                if (hotIterator.hasNext()) {
+                    return true;
+                }
+                next = 0;
+            }
+            long[] locations = indexLocations;
+            if (locations == null) {
+                return false;
+            }
+            while (next < locations.length && (locations[next] == EMPTY || locations[next] == DELETED)) {
+                ++next;
+            }
+            return next < locations.length;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (next < 0) {
+                hotCurrent = true;
+                return hotIterator.next();
+            }
+            hotCurrent = false;
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            compactionStep();
+            current = next++;
+            byte[] record = read(indexLocations[current], indexLengths[current]);
+            return new ColdEntry(decodeKey(record), decodeValue(record), current);
+        }
+
+        @Override
+        public void remove() {
+            if (hotCurrent) {
+                hotCurrent = false;
+                hotIterator.remove();
+                return;
+            }
+            if (current < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            compactionStep();
+            indexRemoveAt(current);
+            current = -1;
+            expectedModCount = modCount;
+        }
+    }
+}
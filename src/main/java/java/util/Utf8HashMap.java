@@ -0,0 +1,655 @@
+package java.util;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 字符串key专用的Map: key以UTF-8字节保存在一个共享的字节数组(arena)中, 查找可以直接使用{@link CharSequence}或字节数组的一段
+ * <p>
+ * HashMap&lt;String, V&gt;查找时调用方必须先有一个String: 从请求缓冲区中解析出的HTTP头名称、JSON字段名每次都要先new String(含一个byte[])
+ * 再查找. 本类的{@link #get(CharSequence)}和{@link #get(byte[], int, int)}直接对字符或字节计算hash、逐字节比较, 不分配任何对象.
+ * 字符按UTF-8编码参与hash和比较(不成对的代理字符视为'?', 与{@link String#getBytes(java.nio.charset.Charset)}相同),
+ * 所以同一个key用String、StringBuilder、CharBuffer或UTF-8字节查找的结果相同
+ * <p>
+ * 开放寻址(线性探测), hash值(UTF-8字节的31进制多项式)、key在arena中的偏移和长度、value放在平行数组中; 没有节点、String和红黑树, 每个key只多占用它的UTF-8字节.
+ * 删除的key在arena中留下空洞, 空洞超过一半时在扩容或追加时整理
+ * <p>
+ * 查找不修改Map的任何状态, 构建完成后可以被多个线程同时读取. 迭代时key解码为新的String. 不支持null key, 字节形式的key应当是合法的UTF-8.
+ * 与HashMap一样不是线程安全的
+ *
+ * @param <V> value类型
+ */
+public class Utf8HashMap<V> extends AbstractMap<String, V> implements Cloneable, Serializable {
+
+    private static final long serialVersionUID = 2912448133093531476L;
+    /**
+     * 默认槽位数量 (必须为2的幂)
+     */
+    static final int DEFAULT_CAPACITY = 16;
+    /**
+     * 最大槽位数量
+     */
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+    /**
+     * 元素与墓碑占槽位的最大比例
+     */
+    static final float LOAD_FACTOR = 0.5f;
+    /**
+     * lengths中的特殊值: 空槽位和被删除的槽位
+     */
+    static final int EMPTY = -1, TOMBSTONE = -2;
+
+    transient int[] hashes;
+    transient int[] offsets;
+    /**
+     * key的字节数 或{@link #EMPTY}/{@link #TOMBSTONE}
+     */
+    transient int[] lengths;
+    transient Object[] values;
+    transient int size;
+    transient int tombstones;
+    transient int modCount;
+    /**
+     * 所有key的UTF-8字节 arenaSize之后是空闲空间
+     */
+    transient byte[] arena;
+    transient int arenaSize;
+    /**
+     * arena中被删除的key占用的字节数
+     */
+    transient int arenaGarbage;
+    transient Set<Entry<String, V>> entrySet;
+
+    public Utf8HashMap() {
+        allocate(DEFAULT_CAPACITY);
+        arena = new byte[DEFAULT_CAPACITY * 8];
+    }
+
+    /**
+     * @param expectedSize 期望存放的key数量
+     * @throws IllegalArgumentException 参数不合法异常
+     */
+    public Utf8HashMap(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Illegal expected size: " + expectedSize);
+        }
+        allocate(CountingHashMap.capacityFor(expectedSize));
+        arena = new byte[Math.max(DEFAULT_CAPACITY, expectedSize) * 8];
+    }
+
+    private void allocate(int capacity) {
+        hashes = new int[capacity];
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+        Arrays.fill(lengths, EMPTY);
+        values = new Object[capacity];
+        tombstones = 0;
+    }
+
+    /* ---------------- UTF-8 -------------- */
+
+    /**
+     * @return cs中从i开始的码点 不成对的代理字符返回'?'
+     */
+    static int codePointAt(CharSequence cs, int i, int n) {
+        char c = cs.charAt(i), d;
+        if (!Character.isSurrogate(c)) {
+            return c;
+        }
+        if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(d = cs.charAt(i + 1))) {
+            return Character.toCodePoint(c, d);
+        }
+        return '?';
+    }
+
+    /**
+     * @return 码点的UTF-8编码 第一个字节在最低位
+     */
+    static int utf8(int cp) {
+        if (cp < 0x80) {
+            return cp;
+        }
+        if (cp < 0x800) {
+            return (0xc0 | cp >> 6) | (0x80 | cp & 0x3f) << 8;
+        }
+        if (cp < 0x10000) {
+            return (0xe0 | cp >> 12) | (0x80 | cp >> 6 & 0x3f) << 8 | (0x80 | cp & 0x3f) << 16;
+        }
+        return (0xf0 | cp >> 18) | (0x80 | cp >> 12 & 0x3f) << 8 | (0x80 | cp >> 6 & 0x3f) << 16 | (0x80 | cp & 0x3f) << 24;
+    }
+
+    static int utf8Length(int cp) {
+        return cp < 0x80 ? 1 : cp < 0x800 ? 2 : cp < 0x10000 ? 3 : 4;
+    }
+
+    /**
+     * @return cs的UTF-8编码的hash值 与对编码后的字节调用{@link #hash(byte[], int, int)}相同
+     */
+    static int hash(CharSequence cs) {
+        int h = 0;
+        for (int i = 0, n = cs.length(); i < n; ) {
+            int cp = codePointAt(cs, i, n);
+            i += cp >= 0x10000 ? 2 : 1;
+            if (cp < 0x80) {
+                h = 31 * h + cp;
+                continue;
+            }
+            for (int b = utf8(cp), k = utf8Length(cp); k > 0; --k, b >>>= 8) {
+                h = 31 * h + (b & 0xff);
+            }
+        }
+        return h;
+    }
+
+    static int hash(byte[] bytes, int offset, int length) {
+        int h = 0, i = offset, end = offset + length;
+        // 每次4个字节: 31^4 = 923521, 31^3 = 29791, 31^2 = 961, 结果与逐字节相同
+        for (; i + 4 <= end; i += 4) {
+            h = 923521 * h + 29791 * (bytes[i] & 0xff) + 961 * (bytes[i + 1] & 0xff) + 31 * (bytes[i + 2] & 0xff) + (bytes[i + 3] & 0xff);
+        }
+        for (; i < end; ++i) {
+            h = 31 * h + (bytes[i] & 0xff);
+        }
+        return h;
+    }
+
+    /**
+     * @return arena中的key是否等于cs的UTF-8编码
+     */
+    final boolean keyEquals(int offset, int length, CharSequence cs) {
+        byte[] a = arena;
+        int p = offset, end = offset + length;
+        for (int i = 0, n = cs.length(); i < n; ) {
+            int cp = codePointAt(cs, i, n);
+            i += cp >= 0x10000 ? 2 : 1;
+            if (cp < 0x80) {
+                if (p == end || a[p++] != cp) {
+                    return false;
+                }
+                continue;
+            }
+            int k = utf8Length(cp);
+            if (end - p < k) {
+                return false;
+            }
+            for (int b = utf8(cp); k > 0; --k, b >>>= 8) {
+                if (a[p++] != (byte)b) {
+                    return false;
+                }
+            }
+        }
+        return p == end;
+    }
+
+    final boolean keyEquals(int offset, int length, byte[] bytes, int from) {
+        byte[] a = arena;
+        for (int i = 0; i < length; ++i) {
+            if (a[offset + i] != bytes[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* ---------------- 槽位 -------------- */
+
+    /**
+     * @return 槽位索引 不存在返回-1
+     */
+    final int indexOf(CharSequence key) {
+        int hash = hash(key);
+        int[] hs = hashes, ls = lengths, os = offsets;
+        int mask = ls.length - 1;
+        int l;
+        for (int i = CountingHashMap.slot(hash, mask); (l = ls[i]) != EMPTY; i = (i + 1) & mask) {
+            if (hs[i] == hash && l >= 0 && keyEquals(os[i], l, key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return 槽位索引 不存在返回-1
+     */
+    final int indexOf(byte[] key, int offset, int length) {
+        int hash = hash(key, offset, length);
+        int[] hs = hashes, ls = lengths, os = offsets;
+        int mask = ls.length - 1;
+        int l;
+        for (int i = CountingHashMap.slot(hash, mask); (l = ls[i]) != EMPTY; i = (i + 1) & mask) {
+            if (hs[i] == hash && l == length && keyEquals(os[i], l, key, offset)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 在不存在key的前提下 为hash值选择插入的槽位, 必要时先扩容
+     */
+    private int insertionSlot(int hash) {
+        if (size + tombstones + 1 > (int)(lengths.length * LOAD_FACTOR)) {
+            resize();
+        }
+        int[] ls = lengths;
+        int mask = ls.length - 1;
+        int i = CountingHashMap.slot(hash, mask), l;
+        while ((l = ls[i]) != EMPTY && l != TOMBSTONE) {
+            i = (i + 1) & mask;
+        }
+        if (l == TOMBSTONE) {
+            --tombstones;
+        }
+        return i;
+    }
+
+    /**
+     * 元素过多时容量翻倍, 主要是墓碑时按原容量重建
+     */
+    final void resize() {
+        int[] oldHashes = hashes, oldOffsets = offsets, oldLengths = lengths;
+        Object[] oldValues = values;
+        int capacity = oldLengths.length;
+        if (size + 1 > (int)(capacity * LOAD_FACTOR) / 2 || tombstones == 0) {
+            if (capacity >= MAXIMUM_CAPACITY) { throw new IllegalStateException("Utf8 map is full"); }
+            capacity <<= 1;
+        }
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldLengths.length; ++j) {
+            if (oldLengths[j] >= 0) {
+                int i = CountingHashMap.slot(oldHashes[j], mask);
+                while (lengths[i] != EMPTY) { i = (i + 1) & mask; }
+                hashes[i] = oldHashes[j];
+                offsets[i] = oldOffsets[j];
+                lengths[i] = oldLengths[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * 为length个字节预留arena空间: 空洞超过一半时整理, 否则扩大
+     *
+     * @return 写入位置
+     */
+    private int reserve(int length) {
+        byte[] a = arena;
+        if (a.length - arenaSize >= length) {
+            return arenaSize;
+        }
+        int live = arenaSize - arenaGarbage;
+        long needed = (long)live + length;
+        if (needed > Integer.MAX_VALUE - 8) {
+            throw new OutOfMemoryError("Utf8 map arena too large");
+        }
+        int capacity = arenaGarbage >= arenaSize >>> 1 ? a.length : (int)Math.min(Integer.MAX_VALUE - 8, (long)a.length << 1);
+        while (capacity < needed) {
+            capacity = (int)Math.min(Integer.MAX_VALUE - 8, (long)capacity << 1);
+        }
+        // 按槽位顺序紧凑复制存活的key
+        byte[] packed = new byte[capacity];
+        int[] os = offsets, ls = lengths;
+        int p = 0;
+        for (int i = 0; i < ls.length; ++i) {
+            int l = ls[i];
+            if (l >= 0) {
+                System.arraycopy(a, os[i], packed, p, l);
+                os[i] = p;
+                p += l;
+            }
+        }
+        arena = packed;
+        arenaSize = p;
+        arenaGarbage = 0;
+        return p;
+    }
+
+    private void insertAt(int i, int hash, int offset, int length, V value) {
+        hashes[i] = hash;
+        offsets[i] = offset;
+        lengths[i] = length;
+        values[i] = value;
+        arenaSize = offset + length;
+        ++size;
+        ++modCount;
+    }
+
+    final void removeAt(int i) {
+        arenaGarbage += lengths[i];
+        lengths[i] = TOMBSTONE;
+        values[i] = null;
+        ++tombstones;
+        --size;
+        ++modCount;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int i) {
+        return i < 0 ? null : (V)values[i];
+    }
+
+    /* ---------------- 查找 -------------- */
+
+    /**
+     * 不分配对象的查找
+     *
+     * @throws NullPointerException key为null
+     */
+    public V get(CharSequence key) {
+        return valueAt(indexOf(key));
+    }
+
+    /**
+     * 以UTF-8字节查找 不分配对象
+     *
+     * @param key    包含key的缓冲区
+     * @param offset key的起始位置
+     * @param length key的字节数
+     */
+    public V get(byte[] key, int offset, int length) {
+        checkRange(key, offset, length);
+        return valueAt(indexOf(key, offset, length));
+    }
+
+    @Override
+    public V get(Object key) {
+        return key instanceof CharSequence ? get((CharSequence)key) : null;
+    }
+
+    public boolean containsKey(CharSequence key) {
+        return indexOf(key) >= 0;
+    }
+
+    public boolean containsKey(byte[] key, int offset, int length) {
+        checkRange(key, offset, length);
+        return indexOf(key, offset, length) >= 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof CharSequence && containsKey((CharSequence)key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        int[] ls = lengths;
+        Object[] vs = values;
+        for (int i = 0; i < ls.length; ++i) {
+            if (ls[i] >= 0 && Objects.equals(vs[i], value)) { return true; }
+        }
+        return false;
+    }
+
+    /* ---------------- 修改 -------------- */
+
+    @Override
+    public V put(String key, V value) {
+        return put((CharSequence)key, value);
+    }
+
+    /**
+     * 插入时把key编码到arena中 之后可以修改或复用key
+     *
+     * @throws NullPointerException key为null
+     */
+    public V put(CharSequence key, V value) {
+        int i = indexOf(key);
+        if (i >= 0) {
+            V old = valueAt(i);
+            values[i] = value;
+            return old;
+        }
+        int n = key.length();
+        int length = 0;
+        for (int j = 0; j < n; ) {
+            int cp = codePointAt(key, j, n);
+            j += cp >= 0x10000 ? 2 : 1;
+            length += utf8Length(cp);
+        }
+        int hash = hash(key);
+        int slot = insertionSlot(hash);
+        int offset = reserve(length);
+        byte[] a = arena;
+        int p = offset;
+        for (int j = 0; j < n; ) {
+            int cp = codePointAt(key, j, n);
+            j += cp >= 0x10000 ? 2 : 1;
+            for (int b = utf8(cp), k = utf8Length(cp); k > 0; --k, b >>>= 8) {
+                a[p++] = (byte)b;
+            }
+        }
+        insertAt(slot, hash, offset, length, value);
+        return null;
+    }
+
+    /**
+     * 以UTF-8字节插入 字节被复制到arena中
+     */
+    public V put(byte[] key, int offset, int length, V value) {
+        checkRange(key, offset, length);
+        int i = indexOf(key, offset, length);
+        if (i >= 0) {
+            V old = valueAt(i);
+            values[i] = value;
+            return old;
+        }
+        int hash = hash(key, offset, length);
+        int slot = insertionSlot(hash);
+        int to = reserve(length);
+        System.arraycopy(key, offset, arena, to, length);
+        insertAt(slot, hash, to, length, value);
+        return null;
+    }
+
+    public V remove(CharSequence key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        V old = valueAt(i);
+        removeAt(i);
+        return old;
+    }
+
+    public V remove(byte[] key, int offset, int length) {
+        checkRange(key, offset, length);
+        int i = indexOf(key, offset, length);
+        if (i < 0) {
+            return null;
+        }
+        V old = valueAt(i);
+        removeAt(i);
+        return old;
+    }
+
+    @Override
+    public V remove(Object key) {
+        return key instanceof CharSequence ? remove((CharSequence)key) : null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public void clear() {
+        ++modCount;
+        if (size > 0 || tombstones > 0) {
+            size = 0;
+            tombstones = 0;
+            Arrays.fill(lengths, EMPTY);
+            Arrays.fill(values, null);
+        }
+        arenaSize = arenaGarbage = 0;
+    }
+
+    private static void checkRange(byte[] key, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > key.length - length) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", array length " + key.length);
+        }
+    }
+
+    final String keyAt(int i) {
+        return new String(arena, offsets[i], lengths[i], StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+        Set<Entry<String, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Object clone() {
+        Utf8HashMap<V> result;
+        try {
+            result = (Utf8HashMap<V>)super.clone();
+        } catch (CloneNotSupportedException e) {
+            // this shouldn't happen, since we are Cloneable
+            throw new InternalError(e);
+        }
+        result.hashes = hashes.clone();
+        result.offsets = offsets.clone();
+        result.lengths = lengths.clone();
+        result.values = values.clone();
+        result.arena = arena.clone();
+        result.entrySet = null;
+        return result;
+    }
+
+    final class EntrySet extends AbstractSet<Entry<String, V>> {
+        @Override
+        public int size() { return size; }
+
+        @Override
+        public void clear() { Utf8HashMap.this.clear(); }
+
+        @Override
+        public Iterator<Entry<String, V>> iterator() { return new EntryIterator(); }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) { return false; }
+            Entry<?, ?> e = (Entry<?, ?>)o;
+            Object key = e.getKey();
+            int i = key instanceof CharSequence ? indexOf((CharSequence)key) : -1;
+            return i >= 0 && Objects.equals(values[i], e.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (o instanceof Map.Entry) {
+                Entry<?, ?> e = (Entry<?, ?>)o;
+                return Utf8HashMap.this.remove(e.getKey(), e.getValue());
+            }
+            return false;
+        }
+    }
+
+    /**
+     * key只以字节形式存放, 迭代时才创建String和Entry; setValue会写回Map
+     */
+    final class Utf8Entry extends SimpleEntry<String, V> {
+        private static final long serialVersionUID = -3504218742318865150L;
+
+        Utf8Entry(String key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+
+    final class EntryIterator implements Iterator<Entry<String, V>> {
+        int index;              // next slot
+        int current = -1;       // last returned slot
+        int expectedModCount = modCount;
+
+        EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            int[] ls = lengths;
+            while (index < ls.length && ls[index] < 0) { ++index; }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < lengths.length;
+        }
+
+        @Override
+        public Entry<String, V> next() {
+            if (modCount != expectedModCount) { throw new ConcurrentModificationException(); }
+            if (!hasNext()) { throw new NoSuchElementException(); }
+            int i = current = index++;
+            advance();
+            return new Utf8Entry(keyAt(i), valueAt(i));
+        }
+
+        @Override
+        public void remove() {
+            int i = current;
+            if (i < 0) { throw new IllegalStateException(); }
+            if (modCount != expectedModCount) { throw new ConcurrentModificationException(); }
+            current = -1;
+            // 删除只留下墓碑 不会移动其他元素
+            removeAt(i);
+            expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * @serialData 元素数量(int), 随后是每个元素的key(字节数和UTF-8字节)和value
+     */
+    private void writeObject(java.io.ObjectOutputStream s) throws IOException {
+        s.defaultWriteObject();
+        s.writeInt(size);
+        int[] ls = lengths;
+        for (int i = 0; i < ls.length; ++i) {
+            if (ls[i] >= 0) {
+                s.writeInt(ls[i]);
+                s.write(arena, offsets[i], ls[i]);
+                s.writeObject(values[i]);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(java.io.ObjectInputStream s) throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        int mappings = s.readInt();
+        if (mappings < 0) {
+            throw new InvalidObjectException("Illegal mappings count: " + mappings);
+        }
+        allocate(CountingHashMap.capacityFor(mappings));
+        arena = new byte[Math.max(DEFAULT_CAPACITY, mappings) * 8];
+        byte[] key = new byte[16];
+        for (int i = 0; i < mappings; ++i) {
+            int length = s.readInt();
+            if (length < 0) {
+                throw new InvalidObjectException("Illegal key length: " + length);
+            }
+            if (length > key.length) {
+                key = new byte[Math.max(length, key.length << 1)];
+            }
+            s.readFully(key, 0, length);
+            put(key, 0, length, (V)s.readObject());
+        }
+    }
+}
@@ -0,0 +1,610 @@
+package java.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 多版本(MVCC)的HashMap: 写线程照常读写, 其他线程通过{@link #snapshot()}取得某个版本的只读视图, 读取时既不加锁也不需要复制整个Map
+ * <p>
+ * 每次修改使全局版本号加1, 并在key的节点上压入一个{@link Version}(删除压入墓碑), 节点上的版本从新到旧串成一条短链.
+ * 快照记住创建时的版本号V, 读取时沿版本链找到第一个不大于V的版本. 写线程每{@link #MIN_VERSION_REFRESH_INTERVAL}次修改重新计算活跃快照中最小的版本号,
+ * 更旧的、任何快照都看不到的版本在下一次写入该节点(或者写线程每次修改顺带清理的{@link #SWEEP_BINS_PER_WRITE}个bin)时被截断,
+ * 所有快照都看不到的已删除节点被摘除, 由GC回收. 每次修改的额外开销是一个Version对象和常数个bin的清理
+ * <p>
+ * 写操作(put/remove/clear)只能由一个线程执行(或由调用方加锁串行); 读操作可以在任意线程中执行: 快照的读取是一致的,
+ * Map自身的get/containsKey/迭代读取最新提交的版本(弱一致). 快照用完必须{@link Snapshot#close()}, 否则它所需的旧版本永远不会被回收
+ *
+ * @param <K> key类型
+ * @param <V> value类型
+ */
+public class VersionedHashMap<K, V> extends AbstractMap<K, V> {
+
+    /**
+     * 默认初始容量 (必须为2的幂)
+     */
+    static final int DEFAULT_INITIAL_CAPACITY = 16;
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+    static final float LOAD_FACTOR = 0.75f;
+    /**
+     * 重新计算最小活跃版本的间隔(修改次数)
+     */
+    static final int MIN_VERSION_REFRESH_INTERVAL = 64;
+    /**
+     * 每次修改顺带清理的bin数
+     */
+    static final int SWEEP_BINS_PER_WRITE = 2;
+    /**
+     * 删除的版本的value
+     */
+    static final Object TOMBSTONE = new Object();
+
+    /**
+     * key的一个版本 older指向更早的版本, 截断时置为null
+     */
+    static final class Version {
+        final long version;
+        final Object value;
+        volatile Version older;
+
+        Version(long version, Object value, Version older) {
+            this.version = version;
+            this.value = value;
+            this.older = older;
+        }
+    }
+
+    static final class Node<K> {
+        final int hash;
+        final K key;
+        volatile Version head;
+        volatile Node<K> next;
+
+        Node(int hash, K key, Version head, Node<K> next) {
+            this.hash = hash;
+            this.key = key;
+            this.head = head;
+            this.next = next;
+        }
+    }
+
+    /**
+     * 快照在注册表中的登记 version为-1表示已经登记但还没有读取版本号
+     */
+    static final class Pin {
+        volatile long version = -1;
+    }
+
+    volatile AtomicReferenceArray<Node<K>> table;
+    /**
+     * 最后一次提交的版本号 写线程在修改完成后写入(volatile), 快照读取它作为自己的版本
+     */
+    volatile long currentVersion;
+    /**
+     * 最新版本中的元素数
+     */
+    volatile int size;
+    /**
+     * 数组中的节点数 包括已删除但还不能摘除的节点 只由写线程使用
+     */
+    int nodeCount;
+    int threshold;
+    /**
+     * 最近一次计算的最小活跃版本: 不大于它的最新版本之前的版本都可以截断 只由写线程使用
+     */
+    long minActiveVersion;
+    int writesSinceRefresh;
+    int sweepIndex;
+    final Set<Pin> pins = ConcurrentHashMap.newKeySet();
+    transient Set<Entry<K, V>> entrySet;
+
+    public VersionedHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * @throws IllegalArgumentException 参数不合法异常
+     */
+    public VersionedHashMap(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: " + initialCapacity);
+        }
+        int n = Math.max(2, HashMap.tableSizeFor(Math.min(initialCapacity, MAXIMUM_CAPACITY)));
+        table = new AtomicReferenceArray<>(n);
+        threshold = (int)(n * LOAD_FACTOR);
+    }
+
+    /**
+     * @return 最后一次提交的版本号
+     */
+    public long version() {
+        return currentVersion;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    final Node<K> findNode(AtomicReferenceArray<Node<K>> tab, int hash, Object key) {
+        for (Node<K> e = tab.get(hash & (tab.length() - 1)); e != null; e = e.next) {
+            K k;
+            if (e.hash == hash && ((k = e.key) == key || (key != null && key.equals(k)))) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return version时key的版本 null或墓碑表示当时不存在
+     */
+    static Version versionAt(Version head, long version) {
+        Version v = head;
+        while (v != null && v.version > version) { v = v.older; }
+        return v;
+    }
+
+    static boolean present(Version v) {
+        return v != null && v.value != TOMBSTONE;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+        Node<K> e = findNode(table, HashMap.hash(key), key);
+        Object value;
+        return e == null || (value = e.head.value) == TOMBSTONE ? null : (V)value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        Node<K> e = findNode(table, HashMap.hash(key), key);
+        return e != null && e.head.value != TOMBSTONE;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return write(key, value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        Node<K> e = findNode(table, HashMap.hash(key), key);
+        if (e == null || e.head.value == TOMBSTONE) {
+            return null;
+        }
+        return write(e.key, TOMBSTONE);
+    }
+
+    /**
+     * 为key压入一个新版本并提交
+     *
+     * @return 之前的value
+     */
+    @SuppressWarnings("unchecked")
+    final V write(K key, Object value) {
+        long version = currentVersion + 1;
+        Object oldValue = push(table, HashMap.hash(key), key, value, version);
+        if (oldValue == TOMBSTONE && value == TOMBSTONE) {
+            return null;
+        }
+        currentVersion = version;
+        maintain();
+        return oldValue == TOMBSTONE ? null : (V)oldValue;
+    }
+
+    /**
+     * 为key压入版本号为version的新版本 不提交. 节点的最新版本已经是version时(同一批中再次修改同一个key)替换它
+     *
+     * @param value 新的value 删除时为{@link #TOMBSTONE}
+     * @return 之前的value 不存在时为{@link #TOMBSTONE}
+     */
+    final Object push(AtomicReferenceArray<Node<K>> tab, int hash, K key, Object value, long version) {
+        Node<K> e = findNode(tab, hash, key);
+        Object oldValue;
+        if (e != null) {
+            Version head = e.head;
+            oldValue = head.value;
+            if (oldValue == TOMBSTONE && value == TOMBSTONE) {
+                return oldValue;
+            }
+            e.head = new Version(version, value, head.version == version ? head.older : head);
+            trim(e);
+        } else {
+            if (value == TOMBSTONE) {
+                return TOMBSTONE;
+            }
+            oldValue = TOMBSTONE;
+            int i = hash & (tab.length() - 1);
+            // 新节点完整构建后才放入bin 读线程看到的节点字段都已初始化
+            tab.set(i, new Node<>(hash, key, new Version(version, value, null), tab.get(i)));
+            ++nodeCount;
+        }
+        if (oldValue == TOMBSTONE) {
+            ++size;
+        }
+        if (value == TOMBSTONE) {
+            --size;
+        }
+        return oldValue;
+    }
+
+    /**
+     * 原子地执行一批修改: 所有操作使用同一个版本号, 最后一次提交, 快照要么看到整批修改, 要么一个也看不到.
+     * 按最坏情况一次扩容, 按bin分组执行 见{@link HashMapWriteBatch}
+     * <p>
+     * merge的函数抛出异常时撤销本批已压入的版本 Map保持执行前的状态. Map自身的get(不通过快照)可能看到执行到一半的批
+     *
+     * @param batch 要执行的批 执行后不变
+     */
+    public void apply(HashMapWriteBatch<K, V> batch) {
+        int n = batch.size;
+        if (n == 0) {
+            return;
+        }
+        if (nodeCount + batch.insertions > threshold) {
+            resize(batch.insertions);
+        }
+        AtomicReferenceArray<Node<K>> tab = table;
+        int[] order = batch.groupByBin(HashMap::hash, tab.length());
+        int[] hashes = batch.hashes;
+        long version = currentVersion + 1;
+        int oldSize = size;
+        int j = 0;
+        try {
+            for (; j < n; ++j) {
+                int i = order[j];
+                K key = batch.key(i);
+                Object value = batch.value(i);
+                if (batch.ops[i] == HashMapWriteBatch.REMOVE) {
+                    value = TOMBSTONE;
+                } else if (batch.ops[i] == HashMapWriteBatch.MERGE) {
+                    Node<K> e = findNode(tab, hashes[i], key);
+                    Object old = e == null ? TOMBSTONE : e.head.value;
+                    if (old != TOMBSTONE && old != null) {
+                        @SuppressWarnings("unchecked")
+                        V merged = batch.function(i).apply((V)old, batch.value(i));
+                        value = merged == null ? TOMBSTONE : merged;
+                    }
+                }
+                push(tab, hashes[i], key, value, version);
+            }
+        } catch (Throwable t) {
+            // 撤销: 弹出本批压入的版本 本批新建的节点改为提交前就已删除
+            for (int k = 0; k < j; ++k) {
+                int i = order[k];
+                Node<K> e = findNode(tab, hashes[i], batch.key(i));
+                Version head;
+                if (e != null && (head = e.head).version == version) {
+                    e.head = head.older != null ? head.older : new Version(currentVersion, TOMBSTONE, null);
+                }
+            }
+            size = oldSize;
+            throw t;
+        }
+        currentVersion = version;
+        maintain();
+    }
+
+    /**
+     * 写线程每次修改后调用: 定期刷新最小活跃版本, 清理常数个bin, 必要时扩容
+     */
+    private void maintain() {
+        if (++writesSinceRefresh >= MIN_VERSION_REFRESH_INTERVAL) {
+            writesSinceRefresh = 0;
+            refreshMinActiveVersion();
+        }
+        AtomicReferenceArray<Node<K>> tab = table;
+        int n = tab.length();
+        for (int i = 0; i < SWEEP_BINS_PER_WRITE; ++i) {
+            sweep(tab, sweepIndex++ & (n - 1));
+        }
+        if (nodeCount > threshold) {
+            resize(0);
+        }
+    }
+
+    /**
+     * 最小活跃版本: 当前版本和所有快照版本中的最小值. 快照先登记再读取currentVersion, 所以没有被这里看到的快照的版本一定不小于这里读到的currentVersion;
+     * 已经登记还没有读取版本号的快照按-1处理, 本轮不截断任何版本
+     */
+    final void refreshMinActiveVersion() {
+        long min = currentVersion;
+        for (Pin p : pins) {
+            min = Math.min(min, p.version);
+        }
+        minActiveVersion = min;
+    }
+
+    /**
+     * 截断节点上任何快照都看不到的旧版本: 保留不大于minActiveVersion的最新版本, 丢弃它之前的版本
+     */
+    private void trim(Node<K> e) {
+        long min = minActiveVersion;
+        for (Version v = e.head; v != null; v = v.older) {
+            if (v.version <= min) {
+                if (v.older != null) { v.older = null; }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return 节点是否可以摘除: 最新版本是墓碑且所有快照都能看到它
+     */
+    private boolean dead(Node<K> e) {
+        Version head = e.head;
+        return head.value == TOMBSTONE && head.version <= minActiveVersion;
+    }
+
+    /**
+     * 截断bin中每个节点的旧版本 摘除已删除的节点. 读线程可能正停在被摘除的节点上, 所以不修改被摘除节点的next
+     */
+    private void sweep(AtomicReferenceArray<Node<K>> tab, int i) {
+        Node<K> prev = null;
+        for (Node<K> e = tab.get(i); e != null; e = e.next) {
+            if (dead(e)) {
+                if (prev == null) { tab.set(i, e.next); } else { prev.next = e.next; }
+                --nodeCount;
+            } else {
+                trim(e);
+                prev = e;
+            }
+        }
+    }
+
+    /**
+     * 复制节点到新数组(共享版本链), 丢弃可以摘除的节点. 读线程继续读取旧数组中的旧节点, 它们包含所有已提交的版本
+     *
+     * @param extra 之后还要插入的最多节点数
+     */
+    private void resize(int extra) {
+        refreshMinActiveVersion();
+        AtomicReferenceArray<Node<K>> oldTab = table;
+        int oldCapacity = oldTab.length();
+        int live = 0;
+        for (int i = 0; i < oldCapacity; ++i) {
+            for (Node<K> e = oldTab.get(i); e != null; e = e.next) {
+                if (!dead(e)) { ++live; }
+            }
+        }
+        int capacity = oldCapacity;
+        // 存活节点超过阈值的一半(或者放不下之后的插入)时扩大 否则只是按原容量丢弃已删除的节点
+        while ((live >= (int)(capacity * LOAD_FACTOR) / 2 || live + extra > (int)(capacity * LOAD_FACTOR)) &&
+            capacity < MAXIMUM_CAPACITY) {
+            capacity <<= 1;
+        }
+        AtomicReferenceArray<Node<K>> newTab = new AtomicReferenceArray<>(capacity);
+        for (int i = 0; i < oldCapacity; ++i) {
+            for (Node<K> e = oldTab.get(i); e != null; e = e.next) {
+                if (!dead(e)) {
+                    trim(e);
+                    int j = e.hash & (capacity - 1);
+                    newTab.lazySet(j, new Node<>(e.hash, e.key, e.head, newTab.get(j)));
+                }
+            }
+        }
+        nodeCount = live;
+        threshold = capacity < MAXIMUM_CAPACITY ? (int)(capacity * LOAD_FACTOR) : Integer.MAX_VALUE;
+        sweepIndex = 0;
+        // volatile写 新数组中的节点此前都已写入
+        table = newTab;
+    }
+
+    /**
+     * 删除所有key: 每个节点压入同一个版本的墓碑, 已有的快照仍然能看到clear之前的内容
+     */
+    @Override
+    public void clear() {
+        long version = currentVersion + 1;
+        AtomicReferenceArray<Node<K>> tab = table;
+        for (int i = 0; i < tab.length(); ++i) {
+            for (Node<K> e = tab.get(i); e != null; e = e.next) {
+                Version head = e.head;
+                if (head.value != TOMBSTONE) {
+                    e.head = new Version(version, TOMBSTONE, head);
+                    trim(e);
+                }
+            }
+        }
+        size = 0;
+        currentVersion = version;
+        maintain();
+    }
+
+    /**
+     * 取得当前版本的只读视图 用完必须关闭
+     */
+    public Snapshot snapshot() {
+        Pin pin = new Pin();
+        pins.add(pin);
+        // 先登记再读取版本号: 写线程要么看到这次登记, 要么它读到的currentVersion不大于这里读到的
+        pin.version = currentVersion;
+        return new Snapshot(pin);
+    }
+
+    /**
+     * @return 活跃(未关闭)的快照数
+     */
+    public int snapshotCount() {
+        return pins.size();
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K, V>> {
+        @Override
+        public int size() { return VersionedHashMap.this.size(); }
+
+        @Override
+        public void clear() { VersionedHashMap.this.clear(); }
+
+        @Override
+        public Iterator<Entry<K, V>> iterator() { return new VersionIterator(Long.MAX_VALUE, true); }
+    }
+
+    /**
+     * 遍历某个版本的所有元素 弱一致: 不会抛出ConcurrentModificationException
+     */
+    final class VersionIterator implements Iterator<Entry<K, V>> {
+        final AtomicReferenceArray<Node<K>> tab = table;
+        final long version;
+        final boolean mutable;
+        int index;
+        Node<K> next;
+        V nextValue;
+        K lastKey;
+        boolean canRemove;
+
+        VersionIterator(long version, boolean mutable) {
+            this.version = version;
+            this.mutable = mutable;
+            advance(null);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance(Node<K> e) {
+            for (; ; ) {
+                e = e == null ? null : e.next;
+                while (e == null && index < tab.length()) { e = tab.get(index++); }
+                if (e == null) {
+                    next = null;
+                    return;
+                }
+                Version v = versionAt(e.head, version);
+                if (present(v)) {
+                    next = e;
+                    nextValue = (V)v.value;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() { return next != null; }
+
+        @Override
+        public Entry<K, V> next() {
+            Node<K> e = next;
+            if (e == null) { throw new NoSuchElementException(); }
+            Entry<K, V> entry = mutable ? new WriteThroughEntry(e.key, nextValue) :
+                new SimpleImmutableEntry<>(e.key, nextValue);
+            lastKey = e.key;
+            canRemove = true;
+            advance(e);
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            if (!mutable) { throw new UnsupportedOperationException(); }
+            if (!canRemove) { throw new IllegalStateException(); }
+            canRemove = false;
+            VersionedHashMap.this.remove(lastKey);
+        }
+    }
+
+    final class WriteThroughEntry extends SimpleEntry<K, V> {
+        private static final long serialVersionUID = -3043618231542213718L;
+
+        WriteThroughEntry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+
+    /**
+     * 某个版本的只读视图: 读取不加锁, 看到的内容不随之后的修改变化. 可以在任意线程中使用, 关闭后不能再读取
+     */
+    public final class Snapshot extends AbstractMap<K, V> implements AutoCloseable {
+        private final Pin pin;
+        private final long version;
+        private volatile boolean closed;
+        private int size = -1;
+        private Set<Entry<K, V>> entrySet;
+
+        Snapshot(Pin pin) {
+            this.pin = pin;
+            this.version = pin.version;
+        }
+
+        /**
+         * @return 快照的版本号
+         */
+        public long version() {
+            return version;
+        }
+
+        private void ensureOpen() {
+            if (closed) {
+                throw new IllegalStateException("Snapshot closed");
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public V get(Object key) {
+            ensureOpen();
+            Node<K> e = findNode(table, HashMap.hash(key), key);
+            Version v;
+            return e != null && present(v = versionAt(e.head, version)) ? (V)v.value : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            ensureOpen();
+            Node<K> e = findNode(table, HashMap.hash(key), key);
+            return e != null && present(versionAt(e.head, version));
+        }
+
+        /**
+         * 第一次调用时遍历计数
+         */
+        @Override
+        public int size() {
+            ensureOpen();
+            int s = size;
+            if (s < 0) {
+                s = 0;
+                for (Iterator<Entry<K, V>> it = new VersionIterator(version, false); it.hasNext(); it.next()) { ++s; }
+                size = s;
+            }
+            return s;
+        }
+
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            Set<Entry<K, V>> es;
+            return (es = entrySet) == null ? (entrySet = new AbstractSet<Entry<K, V>>() {
+                @Override
+                public int size() { return Snapshot.this.size(); }
+
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    ensureOpen();
+                    return new VersionIterator(version, false);
+                }
+            }) : es;
+        }
+
+        /**
+         * 释放快照 它所需的旧版本在之后的写入中被回收. 重复关闭没有影响
+         */
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                pins.remove(pin);
+            }
+        }
+    }
+}
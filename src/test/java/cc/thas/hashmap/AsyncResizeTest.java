@@ -0,0 +1,228 @@
+package cc.thas.hashmap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashMapChangeLog;
+import java.util.HashMapStats;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link HashMap#useAsyncResize(java.util.concurrent.Executor)}
+ */
+public class AsyncResizeTest {
+
+    /**
+     * 手动执行的线程池: 测试可以决定后台扩容在哪两次操作之间完成
+     */
+    static final class ManualExecutor implements java.util.concurrent.Executor {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) { tasks.add(command); }
+
+        void runAll() {
+            for (Runnable r; (r = tasks.poll()) != null; ) { r.run(); }
+        }
+    }
+
+    /**
+     * 后台复制完成之后、publish之前 通过扩容前取得的Entry修改value, publish后不能丢失
+     */
+    @Test
+    public void setValueOnHeldEntryBeforePublish() {
+        ManualExecutor executor = new ManualExecutor();
+        HashMap<Integer, String> m = new HashMap<Integer, String>(1 << 14).useAsyncResize(executor);
+        m.put(-1, "old");
+        Map.Entry<Integer, String> held = m.entrySet().iterator().next();
+        int i = 0;
+        while (executor.tasks.isEmpty()) {
+            m.put(i++, "v");
+        }
+        int capacity = m.stats().getCapacity();
+        executor.runAll();
+        held.setValue("new");
+        assertEquals("new", m.get(-1));
+        m.put(i, "v");
+        assertEquals(capacity << 1, m.stats().getCapacity());
+        assertEquals("new", m.get(-1));
+        assertEquals("new", held.getValue());
+        // publish之后Entry仍然属于Map
+        held.setValue("newer");
+        assertEquals("newer", m.get(-1));
+    }
+
+    /**
+     * 被删除的key: Entry脱离Map, setValue不会把它重新放入
+     */
+    @Test
+    public void heldEntryOfRemovedKey() {
+        ManualExecutor executor = new ManualExecutor();
+        HashMap<Integer, String> m = new HashMap<Integer, String>(1 << 14).useAsyncResize(executor);
+        m.put(-1, "old");
+        Map.Entry<Integer, String> held = m.entrySet().iterator().next();
+        int i = 0;
+        while (executor.tasks.isEmpty()) {
+            m.put(i++, "v");
+        }
+        executor.runAll();
+        m.remove(-1);
+        m.put(i, "v");
+        held.setValue("new");
+        assertEquals(null, m.get(-1));
+        assertEquals(i + 1, m.size());
+    }
+
+    /**
+     * 可选的写路径功能共用一个开关: 关闭后台扩容和变更日志之后 写入不再提交任务、不再记录事件, 仍然开启的布隆过滤器照常更新
+     */
+    @Test
+    public void turningFeaturesOff() {
+        ManualExecutor executor = new ManualExecutor();
+        HashMapChangeLog<Integer, Integer> log = new HashMapChangeLog<>(1 << 16);
+        HashMap<Integer, Integer> m = new HashMap<Integer, Integer>(1 << 14)
+            .useAsyncResize(executor).useChangeLog(log).useBloomFilter();
+        HashMap<Integer, Integer> ref = new HashMap<>();
+        int i = 0;
+        while (executor.tasks.isEmpty()) {
+            m.put(i, i);
+            ref.put(i, i);
+            ++i;
+        }
+        executor.runAll();
+        m.put(i, i);
+        ref.put(i, i);
+        long logged = log.position();
+        assertEquals(i + 1, logged);
+        m.useAsyncResize(null).useChangeLog(null);
+        int capacity = m.stats().getCapacity();
+        for (++i; i < 200_000; ++i) {
+            m.put(i, i);
+            ref.put(i, i);
+        }
+        assertTrue(executor.tasks.isEmpty());
+        assertTrue(m.stats().getCapacity() > capacity);
+        assertEquals(logged, log.position());
+        for (int k = -100_000; k < 300_000; ++k) {
+            assertEquals(ref.get(k), m.get(k));
+        }
+        assertTrue(m.stats().getBloomFilterNegatives() > 0);
+        assertTrue(ref.equals(m));
+    }
+
+    /**
+     * key类型 v % 8 == 0 的key只有4096种hash值 (每个约12个key), 它们所在的bin会树化或变为紧凑bin
+     */
+    static final class Key implements Comparable<Key> {
+        final int v;
+
+        Key(int v) { this.v = v; }
+
+        @Override
+        public int hashCode() { return (v & 7) == 0 ? (v >>> 3) & 4095 : v; }
+
+        @Override
+        public boolean equals(Object o) { return o instanceof Key && ((Key)o).v == v; }
+
+        @Override
+        public int compareTo(Key o) { return Integer.compare(v, o.v); }
+
+        @Override
+        public String toString() { return "K" + v; }
+    }
+
+    /**
+     * 与TreeMap对比的随机操作序列, 真实的后台线程; 另外持有一批Entry跨越多次后台扩容, 定期通过它们setValue
+     */
+    @Test
+    public void differentialAgainstTreeMap() {
+        ExecutorService pool = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            for (int round = 0; round < 6; round++) {
+                differentialRound(round, pool);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void differentialRound(int round, ExecutorService pool) {
+        Random r = new Random(round);
+        HashMap<Key, Integer> m = new HashMap<>();
+        if (round % 2 == 1) {
+            m.useCompactBins();
+        }
+        if (round % 3 == 2) {
+            m.useNodeRecycling(256);
+        }
+        m.useAsyncResize(pool);
+        TreeMap<Key, Integer> ref = new TreeMap<>();
+        // 负数key不参与随机操作 对应的Entry一直属于Map
+        for (int k = -1; k >= -64; k--) {
+            m.put(new Key(k), k);
+            ref.put(new Key(k), k);
+        }
+        List<Map.Entry<Key, Integer>> held = new ArrayList<>();
+        for (Map.Entry<Key, Integer> e : m.entrySet()) {
+            held.add(e);
+        }
+        for (int i = 0; i < 300_000; i++) {
+            int kv = r.nextInt(200_000);
+            // 前两轮没有碰撞的key
+            Key k = new Key(round >= 2 ? kv : kv | 1);
+            Object x, y;
+            switch (r.nextInt(9)) {
+                case 0: case 1: case 2: x = m.put(k, i); y = ref.put(k, i); break;
+                case 3: x = m.remove(k); y = ref.remove(k); break;
+                case 4: x = m.merge(k, 1, Integer::sum); y = ref.merge(k, 1, Integer::sum); break;
+                case 5: x = m.computeIfAbsent(k, kk -> kk.v); y = ref.computeIfAbsent(k, kk -> kk.v); break;
+                case 6: x = m.replace(k, i); y = ref.replace(k, i); break;
+                case 7:
+                    x = m.computeIfPresent(k, (kk, v) -> (v & 1) == 0 ? null : (Integer)(v + 1));
+                    y = ref.computeIfPresent(k, (kk, v) -> (v & 1) == 0 ? null : (Integer)(v + 1));
+                    break;
+                default: x = m.get(k); y = ref.get(k);
+            }
+            assertTrue(round + ":" + i + " " + x + " " + y, Objects.equals(x, y));
+            if (i % 1000 == 0) {
+                Map.Entry<Key, Integer> e = held.get(r.nextInt(held.size()));
+                assertEquals(ref.get(e.getKey()), e.getValue());
+                e.setValue(i);
+                ref.put(e.getKey(), i);
+            }
+            if (i % 50_000 == 0) {
+                int n = 0;
+                for (Map.Entry<Key, Integer> e : m.entrySet()) {
+                    if ((n++ & 15) == 0) {
+                        e.setValue(-n);
+                        ref.put(e.getKey(), -n);
+                    }
+                }
+                assertTrue("iteration " + round + ":" + i, ref.equals(m));
+            }
+        }
+        assertEquals(ref.size(), m.size());
+        assertTrue("round " + round, ref.equals(m) && m.equals(ref));
+        HashMapStats stats = m.stats();
+        assertTrue("resizes " + stats, stats.getResizeCount() > 0);
+        if (round >= 2) {
+            assertTrue("collisions " + stats, stats.getMaxChainLength() >= 8 || stats.getTreeBins() > 0);
+        }
+    }
+}
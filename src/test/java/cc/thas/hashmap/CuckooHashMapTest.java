@@ -0,0 +1,103 @@
+package cc.thas.hashmap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.CuckooHashMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link CuckooHashMap}
+ */
+public class CuckooHashMapTest {
+
+    @SuppressWarnings("unchecked")
+    private static <T> T roundTrip(T o) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(o);
+        }
+        return (T)new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    }
+
+    /**
+     * 与HashMap对比的随机操作 包括null key、迭代器删除、克隆和序列化
+     */
+    @Test
+    public void differentialAgainstHashMap() throws Exception {
+        Random r = new Random(27);
+        CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>();
+        HashMap<Integer, Integer> ref = new HashMap<>();
+        for (int i = 0; i < 300_000; i++) {
+            Integer k = r.nextInt(50) == 0 ? null : r.nextInt(60_000);
+            switch (r.nextInt(6)) {
+                case 0: case 1: assertEquals(ref.put(k, i), m.put(k, i)); break;
+                case 2: assertEquals(ref.remove(k), m.remove(k)); break;
+                case 3: assertEquals(ref.putIfAbsent(k, i), m.putIfAbsent(k, i)); break;
+                default: assertEquals(ref.get(k), m.get(k));
+            }
+            assertEquals(ref.size(), m.size());
+        }
+        assertEquals(ref, m);
+        for (Iterator<Map.Entry<Integer, Integer>> it = m.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, Integer> e = it.next();
+            if (e.getKey() == null || (e.getKey() & 1) == 0) {
+                it.remove();
+            } else {
+                e.setValue(-e.getValue());
+            }
+        }
+        ref.entrySet().removeIf(e -> e.getKey() == null || (e.getKey() & 1) == 0);
+        ref.replaceAll((k, v) -> -v);
+        assertEquals(ref, m);
+        assertEquals(ref, m.clone());
+        assertEquals(ref, roundTrip(m));
+    }
+
+    /**
+     * hashCode相同的key超出两个桶和stash的容量: stash继续增长, 查找、删除仍然正确. 不能因此反复扩容
+     */
+    @Test(timeout = 10_000)
+    public void equalHashes() throws Exception {
+        String[] base = {"Aa", "BB"};
+        CuckooHashMap<String, Integer> m = new CuckooHashMap<>();
+        for (int i = 0; i < 512; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int b = 0; b < 9; b++) {
+                sb.append(base[(i >> b) & 1]);
+            }
+            m.put(sb.toString(), i);
+            m.put("other" + i, -i);
+        }
+        assertEquals(1024, m.size());
+        assertEquals(Integer.valueOf(0), m.get("AaAaAaAaAaAaAaAaAa"));
+        assertEquals(Integer.valueOf(511), m.get("BBBBBBBBBBBBBBBBBB"));
+        assertEquals(Integer.valueOf(-7), m.get("other7"));
+        // "C#"与"Aa"的hashCode相同 但不在Map中
+        assertNull(m.get("C#AaAaAaAaAaAaAaAa"));
+        assertFalse(m.containsKey("missing"));
+        CuckooHashMap<String, Integer> copy = roundTrip(m);
+        for (int i = 0; i < 512; i += 2) {
+            StringBuilder sb = new StringBuilder();
+            for (int b = 0; b < 9; b++) {
+                sb.append(base[(i >> b) & 1]);
+            }
+            assertEquals(Integer.valueOf(i), m.remove(sb.toString()));
+            assertTrue(copy.containsKey(sb.toString()));
+        }
+        assertEquals(768, m.size());
+        assertEquals(1024, copy.size());
+        assertEquals(Integer.valueOf(1), m.get("BBAaAaAaAaAaAaAaAa"));
+    }
+}
@@ -0,0 +1,126 @@
+package cc.thas.hashmap;
+
+import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
+import java.util.FrozenHashMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link FrozenHashMap}
+ */
+public class FrozenHashMapTest {
+
+    private static void assertSameMappings(Map<Object, Object> expected, FrozenHashMap<Object, Object> frozen) {
+        assertEquals(expected.size(), frozen.size());
+        assertTrue(frozen.equals(expected) && expected.equals(frozen));
+        assertEquals(expected.hashCode(), frozen.hashCode());
+        for (Map.Entry<Object, Object> e : expected.entrySet()) {
+            assertEquals(e.getValue(), frozen.get(e.getKey()));
+        }
+    }
+
+    /**
+     * 各种大小, 包括null key和hashCode相同的String(溢出区), 以及toBytes/fromBytes往返
+     */
+    @Test
+    public void roundTrip() throws Exception {
+        Random r = new Random(26);
+        for (int n : new int[]{0, 1, 2, 3, 10, 100, 1000, 100_000}) {
+            HashMap<Object, Object> m = new HashMap<>();
+            for (int i = 0; i < n; i++) {
+                Object k = r.nextInt(10) == 0 ? ("Aa" + i % 7).replace("Aa", r.nextBoolean() ? "Aa" : "BB") : (Object)r.nextInt();
+                m.put(k, i);
+            }
+            if (n > 0) {
+                m.put(null, "null");
+            }
+            FrozenHashMap<Object, Object> f = m.freeze();
+            assertSameMappings(m, f);
+            for (int i = 0; i < 1000; i++) {
+                Integer k = r.nextInt();
+                assertEquals(m.containsKey(k), f.containsKey(k));
+            }
+            assertSameMappings(m, FrozenHashMap.fromBytes(f.toBytes()));
+            assertEquals(m, f.thaw());
+        }
+    }
+
+    /**
+     * 1024个hashCode相同的String全部进入溢出区, 段内排序后二分
+     */
+    @Test
+    public void equalHashes() {
+        HashMap<Object, Object> m = new HashMap<>();
+        String[] base = {"Aa", "BB"};
+        for (int i = 0; i < 1024; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int b = 0; b < 10; b++) {
+                sb.append(base[(i >> b) & 1]);
+            }
+            m.put(sb.toString(), i);
+        }
+        FrozenHashMap<Object, Object> f = m.freeze();
+        assertSameMappings(m, f);
+        // "C#"与"Aa"的hashCode相同
+        assertEquals("AaAaAaAaAaAaAaAaAaAa".hashCode(), "C#AaAaAaAaAaAaAaAaAa".hashCode());
+        assertNull(f.get("C#AaAaAaAaAaAaAaAaAa"));
+    }
+
+    /**
+     * 使用identityHashCode的key在另一个JVM中hash值不同 加载时重新构建
+     */
+    @Test
+    public void identityHashedKeys() throws Exception {
+        HashMap<Object, Object> m = new HashMap<>();
+        m.put(TimeUnit.SECONDS, 1);
+        m.put(TimeUnit.DAYS, 2);
+        m.put("s", 3);
+        FrozenHashMap<Object, Object> f = FrozenHashMap.fromBytes(m.freeze().toBytes());
+        assertSameMappings(m, f);
+        assertFalse(f.containsKey(TimeUnit.HOURS));
+    }
+
+    /**
+     * 位移值超出槽位范围的数据在加载时拒绝, 而不是在之后的get中数组越界
+     */
+    @Test
+    public void rejectsOutOfRangeDisplacement() throws Exception {
+        HashMap<Object, Object> m = new HashMap<>();
+        for (int i = 0; i < 300; i++) {
+            m.put(i, i);
+        }
+        byte[] blob = m.freeze().toBytes();
+        // 300个不同的hash分到100个位移桶: 位移桶数量(int) 100个位移值(int) 槽位数量(int)
+        int at = -1;
+        ByteBuffer buf = ByteBuffer.wrap(blob);
+        for (int i = 0; i + 408 <= blob.length; i++) {
+            if (buf.getInt(i) == 100 && buf.getInt(i + 404) == 300) {
+                at = i + 4;
+                break;
+            }
+        }
+        assertTrue(at > 0);
+        for (int b = 0; b < 100; b++) {
+            byte[] corrupt = blob.clone();
+            ByteBuffer.wrap(corrupt).putInt(at + 4 * b, -1000);
+            try {
+                FrozenHashMap<Object, Object> f = FrozenHashMap.fromBytes(corrupt);
+                fail("bucket " + b + " accepted, get(-1) = " + f.get(-1));
+            } catch (InvalidObjectException expected) {
+                assertTrue(Objects.toString(expected.getMessage()), expected.getMessage() != null);
+            }
+        }
+    }
+}
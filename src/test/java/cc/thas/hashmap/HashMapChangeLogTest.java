@@ -0,0 +1,140 @@
+package cc.thas.hashmap;
+
+import java.util.HashMap;
+import java.util.HashMapChangeLog;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link HashMap#useChangeLog(HashMapChangeLog)}
+ */
+public class HashMapChangeLogTest {
+
+    private static <K, V> HashMapChangeLog.ChangeConsumer<K, V> replayInto(Map<K, V> replica) {
+        return (type, key, oldValue, newValue) -> {
+            switch (type) {
+                case INSERT:
+                    assertNull("duplicate insert of " + key, replica.put(key, newValue));
+                    break;
+                case UPDATE:
+                    assertTrue("update of missing " + key, replica.containsKey(key));
+                    assertEquals(oldValue, replica.put(key, newValue));
+                    break;
+                case REMOVE:
+                    assertTrue("remove of missing " + key, replica.containsKey(key));
+                    assertEquals(oldValue, replica.remove(key));
+                    break;
+                default:
+                    replica.clear();
+            }
+        };
+    }
+
+    /**
+     * 扩容、开启种子模式、以及碰撞过多自动切换hash时的重新散列都不是修改 不记录事件
+     */
+    @Test
+    public void rehashIsNotLogged() {
+        HashMapChangeLog<String, Integer> log = new HashMapChangeLog<>(1 << 12);
+        HashMap<String, Integer> m = new HashMap<String, Integer>().useChangeLog(log);
+        for (int i = 0; i < 100; ++i) {
+            m.put("k" + i, i);
+        }
+        assertEquals(100, log.position());
+        m.useSeededHashing();
+        assertEquals(100, log.position());
+        // hashCode相同的String 插入过程中切换hash并重新散列
+        String[] base = {"Aa", "BB"};
+        for (int i = 0; i < 64; ++i) {
+            StringBuilder sb = new StringBuilder();
+            for (int b = 0; b < 6; ++b) {
+                sb.append(base[(i >> b) & 1]);
+            }
+            m.put(sb.toString(), i);
+        }
+        assertEquals(164, log.position());
+    }
+
+    /**
+     * 按日志重放得到的Map与原Map相同 覆盖所有会修改value的方法
+     */
+    @Test
+    public void replayMatchesMap() {
+        Random r = new Random(43);
+        HashMapChangeLog<Integer, Integer> log = new HashMapChangeLog<>(1 << 14);
+        HashMap<Integer, Integer> m = new HashMap<Integer, Integer>().useChangeLog(log);
+        HashMapChangeLog<Integer, Integer>.Cursor cursor = log.newCursor();
+        TreeMap<Integer, Integer> replica = new TreeMap<>();
+        HashMapChangeLog.ChangeConsumer<Integer, Integer> consumer = replayInto(replica);
+        for (int i = 0; i < 200_000; ++i) {
+            Integer k = r.nextInt(3000), value = i;
+            switch (r.nextInt(8)) {
+                case 0: m.put(k, i); break;
+                case 1: m.remove(k); break;
+                case 2: m.merge(k, 1, Integer::sum); break;
+                case 3: m.compute(k, (key, v) -> v == null || (v & 1) == 0 ? value : null); break;
+                case 4: m.computeIfAbsent(k, key -> -key); break;
+                case 5: m.replace(k, i); break;
+                case 6: m.putIfAbsent(k, i); break;
+                default: m.computeIfPresent(k, (key, v) -> v + 1);
+            }
+            if (i % 50_000 == 10_000) {
+                for (Iterator<Map.Entry<Integer, Integer>> it = m.entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry<Integer, Integer> e = it.next();
+                    if ((e.getKey() & 3) == 0) {
+                        it.remove();
+                    } else {
+                        e.setValue(e.getValue() + 1);
+                    }
+                }
+            }
+            if (i % 50_000 == 30_000) {
+                m.replaceAll((key, v) -> v - key);
+            }
+            if (i == 120_000) {
+                m.clear();
+            }
+            if (r.nextInt(100) == 0) {
+                cursor.poll(consumer);
+            }
+        }
+        cursor.poll(consumer);
+        assertEquals(0, cursor.lost());
+        assertEquals(log.position(), cursor.position());
+        assertTrue(replica.equals(m));
+    }
+
+    /**
+     * 落后超过一圈的Cursor跳过被覆盖的事件 并计入lost
+     */
+    @Test
+    public void slowCursorLosesOverwrittenEvents() {
+        HashMapChangeLog<Integer, Integer> log = new HashMapChangeLog<>(100);
+        assertEquals(128, log.capacity());
+        HashMap<Integer, Integer> m = new HashMap<Integer, Integer>().useChangeLog(log);
+        HashMapChangeLog<Integer, Integer>.Cursor cursor = log.newCursor();
+        for (int i = 0; i < 1000; ++i) {
+            m.put(i, i);
+        }
+        int[] read = new int[1];
+        int[] first = {-1};
+        cursor.poll((type, key, oldValue, newValue) -> {
+            if (read[0]++ == 0) {
+                first[0] = key;
+            }
+            assertEquals(HashMapChangeLog.Type.INSERT, type);
+        });
+        assertEquals(1000, cursor.lost() + read[0]);
+        assertTrue(read[0] <= 128);
+        assertEquals(cursor.lost(), first[0]);
+        assertEquals(0, cursor.available());
+    }
+}
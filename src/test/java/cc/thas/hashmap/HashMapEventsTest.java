@@ -0,0 +1,75 @@
+package cc.thas.hashmap;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashMapMonitor;
+import java.util.HashSet;
+import java.util.Set;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link HashMapMonitor#enableFlightRecorderEvents()}
+ */
+public class HashMapEventsTest {
+
+    /**
+     * hashCode全部相同 不可比较
+     */
+    static final class CollidingKey {
+        final int id;
+
+        CollidingKey(int id) { this.id = id; }
+
+        @Override
+        public int hashCode() { return 7; }
+
+        @Override
+        public boolean equals(Object o) { return o instanceof CollidingKey && ((CollidingKey)o).id == id; }
+    }
+
+    /**
+     * 开启之后 录制中有扩容、树化和长探测链事件
+     */
+    @Test
+    public void recordingContainsMapEvents() throws Exception {
+        // 测试本身运行在覆盖后的HashMap上: 能执行到这里说明未开启时虚拟机启动和扩容都不需要JFR类
+        HashMapMonitor.enableFlightRecorderEvents();
+        File file = File.createTempFile("hashmap", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("java.util.HashMap.Resize");
+            recording.enable("java.util.HashMap.Treeify");
+            recording.enable("java.util.HashMap.LongProbe");
+            recording.start();
+            HashMap<Integer, Integer> plain = new HashMap<>();
+            for (int i = 0; i < 10_000; ++i) {
+                plain.put(i, i);
+            }
+            HashMap<CollidingKey, Integer> colliding = new HashMap<>(4);
+            for (int i = 0; i < 100; ++i) {
+                colliding.put(new CollidingKey(i), i);
+            }
+            assertEquals(10_000, plain.size());
+            assertEquals(100, colliding.size());
+            recording.stop();
+            recording.dump(file.toPath());
+        }
+        Set<String> types = new HashSet<>();
+        try {
+            for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+                types.add(event.getEventType().getName());
+            }
+        } finally {
+            assertTrue(file.delete());
+        }
+        assertTrue(types.toString(), types.contains("java.util.HashMap.Resize"));
+        assertTrue(types.toString(), types.contains("java.util.HashMap.Treeify"));
+        assertTrue(types.toString(), types.contains("java.util.HashMap.LongProbe"));
+    }
+}
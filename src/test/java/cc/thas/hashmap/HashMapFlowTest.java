@@ -0,0 +1,150 @@
+package cc.thas.hashmap;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashMapFlow;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link HashMapFlow}
+ */
+public class HashMapFlowTest {
+
+    /**
+     * 收集所有元素 每次request一个
+     */
+    static final class Collector<T> implements HashMapFlow.Subscriber<T> {
+        final List<T> items = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Throwable error;
+        HashMapFlow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(HashMapFlow.Subscription s) {
+            subscription = s;
+            s.request(1);
+        }
+
+        @Override
+        public void onNext(T item) {
+            items.add(item);
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() { done.countDown(); }
+    }
+
+    /**
+     * 发送的是不可修改的快照: 之后删除并重新插入同一个key(节点被回收复用) 已收到的元素不变
+     */
+    @Test(timeout = 10_000)
+    public void entriesAreImmutableSnapshots() throws Exception {
+        HashMap<Integer, Integer> m = new HashMap<Integer, Integer>().useNodeRecycling(1 << 12);
+        for (int i = 0; i < 1000; ++i) {
+            m.put(i, i);
+        }
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Collector<Map.Entry<Integer, Integer>> c = new Collector<>();
+            HashMapFlow.entries(m, executor).subscribe(c);
+            assertTrue(c.done.await(5, TimeUnit.SECONDS));
+            assertNull(c.error);
+            assertEquals(1000, c.items.size());
+            for (int i = 0; i < 1000; ++i) {
+                m.remove(i);
+                m.put(i, -i);
+            }
+            HashMap<Integer, Integer> seen = new HashMap<>();
+            for (Map.Entry<Integer, Integer> e : c.items) {
+                assertTrue(e.getClass().getName(), e instanceof AbstractMap.SimpleImmutableEntry);
+                assertEquals(e.getKey(), e.getValue());
+                seen.put(e.getKey(), e.getValue());
+                try {
+                    e.setValue(1);
+                    fail();
+                } catch (UnsupportedOperationException expected) {
+                    assertEquals(Integer.valueOf(-e.getKey()), m.get(e.getKey()));
+                }
+            }
+            assertEquals(1000, seen.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 在onNext中修改Map: 以ConcurrentModificationException结束 不再发送之后的批
+     */
+    @Test
+    public void modificationInOnNextFailsFast() {
+        HashMap<Integer, Integer> m = new HashMap<>();
+        for (int i = 0; i < 1000; ++i) {
+            m.put(i, i);
+        }
+        List<Object> events = new ArrayList<>();
+        HashMapFlow.batches(m, 100, null).subscribe(new HashMapFlow.Subscriber<List<Map.Entry<Integer, Integer>>>() {
+            @Override
+            public void onSubscribe(HashMapFlow.Subscription s) { s.request(5); }
+
+            @Override
+            public void onNext(List<Map.Entry<Integer, Integer>> batch) {
+                events.add(batch.size());
+                if (events.size() == 2) {
+                    m.put(5000, 1);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) { events.add(throwable.getClass()); }
+
+            @Override
+            public void onComplete() { events.add("complete"); }
+        });
+        assertEquals(Arrays.asList(100, 100, ConcurrentModificationException.class), events);
+    }
+
+    /**
+     * 拆分后的发布方合起来恰好覆盖所有元素
+     */
+    @Test
+    public void splitCoversAllEntries() throws Exception {
+        HashMap<String, Integer> m = new HashMap<>();
+        for (int i = 0; i < 5000; ++i) {
+            m.put("k" + i, i);
+        }
+        HashMap<String, Integer> seen = new HashMap<>();
+        for (HashMapFlow.Publisher<Map.Entry<String, Integer>> p : HashMapFlow.split(HashMapFlow.entries(m, null), 7)) {
+            Collector<Map.Entry<String, Integer>> c = new Collector<>();
+            p.subscribe(c);
+            assertTrue(c.done.await(5, TimeUnit.SECONDS));
+            assertNull(c.error);
+            for (Map.Entry<String, Integer> e : c.items) {
+                assertNull(seen.put(e.getKey(), e.getValue()));
+            }
+        }
+        assertEquals(m, seen);
+    }
+}
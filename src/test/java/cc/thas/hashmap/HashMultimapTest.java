@@ -0,0 +1,103 @@
+package cc.thas.hashmap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMultimap;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link HashMultimap}
+ */
+public class HashMultimapTest {
+
+    /**
+     * 把key自己的视图加入自己: 先复制 每个value加入一次
+     */
+    @Test(timeout = 10_000)
+    public void addAllOfOwnView() {
+        HashMultimap<String, Integer> m = new HashMultimap<>();
+        m.put("k", 1);
+        m.put("k", 2);
+        assertTrue(m.get("k").addAll(m.get("k")));
+        assertEquals(Arrays.asList(1, 2, 1, 2), m.get("k"));
+        assertEquals(4, m.size());
+        // 只有一个内联value时同样
+        m.put("single", 3);
+        assertTrue(m.putAll("single", m.get("single")));
+        assertEquals(Arrays.asList(3, 3), m.get("single"));
+        assertEquals(6, m.size());
+    }
+
+    @Test(timeout = 10_000)
+    public void putAllFromAnotherKeysView() {
+        HashMultimap<String, Integer> m = new HashMultimap<>();
+        m.putAll("a", Arrays.asList(1, 2, 3));
+        assertTrue(m.putAll("b", m.get("a")));
+        assertEquals(Arrays.asList(1, 2, 3), m.get("b"));
+        assertFalse(m.putAll("c", Collections.emptyList()));
+        assertFalse(m.containsKey("c"));
+        assertEquals(6, m.size());
+    }
+
+    @Test
+    public void inlineAndArrayValues() {
+        HashMultimap<String, String> m = new HashMultimap<>();
+        assertTrue(m.put("a", null));
+        assertTrue(m.put("a", "x"));
+        assertTrue(m.put("b", "y"));
+        assertEquals(Arrays.asList(null, "x"), m.get("a"));
+        assertTrue(m.containsEntry("a", null));
+        assertTrue(m.remove("a", null));
+        assertTrue(m.remove("a", "x"));
+        assertFalse(m.containsKey("a"));
+        assertEquals(1, m.size());
+        assertEquals(1, m.keyCount());
+        assertEquals(Collections.singletonList("y"), m.removeAll("b"));
+        assertTrue(m.isEmpty());
+    }
+
+    /**
+     * 内联的value按Object输出: null输出为"null", char[]不按内容输出 与数组中的value一致
+     */
+    @Test
+    public void toStringOfInlineValues() {
+        HashMultimap<String, Object> m = new HashMultimap<>();
+        m.put("a", null);
+        assertEquals("{a=[null]}", m.toString());
+        char[] chars = {'x', 'y'};
+        m.removeAll("a");
+        m.put("c", chars);
+        assertEquals("{c=[" + chars + "]}", m.toString());
+        m.put("c", chars);
+        assertEquals("{c=[" + chars + ", " + chars + "]}", m.toString());
+    }
+
+    @Test
+    public void serializationRoundTrip() throws Exception {
+        HashMultimap<Integer, Integer> m = new HashMultimap<>();
+        for (int i = 0; i < 1000; ++i) {
+            m.put(i % 300, i);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(m);
+        }
+        @SuppressWarnings("unchecked")
+        HashMultimap<Integer, Integer> copy = (HashMultimap<Integer, Integer>)new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(m, copy);
+        assertEquals(m.hashCode(), copy.hashCode());
+        List<Integer> values = copy.get(7);
+        assertEquals(Arrays.asList(7, 307, 607, 907), values);
+    }
+}
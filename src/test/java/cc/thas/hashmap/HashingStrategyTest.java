@@ -0,0 +1,75 @@
+package cc.thas.hashmap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.FrozenHashMap;
+import java.util.HashMap;
+import java.util.HashingStrategy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link HashingStrategy}
+ */
+public class HashingStrategyTest {
+
+    private static HashMap<byte[], Integer> byteArrayMap(int n) {
+        HashMap<byte[], Integer> m = new HashMap<>(HashingStrategy.byteArray());
+        for (int i = 0; i < n; ++i) {
+            m.put(("key-" + i).getBytes(StandardCharsets.UTF_8), i);
+        }
+        return m;
+    }
+
+    /**
+     * 内容相同的byte[] key: 两个Map相等 hashCode也相等 (包括冻结之后)
+     */
+    @Test
+    public void equalContentsHaveEqualHashCodes() {
+        HashMap<byte[], Integer> a = byteArrayMap(1000), b = byteArrayMap(1000);
+        assertTrue(a.equals(b) && b.equals(a));
+        assertEquals(a.hashCode(), b.hashCode());
+        FrozenHashMap<byte[], Integer> fa = a.freeze(), fb = b.freeze();
+        assertTrue(fa.equals(fb) && fb.equals(fa));
+        assertEquals(fa.hashCode(), fb.hashCode());
+        assertEquals(a.hashCode(), fa.hashCode());
+        b.put("key-0".getBytes(StandardCharsets.UTF_8), -1);
+        assertFalse(a.equals(b));
+    }
+
+    @Test
+    public void lookupByContent() throws Exception {
+        HashMap<byte[], Integer> m = byteArrayMap(100);
+        assertEquals(Integer.valueOf(42), m.get("key-42".getBytes(StandardCharsets.UTF_8)));
+        assertNull(m.get("key-100".getBytes(StandardCharsets.UTF_8)));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(m);
+        }
+        @SuppressWarnings("unchecked")
+        HashMap<byte[], Integer> copy = (HashMap<byte[], Integer>)new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(m, copy);
+        assertEquals(m.hashCode(), copy.hashCode());
+        assertEquals(Integer.valueOf(7), copy.get("key-7".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void caseInsensitive() {
+        HashMap<String, Integer> a = new HashMap<>(HashingStrategy.caseInsensitive());
+        HashMap<String, Integer> b = new HashMap<>(HashingStrategy.caseInsensitive());
+        a.put("Hello", 1);
+        b.put("hELLO", 1);
+        assertEquals(Integer.valueOf(1), a.get("HELLO"));
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+    }
+}
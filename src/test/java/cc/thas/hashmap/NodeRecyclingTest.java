@@ -0,0 +1,177 @@
+package cc.thas.hashmap;
+
+import java.lang.management.ManagementFactory;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link HashMap#useNodeRecycling(int)}
+ */
+public class NodeRecyclingTest {
+
+    /**
+     * 删除后再次插入同一个key对象: 之前交给调用方的Entry仍然脱离Map
+     */
+    @Test
+    public void heldEntryIsNotReattached() {
+        HashMap<String, String> m = new HashMap<String, String>().useNodeRecycling(16);
+        String k = "k";
+        m.put(k, "a");
+        Map.Entry<String, String> held = m.entrySet().iterator().next();
+        m.remove(k);
+        m.put(k, "b");
+        assertEquals("a", held.getValue());
+        held.setValue("c");
+        assertEquals("b", m.get(k));
+    }
+
+    /**
+     * 相等但不是同一个对象的key不复用节点 Map中保存的是新插入的key对象
+     */
+    @Test
+    public void equalKeyKeepsNewKeyObject() {
+        HashMap<String, Integer> m = new HashMap<String, Integer>().useNodeRecycling(16);
+        String first = new String("key"), second = new String("key");
+        m.put(first, 1);
+        m.remove(first);
+        m.put(second, 2);
+        assertSame(second, m.keySet().iterator().next());
+        assertNotSame(first, m.keySet().iterator().next());
+        assertEquals(Integer.valueOf(2), m.get(first));
+    }
+
+    /**
+     * 与不开启回收的HashMap对比的随机增删 包括clear和迭代器的删除
+     */
+    @Test
+    public void churnMatchesPlainHashMap() {
+        Random r = new Random(36);
+        Integer[] keys = new Integer[4096];
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = i * 31;
+        }
+        HashMap<Integer, Integer> m = new HashMap<Integer, Integer>().useNodeRecycling(256);
+        HashMap<Integer, Integer> ref = new HashMap<>();
+        for (int i = 0; i < 500_000; ++i) {
+            Integer k = keys[r.nextInt(keys.length)];
+            switch (r.nextInt(4)) {
+                case 0: case 1: assertEquals(ref.put(k, i), m.put(k, i)); break;
+                case 2: assertEquals(ref.remove(k), m.remove(k)); break;
+                default: assertEquals(ref.get(k), m.get(k));
+            }
+            if (i % 100_000 == 99_999) {
+                for (Iterator<Integer> it = m.keySet().iterator(); it.hasNext(); ) {
+                    if ((it.next() & 1) == 0) {
+                        it.remove();
+                    }
+                }
+                ref.keySet().removeIf(x -> (x & 1) == 0);
+            }
+            if (i == 250_000) {
+                m.clear();
+                ref.clear();
+            }
+        }
+        assertEquals(ref, m);
+    }
+
+    /**
+     * forEach中删除当前key: 节点可能被回收 不能再沿next走下去
+     */
+    @Test
+    public void forEachRemovingCurrentKeyFailsFast() {
+        HashMap<Integer, Integer> m = new HashMap<Integer, Integer>().useNodeRecycling(16);
+        for (int i = 0; i < 100; ++i) {
+            m.put(i, i);
+        }
+        try {
+            m.forEach((k, v) -> m.remove(k));
+            fail();
+        } catch (ConcurrentModificationException expected) {
+            assertEquals(99, m.size());
+        }
+    }
+
+    /**
+     * 函数中删除了当前key: 节点可能已被回收复用, 不能再把结果写入它
+     */
+    @Test
+    public void computeRemovingCurrentKeyFailsFast() {
+        HashMap<Integer, Integer> m = new HashMap<Integer, Integer>().useNodeRecycling(16);
+        m.put(1, 1);
+        m.put(2, 2);
+        try {
+            m.compute(1, (k, v) -> {
+                m.remove(k);
+                m.put(k, 10);
+                return v + 1;
+            });
+            fail();
+        } catch (ConcurrentModificationException expected) {
+            assertEquals(Integer.valueOf(10), m.get(1));
+        }
+        try {
+            m.merge(2, 5, (a, b) -> {
+                m.remove(2);
+                return a + b;
+            });
+            fail();
+        } catch (ConcurrentModificationException expected) {
+            assertEquals(1, m.size());
+        }
+        try {
+            m.computeIfPresent(1, (k, v) -> m.remove(k) + 1);
+            fail();
+        } catch (ConcurrentModificationException expected) {
+            assertTrue(m.isEmpty());
+        }
+    }
+
+    /**
+     * 同一批key反复删除、插入时 开启回收后几乎不再分配节点
+     */
+    @Test
+    public void reinsertingSameKeysDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        long plain = churnAllocation(new HashMap<>(), threads);
+        long recycling = churnAllocation(new HashMap<>().useNodeRecycling(2048), threads);
+        assertTrue(plain + " " + recycling, recycling * 4 < plain);
+    }
+
+    private static long churnAllocation(HashMap<Object, Object> m, com.sun.management.ThreadMXBean threads) {
+        int size = 8192, batch = 1024;
+        Integer[] keys = new Integer[size + batch];
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = i;
+        }
+        for (int i = 0; i < size; ++i) {
+            m.put(keys[i], keys[i]);
+        }
+        long allocated = 0;
+        for (int round = 0; round < 3; ++round) {
+            long start = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            for (int c = 0; c < 200_000; ++c) {
+                int j = c % keys.length;
+                m.remove(keys[j]);
+                m.put(keys[(j + size) % keys.length], keys[j]);
+            }
+            allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - start;
+        }
+        assertEquals(size, m.size());
+        return allocated;
+    }
+}
@@ -0,0 +1,167 @@
+package cc.thas.hashmap;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ReferenceHashMap;
+import java.util.ReferenceHashMap.Strength;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ReferenceHashMap}
+ */
+public class ReferenceHashMapTest {
+
+    /**
+     * 每7个key的hashCode相同 不可比较
+     */
+    static final class CollidingKey {
+        final int id;
+
+        CollidingKey(int id) { this.id = id; }
+
+        @Override
+        public int hashCode() { return id % 7; }
+
+        @Override
+        public boolean equals(Object o) { return o instanceof CollidingKey && ((CollidingKey)o).id == id; }
+    }
+
+    /**
+     * 每3个key的hashCode相同 可比较
+     */
+    static final class ComparableKey implements Comparable<ComparableKey> {
+        final int id;
+
+        ComparableKey(int id) { this.id = id; }
+
+        @Override
+        public int hashCode() { return id % 3; }
+
+        @Override
+        public boolean equals(Object o) { return o instanceof ComparableKey && ((ComparableKey)o).id == id; }
+
+        @Override
+        public int compareTo(ComparableKey o) { return Integer.compare(id, o.id); }
+    }
+
+    private static void gc() throws InterruptedException {
+        for (int i = 0; i < 5; ++i) {
+            System.gc();
+            Thread.sleep(20);
+        }
+    }
+
+    private static Object key(int kind, int i) {
+        switch (kind) {
+            case 0: return new String("k" + i);
+            case 1: return new ComparableKey(i);
+            default: return new CollidingKey(i);
+        }
+    }
+
+    /**
+     * 弱引用key: 普通bin、可比较key的红黑树、不可比较key的红黑树和紧凑bin. 被回收的key消失, 迭代期间的查找不抛出异常,
+     * 之后插入相等的新key不受旧引用影响, 与普通HashMap相等
+     */
+    @Test
+    public void weakKeys() throws Exception {
+        for (int kind = 0; kind < 4; ++kind) {
+            ReferenceHashMap<Object, Object> m = ReferenceHashMap.weakKeys();
+            if (kind == 3) {
+                m.useCompactBins();
+            }
+            int n = 2000;
+            Object[] keys = new Object[n];
+            for (int i = 0; i < n; ++i) {
+                keys[i] = key(Math.min(kind, 2), i);
+                m.put(keys[i], i);
+            }
+            for (int i = 1; i < n; i += 2) {
+                keys[i] = null;
+            }
+            gc();
+            int seen = 0;
+            for (Map.Entry<Object, Object> e : m.entrySet()) {
+                m.get(keys[(seen * 2) % n]);
+                assertSame(keys[(Integer)e.getValue()], e.getKey());
+                ++seen;
+            }
+            assertEquals(n / 2, seen);
+            assertEquals(n / 2, m.size());
+            for (int i = 0; i < n; i += 2) {
+                assertEquals(i, m.get(keys[i]));
+            }
+            for (int i = 1; i < n; i += 2) {
+                keys[i] = key(Math.min(kind, 2), i);
+                assertNull(m.put(keys[i], -i));
+            }
+            assertEquals(n, m.size());
+            // 节点中保存的是引用对象: 与普通HashMap比较时取出引用的对象
+            HashMap<Object, Object> copy = new HashMap<>(m);
+            assertTrue(copy.equals(m) && m.equals(copy));
+            assertEquals(copy.hashCode(), m.hashCode());
+            copy = null;
+            Arrays.fill(keys, null);
+            gc();
+            assertEquals(0, m.size());
+            assertTrue(m.isEmpty());
+        }
+    }
+
+    /**
+     * 弱引用value: 被覆盖的旧value之后被回收 不影响新value
+     */
+    @Test
+    public void weakValues() throws Exception {
+        ReferenceHashMap<Object, Object> m = ReferenceHashMap.weakValues();
+        Object[] values = new Object[1000];
+        for (int i = 0; i < 1000; ++i) {
+            values[i] = new Object();
+            m.put(i, values[i]);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            values[i] = null;
+        }
+        for (int i = 0; i < 100; i += 2) {
+            values[i] = new Object();
+            m.put(i, values[i]);
+        }
+        gc();
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(values[i] != null, m.containsKey(i));
+            assertSame(values[i], m.get(i));
+        }
+        assertEquals(550, m.size());
+    }
+
+    /**
+     * value的引用对象不持有key的强引用
+     */
+    @Test
+    public void valueReferenceDoesNotHoldKey() throws Exception {
+        ReferenceHashMap<Object, Object> m = new ReferenceHashMap<>(Strength.WEAK, Strength.SOFT);
+        Object key = new Object();
+        m.put(key, new Object());
+        m.put(key, new String("x"));
+        key = null;
+        gc();
+        assertEquals(0, m.size());
+    }
+
+    @Test
+    public void softValuesSurviveGc() throws Exception {
+        ReferenceHashMap<Object, Object> m = ReferenceHashMap.softValues();
+        for (int i = 0; i < 100; ++i) {
+            m.put(i, new Object());
+        }
+        gc();
+        assertEquals(100, m.size());
+    }
+}
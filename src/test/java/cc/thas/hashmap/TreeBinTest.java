@@ -0,0 +1,74 @@
+package cc.thas.hashmap;
+
+import java.lang.reflect.Constructor;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 红黑树bin中不能按compareTo比较的key: 由tieBreakOrder决定顺序, 插入和查找必须走同一边
+ */
+public class TreeBinTest {
+
+    /**
+     * hashCode全部相同 同一个类的实例之间按value比较
+     */
+    public static final class Key implements Comparable<Key> {
+        final int value;
+
+        public Key(int value) { this.value = value; }
+
+        @Override
+        public int hashCode() { return 42; }
+
+        @Override
+        public boolean equals(Object o) { return o instanceof Key && ((Key)o).value == value; }
+
+        @Override
+        public int compareTo(Key o) { return Integer.compare(value, o.value); }
+    }
+
+    private static Class<?> loadSeparately() throws Exception {
+        URL location = Key.class.getProtectionDomain().getCodeSource().getLocation();
+        return new URLClassLoader(new URL[]{location}, null).loadClass(Key.class.getName());
+    }
+
+    /**
+     * 两个类加载器分别加载的同名Comparable类混在一个bin中, 加上null key: 不产生重复的key, 每个key都能找到
+     */
+    @Test
+    public void sameNameClassesFromTwoLoaders() throws Exception {
+        Class<?> c1 = loadSeparately(), c2 = loadSeparately();
+        assertNotSame(c1, c2);
+        assertEquals(c1.getName(), c2.getName());
+        Constructor<?> k1 = c1.getConstructor(int.class), k2 = c2.getConstructor(int.class);
+        for (int seed = 0; seed < 300; ++seed) {
+            Random r = new Random(seed);
+            HashMap<Object, Integer> m = new HashMap<>(64);
+            List<Object> keys = new ArrayList<>();
+            HashSet<String> distinct = new HashSet<>();
+            for (int i = 0; i < 40; ++i) {
+                int value = r.nextInt(1000);
+                boolean first = r.nextBoolean();
+                Object k = r.nextInt(20) == 0 ? null : (first ? k1 : k2).newInstance(value);
+                keys.add(k);
+                distinct.add(k == null ? "null" : first + ":" + value);
+                m.put(k, i);
+            }
+            for (Object k : keys) {
+                assertTrue("seed " + seed, m.containsKey(k));
+            }
+            assertEquals("seed " + seed, distinct.size(), m.size());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package cc.thas.hashmap;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.VersionedHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link VersionedHashMap}
+ */
+public class VersionedHashMapTest {
+
+    /**
+     * 单线程: 每个快照看到的内容与创建时复制的HashMap相同, 包括删除、clear和版本截断之后
+     */
+    @Test
+    public void snapshotsMatchCopies() {
+        Random r = new Random(45);
+        VersionedHashMap<Integer, Integer> m = new VersionedHashMap<>();
+        HashMap<Integer, Integer> ref = new HashMap<>();
+        Map<VersionedHashMap<Integer, Integer>.Snapshot, HashMap<Integer, Integer>> open = new IdentityHashMap<>();
+        for (int i = 0; i < 200_000; ++i) {
+            Integer k = r.nextInt(5000);
+            if (r.nextInt(3) == 0) {
+                assertEquals(ref.remove(k), m.remove(k));
+            } else {
+                assertEquals(ref.put(k, i), m.put(k, i));
+            }
+            if (i % 20_000 == 0) {
+                open.put(m.snapshot(), new HashMap<>(ref));
+            }
+            if (i == 150_000) {
+                m.clear();
+                ref.clear();
+            }
+        }
+        assertEquals(ref, m);
+        for (Map.Entry<VersionedHashMap<Integer, Integer>.Snapshot, HashMap<Integer, Integer>> e : open.entrySet()) {
+            VersionedHashMap<Integer, Integer>.Snapshot s = e.getKey();
+            assertTrue("version " + s.version(), e.getValue().equals(s));
+            for (int k = 0; k < 5000; k += 7) {
+                assertEquals(e.getValue().get(k), s.get(k));
+            }
+            s.close();
+        }
+        try {
+            open.keySet().iterator().next().get(1);
+            fail();
+        } catch (IllegalStateException expected) {
+            assertEquals(0, m.snapshotCount());
+        }
+    }
+
+    /**
+     * 一个写线程和两个读线程: 第W次写入把key W % KEYS设为W, 所以快照中每个key的value都由快照的版本号唯一确定
+     */
+    @Test(timeout = 60_000)
+    public void concurrentSnapshotsAreConsistent() throws Exception {
+        final int keys = 1000;
+        final VersionedHashMap<Integer, Long> m = new VersionedHashMap<>();
+        for (long w = 1; w <= keys; ++w) {
+            m.put((int)(w % keys), w);
+        }
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong checks = new AtomicLong();
+        AtomicReference<String> error = new AtomicReference<>();
+        Thread[] readers = new Thread[2];
+        for (int t = 0; t < readers.length; ++t) {
+            readers[t] = new Thread(() -> {
+                while (!stop.get() && error.get() == null) {
+                    try (VersionedHashMap<Integer, Long>.Snapshot s = m.snapshot()) {
+                        long v = s.version();
+                        int count = 0;
+                        for (Map.Entry<Integer, Long> e : s.entrySet()) {
+                            ++count;
+                            long expected = v - Math.floorMod(v - e.getKey(), keys);
+                            if (e.getValue() != expected) {
+                                error.compareAndSet(null, "version " + v + " key " + e.getKey() + ": " + e.getValue());
+                            }
+                        }
+                        for (int k = 0; k < keys; k += 97) {
+                            long expected = v - Math.floorMod(v - k, keys);
+                            if (s.get(k) != expected) {
+                                error.compareAndSet(null, "version " + v + " get " + k + ": " + s.get(k));
+                            }
+                        }
+                        if (count != keys) {
+                            error.compareAndSet(null, "version " + v + " size " + count);
+                        }
+                        checks.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        error.compareAndSet(null, e.toString());
+                    }
+                }
+            });
+            readers[t].start();
+        }
+        long start = System.nanoTime();
+        int writes = 0;
+        while ((System.nanoTime() - start < 2_000_000_000L || checks.get() < 100) && error.get() == null) {
+            long w = m.version() + 1;
+            m.put((int)(w % keys), w);
+            if ((++writes & 1023) == 0) {
+                Thread.yield();
+            }
+        }
+        stop.set(true);
+        for (Thread t : readers) {
+            t.join();
+        }
+        assertNull(error.get());
+        assertEquals(0, m.snapshotCount());
+    }
+}